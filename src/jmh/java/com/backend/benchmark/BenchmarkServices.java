@@ -0,0 +1,144 @@
+package com.backend.benchmark;
+
+import com.backend.config.CacheProperties;
+import com.backend.config.EngineProperties;
+import com.backend.config.FilterProperties;
+import com.backend.config.IndexProperties;
+import com.backend.config.IngestProperties;
+import com.backend.config.ParallelProperties;
+import com.backend.config.PlannerProperties;
+import com.backend.config.QueryProperties;
+import com.backend.config.RecordStoreProperties;
+import com.backend.config.RowCacheProperties;
+import com.backend.config.SketchProperties;
+import com.backend.config.StorageProperties;
+import com.backend.config.ViewProperties;
+import com.backend.config.WriteBehindProperties;
+import com.backend.repository.DatasetRecordRepository;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.cache.QueryResultCache;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.columnar.ColumnarEngine;
+import com.backend.service.impl.DatasetServiceImpl;
+import com.backend.service.index.FieldIndexService;
+import com.backend.service.ingest.BulkRecordWriter;
+import com.backend.service.ingest.WriteBehindBuffer;
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.plan.QueryPlanner;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.rows.ParsedRowCache;
+import com.backend.service.stats.DatasetStatisticsService;
+import com.backend.service.store.JpaRecordStore;
+import com.backend.service.store.RecordStore;
+import com.backend.service.store.SegmentRecordStore;
+import com.backend.service.view.GroupByViewService;
+import jakarta.persistence.EntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Wires a {@link DatasetServiceImpl} over {@link InMemoryRecords} without Spring, reading them
+ * through the JPA record store or from segment files in a temporary directory. The result
+ * cache is off so every call does the work; field indexes are never usable, and the row count of
+ * a dataset is its number of records. The collaborators that touch the database are stub-only
+ * mocks, which do not record their invocations.
+ */
+public final class BenchmarkServices {
+
+    /**
+     * How queries reach the rows: a scan of the records, the parsed-row cache, or the columnar
+     * engine over the parsed-row cache.
+     */
+    public enum Engine {
+        SCAN, ROWS, COLUMNAR
+    }
+
+    private final DatasetServiceImpl service;
+    private final ParallelQueryExecutor parallelExecutor;
+    private SegmentRecordStore segmentStore;
+    private Path segmentDirectory;
+
+    public BenchmarkServices(InMemoryRecords records, Engine engine, boolean parallel, StorageProperties storageProperties,
+                             RecordStoreProperties.Engine store) throws IOException {
+        DatasetRecordRepository repository = records.repository();
+        EntityManager entityManager = records.entityManager();
+        RecordStore recordStore;
+        if (store == RecordStoreProperties.Engine.SEGMENT) {
+            segmentDirectory = Files.createTempDirectory("bench-segments");
+            segmentStore = records.segmentStore(segmentDirectory);
+            recordStore = segmentStore;
+        } else {
+            recordStore = new JpaRecordStore(repository, entityManager, mock(JdbcTemplate.class, withSettings().stubOnly()));
+        }
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class, withSettings().stubOnly());
+        FieldIndexService fieldIndexService = mock(FieldIndexService.class, withSettings().stubOnly());
+        DatasetRegistry datasetRegistry = mock(DatasetRegistry.class, withSettings().stubOnly());
+        when(datasetRegistry.getRowCount(anyString())).thenAnswer(invocation -> records.count(invocation.getArgument(0)));
+
+        ParallelProperties parallelProperties = new ParallelProperties();
+        parallelProperties.setEnabled(parallel);
+        parallelExecutor = new ParallelQueryExecutor(parallelProperties);
+
+        CacheProperties cacheProperties = new CacheProperties();
+        cacheProperties.setEnabled(false);
+        QueryResultCache resultCache = new QueryResultCache(cacheProperties);
+
+        RowCacheProperties rowCacheProperties = new RowCacheProperties();
+        rowCacheProperties.setEnabled(engine != Engine.SCAN);
+        rowCacheProperties.setMaxMemory(DataSize.ofGigabytes(4));
+        ParsedRowCache rowCache = new ParsedRowCache(recordStore, transactionManager, rowCacheProperties,
+                datasetRegistry, parallelExecutor);
+
+        EngineProperties engineProperties = new EngineProperties();
+        if (engine == Engine.COLUMNAR) engineProperties.setDefaultEngine(EngineProperties.Engine.COLUMNAR);
+
+        // the benchmark picks the engine itself: the planner takes the first strategy able to run
+        // each query, in its fixed order, and collects no statistics
+        PlannerProperties plannerProperties = new PlannerProperties();
+        plannerProperties.setEnabled(false);
+        plannerProperties.setStatistics(false);
+        QueryProperties queryProperties = new QueryProperties();
+        // the sortBy benchmark measures the buffered sort at any -p rows
+        queryProperties.getSort().setMaxBufferedRows(Integer.MAX_VALUE);
+        ColumnarEngine columnarEngine = new ColumnarEngine(engineProperties, parallelExecutor);
+        GroupByViewService groupByViews = new GroupByViewService(recordStore, transactionManager, new ViewProperties());
+        RowCodec rowCodec = new RowCodec(storageProperties);
+        List<DatasetChangeListener> listeners = List.of(resultCache, rowCache);
+        WriteBehindBuffer writeBehind = new WriteBehindBuffer(new WriteBehindProperties(), recordStore, transactionManager,
+                listeners, rowCodec, resultCache);
+        QueryPlanner planner = new QueryPlanner(plannerProperties,
+                new DatasetStatisticsService(recordStore, transactionManager, plannerProperties), datasetRegistry,
+                fieldIndexService, rowCache, rowCacheProperties, columnarEngine, groupByViews, parallelExecutor, queryProperties,
+                writeBehind);
+
+        BulkRecordWriter bulkRecordWriter = new BulkRecordWriter(recordStore, transactionManager, listeners, new IngestProperties(), rowCodec);
+        service = new DatasetServiceImpl(recordStore, queryProperties, fieldIndexService,
+                new IndexProperties(), datasetRegistry, bulkRecordWriter, resultCache, rowCache,
+                columnarEngine, parallelExecutor, new FilterProperties(), rowCodec, groupByViews, planner, writeBehind,
+                new SketchProperties(), transactionManager);
+    }
+
+    public DatasetServiceImpl service() {
+        return service;
+    }
+
+    public void shutdown() throws IOException {
+        parallelExecutor.shutdown();
+        if (segmentStore != null) {
+            segmentStore.close();
+            FileSystemUtils.deleteRecursively(segmentDirectory);
+        }
+    }
+}
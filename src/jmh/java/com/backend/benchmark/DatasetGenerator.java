@@ -0,0 +1,163 @@
+package com.backend.benchmark;
+
+import com.backend.config.StorageProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.service.codec.RowCodec;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Builds synthetic employee-like rows for benchmarks. The same settings and seed always give
+ * the same rows.
+ * <p>
+ * Every row has a {@code group} field with {@code cardinality} distinct values and a
+ * {@code score} field to sort by, both nested {@code nesting} objects deep (see
+ * {@link #groupPath()} and {@link #sortPath()}), next to a few top-level fields, a string array
+ * and a free-text field that make up the bulk of the row.
+ */
+public final class DatasetGenerator {
+
+    /**
+     * Value types of the {@code group} and {@code score} fields.
+     */
+    public enum TypeMix {
+        /** Strings for groups, integers for scores. */
+        UNIFORM,
+        /** Mostly as {@code UNIFORM}, with doubles, booleans, nulls and missing fields mixed in. */
+        MIXED
+    }
+
+    private static final String[] NESTING = {"org", "unit", "team", "squad"};
+    private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel"};
+
+    private final int rows;
+    private final int cardinality;
+    private final int nesting;
+    private final TypeMix typeMix;
+    private final long seed;
+
+    public DatasetGenerator(int rows, int cardinality, int nesting, TypeMix typeMix, long seed) {
+        if (nesting < 0 || nesting > NESTING.length) {
+            throw new IllegalArgumentException("nesting must be between 0 and " + NESTING.length);
+        }
+        this.rows = rows;
+        this.cardinality = Math.max(1, cardinality);
+        this.nesting = nesting;
+        this.typeMix = typeMix;
+        this.seed = seed;
+    }
+
+    public DatasetGenerator(int rows, int cardinality, int nesting, TypeMix typeMix) {
+        this(rows, cardinality, nesting, typeMix, 42);
+    }
+
+    public String groupPath() {
+        return path("group");
+    }
+
+    public String sortPath() {
+        return path("score");
+    }
+
+    public List<Map<String, Object>> rows() {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Map<String, Object>> result = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            result.add(row(i, random));
+        }
+        return result;
+    }
+
+    /**
+     * The rows as records of {@code datasetName}, stored in {@code format}, with ids from 1.
+     */
+    public List<DatasetRecord> records(String datasetName, StorageProperties.Format format, RowCodec codec)
+            throws JsonProcessingException {
+        List<Map<String, Object>> values = rows();
+        List<DatasetRecord> records = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            RowCodec.EncodedRow encoded = codec.encode(values.get(i), format);
+            records.add(DatasetRecord.builder()
+                    .id(i + 1L)
+                    .datasetName(datasetName)
+                    .jsonData(encoded.json())
+                    .binaryData(encoded.binary())
+                    .build());
+        }
+        return records;
+    }
+
+    private Map<String, Object> row(int index, SplittableRandom random) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", index);
+        row.put("name", "Employee " + index);
+        row.put("active", random.nextInt(4) != 0);
+        row.put("salary", 30_000 + random.nextInt(90_000));
+
+        Map<String, Object> keys = row;
+        for (int level = 0; level < nesting; level++) {
+            Map<String, Object> child = new LinkedHashMap<>();
+            child.put("name", NESTING[level] + "-" + random.nextInt(cardinality));
+            keys.put(NESTING[level], child);
+            keys = child;
+        }
+        putGroup(keys, random);
+        putScore(keys, random);
+
+        row.put("skills", List.of(word(random), word(random), word(random)));
+        StringBuilder notes = new StringBuilder();
+        for (int i = 0; i < 12; i++) {
+            notes.append(word(random)).append(' ');
+        }
+        row.put("notes", notes.toString().trim());
+        return row;
+    }
+
+    private void putGroup(Map<String, Object> target, SplittableRandom random) {
+        int group = random.nextInt(cardinality);
+        if (typeMix == TypeMix.UNIFORM) {
+            target.put("group", "g" + group);
+            return;
+        }
+        switch (random.nextInt(10)) {
+            case 0 -> target.put("group", group);
+            case 1 -> target.put("group", null);
+            case 2 -> {
+                // missing field
+            }
+            default -> target.put("group", "g" + group);
+        }
+    }
+
+    private void putScore(Map<String, Object> target, SplittableRandom random) {
+        int score = random.nextInt(1_000_000);
+        if (typeMix == TypeMix.UNIFORM) {
+            target.put("score", score);
+            return;
+        }
+        switch (random.nextInt(10)) {
+            case 0, 1 -> target.put("score", score / 100.0);
+            case 2 -> target.put("score", "s" + score);
+            case 3 -> target.put("score", random.nextBoolean());
+            case 4 -> target.put("score", null);
+            default -> target.put("score", score);
+        }
+    }
+
+    private String path(String field) {
+        StringBuilder path = new StringBuilder();
+        for (int level = 0; level < nesting; level++) {
+            path.append(NESTING[level]).append('.');
+        }
+        return path.append(field).toString();
+    }
+
+    private static String word(SplittableRandom random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+}
@@ -0,0 +1,141 @@
+package com.backend.benchmark;
+
+import com.backend.config.RecordStoreProperties;
+import com.backend.config.StorageProperties;
+import com.backend.service.aggregate.AggregateSpec;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.filter.RowFilter;
+import com.backend.service.impl.DatasetServiceImpl;
+import com.backend.service.query.SortPage;
+import com.backend.service.query.SortedRows;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queries end to end through {@link DatasetServiceImpl}, over records held in memory: reading
+ * the rows, grouping or sorting them, and for the streamed sort writing them out as JSON.
+ * Narrow the matrix with {@code -p}, e.g. {@code -p engine=SCAN -p rows=1000000}; compare the
+ * scan path over the in-memory records with segment files with {@code -p store=JPA,SEGMENT}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class DatasetServiceBenchmark {
+
+    private static final String DATASET = "bench";
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"16", "10000"})
+    public int cardinality;
+
+    @Param({"0", "2"})
+    public int nesting;
+
+    @Param({"UNIFORM"})
+    public DatasetGenerator.TypeMix typeMix;
+
+    @Param({"SCAN", "ROWS", "COLUMNAR"})
+    public BenchmarkServices.Engine engine;
+
+    @Param({"TEXT"})
+    public StorageProperties.Format format;
+
+    @Param({"true"})
+    public boolean parallel;
+
+    @Param({"JPA"})
+    public RecordStoreProperties.Engine store;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private BenchmarkServices services;
+    private DatasetServiceImpl service;
+    private String groupBy;
+    private String sortBy;
+    private List<AggregateSpec> aggregates;
+    private RowFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DatasetGenerator generator = new DatasetGenerator(rows, cardinality, nesting, typeMix);
+        StorageProperties storageProperties = new StorageProperties();
+        storageProperties.setDefaultFormat(format);
+        InMemoryRecords records = new InMemoryRecords();
+        records.put(DATASET, generator.records(DATASET, format, new RowCodec(storageProperties)));
+
+        services = new BenchmarkServices(records, engine, parallel, storageProperties, store);
+        service = services.service();
+        groupBy = generator.groupPath();
+        sortBy = generator.sortPath();
+        aggregates = AggregateSpec.parseList("count,sum:salary,avg:salary,max:" + sortBy);
+        filter = RowFilter.parse("active = true and salary >= 60000");
+        // Loads the parsed-row cache outside the measurement
+        service.queryGroupByAggregate(DATASET, groupBy, aggregates);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        services.shutdown();
+    }
+
+    @Benchmark
+    public Map<String, List<Map<String, Object>>> groupBy() throws IOException {
+        return service.queryGroupBy(DATASET, groupBy);
+    }
+
+    @Benchmark
+    public Map<String, Map<String, Object>> groupByAggregate() throws IOException {
+        return service.queryGroupByAggregate(DATASET, groupBy, aggregates);
+    }
+
+    @Benchmark
+    public Map<String, List<Map<String, Object>>> groupByFiltered() throws IOException {
+        return service.queryGroupBy(DATASET, groupBy, filter);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> sortBy() throws IOException {
+        return service.querySortBy(DATASET, sortBy, "desc");
+    }
+
+    @Benchmark
+    public SortPage sortByPage() throws IOException {
+        return service.querySortByPage(DATASET, sortBy, "desc", 100, 0, null);
+    }
+
+    /**
+     * A streamed {@code sortBy}: the sorted rows written as JSON while they are merged.
+     */
+    @Benchmark
+    public void sortByStreamed() throws IOException {
+        try (SortedRows sorted = service.openSortBy(DATASET, sortBy, "desc");
+             JsonGenerator generator = mapper.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeStartArray();
+            while (sorted.hasNext()) sorted.writeNext(generator);
+            generator.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.backend.benchmark;
+
+import com.backend.config.RecordStoreProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.repository.DatasetRecordRepository;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.store.SegmentRecordStore;
+import jakarta.persistence.EntityManager;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * In-memory stand-in for the records table: a {@link DatasetRecordRepository} answering the
+ * scan and fetch methods the query service uses from a list per dataset, and an
+ * {@link EntityManager} whose {@code detach} does nothing. Other methods throw.
+ * <p>
+ * Pushed down filter conditions are ignored, so filtered scans return every record and the
+ * service filters them all itself.
+ */
+public final class InMemoryRecords {
+
+    private final Map<String, List<DatasetRecord>> datasets = new HashMap<>();
+    private final Map<Long, DatasetRecord> byId = new HashMap<>();
+
+    public void put(String datasetName, List<DatasetRecord> records) {
+        datasets.put(datasetName, List.copyOf(records));
+        for (DatasetRecord record : records) {
+            byId.put(record.getId(), record);
+        }
+    }
+
+    public long count(String datasetName) {
+        return datasets.getOrDefault(datasetName, List.of()).size();
+    }
+
+    /**
+     * The same records in segment files under {@code directory}, written without fsync. Ids are
+     * assigned in list order, so they match records generated with ids from 1.
+     */
+    public SegmentRecordStore segmentStore(Path directory) {
+        RecordStoreProperties properties = new RecordStoreProperties();
+        properties.setDirectory(directory);
+        properties.setFsync(RecordStoreProperties.Fsync.NEVER);
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        datasets.forEach((datasetName, records) -> store.saveAll(datasetName, records.stream()
+                .map(record -> new RowCodec.EncodedRow(record.getJsonData(), record.getBinaryData()))
+                .toList()));
+        return store;
+    }
+
+    public DatasetRecordRepository repository() {
+        return proxy(DatasetRecordRepository.class, (method, args) -> switch (method) {
+            case "streamByDatasetName", "streamByDatasetNameOrderByIdAsc", "streamByDatasetNameMatching" ->
+                    stream((String) args[0]);
+            case "countByDatasetName" -> count((String) args[0]);
+            case "findAllById" -> {
+                List<DatasetRecord> found = new ArrayList<>();
+                for (Object id : (Iterable<?>) args[0]) {
+                    DatasetRecord record = byId.get((Long) id);
+                    if (record != null) found.add(record);
+                }
+                yield found;
+            }
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    public EntityManager entityManager() {
+        return proxy(EntityManager.class, (method, args) -> {
+            if (method.equals("detach")) return null;
+            throw new UnsupportedOperationException(method);
+        });
+    }
+
+    private Stream<DatasetRecord> stream(String datasetName) {
+        return datasets.getOrDefault(datasetName, List.of()).stream();
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    return "InMemory" + type.getSimpleName();
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "equals":
+                    return self == args[0];
+                default:
+                    return handler.invoke(method.getName(), args);
+            }
+        });
+        return type.cast(proxy);
+    }
+}
@@ -0,0 +1,192 @@
+package com.backend.benchmark;
+
+import com.backend.config.StorageProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.service.aggregate.AggregateSpec;
+import com.backend.service.aggregate.GroupAggregator;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.query.ExternalSorter;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.query.JsonFieldReader;
+import com.backend.service.query.SortKey;
+import com.backend.service.query.SortedRows;
+import com.backend.service.query.TopKSelector;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of a query on their own, each fed with the output of the stages before it so only
+ * the stage itself is measured: grouping and aggregating rows whose keys were already read,
+ * sorting by keys already read, and serializing groups and stored rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryKernelBenchmark {
+
+    private static final TypeReference<Map<String, Object>> ROW_TYPE = new TypeReference<>() {
+    };
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"16", "10000"})
+    public int cardinality;
+
+    @Param({"UNIFORM", "MIXED"})
+    public DatasetGenerator.TypeMix typeMix;
+
+    @Param({"TEXT", "SMILE"})
+    public StorageProperties.Format format;
+
+    @State(Scope.Benchmark)
+    public static class SortBudget {
+        /**
+         * Memory budget of the external sort; below the size of the rows it spills runs to disk.
+         */
+        @Param({"256MB", "1MB"})
+        public String sortBudget;
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private FieldKeys groupKeys;
+    private FieldKeys sortKeys;
+    private List<AggregateSpec> aggregates;
+    private byte[][] storedRows;
+    private List<Map<String, Object>> parsedRows;
+    private Object[] groupKeyOf;
+    private Object[][] aggregateValues;
+    private SortKey[] sortKeyOf;
+    private Map<String, List<Map<String, Object>>> groups;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DatasetGenerator generator = new DatasetGenerator(rows, cardinality, 0, typeMix);
+        List<DatasetRecord> records = generator.records("bench", format, new RowCodec(new StorageProperties()));
+        groupKeys = FieldKeys.parseGroup(generator.groupPath());
+        sortKeys = FieldKeys.parseSort(generator.sortPath(), "desc");
+        aggregates = AggregateSpec.parseList("count,sum:salary,avg:salary,max:" + generator.sortPath());
+        GroupAggregator aggregator = new GroupAggregator(groupKeys, aggregates);
+
+        JsonFieldReader fieldReader = new JsonFieldReader(mapper);
+        storedRows = new byte[rows][];
+        parsedRows = new ArrayList<>(rows);
+        groupKeyOf = new Object[rows];
+        aggregateValues = new Object[rows][];
+        sortKeyOf = new SortKey[rows];
+        for (int i = 0; i < rows; i++) {
+            byte[] row = records.get(i).storedRow();
+            storedRows[i] = row;
+            try (JsonParser parser = RowCodec.createParser(mapper, row)) {
+                parsedRows.add(mapper.readValue(parser, ROW_TYPE));
+            }
+            groupKeyOf[i] = groupKeys.groupKey(fieldReader.readPaths(row, groupKeys.projection()));
+            aggregateValues[i] = fieldReader.readPaths(row, aggregator.projection());
+            sortKeyOf[i] = fieldReader.readSortKey(row, generator.sortPath());
+        }
+        groups = group();
+    }
+
+    @Benchmark
+    public Map<String, List<Map<String, Object>>> group() {
+        Map<Object, List<Map<String, Object>>> byKey = new HashMap<>();
+        for (int i = 0; i < rows; i++) {
+            if (groupKeyOf[i] == null) continue;
+            byKey.computeIfAbsent(groupKeyOf[i], k -> new ArrayList<>()).add(parsedRows.get(i));
+        }
+        Map<String, List<Map<String, Object>>> labelled = new HashMap<>(byKey.size() * 2);
+        byKey.forEach((key, members) -> labelled.put(FieldKeys.label(key), members));
+        return labelled;
+    }
+
+    @Benchmark
+    public Map<String, Map<String, Object>> aggregate() {
+        GroupAggregator aggregator = new GroupAggregator(groupKeys, aggregates);
+        for (Object[] values : aggregateValues) {
+            aggregator.add(values);
+        }
+        return aggregator.result();
+    }
+
+    @Benchmark
+    public Integer[] sortKeys() {
+        Integer[] positions = new Integer[rows];
+        for (int i = 0; i < rows; i++) positions[i] = i;
+        Comparator<SortKey> comparator = sortKeys.comparator();
+        Arrays.sort(positions, (a, b) -> comparator.compare(sortKeyOf[a], sortKeyOf[b]));
+        return positions;
+    }
+
+    @Benchmark
+    public List<TopKSelector.Entry<byte[]>> topHundred() {
+        TopKSelector<byte[]> selector = new TopKSelector<>(sortKeys.comparator(), 100, null);
+        for (int i = 0; i < rows; i++) {
+            selector.offer(sortKeyOf[i], i + 1L, storedRows[i]);
+        }
+        return selector.drain();
+    }
+
+    /**
+     * Sorts the stored rows with {@link ExternalSorter} and writes them out in order, as a
+     * streamed {@code sortBy} does.
+     */
+    @Benchmark
+    public void externalSort(SortBudget budget, Blackhole blackhole) throws IOException {
+        ExternalSorter sorter = new ExternalSorter(sortKeys.comparator(), DataSize.parse(budget.sortBudget).toBytes(), null, mapper);
+        for (int i = 0; i < rows; i++) {
+            sorter.add(sortKeyOf[i], storedRows[i]);
+        }
+        try (SortedRows sorted = sorter.finish();
+             JsonGenerator generator = mapper.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeStartArray();
+            while (sorted.hasNext()) sorted.writeNext(generator);
+            generator.writeEndArray();
+            blackhole.consume(sorted.getSpilledRuns());
+        }
+    }
+
+    @Benchmark
+    public void serializeGroups() throws IOException {
+        mapper.writeValue(OutputStream.nullOutputStream(), Map.of("groupedRecords", groups));
+    }
+
+    @Benchmark
+    public void serializeStoredRows() throws IOException {
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(OutputStream.nullOutputStream())) {
+            generator.writeStartArray();
+            for (byte[] row : storedRows) {
+                RowCodec.writeTo(generator, mapper, row);
+            }
+            generator.writeEndArray();
+        }
+    }
+}
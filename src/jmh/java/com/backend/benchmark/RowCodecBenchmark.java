@@ -0,0 +1,140 @@
+package com.backend.benchmark;
+
+import com.backend.config.StorageProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.query.JsonFieldReader;
+import com.backend.service.rows.CompactRowReader;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse cost per stored row and format: decoding the whole row, reading one sort key, reading
+ * the group key paths, and building the compact row of the parsed-row cache. Results are rows
+ * per second, with the stored bytes read per second as the secondary result {@code bytes}; their
+ * ratio is the bytes per row of the format.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RowCodecBenchmark {
+
+    private static final int ROWS = 10_000;
+    private static final TypeReference<Map<String, Object>> ROW_TYPE = new TypeReference<>() {
+    };
+
+    @Param({"TEXT", "SMILE", "SMILE_LZ4"})
+    public StorageProperties.Format format;
+
+    @Param({"0", "2"})
+    public int nesting;
+
+    @Param({"UNIFORM", "MIXED"})
+    public DatasetGenerator.TypeMix typeMix;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFieldReader fieldReader = new JsonFieldReader(mapper);
+    private final CompactRowReader compactRowReader = new CompactRowReader(mapper);
+    private byte[][] rows;
+    private long storedBytes;
+    private String sortPath;
+    private FieldKeys groupKeys;
+
+    /**
+     * Stored bytes read, reported by JMH per second next to the row rate.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class StoredBytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        DatasetGenerator generator = new DatasetGenerator(ROWS, 100, nesting, typeMix);
+        List<DatasetRecord> records = generator.records("bench", format, new RowCodec(new StorageProperties()));
+        rows = new byte[records.size()][];
+        storedBytes = 0;
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = records.get(i).storedRow();
+            storedBytes += rows[i].length;
+        }
+        sortPath = generator.sortPath();
+        groupKeys = FieldKeys.parseGroup(generator.groupPath() + ",active");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void decodeRow(Blackhole blackhole, StoredBytes read) throws IOException {
+        read.bytes += storedBytes;
+        for (byte[] row : rows) {
+            try (JsonParser parser = RowCodec.createParser(mapper, row)) {
+                blackhole.consume(mapper.readValue(parser, ROW_TYPE));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readSortKey(Blackhole blackhole, StoredBytes read) throws IOException {
+        read.bytes += storedBytes;
+        if (nesting == 0) {
+            for (byte[] row : rows) {
+                blackhole.consume(fieldReader.readSortKey(row, sortPath));
+            }
+        } else {
+            FieldKeys keys = FieldKeys.parseSort(sortPath, "asc");
+            for (byte[] row : rows) {
+                blackhole.consume(keys.sortKey(fieldReader.readPaths(row, keys.projection()), mapper));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readGroupKey(Blackhole blackhole, StoredBytes read) throws IOException {
+        read.bytes += storedBytes;
+        for (byte[] row : rows) {
+            blackhole.consume(groupKeys.groupKey(fieldReader.readPaths(row, groupKeys.projection())));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void readCompactRow(Blackhole blackhole, StoredBytes read) throws IOException {
+        read.bytes += storedBytes;
+        for (byte[] row : rows) {
+            blackhole.consume(compactRowReader.read(row));
+        }
+    }
+}
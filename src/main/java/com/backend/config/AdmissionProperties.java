@@ -0,0 +1,47 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.admission")
+public class AdmissionProperties {
+
+    /**
+     * Runs queries on the bounded query executor; when off they run on the request thread.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Queries running at once. Keep it below the connection pool size
+     * ({@code spring.datasource.hikari.maximum-pool-size}, 10 by default) so inserts always find
+     * a free connection while the executor is saturated.
+     */
+    private int maxConcurrentQueries = 4;
+
+    /**
+     * Queries waiting for a free executor thread; further queries are rejected with 503.
+     */
+    private int maxQueuedQueries = 32;
+
+    /**
+     * Queries of one dataset admitted at once, so a burst on one dataset cannot take the whole
+     * executor.
+     */
+    private int maxConcurrentPerDataset = 2;
+
+    /**
+     * How long a query waits for a slot of its dataset before it is rejected with 503.
+     */
+    private Duration queueTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Lets a query identical to one already running wait for that one's result instead of
+     * being admitted and computed again.
+     */
+    private boolean coalesce = true;
+}
@@ -0,0 +1,31 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.cache")
+public class CacheProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Total rows the cached groupBy/sortBy results may hold; results are evicted by size beyond that.
+     */
+    private long maxRows = 200_000;
+
+    /**
+     * Results with more rows than this are not cached: one of them would push out many smaller
+     * results and keep its rows in heap for the whole ttl.
+     */
+    private int maxResultRows = 20_000;
+
+    /**
+     * How long a result stays cached after it was computed, even if its dataset never changes.
+     */
+    private Duration ttl = Duration.ofMinutes(10);
+}
@@ -0,0 +1,33 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.engine")
+public class EngineProperties {
+
+    public enum Engine {
+        ROW, COLUMNAR
+    }
+
+    /**
+     * Engine used for datasets without an entry in {@code datasets}.
+     */
+    private Engine defaultEngine = Engine.ROW;
+
+    /**
+     * Engine per dataset name. The columnar engine works on the parsed-row cache, so it only
+     * applies while the dataset fits in {@code dataset.rows.max-memory}.
+     */
+    private Map<String, Engine> datasets = new HashMap<>();
+
+    public Engine engineFor(String datasetName) {
+        return datasets.getOrDefault(datasetName, defaultEngine);
+    }
+}
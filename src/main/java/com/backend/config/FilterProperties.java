@@ -0,0 +1,17 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.filter")
+public class FilterProperties {
+
+    /**
+     * Push filter comparisons on fields without an index into the records query as MySQL
+     * {@code JSON_EXTRACT} predicates. Disable on databases without MySQL JSON functions.
+     */
+    private boolean jsonPushdown = true;
+}
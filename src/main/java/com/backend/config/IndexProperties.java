@@ -0,0 +1,31 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.index")
+public class IndexProperties {
+
+    /**
+     * Fields to index per dataset, e.g. {@code dataset.index.fields.employees=department,salary}.
+     */
+    private Map<String, List<String>> fields = new HashMap<>();
+
+    /**
+     * Number of groupBy/sortBy queries on the same dataset field after which an index is built
+     * for it automatically; 0 disables auto-detection.
+     */
+    private int autoDetectThreshold = 50;
+
+    /**
+     * Number of records fetched per round trip when rows are loaded by id from the index.
+     */
+    private int fetchBatchSize = 500;
+}
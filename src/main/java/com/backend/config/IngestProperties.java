@@ -0,0 +1,21 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.ingest")
+public class IngestProperties {
+
+    /**
+     * Rows written per JDBC batch and per transaction by the bulk endpoint.
+     */
+    private int chunkSize = 1000;
+
+    /**
+     * Failed rows listed individually in a bulk response; further failures are only counted.
+     */
+    private int maxReportedFailures = 1000;
+}
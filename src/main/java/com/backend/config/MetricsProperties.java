@@ -0,0 +1,25 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.metrics")
+public class MetricsProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Queries taking at least this long are logged with their phase breakdown.
+     */
+    private Duration slowQueryThreshold = Duration.ofSeconds(1);
+
+    /**
+     * Publish percentile histograms of query and phase latencies, for Prometheus quantiles.
+     */
+    private boolean histograms = true;
+}
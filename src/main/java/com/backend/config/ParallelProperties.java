@@ -0,0 +1,28 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.parallel")
+public class ParallelProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Worker threads of the query pool, which is separate from the common ForkJoinPool.
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Datasets with fewer rows than this are processed on the request thread.
+     */
+    private long thresholdRows = 50_000;
+
+    /**
+     * Rows handed to a worker at a time when parsing a database scan in parallel.
+     */
+    private int chunkSize = 2048;
+}
@@ -0,0 +1,42 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.planner")
+public class PlannerProperties {
+
+    /**
+     * Choose the execution of each query by estimated cost. When disabled, the first strategy
+     * that can run the query is taken, in the fixed order of each operator: cached rows, view,
+     * index, scan for a groupBy; view, cached rows, index, scan for an aggregate; index, cached
+     * rows, scan for a page of a sort; cached rows, index, scan for a full sort.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Collect per-dataset statistics on insert, which the cost estimates are based on.
+     */
+    private boolean statistics = true;
+
+    /**
+     * Top-level fields per dataset with statistics of their own; further fields are counted
+     * in the row totals only.
+     */
+    private int maxFieldsPerDataset = 256;
+
+    /**
+     * Number of queries the load of the parsed-row cache is spread over when costing it: the
+     * first query pays for the load, the following ones run from memory.
+     */
+    private int rowCacheLoadAmortization = 10;
+
+    /**
+     * Share of the rows a range comparison is assumed to match; equality is estimated from the
+     * distinct count of the field.
+     */
+    private double rangeSelectivity = 1.0 / 3;
+}
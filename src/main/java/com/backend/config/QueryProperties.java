@@ -0,0 +1,46 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.query")
+public class QueryProperties {
+
+    private Sort sort = new Sort();
+
+    private Page page = new Page();
+
+    @Data
+    public static class Sort {
+
+        /**
+         * Estimated heap a single sortBy may use for buffered rows before sorted runs are
+         * spilled to disk.
+         */
+        private DataSize memoryBudget = DataSize.ofMegabytes(64);
+
+        /**
+         * Most rows an unpaged, unstreamed sortBy collects into its response. Larger results
+         * are rejected with 400 and have to be paged or streamed with {@code stream=true}.
+         */
+        private int maxBufferedRows = 100_000;
+
+        /**
+         * Directory for spilled runs; defaults to java.io.tmpdir.
+         */
+        private String tempDir;
+    }
+
+    @Data
+    public static class Page {
+
+        /**
+         * Largest offset + limit a paginated sortBy may request; deeper pages must use the cursor.
+         */
+        private int maxWindow = 10_000;
+    }
+}
@@ -0,0 +1,50 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.store")
+public class RecordStoreProperties {
+
+    public enum Engine {
+        /** The {@code records} table, through JPA and JDBC. */
+        JPA,
+        /** Append-only memory-mapped segment files under {@code directory}. */
+        SEGMENT
+    }
+
+    public enum Fsync {
+        /** Every insert is forced to disk before it returns. */
+        ALWAYS,
+        /** Inserts are forced to disk every {@code fsync-interval}; a crash loses at most that much. */
+        INTERVAL,
+        /** The operating system writes pages back when it sees fit. */
+        NEVER
+    }
+
+    /**
+     * Where rows are stored. Dataset metadata and field indexes stay in the database either way.
+     */
+    private Engine engine = Engine.JPA;
+
+    /**
+     * Directory of the segment files, one subdirectory per dataset.
+     */
+    private Path directory = Path.of("data", "segments");
+
+    /**
+     * Size a segment file is created with; a new segment is started once a row does not fit.
+     */
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    private Fsync fsync = Fsync.ALWAYS;
+
+    private Duration fsyncInterval = Duration.ofSeconds(1);
+}
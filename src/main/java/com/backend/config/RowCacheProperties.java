@@ -0,0 +1,20 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.rows")
+public class RowCacheProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Estimated heap the parsed rows of all cached datasets may use; least recently used
+     * datasets are dropped beyond that. A dataset larger than the whole budget is never cached.
+     */
+    private DataSize maxMemory = DataSize.ofMegabytes(256);
+}
@@ -0,0 +1,27 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.sketch")
+public class SketchProperties {
+
+    /**
+     * Space-Saving counters of an approximate groupBy, and so the largest {@code top} it
+     * accepts. Every group with more than rows / counters rows is found.
+     */
+    private int counters = 1000;
+
+    /**
+     * Counters per Count-Min row; a count is off by at most e / width of the rows, 0.13% at 2048.
+     */
+    private int countMinWidth = 2048;
+
+    /**
+     * Count-Min rows; the bound above holds with probability 1 - e^-depth, 99.3% at 5.
+     */
+    private int countMinDepth = 5;
+}
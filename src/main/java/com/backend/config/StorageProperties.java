@@ -0,0 +1,44 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.storage")
+public class StorageProperties {
+
+    public enum Format {
+        /** JSON text in {@code records.json_data}. */
+        TEXT,
+        /** Smile binary JSON in {@code records.binary_data}. */
+        SMILE,
+        /** Smile compressed with LZ4, for large rows with repetitive content. */
+        SMILE_LZ4
+    }
+
+    /**
+     * Format new rows are written in for datasets without an entry in {@code datasets}. Rows
+     * are read in whatever format they were stored in, so changing it only affects new rows
+     * until the dataset is migrated.
+     */
+    private Format defaultFormat = Format.TEXT;
+
+    /**
+     * Format per dataset name.
+     */
+    private Map<String, Format> datasets = new HashMap<>();
+
+    /**
+     * Records converted per transaction by a storage migration.
+     */
+    private int migrationBatchSize = 500;
+
+    public Format formatFor(String datasetName) {
+        return datasets.getOrDefault(datasetName, defaultFormat);
+    }
+}
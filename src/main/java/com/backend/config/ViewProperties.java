@@ -0,0 +1,30 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.views")
+public class ViewProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * GroupBy views to maintain per dataset, one per field, e.g.
+     * {@code dataset.views.group-by.employees=department,address.city}. Views on several fields
+     * are registered through {@code POST /api/admin/datasets/{datasetName}/views}.
+     */
+    private Map<String, List<String>> groupBy = new HashMap<>();
+
+    /**
+     * A view that grows past this many groups is dropped; past that point it costs more memory
+     * than grouping on demand saves.
+     */
+    private int maxGroups = 100_000;
+}
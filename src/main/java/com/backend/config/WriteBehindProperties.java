@@ -0,0 +1,58 @@
+package com.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "dataset.write-behind")
+public class WriteBehindProperties {
+
+    /**
+     * Acknowledge single-row inserts once they are in the local write-ahead log, and write them
+     * to the record store in the background. Bulk inserts are written directly either way.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Directory of the write-ahead log files and their checkpoint.
+     */
+    private Path directory = Path.of("data", "wal");
+
+    /**
+     * Size after which the log starts a new file; files whose rows are all stored are deleted.
+     */
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+    /**
+     * Rows written to the record store per transaction.
+     */
+    private int batchSize = 5000;
+
+    /**
+     * Failed attempts at storing a row after which its dataset's rows are stored in ever smaller
+     * transactions, and the rows that still fail on their own are moved to
+     * {@code dead-letter.ndjson} in the log directory. Failures of the store itself do not count.
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * Pause between flushes once the buffer is drained.
+     */
+    private Duration flushInterval = Duration.ofMillis(200);
+
+    /**
+     * Rows acknowledged but not yet stored, past which inserts wait for the flusher.
+     */
+    private int maxPendingRows = 100_000;
+
+    /**
+     * How long an insert waits for room in a full buffer before it is rejected with 503.
+     */
+    private Duration appendTimeout = Duration.ofSeconds(5);
+}
@@ -0,0 +1,95 @@
+package com.backend.controller;
+
+import com.backend.service.cache.QueryResultCache;
+import com.backend.service.codec.RowFormatMigrator;
+import com.backend.service.ingest.WriteBehindBuffer;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.rows.ParsedRowCache;
+import com.backend.service.stats.DatasetStatistics;
+import com.backend.service.stats.DatasetStatisticsService;
+import com.backend.service.view.GroupByViewService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("api/admin")
+@RequiredArgsConstructor
+@Tag(name = "Admin controller", description = "Operational views of the query engine")
+public class AdminController {
+
+    private final QueryResultCache resultCache;
+    private final ParsedRowCache rowCache;
+    private final RowFormatMigrator rowFormatMigrator;
+    private final GroupByViewService groupByViews;
+    private final DatasetStatisticsService statisticsService;
+    private final DatasetRegistry datasetRegistry;
+    private final WriteBehindBuffer writeBehind;
+
+    @GetMapping("/cache/stats")
+    @Operation(summary = "Query result cache statistics",
+            description = "Hit, miss and eviction counters of the groupBy/sortBy result cache and the rows it currently holds.")
+    public ResponseEntity<?> cacheStats() {
+        return ResponseEntity.ok(resultCache.stats());
+    }
+
+    @GetMapping("/rows/stats")
+    @Operation(summary = "Parsed-row cache statistics",
+            description = "Datasets whose rows are held parsed in memory, with their row counts and estimated sizes.")
+    public ResponseEntity<?> rowStats() {
+        return ResponseEntity.ok(rowCache.stats());
+    }
+
+    @PostMapping("/datasets/{datasetName}/storage/migrate")
+    @Operation(summary = "Convert stored rows to the configured format",
+            description = "Rewrites the rows of the dataset that are not yet in its `dataset.storage` format, batch by batch. " +
+                    "Queries keep working during the migration, and running it again resumes where it stopped.")
+    public ResponseEntity<?> migrateStorage(@PathVariable String datasetName) {
+        return ResponseEntity.ok(rowFormatMigrator.migrate(datasetName));
+    }
+
+    @GetMapping("/views")
+    @Operation(summary = "Materialized groupBy views",
+            description = "Registered groupBy views with their status, group count and row count.")
+    public ResponseEntity<?> views() {
+        return ResponseEntity.ok(groupByViews.stats());
+    }
+
+    @PostMapping("/datasets/{datasetName}/views")
+    @Operation(summary = "Register a materialized groupBy view",
+            description = "Builds a view of the dataset grouped by `groupBy` from its existing rows in the background " +
+                    "and keeps it up to date on insert. Unfiltered groupBy queries on the same keys use it once READY.")
+    public ResponseEntity<?> registerView(@PathVariable String datasetName, @RequestParam String groupBy) {
+        return ResponseEntity.ok(GroupByViewService.stats(groupByViews.register(datasetName, groupBy)));
+    }
+
+    @DeleteMapping("/datasets/{datasetName}/views")
+    @Operation(summary = "Drop a materialized groupBy view")
+    public ResponseEntity<?> dropView(@PathVariable String datasetName, @RequestParam String groupBy) {
+        return groupByViews.unregister(datasetName, groupBy) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    @GetMapping("/datasets/{datasetName}/statistics")
+    @Operation(summary = "Dataset statistics",
+            description = "The statistics the query planner estimates costs from: row count, average row size, and per top-level field " +
+                    "its value types, null fraction and approximate distinct count. Collected in the background on first use.")
+    public ResponseEntity<?> statistics(@PathVariable String datasetName) {
+        DatasetStatistics statistics = datasetRegistry.getRowCount(datasetName) > 0 ? statisticsService.statistics(datasetName) : null;
+        return statistics == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(statistics.describe());
+    }
+
+    @GetMapping("/write-behind/stats")
+    @Operation(summary = "Write-behind buffer statistics",
+            description = "Rows acknowledged from the write-ahead log and not yet stored, rows stored so far, and the last flush error.")
+    public ResponseEntity<?> writeBehindStats() {
+        return ResponseEntity.ok(writeBehind.stats());
+    }
+}
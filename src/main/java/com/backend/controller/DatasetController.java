@@ -3,21 +3,40 @@ package com.backend.controller;
 import com.backend.exception.BadRequestException;
 import com.backend.model.DatasetRecord;
 
+import com.backend.service.admission.QueryAdmission;
+import com.backend.service.admission.QueryCoalescer;
+import com.backend.service.aggregate.AggregateSpec;
+import com.backend.service.filter.RowFilter;
 import com.backend.service.impl.DatasetServiceImpl;
+import com.backend.service.ingest.BulkInsertResult;
+import com.backend.service.metrics.QueryMetrics;
+import com.backend.service.metrics.QueryProfile;
+import com.backend.service.plan.QueryPlan;
+import com.backend.service.query.SortPage;
+import com.backend.service.query.SortedRows;
+import com.backend.service.sketch.ApproximateGroups;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("api/dataset")
@@ -26,14 +45,24 @@ import java.util.Map;
 @Tag(name = "Employee Dataset controller", description = "APIs for managing and querying dynamic employee dataset records")
 public class DatasetController {
 
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_TOP = 10;
+
     private final DatasetServiceImpl datasetService;
+    private final QueryMetrics queryMetrics;
+    private final QueryAdmission queryAdmission;
+    private final QueryCoalescer queryCoalescer;
+    private final ObjectMapper mapper = new ObjectMapper();
 
     @PostMapping("/{datasetName}/record")
     @Operation(summary = "Insert a new record into dataset",
-            description = "Adds a new JSON-formatted record into the specified dataset. The record is dynamically structured and saved with a unique identifier.")
+            description = "Adds a new JSON-formatted record into the specified dataset. The record is dynamically structured and saved with a unique identifier. " +
+                    "With `dataset.write-behind.enabled` the record is acknowledged once it is in the write-ahead log, without an id, " +
+                    "and queries see it right away.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Record successfully inserted"),
             @ApiResponse(responseCode = "400", description = "Invalid record input"),
+            @ApiResponse(responseCode = "503", description = "Write-behind buffer full"),
             @ApiResponse(responseCode = "500", description = "Internal server error")
     })
     public ResponseEntity<?> insertRecord(@PathVariable String datasetName,
@@ -44,6 +73,12 @@ public class DatasetController {
         DatasetRecord saved = datasetService.insertRecord(datasetName, json);
 
         Map<String, Object> response = new LinkedHashMap<>();
+        if (saved.getId() == null) {
+            response.put("message", "Record accepted");
+            response.put("dataset", datasetName);
+            log.info("Record accepted into the write-behind log of dataset: {}", datasetName);
+            return ResponseEntity.ok(response);
+        }
         response.put("message", "Record added successfully");
         response.put("dataset", datasetName);
         response.put("recordId", saved.getId());
@@ -52,34 +87,305 @@ public class DatasetController {
         return ResponseEntity.ok(response);
     }
 
+    @PostMapping(value = "/{datasetName}/records",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @Operation(summary = "Bulk insert records into dataset",
+            description = "Streams a JSON array of objects, or one object per line with Content-Type `application/x-ndjson`, into the dataset. " +
+                    "Rows are stored in chunks; malformed rows are reported by position and do not abort the rest of the upload.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Upload processed; see inserted/failed counts"),
+            @ApiResponse(responseCode = "400", description = "Body is not a JSON array"),
+            @ApiResponse(responseCode = "500", description = "Internal server error")
+    })
+    public ResponseEntity<?> insertRecords(@PathVariable String datasetName,
+                                           @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+                                           InputStream body) throws IOException {
+        boolean ndjson = MediaType.APPLICATION_NDJSON.isCompatibleWith(contentType);
+        log.info("Bulk inserting {} records into dataset: {}", ndjson ? "NDJSON" : "JSON array", datasetName);
+
+        BulkInsertResult result = datasetService.insertRecords(datasetName, body, ndjson);
+        return ResponseEntity.ok(result);
+    }
+
+    @GetMapping("/{datasetName}")
+    @Operation(summary = "Describe a dataset",
+            description = "Returns the registry entry of the dataset, including its cached row count.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Dataset found"),
+            @ApiResponse(responseCode = "404", description = "Dataset not found")
+    })
+    public ResponseEntity<?> getDataset(@PathVariable String datasetName) {
+        log.info("Describing dataset: {}", datasetName);
+        return ResponseEntity.ok(datasetService.getDataset(datasetName));
+    }
+
     @GetMapping("/{datasetName}/query")
     @Operation(
             summary = "Query dataset records",
-            description = "Performs dynamic querying on the specified dataset. Supports grouping by a field (`groupBy`) or sorting by a field (`sortBy`) with optional order (`asc` or `desc`)."
+            description = "Performs dynamic querying on the specified dataset. Supports grouping by a field (`groupBy`) or sorting by a field (`sortBy`) with optional order (`asc` or `desc`). " +
+                    "Fields may be nested paths (`address.city` or the JSON pointer `/address/city`), and several comma separated fields group or sort by a composite key; " +
+                    "sort fields take their own direction as in `department,salary:desc`, and composite groups are keyed by a JSON array such as `[\"HR\",\"2\"]`. " +
+                    "Sorted results can be paged with `limit`/`offset`, or with the `nextCursor` of the previous page passed as `cursor`; " +
+                    "an `offset` without `limit` returns a page of the default size. " +
+                    "With `agg` (e.g. `count,sum:salary,avg:age,min:age,max:age`) a groupBy returns only the aggregates of each group instead of its rows. " +
+                    "With `approximate=true` a groupBy on a near-unique field such as an email returns, in fixed memory, the `top` largest groups (10 by default) " +
+                    "with bounds on their row counts, and an estimate of the number of groups with its standard error. " +
+                    "`filter` restricts any query to the matching rows, e.g. `status = active and (salary >= 50000 or not level < 3)`; " +
+                    "comparisons take a field on the left and a number, quoted string, `true`, `false` or `null` on the right, with `= != < <= > >=`. " +
+                    "Add `stream=true` to stream an unpaged result instead of buffering it; an unpaged sort of more rows than " +
+                    "`dataset.query.sort.max-buffered-rows` is rejected unless paged or streamed. Add `explain=true` to add the `plan` the query ran by: " +
+                    "the strategy the planner chose with its estimated rows, bytes, memory and cost, the alternatives it weighed, " +
+                    "and the actual rows scanned, bytes parsed and time per phase."
     )
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Query executed successfully"),
-            @ApiResponse(responseCode = "400", description = "Missing query parameters"),
-            @ApiResponse(responseCode = "500", description = "Internal server error")
+            @ApiResponse(responseCode = "400", description = "Missing query parameters, invalid filter or an unpaged sort too large to buffer"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "503", description = "Too many concurrent queries; retry later")
     })
     public ResponseEntity<?> query(@PathVariable String datasetName,
                                    @RequestParam(required = false) String groupBy,
                                    @RequestParam(required = false) String sortBy,
-                                   @RequestParam(required = false, defaultValue = "asc") String order) throws Exception {
+                                   @RequestParam(required = false, defaultValue = "asc") String order,
+                                   @RequestParam(required = false) Integer limit,
+                                   @RequestParam(required = false, defaultValue = "0") int offset,
+                                   @RequestParam(required = false) String cursor,
+                                   @RequestParam(required = false) String agg,
+                                   @RequestParam(required = false, defaultValue = "false") boolean approximate,
+                                   @RequestParam(required = false) Integer top,
+                                   @RequestParam(required = false) String filter,
+                                   @RequestParam(required = false, defaultValue = "false") boolean explain,
+                                   HttpServletRequest request) throws Exception {
 
         log.info("Querying dataset: {}", datasetName);
+        RowFilter rowFilter = filter == null ? null : RowFilter.parse(filter);
 
-        if (groupBy != null) {
-            log.info("Grouping records by: {}", groupBy);
-            Map<String, List<Map<String, Object>>> result = datasetService.queryGroupBy(datasetName, groupBy);
-            return ResponseEntity.ok(Map.of("groupedRecords", result));
-        } else if (sortBy != null) {
-            log.info("Sorting records by: {} in {} order", sortBy, order);
-            List<Map<String, Object>> result = datasetService.querySortBy(datasetName, sortBy, order);
-            return ResponseEntity.ok(Map.of("sortedRecords", result));
-        } else {
+        if (agg != null && groupBy == null) {
+            throw new BadRequestException("agg requires groupBy");
+        }
+        if (approximate && (groupBy == null || agg != null)) {
+            throw new BadRequestException("approximate applies to a groupBy without agg");
+        }
+        if (top != null && !approximate) {
+            throw new BadRequestException("top requires approximate=true");
+        }
+        if (groupBy == null && sortBy == null) {
             log.warn("Bad request: neither groupBy nor sortBy provided");
             throw new BadRequestException("Provide either groupBy or sortBy");
         }
+        // an offset alone pages with the default page size
+        boolean paged = limit != null || cursor != null || offset != 0;
+        int pageSize = limit != null ? limit : DEFAULT_PAGE_SIZE;
+        String page = paged ? "limit=" + pageSize + " offset=" + offset + (cursor != null ? " cursor=" + cursor : "") : null;
+        Integer approximateTop = approximate ? (top != null ? top : DEFAULT_TOP) : null;
+        QueryShape shape = QueryShape.of(groupBy, sortBy, order, agg, approximateTop, filter, page);
+        QueryProfile profile = startProfile(request, datasetName, shape);
+        try {
+            if (approximateTop != null) {
+                log.info("Approximating the top {} groups by: {}", approximateTop, groupBy);
+                ApproximateGroups result = execute(datasetName, shape, explain,
+                        () -> datasetService.queryGroupByApproximate(datasetName, groupBy, approximateTop, rowFilter));
+                profile.setRowsReturned(result.topGroups().size());
+                profile.computed();
+                return respond(profile, explain, Map.of("approximateGroups", result));
+            } else if (groupBy != null && agg != null) {
+                log.info("Aggregating {} grouped by: {}", agg, groupBy);
+                List<AggregateSpec> aggregates = AggregateSpec.parseList(agg);
+                Map<String, Map<String, Object>> result = execute(datasetName, shape, explain,
+                        () -> datasetService.queryGroupByAggregate(datasetName, groupBy, aggregates, rowFilter));
+                profile.setRowsReturned(result.size());
+                profile.computed();
+                return respond(profile, explain, Map.of("aggregates", result));
+            } else if (groupBy != null) {
+                log.info("Grouping records by: {}", groupBy);
+                Map<String, List<Map<String, Object>>> result = execute(datasetName, shape, explain,
+                        () -> datasetService.queryGroupBy(datasetName, groupBy, rowFilter));
+                profile.setRowsReturned(result.values().stream().mapToLong(List::size).sum());
+                profile.computed();
+                return respond(profile, explain, Map.of("groupedRecords", result));
+            } else if (paged) {
+                log.info("Sorting records by: {} in {} order, page of {} at offset {}", sortBy, order, pageSize, offset);
+                SortPage sortPage = execute(datasetName, shape, explain,
+                        () -> datasetService.querySortByPage(datasetName, sortBy, order, pageSize, offset, cursor, rowFilter));
+                profile.setRowsReturned(sortPage.records().size());
+                profile.computed();
+
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("sortedRecords", sortPage.records());
+                response.put("nextCursor", sortPage.nextCursor());
+                return respond(profile, explain, response);
+            } else {
+                log.info("Sorting records by: {} in {} order", sortBy, order);
+                List<Map<String, Object>> result = execute(datasetName, shape, explain,
+                        () -> datasetService.querySortBy(datasetName, sortBy, order, rowFilter));
+                profile.setRowsReturned(result.size());
+                profile.computed();
+                return respond(profile, explain, Map.of("sortedRecords", result));
+            }
+        } finally {
+            queryMetrics.unbind();
+        }
+    }
+
+    @GetMapping(value = "/{datasetName}/query", params = "stream=true",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    @Operation(
+            summary = "Stream dataset query results",
+            description = "Runs an unpaged query like `/query` and writes the result while it is produced instead of buffering the whole response: " +
+                    "sorted rows leave as the sort merge yields them. The body is the same JSON document as `/query`, or with `Accept: application/x-ndjson` " +
+                    "one sorted row, or one `{\"group\": ..., \"records\"|\"aggregates\": ...}` object, per line."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Result streamed"),
+            @ApiResponse(responseCode = "400", description = "Missing query parameters, invalid filter or paging parameters"),
+            @ApiResponse(responseCode = "500", description = "Internal server error"),
+            @ApiResponse(responseCode = "503", description = "Too many concurrent queries; retry later")
+    })
+    public ResponseEntity<StreamingResponseBody> streamQuery(@PathVariable String datasetName,
+                                                             @RequestParam(required = false) String groupBy,
+                                                             @RequestParam(required = false) String sortBy,
+                                                             @RequestParam(required = false, defaultValue = "asc") String order,
+                                                             @RequestParam(required = false) String agg,
+                                                             @RequestParam(required = false, defaultValue = "false") boolean approximate,
+                                                             @RequestParam(required = false) String filter,
+                                                             @RequestParam(required = false) Integer limit,
+                                                             @RequestParam(required = false) Integer offset,
+                                                             @RequestParam(required = false) String cursor,
+                                                             @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+                                                             HttpServletRequest request) throws Exception {
+        long started = System.nanoTime();
+        log.info("Streaming query of dataset: {}", datasetName);
+        RowFilter rowFilter = filter == null ? null : RowFilter.parse(filter);
+        boolean ndjson = accept != null && MediaType.parseMediaTypes(accept).stream()
+                .anyMatch(type -> type.isConcrete() && MediaType.APPLICATION_NDJSON.includes(type));
+
+        StreamingQueryResponse body;
+        if (limit != null || offset != null || cursor != null) {
+            throw new BadRequestException("stream applies to unpaged queries; drop limit, offset and cursor");
+        }
+        if (approximate) {
+            throw new BadRequestException("approximate results are small and not streamed; drop stream");
+        }
+        if (agg != null && groupBy == null) {
+            throw new BadRequestException("agg requires groupBy");
+        }
+        if (groupBy == null && sortBy == null) {
+            throw new BadRequestException("Provide either groupBy or sortBy");
+        }
+        // not coalesced: a streamed sort hands out a cursor that only one response can consume
+        QueryProfile profile = startProfile(request, datasetName, QueryShape.of(groupBy, sortBy, order, agg, null, filter, null));
+        try {
+            if (groupBy != null && agg != null) {
+                List<AggregateSpec> aggregates = AggregateSpec.parseList(agg);
+                Map<String, Map<String, Object>> result = queryAdmission.run(datasetName,
+                        () -> datasetService.queryGroupByAggregate(datasetName, groupBy, aggregates, rowFilter));
+                profile.setRowsReturned(result.size());
+                body = StreamingQueryResponse.groups(mapper, "aggregates by " + groupBy + " of dataset " + datasetName,
+                        ndjson, started, "aggregates", "aggregates", result);
+            } else if (groupBy != null) {
+                Map<String, List<Map<String, Object>>> result = queryAdmission.run(datasetName,
+                        () -> datasetService.queryGroupBy(datasetName, groupBy, rowFilter));
+                profile.setRowsReturned(result.values().stream().mapToLong(List::size).sum());
+                body = StreamingQueryResponse.groupedRecords(mapper, "groupBy " + groupBy + " of dataset " + datasetName,
+                        ndjson, started, result);
+            } else {
+                // the slot of the dataset stays taken until the response has written the rows
+                SortedRows rows = queryAdmission.open(datasetName,
+                        () -> datasetService.openSortBy(datasetName, sortBy, order, rowFilter));
+                body = StreamingQueryResponse.sorted(mapper, "sortBy " + sortBy + " of dataset " + datasetName,
+                        ndjson, started, rows);
+            }
+            profile.computed();
+            // the response finishes the profile once the body is written, on the thread writing it
+            profile.suspend();
+            request.removeAttribute(QueryMetrics.PROFILE_ATTRIBUTE);
+            body.profiled(queryMetrics, profile);
+        } finally {
+            queryMetrics.unbind();
+        }
+        return ResponseEntity.ok()
+                .contentType(ndjson ? MediaType.APPLICATION_NDJSON : MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    /**
+     * Operator and parameters of a query, which name it in metrics and logs and tell identical
+     * queries apart for coalescing.
+     */
+    private record QueryShape(String operator, String description) {
+
+        static QueryShape of(String groupBy, String sortBy, String order, String agg, Integer approximateTop, String filter,
+                             String page) {
+            String operator;
+            StringBuilder description = new StringBuilder();
+            if (groupBy != null) {
+                operator = agg != null ? "groupByAggregate" : approximateTop != null ? "groupByApproximate" : "groupBy";
+                description.append("groupBy=").append(groupBy);
+                if (agg != null) description.append(" agg=").append(agg);
+                if (approximateTop != null) description.append(" approximate top=").append(approximateTop);
+            } else {
+                operator = page != null ? "sortByPage" : "sortBy";
+                description.append("sortBy=").append(sortBy).append(" order=").append(order);
+                if (page != null) description.append(' ').append(page);
+            }
+            if (filter != null) description.append(" filter=").append(filter);
+            return new QueryShape(operator, description.toString());
+        }
+    }
+
+    /**
+     * Starts the profile of a query and leaves it on the request, where
+     * {@link QueryMetricsInterceptor} records it once the response is complete.
+     */
+    private QueryProfile startProfile(HttpServletRequest request, String datasetName, QueryShape shape) {
+        QueryProfile profile = queryMetrics.start(datasetName, shape.operator(), shape.description());
+        request.setAttribute(QueryMetrics.PROFILE_ATTRIBUTE, profile);
+        return profile;
+    }
+
+    /**
+     * Runs a buffered query through admission, or joins an identical one already running. A
+     * query to explain always runs itself, as its plan is recorded on its own profile.
+     */
+    private <T> T execute(String datasetName, QueryShape shape, boolean explain, Callable<T> query) throws Exception {
+        if (explain) return queryAdmission.run(datasetName, query);
+        return queryCoalescer.run(datasetName, shape.operator(), shape.description(),
+                () -> queryAdmission.run(datasetName, query));
+    }
+
+    private static ResponseEntity<?> respond(QueryProfile profile, boolean explain, Map<String, ?> body) {
+        if (!explain) return ResponseEntity.ok(body);
+        Map<String, Object> response = new LinkedHashMap<>(body);
+        response.put("plan", explain(profile));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * The plan of the query with what running it actually took so far, before the response is
+     * written. A query without a plan was answered from the result cache.
+     */
+    private static Map<String, Object> explain(QueryProfile profile) {
+        QueryPlan plan = profile.plan();
+        Map<String, Object> explained = new LinkedHashMap<>();
+        if (plan != null) {
+            explained.putAll(plan.describe());
+        } else {
+            explained.put("operator", profile.operator());
+            explained.put("strategy", "RESULT_CACHE");
+        }
+        Map<String, Object> actual = new LinkedHashMap<>();
+        actual.put("rowsScanned", profile.rowsScanned());
+        actual.put("bytesParsed", profile.bytesParsed());
+        actual.put("rowsReturned", profile.rowsReturned());
+        for (QueryProfile.Phase phase : List.of(QueryProfile.Phase.FETCH, QueryProfile.Phase.PARSE, QueryProfile.Phase.COMPUTE)) {
+            actual.put(phase.tag() + "Millis", millis(profile.phaseNanos(phase)));
+        }
+        actual.put("totalMillis", millis(profile.totalNanos()));
+        explained.put("actual", actual);
+        return explained;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1_000.0) / 1_000.0;
     }
 }
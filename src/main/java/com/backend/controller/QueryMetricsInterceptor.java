@@ -0,0 +1,28 @@
+package com.backend.controller;
+
+import com.backend.service.metrics.QueryMetrics;
+import com.backend.service.metrics.QueryProfile;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Records the query profile a handler left on the request once the response is complete, so
+ * serialization is part of it and queries answered with an error are recorded as failed.
+ */
+@Component
+@RequiredArgsConstructor
+public class QueryMetricsInterceptor implements HandlerInterceptor {
+
+    private final QueryMetrics queryMetrics;
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(QueryMetrics.PROFILE_ATTRIBUTE) instanceof QueryProfile profile) {
+            request.removeAttribute(QueryMetrics.PROFILE_ATTRIBUTE);
+            queryMetrics.finish(profile, ex != null || response.getStatus() >= 400);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.backend.controller;
+
+import com.backend.service.metrics.QueryMetrics;
+import com.backend.service.metrics.QueryProfile;
+import com.backend.service.query.SortedRows;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a query result to the response while it is produced instead of rendering it into one
+ * buffer first: sorted rows go out as the sort merge yields them, groups one at a time. The body
+ * is either the same JSON document as the buffered response or NDJSON with one row, or one
+ * group, per line. Writes block on the client socket, so a slow reader holds back the producer
+ * rather than a growing buffer. Time to first byte and bytes written are logged per request;
+ * a {@link #profiled profiled} response also records its query profile once the body is written.
+ */
+@Slf4j
+final class StreamingQueryResponse implements StreamingResponseBody {
+
+    @FunctionalInterface
+    private interface Body {
+        /**
+         * Writes the result and returns the number of rows or groups written.
+         */
+        long write(JsonGenerator generator) throws IOException;
+    }
+
+    private final ObjectMapper mapper;
+    private final String description;
+    private final boolean ndjson;
+    private final long startedNanos;
+    private final Body body;
+    private QueryMetrics queryMetrics;
+    private QueryProfile profile;
+
+    private StreamingQueryResponse(ObjectMapper mapper, String description, boolean ndjson, long startedNanos, Body body) {
+        this.mapper = mapper;
+        this.description = description;
+        this.ndjson = ndjson;
+        this.startedNanos = startedNanos;
+        this.body = body;
+    }
+
+    /**
+     * Sorted rows as {@code {"sortedRecords": [...]}}, or one row per line. The rows are closed
+     * once written.
+     */
+    static StreamingQueryResponse sorted(ObjectMapper mapper, String description, boolean ndjson,
+                                         long startedNanos, SortedRows rows) {
+        return new StreamingQueryResponse(mapper, description, ndjson, startedNanos, generator -> {
+            long written = 0;
+            try (rows) {
+                if (!ndjson) {
+                    generator.writeStartObject();
+                    generator.writeArrayFieldStart("sortedRecords");
+                }
+                while (rows.hasNext()) {
+                    rows.writeNext(generator);
+                    endLine(generator, ndjson, ++written);
+                }
+                if (!ndjson) {
+                    generator.writeEndArray();
+                    generator.writeEndObject();
+                }
+            }
+            return written;
+        });
+    }
+
+    /**
+     * Groups as {@code {"<field>": {"<group>": ...}}}, or one {@code {"group": ..., "<entry>": ...}}
+     * object per line, where {@code field} is {@code groupedRecords} or {@code aggregates} and
+     * {@code entry} is {@code records} or {@code aggregates}.
+     */
+    static StreamingQueryResponse groups(ObjectMapper mapper, String description, boolean ndjson, long startedNanos,
+                                         String field, String entry, Map<String, ?> groups) {
+        return new StreamingQueryResponse(mapper, description, ndjson, startedNanos, generator -> {
+            long written = 0;
+            if (!ndjson) {
+                generator.writeStartObject();
+                generator.writeObjectFieldStart(field);
+            }
+            for (Map.Entry<String, ?> group : groups.entrySet()) {
+                if (ndjson) {
+                    generator.writeStartObject();
+                    generator.writeStringField("group", group.getKey());
+                    generator.writeObjectField(entry, group.getValue());
+                    generator.writeEndObject();
+                } else {
+                    generator.writeObjectField(group.getKey(), group.getValue());
+                }
+                endLine(generator, ndjson, ++written);
+            }
+            if (!ndjson) {
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+            return written;
+        });
+    }
+
+    static StreamingQueryResponse groupedRecords(ObjectMapper mapper, String description, boolean ndjson, long startedNanos,
+                                                 Map<String, List<Map<String, Object>>> groups) {
+        return groups(mapper, description, ndjson, startedNanos, "groupedRecords", "records", groups);
+    }
+
+    /**
+     * Continues the profile of the query while the body is written, and records it at the end.
+     */
+    StreamingQueryResponse profiled(QueryMetrics queryMetrics, QueryProfile profile) {
+        this.queryMetrics = queryMetrics;
+        this.profile = profile;
+        return this;
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        CountingOutputStream out = new CountingOutputStream(outputStream);
+        long written = 0;
+        boolean failed = true;
+        if (profile != null) profile.resume();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            written = body.write(generator);
+            failed = false;
+        } catch (IOException e) {
+            log.warn("Streaming {} stopped after {} bytes: {}", description, out.count, e.getMessage());
+            throw e;
+        } finally {
+            if (profile != null) {
+                // grouped results were counted when computed; sorted rows only as they are written
+                if (profile.rowsReturned() == 0) profile.setRowsReturned(written);
+                queryMetrics.finish(profile, failed);
+            }
+        }
+        long firstByteMillis = out.firstWriteNanos == 0 ? -1 : (out.firstWriteNanos - startedNanos) / 1_000_000;
+        log.info("Streamed {} as {}: {} entries, {} bytes, first byte after {} ms, done after {} ms",
+                description, ndjson ? "NDJSON" : "JSON", written, out.count, firstByteMillis,
+                (System.nanoTime() - startedNanos) / 1_000_000);
+    }
+
+    /**
+     * Ends an NDJSON line, and pushes the first entry out at once so the client does not wait
+     * for a full buffer; later entries leave as the buffers fill.
+     */
+    private static void endLine(JsonGenerator generator, boolean ndjson, long written) throws IOException {
+        if (ndjson) generator.writeRaw('\n');
+        if (written == 1) generator.flush();
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        private long firstWriteNanos;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            started();
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            started();
+            out.write(b, off, len);
+            count += len;
+        }
+
+        private void started() {
+            if (firstWriteNanos == 0) firstWriteNanos = System.nanoTime();
+        }
+    }
+}
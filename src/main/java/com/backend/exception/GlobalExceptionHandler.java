@@ -4,7 +4,7 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.coyote.BadRequestException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -54,17 +54,31 @@ public class GlobalExceptionHandler {
     }
     @ExceptionHandler(BadRequestException.class)
     public ResponseEntity<?> handleBadRequest(BadRequestException ex) {
-        return buildResponse(HttpStatus.BAD_REQUEST, "Bad request", ex);
+        return buildResponse(HttpStatus.BAD_REQUEST, ex.getMessage(), ex);
+    }
+
+
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<?> handleServiceUnavailable(ServiceUnavailableException ex) {
+        // expected under overload, so no stack trace per rejected request
+        log.warn("Request rejected: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(responseBody(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage(), ex));
     }
 
 
     private ResponseEntity<?> buildResponse(HttpStatus status, String message, Exception ex) {
         log.error("Exception caught: ", ex);
+        return ResponseEntity.status(status).body(responseBody(status, message, ex));
+    }
+
+    private Map<String, Object> responseBody(HttpStatus status, String message, Exception ex) {
         Map<String, Object> res = new HashMap<>();
         res.put("status", status.value());
         res.put("error", status.getReasonPhrase());
         res.put("message", message);
         res.put("details", ex.getMessage());
-        return ResponseEntity.status(status).body(res);
+        return res;
     }
 }
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.backend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Entity
+@Table(name = "datasets", uniqueConstraints =
+        @UniqueConstraint(name = "uk_datasets_name", columnNames = "name"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Dataset {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(length = 191, nullable = false)
+    private String name;
+
+    private long rowCount;
+
+    private Instant createdAt;
+
+    private Instant updatedAt;
+}
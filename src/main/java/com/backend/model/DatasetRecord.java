@@ -7,8 +7,11 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.nio.charset.StandardCharsets;
+
 @Entity
-@Table(name = "records")
+@Table(name = "records", indexes =
+        @Index(name = "idx_records_dataset_name_id", columnList = "dataset_name, id"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -19,10 +22,23 @@ public class DatasetRecord {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
+    @Column(name = "dataset_name")
     private String datasetName;
 
     @Lob
     @Column(columnDefinition = "LONGTEXT")
     private String jsonData;
 
+    /**
+     * The row in a binary format, for datasets not stored as text; {@code jsonData} is then null.
+     */
+    @Column(name = "binary_data", columnDefinition = "LONGBLOB")
+    private byte[] binaryData;
+
+    /**
+     * The stored row as bytes, in whichever format it was written.
+     */
+    public byte[] storedRow() {
+        return binaryData != null ? binaryData : jsonData.getBytes(StandardCharsets.UTF_8);
+    }
 }
@@ -0,0 +1,59 @@
+package com.backend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One typed value of an indexed field for one record. The two sort indexes mirror
+ * {@code SortKey} ordering (nulls first in both directions) so indexed sortBy queries can be
+ * read straight off the index without a filesort.
+ */
+@Entity
+@Table(name = "record_field_index", indexes = {
+        @Index(name = "idx_field_index_asc", columnList = "dataset_name, field_name, value_rank, number_value, long_value, string_value, record_id"),
+        @Index(name = "idx_field_index_desc", columnList = "dataset_name, field_name, desc_rank DESC, number_value DESC, long_value DESC, string_value DESC, record_id"),
+        @Index(name = "idx_field_index_group", columnList = "dataset_name, field_name, missing, group_key, record_id"),
+        @Index(name = "idx_field_index_record", columnList = "dataset_name, field_name, record_id, value_rank, number_value")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FieldIndexEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "dataset_name", length = 191, nullable = false)
+    private String datasetName;
+
+    @Column(name = "field_name", length = 128, nullable = false)
+    private String fieldName;
+
+    @Column(name = "record_id", nullable = false)
+    private Long recordId;
+
+    private boolean missing;
+
+    @Column(name = "value_rank")
+    private byte valueRank;
+
+    @Column(name = "desc_rank")
+    private byte descRank;
+
+    @Column(name = "number_value")
+    private Double numberValue;
+
+    @Column(name = "long_value")
+    private Long longValue;
+
+    @Column(name = "string_value", columnDefinition = "varchar(256) collate utf8mb4_bin")
+    private String stringValue;
+
+    @Column(name = "group_key", columnDefinition = "varchar(256) collate utf8mb4_bin")
+    private String groupKey;
+}
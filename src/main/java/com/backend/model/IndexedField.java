@@ -0,0 +1,40 @@
+package com.backend.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Entity
+@Table(name = "indexed_fields", uniqueConstraints =
+        @UniqueConstraint(name = "uk_indexed_fields_dataset_field", columnNames = {"dataset_name", "field_name"}))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IndexedField {
+
+    public enum Status {
+        BUILDING, READY
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "dataset_name", length = 191, nullable = false)
+    private String datasetName;
+
+    @Column(name = "field_name", length = 128, nullable = false)
+    private String fieldName;
+
+    @Enumerated(EnumType.STRING)
+    private Status status;
+
+    /**
+     * Set once a value longer than the indexed column width is seen; the index can then no longer
+     * answer ordering or grouping exactly and queries fall back to a scan.
+     */
+    private boolean truncated;
+}
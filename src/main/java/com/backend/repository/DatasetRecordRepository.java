@@ -1,11 +1,39 @@
 package com.backend.repository;
 
 import com.backend.model.DatasetRecord;
-import com.backend.model.DatasetRecord;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.util.stream.Stream;
+
+public interface DatasetRecordRepository extends JpaRepository<DatasetRecord,Long>, DatasetRecordRepositoryCustom {
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    // in id order, so that groups list their rows the same way on every run
+    @Query("select r from DatasetRecord r where r.datasetName = :datasetName order by r.id")
+    Stream<DatasetRecord> streamByDatasetName(@Param("datasetName") String datasetName);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    Stream<DatasetRecord> streamByDatasetNameOrderByIdAsc(String datasetName);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    @Query("select r from DatasetRecord r where r.datasetName = :datasetName and r.id <= :maxId order by r.id")
+    Stream<DatasetRecord> streamByDatasetNameAndIdLessThanEqual(@Param("datasetName") String datasetName, @Param("maxId") Long maxId);
 
-import java.util.List;
+    long countByDatasetName(String datasetName);
 
-public interface DatasetRecordRepository extends JpaRepository<DatasetRecord,Long> {
-    List<DatasetRecord> findByDatasetName(String datasetName);
+    @Query("select max(r.id) from DatasetRecord r where r.datasetName = :datasetName")
+    Long findMaxIdByDatasetName(@Param("datasetName") String datasetName);
 }
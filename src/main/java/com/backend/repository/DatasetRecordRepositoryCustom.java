@@ -0,0 +1,14 @@
+package com.backend.repository;
+
+import com.backend.model.DatasetRecord;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface DatasetRecordRepositoryCustom {
+
+    /**
+     * Streams the records of the dataset that satisfy all conditions, in id order.
+     */
+    Stream<DatasetRecord> streamByDatasetNameMatching(String datasetName, List<RecordCondition> conditions);
+}
@@ -0,0 +1,90 @@
+package com.backend.repository;
+
+import com.backend.model.DatasetRecord;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.hibernate.jpa.HibernateHints;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Native query over {@code records} with the filter conditions rendered as SQL: indexed fields
+ * as an {@code exists} on their index entries, other fields through MySQL JSON functions.
+ */
+public class DatasetRecordRepositoryCustomImpl implements DatasetRecordRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Stream<DatasetRecord> streamByDatasetNameMatching(String datasetName, List<RecordCondition> conditions) {
+        StringBuilder sql = new StringBuilder("select r.* from records r where r.dataset_name = :datasetName");
+        List<Object> parameters = new ArrayList<>();
+        for (int i = 0; i < conditions.size(); i++) {
+            RecordCondition condition = conditions.get(i);
+            sql.append(" and ");
+            if (condition.indexedField() != null) {
+                appendIndexCondition(sql, condition, i, parameters);
+            } else {
+                // rows stored in a binary format have no json_data and are checked after decoding
+                sql.append("(r.json_data is null or ");
+                appendJsonCondition(sql, condition, i, parameters);
+                sql.append(')');
+            }
+        }
+        sql.append(" order by r.id");
+
+        Query query = entityManager.createNativeQuery(sql.toString(), DatasetRecord.class)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .setParameter("datasetName", datasetName);
+        for (int i = 0; i < parameters.size(); i++) {
+            query.setParameter("p" + i, parameters.get(i));
+        }
+        return query.getResultStream();
+    }
+
+    private static void appendIndexCondition(StringBuilder sql, RecordCondition condition, int index, List<Object> parameters) {
+        String e = "e" + index;
+        sql.append("exists (select 1 from record_field_index ").append(e)
+                .append(" where ").append(e).append(".dataset_name = r.dataset_name")
+                .append(" and ").append(e).append(".record_id = r.id")
+                .append(" and ").append(e).append(".field_name = :").append(parameter(parameters, condition.indexedField()))
+                .append(" and ").append(e).append(".value_rank = ").append(condition.valueRank())
+                .append(" and ").append(e);
+        Object value = condition.value();
+        if (value instanceof String) {
+            sql.append(".string_value ");
+        } else if (value instanceof Boolean b) {
+            sql.append(".long_value ");
+            value = b ? 1L : 0L;
+        } else {
+            sql.append(".number_value ");
+            value = ((Number) value).doubleValue();
+        }
+        sql.append(condition.bound().symbol()).append(" :").append(parameter(parameters, value)).append(')');
+    }
+
+    private static void appendJsonCondition(StringBuilder sql, RecordCondition condition, int index, List<Object> parameters) {
+        String path = ":" + parameter(parameters, condition.jsonPath());
+        Object value = condition.value();
+        if (value instanceof String) {
+            sql.append("json_unquote(json_extract(r.json_data, ").append(path).append(")) ");
+        } else if (value instanceof Boolean b) {
+            sql.append("json_extract(r.json_data, ").append(path).append(") ")
+                    .append(condition.bound().symbol()).append(" cast(:").append(parameter(parameters, b.toString())).append(" as json)");
+            return;
+        } else {
+            sql.append("json_extract(r.json_data, ").append(path).append(") ");
+        }
+        sql.append(condition.bound().symbol()).append(" :").append(parameter(parameters, value));
+    }
+
+    private static String parameter(List<Object> parameters, Object value) {
+        parameters.add(value);
+        return "p" + (parameters.size() - 1);
+    }
+}
@@ -0,0 +1,10 @@
+package com.backend.repository;
+
+import com.backend.model.Dataset;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface DatasetRepository extends JpaRepository<Dataset, Long> {
+    Optional<Dataset> findByName(String name);
+}
@@ -0,0 +1,43 @@
+package com.backend.repository;
+
+import com.backend.model.FieldIndexEntry;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface FieldIndexEntryRepository extends JpaRepository<FieldIndexEntry, Long> {
+
+    @Query("select e.recordId from FieldIndexEntry e where e.datasetName = :datasetName and e.fieldName = :fieldName " +
+            "order by e.valueRank, e.numberValue, e.longValue, e.stringValue, e.recordId")
+    List<Long> findRecordIdsAscending(@Param("datasetName") String datasetName, @Param("fieldName") String fieldName, Pageable pageable);
+
+    @Query("select e.recordId from FieldIndexEntry e where e.datasetName = :datasetName and e.fieldName = :fieldName " +
+            "order by e.descRank desc, e.numberValue desc, e.longValue desc, e.stringValue desc, e.recordId")
+    List<Long> findRecordIdsDescending(@Param("datasetName") String datasetName, @Param("fieldName") String fieldName, Pageable pageable);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false"))
+    @Query("select e.recordId from FieldIndexEntry e where e.datasetName = :datasetName and e.fieldName = :fieldName " +
+            "order by e.valueRank, e.numberValue, e.longValue, e.stringValue, e.recordId")
+    Stream<Long> streamRecordIdsAscending(@Param("datasetName") String datasetName, @Param("fieldName") String fieldName);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false"))
+    @Query("select e.recordId from FieldIndexEntry e where e.datasetName = :datasetName and e.fieldName = :fieldName " +
+            "order by e.descRank desc, e.numberValue desc, e.longValue desc, e.stringValue desc, e.recordId")
+    Stream<Long> streamRecordIdsDescending(@Param("datasetName") String datasetName, @Param("fieldName") String fieldName);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false"))
+    @Query("select e.groupKey, e.recordId from FieldIndexEntry e where e.datasetName = :datasetName " +
+            "and e.fieldName = :fieldName and e.missing = false order by e.groupKey, e.recordId")
+    Stream<Object[]> streamGroupKeys(@Param("datasetName") String datasetName, @Param("fieldName") String fieldName);
+
+    List<FieldIndexEntry> findByDatasetNameAndFieldNameAndRecordIdIn(String datasetName, String fieldName,
+                                                                    Collection<Long> recordIds);
+}
@@ -0,0 +1,10 @@
+package com.backend.repository;
+
+import com.backend.model.IndexedField;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface IndexedFieldRepository extends JpaRepository<IndexedField, Long> {
+    Optional<IndexedField> findByDatasetNameAndFieldName(String datasetName, String fieldName);
+}
@@ -0,0 +1,36 @@
+package com.backend.repository;
+
+/**
+ * A condition narrowing the records of a dataset in the database, either through the index
+ * entries of a field or through a JSON path of the row. Conditions only ever need to be
+ * implied by the caller's own filter, so they are inclusive bounds.
+ *
+ * @param indexedField the indexed field to join, or null to evaluate {@code jsonPath} on the row
+ * @param valueRank    the index value rank the entry must have, for indexed conditions
+ * @param jsonPath     MySQL JSON path such as {@code $."address"."city"}, for row conditions
+ * @param value        a String, Boolean or Number
+ */
+public record RecordCondition(String indexedField, int valueRank, String jsonPath, Bound bound, Object value) {
+
+    public enum Bound {
+        EQ("="), GE(">="), LE("<=");
+
+        private final String symbol;
+
+        Bound(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String symbol() {
+            return symbol;
+        }
+    }
+
+    public static RecordCondition onIndex(String field, int valueRank, Bound bound, Object value) {
+        return new RecordCondition(field, valueRank, null, bound, value);
+    }
+
+    public static RecordCondition onJson(String jsonPath, Bound bound, Object value) {
+        return new RecordCondition(null, 0, jsonPath, bound, value);
+    }
+}
@@ -0,0 +1,23 @@
+package com.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Notified of every record written to a dataset, inside the transaction that wrote it.
+ */
+public interface DatasetChangeListener {
+
+    void onRecordsInserted(String datasetName, List<InsertedRecord> records) throws JsonProcessingException;
+
+    /**
+     * Notified once a dataset and its records are gone, to drop whatever is kept about it.
+     */
+    default void onDatasetDeleted(String datasetName) {
+    }
+
+    record InsertedRecord(Long id, Map<String, Object> row) {
+    }
+}
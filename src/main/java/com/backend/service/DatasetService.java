@@ -1,9 +1,18 @@
 package com.backend.service;
 
+import com.backend.model.Dataset;
 import com.backend.model.DatasetRecord;
 import com.backend.model.DatasetRecord;
+import com.backend.service.aggregate.AggregateSpec;
+import com.backend.service.filter.RowFilter;
+import com.backend.service.ingest.BulkInsertResult;
+import com.backend.service.query.SortPage;
+import com.backend.service.query.SortedRows;
+import com.backend.service.sketch.ApproximateGroups;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -11,7 +20,36 @@ public interface DatasetService {
 
      DatasetRecord insertRecord(String datasetName, Map<String, Object> json) throws JsonProcessingException;
 
+     BulkInsertResult insertRecords(String datasetName, InputStream body, boolean ndjson) throws IOException;
+
+     Dataset getDataset(String datasetName);
+
      Map<String, List<Map<String, Object>>> queryGroupBy(String datasetName, String groupBy) throws JsonProcessingException;
 
+     /**
+      * Variants taking a {@code filter}, or null, restrict the query to the rows that pass it.
+      */
+     Map<String, List<Map<String, Object>>> queryGroupBy(String datasetName, String groupBy, RowFilter filter) throws JsonProcessingException;
+
+     /**
+      * The {@code top} largest groups and the number of groups, estimated in fixed memory with
+      * their error bounds, for keys too close to unique to group exactly.
+      */
+     ApproximateGroups queryGroupByApproximate(String datasetName, String groupBy, int top, RowFilter filter) throws JsonProcessingException;
+
+     Map<String, Map<String, Object>> queryGroupByAggregate(String datasetName, String groupBy, List<AggregateSpec> aggregates) throws JsonProcessingException;
+
+     Map<String, Map<String, Object>> queryGroupByAggregate(String datasetName, String groupBy, List<AggregateSpec> aggregates, RowFilter filter) throws JsonProcessingException;
+
      List<Map<String, Object>> querySortBy(String datasetName, String sortBy, String order) throws JsonProcessingException;
+
+     List<Map<String, Object>> querySortBy(String datasetName, String sortBy, String order, RowFilter filter) throws JsonProcessingException;
+
+     SortedRows openSortBy(String datasetName, String sortBy, String order) throws JsonProcessingException;
+
+     SortedRows openSortBy(String datasetName, String sortBy, String order, RowFilter filter) throws JsonProcessingException;
+
+     SortPage querySortByPage(String datasetName, String sortBy, String order, int limit, int offset, String cursor) throws JsonProcessingException;
+
+     SortPage querySortByPage(String datasetName, String sortBy, String order, int limit, int offset, String cursor, RowFilter filter) throws JsonProcessingException;
 }
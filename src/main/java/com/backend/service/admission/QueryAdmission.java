@@ -0,0 +1,191 @@
+package com.backend.service.admission;
+
+import com.backend.config.AdmissionProperties;
+import com.backend.exception.ServiceUnavailableException;
+import com.backend.service.metrics.QueryProfile;
+import com.backend.service.query.SortedRows;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs queries on a bounded executor of their own, apart from the request threads that serve
+ * inserts, so a burst of expensive scans queues here instead of holding every request thread
+ * and database connection. A query first takes a slot of its dataset, waiting up to
+ * {@code dataset.admission.queue-timeout}, then a place on the executor; it is shed with
+ * {@link ServiceUnavailableException} when either is not to be had. The slots of a dataset are
+ * dropped once no query holds or awaits them, so names that come and go leave nothing behind.
+ * <p>
+ * The caller blocks until the query is done, which costs nothing on a virtual thread. The
+ * {@link QueryProfile} of the caller moves to the executor thread for the duration.
+ */
+@Component
+@Slf4j
+public class QueryAdmission {
+
+    private final AdmissionProperties properties;
+    private final MeterRegistry registry;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, DatasetSlots> datasetSlots = new ConcurrentHashMap<>();
+
+    /**
+     * Slots of a dataset and the queries holding or awaiting one; only changed inside
+     * {@link ConcurrentHashMap#compute}, so an entry is removed just when nobody uses it.
+     */
+    private static final class DatasetSlots {
+        private final Semaphore semaphore;
+        private int users;
+
+        private DatasetSlots(int permits) {
+            this.semaphore = new Semaphore(permits, true);
+        }
+    }
+
+    public QueryAdmission(AdmissionProperties properties, MeterRegistry registry) {
+        this.properties = properties;
+        this.registry = registry;
+        int threads = Math.max(1, properties.getMaxConcurrentQueries());
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getMaxQueuedQueries())),
+                Thread.ofPlatform().name("query-", 0).daemon().factory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        registry.gauge("dataset.query.executor.active", executor, ThreadPoolExecutor::getActiveCount);
+        registry.gauge("dataset.query.executor.queued", executor, pool -> pool.getQueue().size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs the query once admitted and returns its result, rethrowing what it throws.
+     */
+    public <T> T run(String datasetName, Callable<T> query) throws Exception {
+        if (!properties.isEnabled()) return query.call();
+
+        Semaphore slots = admit(datasetName);
+        try {
+            return execute(datasetName, query);
+        } finally {
+            slots.release();
+            leave(datasetName);
+        }
+    }
+
+    /**
+     * Runs a sort whose rows are read after it returns, as a streamed response does. The slot
+     * of the dataset is held until the rows are closed rather than until the query returns, so
+     * streams still being written count against {@code max-concurrent-per-dataset}.
+     */
+    public SortedRows open(String datasetName, Callable<SortedRows> query) throws Exception {
+        if (!properties.isEnabled()) return query.call();
+
+        Semaphore slots = admit(datasetName);
+        AtomicBoolean held = new AtomicBoolean(true);
+        Runnable release = () -> {
+            if (held.compareAndSet(true, false)) {
+                slots.release();
+                leave(datasetName);
+            }
+        };
+        try {
+            return execute(datasetName, query).onClose(release);
+        } catch (Exception | Error e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes a slot of the dataset, waiting up to the queue timeout, or sheds the query.
+     */
+    private Semaphore admit(String datasetName) throws InterruptedException {
+        Semaphore slots = enter(datasetName);
+        try {
+            if (!slots.tryAcquire(properties.getQueueTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                throw shed(datasetName, "dataset", "Too many concurrent queries on dataset " + datasetName);
+            }
+            return slots;
+        } catch (Exception | Error e) {
+            leave(datasetName);
+            throw e;
+        }
+    }
+
+    private <T> T execute(String datasetName, Callable<T> query) throws Exception {
+        QueryProfile profile = QueryProfile.current();
+        try {
+            profile.suspend();
+            Future<T> result;
+            try {
+                result = executor.submit(() -> {
+                    profile.attach();
+                    try {
+                        return query.call();
+                    } finally {
+                        profile.detach();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                throw shed(datasetName, "executor", "Query executor is saturated");
+            }
+            return await(result);
+        } finally {
+            profile.resume();
+        }
+    }
+
+    private Semaphore enter(String datasetName) {
+        return datasetSlots.compute(datasetName, (name, slots) -> {
+            if (slots == null) slots = new DatasetSlots(Math.max(1, properties.getMaxConcurrentPerDataset()));
+            slots.users++;
+            return slots;
+        }).semaphore;
+    }
+
+    private void leave(String datasetName) {
+        datasetSlots.computeIfPresent(datasetName, (name, slots) -> --slots.users == 0 ? null : slots);
+    }
+
+    private static <T> T await(Future<T> result) throws Exception {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception exception) throw exception;
+            if (cause instanceof Error error) throw error;
+            throw e;
+        }
+    }
+
+    private ServiceUnavailableException shed(String datasetName, String reason, String message) {
+        log.warn("Shedding query on dataset {}: {}", datasetName, message);
+        // not tagged with the dataset: any name in a URL would add a meter
+        Counter.builder("dataset.query.shed")
+                .description("Queries rejected with 503 because no slot was free")
+                .tags("reason", reason)
+                .register(registry)
+                .increment();
+        return new ServiceUnavailableException(message);
+    }
+}
@@ -0,0 +1,84 @@
+package com.backend.service.admission;
+
+import com.backend.config.AdmissionProperties;
+import com.backend.service.cache.QueryResultCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Single-flight execution of identical queries: the first of several concurrent requests for
+ * the same query computes it, the others wait for its result, or its failure, without being
+ * admitted themselves. A flight is keyed by dataset, operator and query parameters, and by the
+ * dataset version, so a request that arrives after an insert committed starts a new flight
+ * rather than joining one that may not see the insert. Joining is a lock-free
+ * {@code putIfAbsent} on a concurrent map; the flight is removed once it completes.
+ * <p>
+ * Joined requests are counted in {@code dataset.query.coalesced} per operator. The result is shared between
+ * the requests, which only read it.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class QueryCoalescer {
+
+    private record Flight(String dataset, String operator, String query, long version) {
+    }
+
+    private final AdmissionProperties properties;
+    private final QueryResultCache resultCache;
+    private final MeterRegistry registry;
+    private final Map<Flight, CompletableFuture<Object>> flights = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T run(String datasetName, String operator, String query, Callable<T> computation) throws Exception {
+        if (!properties.isCoalesce()) return computation.call();
+
+        Flight key = new Flight(datasetName, operator, query, resultCache.version(datasetName));
+        CompletableFuture<Object> flight = new CompletableFuture<>();
+        CompletableFuture<Object> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            log.debug("Joining running {} on dataset {}: {}", operator, datasetName, query);
+            // not tagged with the dataset: any name in a URL would add a meter
+            Counter.builder("dataset.query.coalesced")
+                    .description("Queries answered by an identical query already running")
+                    .tags("operator", operator)
+                    .register(registry)
+                    .increment();
+            return (T) join(running);
+        }
+        try {
+            T result = computation.call();
+            flight.complete(result);
+            return result;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /**
+     * Waits for a running flight. A request that stops waiting leaves the flight running for
+     * the others.
+     */
+    private static Object join(CompletableFuture<Object> running) throws Exception {
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception exception) throw exception;
+            if (cause instanceof Error error) throw error;
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.backend.service.aggregate;
+
+import com.backend.exception.BadRequestException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * One aggregate of a groupBy, written {@code function} or {@code function:field}, e.g.
+ * {@code count}, {@code sum:salary}. {@code count} counts the rows of a group and
+ * {@code count:field} the rows where the field is present and not null; sum, avg, min and max
+ * take the numeric values of the field and ignore everything else.
+ */
+public record AggregateSpec(Function function, String field) {
+
+    public enum Function {
+        COUNT, SUM, AVG, MIN, MAX
+    }
+
+    /**
+     * Parses a comma-separated list such as {@code count,sum:salary,avg:age}; repeated specs are
+     * dropped.
+     */
+    public static List<AggregateSpec> parseList(String text) {
+        Set<AggregateSpec> specs = new LinkedHashSet<>();
+        for (String part : text.split(",")) {
+            String spec = part.trim();
+            if (spec.isEmpty()) continue;
+
+            int colon = spec.indexOf(':');
+            String name = colon < 0 ? spec : spec.substring(0, colon).trim();
+            String field = colon < 0 ? null : spec.substring(colon + 1).trim();
+            Function function;
+            try {
+                function = Function.valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException("Unknown aggregate function: " + name);
+            }
+            if (field != null && field.isEmpty()) {
+                throw new BadRequestException("Missing field name in aggregate: " + spec);
+            }
+            if (field == null && function != Function.COUNT) {
+                throw new BadRequestException("Aggregate " + name + " needs a field, e.g. " + name + ":salary");
+            }
+            specs.add(new AggregateSpec(function, field));
+        }
+        if (specs.isEmpty()) {
+            throw new BadRequestException("agg must name at least one aggregate");
+        }
+        return new ArrayList<>(specs);
+    }
+
+    public String label() {
+        String name = function.name().toLowerCase(Locale.ROOT);
+        return field == null ? name : name + ":" + field;
+    }
+}
@@ -0,0 +1,247 @@
+package com.backend.service.aggregate;
+
+import com.backend.service.query.FieldKeys;
+import com.backend.service.query.FieldPath;
+import com.backend.service.query.FieldProjection;
+import com.backend.service.query.JsonFieldReader;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes groupBy aggregates in one pass. Each group keeps only primitive accumulators (row
+ * count plus, per aggregated field, non-null count, numeric count, sum, min and max), so memory
+ * grows with the number of groups rather than the number of rows. A sum is kept exactly as a
+ * long as well, and returned as such while every value added is a whole number and the total
+ * fits; otherwise it is the double sum.
+ */
+public class GroupAggregator {
+
+    private final FieldKeys groupKeys;
+    private final List<AggregateSpec> specs;
+    private final List<FieldPath> paths;
+    private final FieldProjection projection;
+    private final Map<Object, Accumulator> groups = new HashMap<>();
+
+    /**
+     * @param groupKeys the group keys; their paths always come first in {@link #paths()}
+     */
+    public GroupAggregator(FieldKeys groupKeys, List<AggregateSpec> specs) {
+        this.groupKeys = groupKeys;
+        this.specs = specs;
+        List<FieldPath> pathList = new ArrayList<>(groupKeys.paths());
+        List<String> aggregated = new ArrayList<>();
+        for (AggregateSpec spec : specs) {
+            if (spec.field() != null && !aggregated.contains(spec.field())) {
+                aggregated.add(spec.field());
+                pathList.add(FieldPath.parse(spec.field()));
+            }
+        }
+        this.paths = List.copyOf(pathList);
+        this.projection = FieldProjection.of(paths);
+    }
+
+    private GroupAggregator(GroupAggregator template) {
+        this.groupKeys = template.groupKeys;
+        this.specs = template.specs;
+        this.paths = template.paths;
+        this.projection = template.projection;
+    }
+
+    /**
+     * An empty aggregator with the same keys and specs, for aggregating part of the rows
+     * before {@link #merge merging}.
+     */
+    public GroupAggregator partial() {
+        return new GroupAggregator(this);
+    }
+
+    /**
+     * The paths to read from every row: the group keys first, then the distinct aggregated fields.
+     */
+    public List<FieldPath> paths() {
+        return paths;
+    }
+
+    public FieldProjection projection() {
+        return projection;
+    }
+
+    /**
+     * Distinct aggregated fields, in the order their partial results are passed to {@link #addPartial}.
+     */
+    public List<String> aggregatedFields() {
+        return paths.subList(groupKeys.size(), paths.size()).stream().map(FieldPath::expression).toList();
+    }
+
+    /**
+     * Adds one row given its values for {@link #paths()}, with {@link JsonFieldReader#MISSING}
+     * for absent fields. Rows without a group key are not part of any group.
+     */
+    public void add(Object[] values) {
+        Object key = groupKeys.groupKey(values);
+        if (key == null) return;
+
+        int keyCount = groupKeys.size();
+        Accumulator accumulator = groups.computeIfAbsent(key, k -> new Accumulator(paths.size() - keyCount));
+        accumulator.rows++;
+        for (int f = keyCount; f < values.length; f++) {
+            Object value = values[f];
+            if (value == null || value == JsonFieldReader.MISSING) continue;
+            int slot = f - keyCount;
+            accumulator.nonNull[slot]++;
+            if (value instanceof Number number) {
+                accumulator.addNumber(slot, number);
+            }
+        }
+    }
+
+    /**
+     * Adds accumulators computed elsewhere, such as by the database, for one group. The arrays
+     * are indexed like {@link #aggregatedFields()}; min and max are ignored where numeric is 0.
+     * {@code integralSums} hold the exact sums of the fields whose numeric values are all
+     * {@link #isIntegral integral}, as flagged by {@code integral}.
+     */
+    public void addPartial(String key, long rows, long[] nonNull, long[] numeric, double[] sums, long[] integralSums,
+                           boolean[] integral, double[] mins, double[] maxs) {
+        Accumulator partial = new Accumulator(paths.size() - groupKeys.size());
+        partial.rows = rows;
+        for (int slot = 0; slot < nonNull.length; slot++) {
+            partial.nonNull[slot] = nonNull[slot];
+            if (numeric[slot] == 0) continue;
+            partial.numeric[slot] = numeric[slot];
+            partial.sums[slot] = sums[slot];
+            partial.integralSums[slot] = integralSums[slot];
+            partial.fractional[slot] = !integral[slot];
+            partial.mins[slot] = mins[slot];
+            partial.maxs[slot] = maxs[slot];
+        }
+        groups.merge(key, partial, Accumulator::merge);
+    }
+
+    /**
+     * Folds in the groups of an aggregator over other rows with the same group keys and specs.
+     */
+    public void merge(GroupAggregator other) {
+        other.groups.forEach((key, partial) -> groups.merge(key, partial, Accumulator::merge));
+    }
+
+    public boolean isEmpty() {
+        return groups.isEmpty();
+    }
+
+    /**
+     * Aggregate values per group key, keyed by {@link AggregateSpec#label()} in request order.
+     * Numeric aggregates of a group without numeric values are null.
+     */
+    public Map<String, Map<String, Object>> result() {
+        Map<String, Map<String, Object>> result = new HashMap<>(groups.size() * 2);
+        groups.forEach((key, accumulator) -> {
+            Map<String, Object> values = new LinkedHashMap<>();
+            for (AggregateSpec spec : specs) {
+                values.put(spec.label(), accumulator.value(spec, spec.field() == null ? -1 : slotOf(spec.field())));
+            }
+            result.put(FieldKeys.label(key), values);
+        });
+        return result;
+    }
+
+    /**
+     * Whether a number is a whole number within the range of a long, and so can be summed exactly.
+     */
+    public static boolean isIntegral(Number number) {
+        if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            return true;
+        }
+        if (number instanceof BigInteger big) return big.bitLength() < Long.SIZE;
+        double value = number.doubleValue();
+        return value == Math.rint(value) && Math.abs(value) < 0x1p63;
+    }
+
+    private int slotOf(String field) {
+        int keyCount = groupKeys.size();
+        for (int f = keyCount; f < paths.size(); f++) {
+            if (paths.get(f).expression().equals(field)) return f - keyCount;
+        }
+        throw new IllegalArgumentException(field);
+    }
+
+    private static final class Accumulator {
+        private long rows;
+        private final long[] nonNull;
+        private final long[] numeric;
+        private final double[] sums;
+        private final long[] integralSums;
+        // a value was not a whole number or the integral sum overflowed
+        private final boolean[] fractional;
+        private final double[] mins;
+        private final double[] maxs;
+
+        private Accumulator(int fieldCount) {
+            nonNull = new long[fieldCount];
+            numeric = new long[fieldCount];
+            sums = new double[fieldCount];
+            integralSums = new long[fieldCount];
+            fractional = new boolean[fieldCount];
+            mins = new double[fieldCount];
+            maxs = new double[fieldCount];
+            Arrays.fill(mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        }
+
+        private Accumulator merge(Accumulator other) {
+            rows += other.rows;
+            for (int slot = 0; slot < nonNull.length; slot++) {
+                nonNull[slot] += other.nonNull[slot];
+                numeric[slot] += other.numeric[slot];
+                sums[slot] += other.sums[slot];
+                fractional[slot] |= other.fractional[slot];
+                addIntegral(slot, other.integralSums[slot]);
+                mins[slot] = Math.min(mins[slot], other.mins[slot]);
+                maxs[slot] = Math.max(maxs[slot], other.maxs[slot]);
+            }
+            return this;
+        }
+
+        private void addNumber(int slot, Number number) {
+            double value = number.doubleValue();
+            numeric[slot]++;
+            sums[slot] += value;
+            if (!isIntegral(number)) {
+                fractional[slot] = true;
+            } else {
+                addIntegral(slot, number.longValue());
+            }
+            if (value < mins[slot]) mins[slot] = value;
+            if (value > maxs[slot]) maxs[slot] = value;
+        }
+
+        private void addIntegral(int slot, long value) {
+            if (fractional[slot]) return;
+            try {
+                integralSums[slot] = Math.addExact(integralSums[slot], value);
+            } catch (ArithmeticException e) {
+                fractional[slot] = true;
+            }
+        }
+
+        private Object value(AggregateSpec spec, int slot) {
+            if (spec.function() == AggregateSpec.Function.COUNT) {
+                return slot < 0 ? rows : nonNull[slot];
+            }
+            if (numeric[slot] == 0) return null;
+            return switch (spec.function()) {
+                case SUM -> fractional[slot] ? (Object) sums[slot] : (Object) integralSums[slot];
+                case AVG -> sums[slot] / numeric[slot];
+                case MIN -> mins[slot];
+                case MAX -> maxs[slot];
+                default -> throw new IllegalStateException(spec.function().name());
+            };
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.backend.service.cache;
+
+import com.backend.config.CacheProperties;
+import com.backend.service.DatasetChangeListener;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Caches full groupBy/sortBy results. Every dataset carries a version that is bumped when an
+ * insert commits; the version is part of the cache key, so a result computed before the change
+ * is never served after it and simply ages out of the cache. Versions are only kept for
+ * datasets that changed, so looking up names that do not exist leaves nothing behind. Filtered queries are keyed by the
+ * normalized filter, so equivalent spellings share an entry.
+ */
+@Service
+public class QueryResultCache implements DatasetChangeListener {
+
+    public enum Operator {
+        GROUP_BY, GROUP_BY_AGGREGATE, APPROXIMATE_GROUP_BY, SORT_BY
+    }
+
+    @FunctionalInterface
+    public interface Loader<T> {
+        T load() throws JsonProcessingException;
+    }
+
+    private record Key(String dataset, Operator operator, String field, String order, String filter, long version) {
+    }
+
+    private record Value(Object result, int rows) {
+    }
+
+    private final CacheProperties properties;
+    private final Cache<Key, Value> cache;
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public QueryResultCache(CacheProperties properties) {
+        this.properties = properties;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxRows())
+                .weigher((Key key, Value value) -> Math.max(value.rows(), 1))
+                .expireAfterWrite(properties.getTtl())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * The version of the dataset, 0 until its first change; reading it keeps nothing.
+     */
+    public long version(String datasetName) {
+        AtomicLong version = versions.get(datasetName);
+        return version == null ? 0 : version.get();
+    }
+
+    /**
+     * Returns the cached result of the query or computes and caches it, unless it has more than
+     * {@code max-result-rows} rows. The dataset version is read before computing, so a result
+     * that raced with an insert is stored under the old version and cannot be served once the
+     * insert is visible.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String datasetName, Operator operator, String field, String order, String filter,
+                     ToIntFunction<T> rows, Loader<T> loader) throws JsonProcessingException {
+        if (!properties.isEnabled()) return loader.load();
+
+        Key key = new Key(datasetName, operator, field, order, filter, version(datasetName));
+        Value cached = cache.getIfPresent(key);
+        if (cached != null) return (T) cached.result();
+
+        T result = loader.load();
+        int resultRows = rows.applyAsInt(result);
+        if (resultRows <= properties.getMaxResultRows()) {
+            cache.put(key, new Value(result, resultRows));
+        }
+        return result;
+    }
+
+    @Override
+    public void onRecordsInserted(String datasetName, List<InsertedRecord> records) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate(datasetName);
+                }
+            });
+        } else {
+            invalidate(datasetName);
+        }
+    }
+
+    /**
+     * Makes the cached results of the dataset stale now, for rows queries see before they are
+     * stored.
+     */
+    public void invalidate(String datasetName) {
+        versions.computeIfAbsent(datasetName, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Drops the version and the cached results of the dataset. The results go too, as a
+     * dataset created again under the name starts over at version 0.
+     */
+    @Override
+    public void onDatasetDeleted(String datasetName) {
+        versions.remove(datasetName);
+        cache.asMap().keySet().removeIf(key -> key.dataset().equals(datasetName));
+    }
+
+    public Map<String, Object> stats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", properties.isEnabled());
+        result.put("entries", cache.estimatedSize());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("evictedRows", stats.evictionWeight());
+        cache.policy().eviction().ifPresent(eviction -> {
+            result.put("cachedRows", eviction.weightedSize().orElse(0));
+            result.put("maxRows", eviction.getMaximum());
+        });
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+package com.backend.service.codec;
+
+import com.backend.config.StorageProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Encodes rows in the storage format of their dataset and reads stored rows of any format.
+ * <p>
+ * Stored rows are handled as bytes: JSON text as UTF-8, Smile as is, and LZ4 compressed Smile
+ * behind a one byte marker and the uncompressed length. The format is recognized from the
+ * leading bytes, so a dataset can hold rows of several formats while it is being migrated.
+ * Readers get a streaming parser over the row rather than a decoded tree, so a key can be
+ * read, and the rest of the row skipped, without materializing the row.
+ */
+@Component
+public class RowCodec {
+
+    private static final SmileFactory SMILE = new SmileFactory();
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+    private static final byte LZ4_MARKER = 0x01;
+    private static final int LZ4_HEADER_BYTES = 5;
+
+    private final StorageProperties properties;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(SMILE);
+
+    public RowCodec(StorageProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * A row ready to be stored: exactly one of {@code json} and {@code binary} is set.
+     */
+    public record EncodedRow(String json, byte[] binary) {
+        public int size() {
+            return json != null ? json.getBytes(StandardCharsets.UTF_8).length : binary.length;
+        }
+    }
+
+    public StorageProperties.Format formatFor(String datasetName) {
+        return properties.formatFor(datasetName);
+    }
+
+    public EncodedRow encode(String datasetName, Map<String, ?> row) throws JsonProcessingException {
+        return encode(row, formatFor(datasetName));
+    }
+
+    public EncodedRow encode(Map<String, ?> row, StorageProperties.Format format) throws JsonProcessingException {
+        return switch (format) {
+            case TEXT -> new EncodedRow(mapper.writeValueAsString(row), null);
+            case SMILE -> new EncodedRow(null, smileMapper.writeValueAsBytes(row));
+            case SMILE_LZ4 -> new EncodedRow(null, compress(smileMapper.writeValueAsBytes(row)));
+        };
+    }
+
+    /**
+     * Re-encodes a stored row in another format, or returns null when it already is in it.
+     */
+    public EncodedRow convert(byte[] row, StorageProperties.Format format) throws IOException {
+        if (formatOf(row) == format) return null;
+        if (format == StorageProperties.Format.TEXT) {
+            return new EncodedRow(toJson(row), null);
+        }
+        byte[] smile = formatOf(row) == StorageProperties.Format.SMILE ? row : toSmile(row);
+        return new EncodedRow(null, format == StorageProperties.Format.SMILE_LZ4 ? compress(smile) : smile);
+    }
+
+    public static StorageProperties.Format formatOf(byte[] row) {
+        if (row.length > 0 && row[0] == LZ4_MARKER) return StorageProperties.Format.SMILE_LZ4;
+        if (row.length >= 3 && row[0] == ':' && row[1] == ')' && row[2] == '\n') return StorageProperties.Format.SMILE;
+        return StorageProperties.Format.TEXT;
+    }
+
+    /**
+     * Parser over a stored row. Parsers of JSON text rows come from {@code mapper}; every
+     * parser can be read with {@code mapper}.
+     */
+    public static JsonParser createParser(ObjectMapper mapper, byte[] row) throws IOException {
+        return switch (formatOf(row)) {
+            case TEXT -> mapper.createParser(row);
+            case SMILE -> SMILE.createParser(row);
+            case SMILE_LZ4 -> SMILE.createParser(decompress(row));
+        };
+    }
+
+    /**
+     * Writes a stored row as a JSON value, copying JSON text rows without parsing them.
+     */
+    public static void writeTo(JsonGenerator generator, ObjectMapper mapper, byte[] row) throws IOException {
+        if (formatOf(row) == StorageProperties.Format.TEXT) {
+            generator.writeRawValue(new String(row, StandardCharsets.UTF_8));
+            return;
+        }
+        try (JsonParser parser = createParser(mapper, row)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+    }
+
+    private String toJson(byte[] row) throws IOException {
+        StringWriter out = new StringWriter(row.length * 2);
+        try (JsonParser parser = createParser(mapper, row);
+             JsonGenerator generator = mapper.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toString();
+    }
+
+    private byte[] toSmile(byte[] row) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(row.length);
+        try (JsonParser parser = createParser(mapper, row);
+             JsonGenerator generator = SMILE.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(byte[] smile) {
+        LZ4Compressor compressor = LZ4.fastCompressor();
+        byte[] out = new byte[LZ4_HEADER_BYTES + compressor.maxCompressedLength(smile.length)];
+        out[0] = LZ4_MARKER;
+        ByteBuffer.wrap(out, 1, 4).putInt(smile.length);
+        int length = compressor.compress(smile, 0, smile.length, out, LZ4_HEADER_BYTES);
+        byte[] compressed = new byte[LZ4_HEADER_BYTES + length];
+        System.arraycopy(out, 0, compressed, 0, compressed.length);
+        return compressed;
+    }
+
+    private static byte[] decompress(byte[] row) {
+        int length = ByteBuffer.wrap(row, 1, 4).getInt();
+        LZ4FastDecompressor decompressor = LZ4.fastDecompressor();
+        byte[] smile = new byte[length];
+        decompressor.decompress(row, LZ4_HEADER_BYTES, smile, 0, length);
+        return smile;
+    }
+}
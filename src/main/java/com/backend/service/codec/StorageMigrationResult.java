@@ -0,0 +1,16 @@
+package com.backend.service.codec;
+
+import com.backend.config.StorageProperties;
+
+/**
+ * Outcome of converting the rows of a dataset to its configured storage format; the byte counts
+ * cover the converted rows only.
+ */
+public record StorageMigrationResult(String dataset,
+                                     StorageProperties.Format format,
+                                     long scanned,
+                                     long converted,
+                                     long bytesBefore,
+                                     long bytesAfter,
+                                     long elapsedMillis) {
+}
@@ -0,0 +1,43 @@
+package com.backend.service.columnar;
+
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.query.FieldPath;
+import com.backend.service.rows.RowSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Columns of one row snapshot. A column is built on first use of its field path and reused by every
+ * later query against the same snapshot. Holds no reference to the snapshot itself, so it can
+ * be keyed weakly by it.
+ */
+final class ColumnarDataset {
+
+    private final ObjectMapper mapper;
+    private final ParallelQueryExecutor executor;
+    private final Map<String, FieldColumn> columns = new ConcurrentHashMap<>();
+
+    ColumnarDataset(ObjectMapper mapper, ParallelQueryExecutor executor) {
+        this.mapper = mapper;
+        this.executor = executor;
+    }
+
+    FieldColumn column(RowSnapshot rows, FieldPath path) throws JsonProcessingException {
+        try {
+            return columns.computeIfAbsent(path.expression(), expression -> {
+                try {
+                    return FieldColumn.build(rows, path, mapper, executor);
+                } catch (JsonProcessingException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            if (e.getCause() instanceof JsonProcessingException cause) throw cause;
+            throw e;
+        }
+    }
+}
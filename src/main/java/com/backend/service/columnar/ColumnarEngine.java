@@ -0,0 +1,153 @@
+package com.backend.service.columnar;
+
+import com.backend.config.EngineProperties;
+import com.backend.service.filter.RowFilter;
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.query.CompositeKey;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.query.SortedRows;
+import com.backend.service.rows.RowSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Answers groupBy and sortBy over the parsed rows of a dataset using typed, dictionary-encoded
+ * columns, for the datasets configured with {@code dataset.engine.datasets.<name>=columnar}.
+ * Grouping and sorting run over int/long arrays; rows are only looked up for the output.
+ * Columns belong to one row snapshot and are rebuilt once inserts produce a new one.
+ */
+@Service
+@Slf4j
+public class ColumnarEngine {
+
+    private final EngineProperties properties;
+    private final ParallelQueryExecutor executor;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<RowSnapshot, ColumnarDataset> datasets = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public ColumnarEngine(EngineProperties properties, ParallelQueryExecutor executor) {
+        this.properties = properties;
+        this.executor = executor;
+    }
+
+    public boolean isEnabledFor(String datasetName) {
+        return properties.engineFor(datasetName) == EngineProperties.Engine.COLUMNAR;
+    }
+
+    /**
+     * @param filter rows to keep, or null for all of them
+     */
+    public Map<String, List<Map<String, Object>>> groupBy(RowSnapshot rows, FieldKeys keys, RowFilter filter) throws JsonProcessingException {
+        ColumnarDataset dataset = dataset(rows);
+        boolean[] selected = select(rows, filter);
+        if (keys.size() == 1) {
+            Map<String, int[]> positions = dataset.column(rows, keys.path(0)).groupPositions();
+            Map<String, List<Map<String, Object>>> groups = new HashMap<>(positions.size() * 2);
+            positions.forEach((key, members) -> {
+                List<Map<String, Object>> group = new ArrayList<>(members.length);
+                for (int position : members) {
+                    if (selected == null || selected[position]) group.add(rows.row(position));
+                }
+                if (!group.isEmpty()) groups.put(key, group);
+            });
+            return groups;
+        }
+
+        // Several keys: combine the dictionary ids of each column; the parts of a key are the
+        // columns' shared group names, so no string is built per row
+        FieldColumn[] columns = columns(dataset, rows, keys);
+        Map<CompositeKey, List<Map<String, Object>>> groups = new HashMap<>();
+        String[] parts = new String[columns.length];
+        rows:
+        for (int i = 0; i < rows.size(); i++) {
+            if (selected != null && !selected[i]) continue;
+            for (int c = 0; c < columns.length; c++) {
+                int group = columns[c].group(i);
+                if (group < 0) continue rows;
+                parts[c] = columns[c].groupName(group);
+            }
+            groups.computeIfAbsent(new CompositeKey(parts.clone()), k -> new ArrayList<>()).add(rows.row(i));
+        }
+        Map<String, List<Map<String, Object>>> labelled = new HashMap<>(groups.size() * 2);
+        groups.forEach((key, group) -> labelled.put(key.label(), group));
+        return labelled;
+    }
+
+    public SortedRows sortBy(RowSnapshot rows, FieldKeys keys, RowFilter filter) throws JsonProcessingException {
+        ColumnarDataset dataset = dataset(rows);
+        int[] positions;
+        if (keys.size() == 1) {
+            positions = dataset.column(rows, keys.path(0)).sortedPositions(keys.isDescending(0), executor);
+        } else {
+            FieldColumn[] columns = columns(dataset, rows, keys);
+            int[][] ranks = new int[columns.length][];
+            for (int c = 0; c < columns.length; c++) {
+                ranks[c] = columns[c].sortRanks(keys.isDescending(c));
+            }
+            Integer[] order = new Integer[rows.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            executor.sort(order, (a, b) -> {
+                for (int[] rank : ranks) {
+                    int result = Integer.compare(rank[a], rank[b]);
+                    if (result != 0) return result;
+                }
+                return 0;
+            });
+            positions = Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+        }
+        boolean[] selected = select(rows, filter);
+        if (selected != null) {
+            positions = Arrays.stream(positions).filter(position -> selected[position]).toArray();
+        }
+        return SortedRows.ofParsed(Arrays.stream(positions).mapToObj(rows::row).iterator());
+    }
+
+    /**
+     * Marks the rows that pass the filter; null when there is no filter.
+     */
+    private boolean[] select(RowSnapshot rows, RowFilter filter) throws JsonProcessingException {
+        if (filter == null) return null;
+        boolean[] selected = new boolean[rows.size()];
+        try {
+            executor.forRanges(rows.size(), (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    selected[i] = filter.test(rows.row(i));
+                }
+                return null;
+            }, (left, right) -> null);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return selected;
+    }
+
+    private static FieldColumn[] columns(ColumnarDataset dataset, RowSnapshot rows, FieldKeys keys) throws JsonProcessingException {
+        FieldColumn[] columns = new FieldColumn[keys.size()];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = dataset.column(rows, keys.path(c));
+        }
+        return columns;
+    }
+
+    private ColumnarDataset dataset(RowSnapshot rows) {
+        synchronized (datasets) {
+            return datasets.computeIfAbsent(rows, k -> new ColumnarDataset(mapper, executor));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.backend.service.columnar;
+
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.query.FieldPath;
+import com.backend.service.query.JsonFieldReader;
+import com.backend.service.query.SortKey;
+import com.backend.service.rows.RowSnapshot;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column vectors of one field path over the rows of a snapshot, as two dictionary encodings:
+ * <ul>
+ *     <li>{@code ranks}: the position of the row's {@link SortKey} among the distinct keys of the
+ *     column in ascending order, with 0 reserved for null and missing values. Comparing ranks is
+ *     equivalent to comparing keys, across all JSON types.</li>
+ *     <li>{@code groups}: a dense id per distinct group key ({@code String.valueOf} of the value),
+ *     -1 where the field is missing.</li>
+ * </ul>
+ */
+final class FieldColumn {
+
+    private static final long POSITION_MASK = 0xFFFF_FFFFL;
+
+    private final int[] ranks;
+    private final int maxRank;
+    private final int[] groups;
+    private final String[] groupNames;
+
+    private FieldColumn(int[] ranks, int maxRank, int[] groups, String[] groupNames) {
+        this.ranks = ranks;
+        this.maxRank = maxRank;
+        this.groups = groups;
+        this.groupNames = groupNames;
+    }
+
+    static FieldColumn build(RowSnapshot rows, FieldPath path, ObjectMapper mapper,
+                             ParallelQueryExecutor executor) throws JsonProcessingException {
+        int size = rows.size();
+        SortKey[] keys = new SortKey[size];
+        try {
+            executor.forRanges(size, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    Object value = path.resolve(rows.row(i));
+                    keys[i] = value == JsonFieldReader.MISSING ? SortKey.NULL_KEY : SortKey.of(value, mapper);
+                }
+                return null;
+            }, (left, right) -> null);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        // Group ids are handed out in row order, which keeps the dictionary deterministic
+        int[] groups = new int[size];
+        Map<String, Integer> groupIds = new HashMap<>();
+        List<String> groupNames = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Object value = path.resolve(rows.row(i));
+            if (value == JsonFieldReader.MISSING) {
+                groups[i] = -1;
+            } else {
+                groups[i] = groupIds.computeIfAbsent(String.valueOf(value), name -> {
+                    groupNames.add(name);
+                    return groupNames.size() - 1;
+                });
+            }
+        }
+
+        Integer[] byKey = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            byKey[i] = i;
+        }
+        Comparator<SortKey> ascending = SortKey.comparator("asc");
+        executor.sort(byKey, (a, b) -> ascending.compare(keys[a], keys[b]));
+
+        int[] ranks = new int[size];
+        int rank = 0;
+        SortKey previous = null;
+        for (int position : byKey) {
+            SortKey key = keys[position];
+            if (key.kind() != SortKey.NULL && (previous == null || ascending.compare(previous, key) != 0)) {
+                rank++;
+                previous = key;
+            }
+            ranks[position] = key.kind() == SortKey.NULL ? 0 : rank;
+        }
+        return new FieldColumn(ranks, rank, groups, groupNames.toArray(new String[0]));
+    }
+
+    /**
+     * Row positions in sort order. Each row is packed into one long as (rank, position) and the
+     * array is sorted natively, which also keeps ties in row order. Nulls stay first when
+     * descending, as in {@link SortKey#comparator}.
+     */
+    int[] sortedPositions(boolean descending, ParallelQueryExecutor executor) {
+        int[] order = sortRanks(descending);
+        long[] packed = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            packed[i] = ((long) order[i] << 32) | i;
+        }
+        executor.sort(packed);
+
+        int[] positions = new int[packed.length];
+        for (int i = 0; i < packed.length; i++) {
+            positions[i] = (int) (packed[i] & POSITION_MASK);
+        }
+        return positions;
+    }
+
+    /**
+     * Ranks adjusted to the direction, so that ascending order of the result is the sort order.
+     */
+    int[] sortRanks(boolean descending) {
+        if (!descending) return ranks;
+        int[] order = new int[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            int rank = ranks[i];
+            order[i] = rank == 0 ? 0 : maxRank + 1 - rank;
+        }
+        return order;
+    }
+
+    /**
+     * Group id of the row at the position, -1 where the field is missing.
+     */
+    int group(int position) {
+        return groups[position];
+    }
+
+    String groupName(int group) {
+        return groupNames[group];
+    }
+
+    /**
+     * Row positions of every group, in row order, computed with a counting pass over the group ids.
+     */
+    Map<String, int[]> groupPositions() {
+        int[] counts = new int[groupNames.length];
+        for (int group : groups) {
+            if (group >= 0) counts[group]++;
+        }
+        int[][] members = new int[groupNames.length][];
+        for (int g = 0; g < members.length; g++) {
+            members[g] = new int[counts[g]];
+        }
+        int[] filled = new int[groupNames.length];
+        for (int i = 0; i < groups.length; i++) {
+            int group = groups[i];
+            if (group >= 0) members[group][filled[group]++] = i;
+        }
+
+        Map<String, int[]> result = new HashMap<>(groupNames.length * 2);
+        for (int g = 0; g < members.length; g++) {
+            result.put(groupNames[g], members[g]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+package com.backend.service.filter;
+
+import com.backend.service.query.FieldPath;
+import com.backend.service.query.JsonFieldReader;
+import com.backend.service.query.SortKey;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Comparator;
+
+/**
+ * Node of a compiled filter expression. Leaves compare one field path, read into a value slot,
+ * with a literal.
+ */
+public sealed interface FilterNode {
+
+    boolean test(Object[] values);
+
+    /**
+     * Renders the node in a normalized form, used to key cached results.
+     */
+    void render(StringBuilder out);
+
+    enum Operator {
+        EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String symbol() {
+            return symbol;
+        }
+    }
+
+    record And(FilterNode left, FilterNode right) implements FilterNode {
+        @Override
+        public boolean test(Object[] values) {
+            return left.test(values) && right.test(values);
+        }
+
+        @Override
+        public void render(StringBuilder out) {
+            out.append('(');
+            left.render(out);
+            out.append(" and ");
+            right.render(out);
+            out.append(')');
+        }
+    }
+
+    record Or(FilterNode left, FilterNode right) implements FilterNode {
+        @Override
+        public boolean test(Object[] values) {
+            return left.test(values) || right.test(values);
+        }
+
+        @Override
+        public void render(StringBuilder out) {
+            out.append('(');
+            left.render(out);
+            out.append(" or ");
+            right.render(out);
+            out.append(')');
+        }
+    }
+
+    record Not(FilterNode node) implements FilterNode {
+        @Override
+        public boolean test(Object[] values) {
+            return !node.test(values);
+        }
+
+        @Override
+        public void render(StringBuilder out) {
+            out.append("not ");
+            node.render(out);
+        }
+    }
+
+    /**
+     * Compares a field with a literal using {@link SortKey} semantics: numbers compare by value
+     * whether integral or not, and values of different types are never equal nor ordered, so
+     * {@code salary > 5} is false for a string salary. A missing field is null, which only
+     * {@code = null} matches; {@code !=} is always the negation of {@code =}.
+     *
+     * @param literal a String, Long, Double, Boolean or null
+     */
+    record Comparison(FieldPath path, int slot, Operator operator, Object literal, SortKey literalKey) implements FilterNode {
+
+        private static final Comparator<SortKey> ORDER = SortKey.comparator("asc");
+
+        @Override
+        public boolean test(Object[] values) {
+            Object value = values[slot];
+            if (value == JsonFieldReader.MISSING) value = null;
+            if (operator == Operator.NE) return !equalTo(value);
+            if (operator == Operator.EQ) return equalTo(value);
+
+            SortKey key = scalarKey(value);
+            if (key == null || literal == null || key.kind() == SortKey.NULL || key.rank() != literalKey.rank()) {
+                return false;
+            }
+            int result = ORDER.compare(key, literalKey);
+            return switch (operator) {
+                case LT -> result < 0;
+                case LE -> result <= 0;
+                case GT -> result > 0;
+                default -> result >= 0;
+            };
+        }
+
+        private boolean equalTo(Object value) {
+            if (literal == null || value == null) return literal == null && value == null;
+            SortKey key = scalarKey(value);
+            return key != null && key.rank() == literalKey.rank() && ORDER.compare(key, literalKey) == 0;
+        }
+
+        /**
+         * Key of a scalar value; null for objects and arrays, which no literal equals.
+         */
+        private static SortKey scalarKey(Object value) {
+            if (value == null) return SortKey.NULL_KEY;
+            if (value instanceof Boolean b) return SortKey.ofBoolean(b);
+            if (value instanceof String s) return SortKey.ofString(s);
+            if (value instanceof Double || value instanceof Float || value instanceof BigDecimal || value instanceof BigInteger) {
+                return SortKey.ofDouble(((Number) value).doubleValue());
+            }
+            if (value instanceof Number n) return SortKey.ofLong(n.longValue());
+            return null;
+        }
+
+        @Override
+        public void render(StringBuilder out) {
+            out.append(path.expression()).append(' ').append(operator.symbol()).append(' ');
+            if (literal instanceof String s) {
+                out.append('"').append(s.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            } else {
+                out.append(literal);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.backend.service.filter;
+
+import com.backend.repository.RecordCondition;
+import com.backend.service.query.FieldPath;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Translates the comparisons of a filter that the database can evaluate into
+ * {@link RecordCondition}s. The conditions only narrow the scan: they may let through rows the
+ * filter rejects, such as {@code salary > 5} pushed down as {@code >= 5}, so the filter is
+ * still tested on every row read.
+ */
+public final class FilterPushdown {
+
+    private FilterPushdown() {
+    }
+
+    /**
+     * @param indexed       whether a top-level field has a usable index
+     * @param jsonFunctions whether fields without an index may be compared with JSON functions
+     */
+    public static List<RecordCondition> conditions(RowFilter filter, Predicate<String> indexed, boolean jsonFunctions) {
+        List<RecordCondition> conditions = new ArrayList<>();
+        for (FilterNode.Comparison comparison : filter.conjuncts()) {
+            RecordCondition.Bound bound = bound(comparison);
+            if (bound == null) continue;
+
+            String field = comparison.path().topLevelName();
+            if (field != null && indexed.test(field)) {
+                conditions.add(RecordCondition.onIndex(field, comparison.literalKey().rank(), bound, comparison.literal()));
+            } else if (jsonFunctions) {
+                String jsonPath = jsonPath(comparison.path());
+                if (jsonPath != null) conditions.add(RecordCondition.onJson(jsonPath, bound, comparison.literal()));
+            }
+        }
+        return conditions;
+    }
+
+    /**
+     * The inclusive bound implied by a comparison, or null when it cannot be pushed down:
+     * {@code !=} and {@code null} match missing fields, and strings and booleans are only
+     * compared for equality, as their database ordering may differ from ours.
+     */
+    private static RecordCondition.Bound bound(FilterNode.Comparison comparison) {
+        Object literal = comparison.literal();
+        if (literal == null || comparison.operator() == FilterNode.Operator.NE) return null;
+        if (comparison.operator() == FilterNode.Operator.EQ) return RecordCondition.Bound.EQ;
+        if (!(literal instanceof Number)) return null;
+        return switch (comparison.operator()) {
+            case LT, LE -> RecordCondition.Bound.LE;
+            default -> RecordCondition.Bound.GE;
+        };
+    }
+
+    /**
+     * MySQL JSON path of a field, e.g. {@code $."address"."city"}. Null for paths with
+     * numeric segments, which may address either an array element or an object member.
+     */
+    private static String jsonPath(FieldPath path) {
+        StringBuilder jsonPath = new StringBuilder("$");
+        for (int i = 0; i < path.depth(); i++) {
+            String segment = path.segment(i);
+            if (FieldPath.arrayIndex(segment) >= 0) return null;
+            jsonPath.append(".\"").append(segment.replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        }
+        return jsonPath.toString();
+    }
+}
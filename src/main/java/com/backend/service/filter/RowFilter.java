@@ -0,0 +1,282 @@
+package com.backend.service.filter;
+
+import com.backend.exception.BadRequestException;
+import com.backend.service.query.FieldPath;
+import com.backend.service.query.FieldProjection;
+import com.backend.service.query.SortKey;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A row filter compiled from the {@code filter} query parameter, for example
+ * {@code status = active and (salary > 50000 or level >= 3)}.
+ * <p>
+ * Comparisons take a field path on the left and a literal on the right: a number, a quoted
+ * string, {@code true}, {@code false}, {@code null} or a bare word, which is read as a string.
+ * The operators are {@code = != < <= > >=}, combined with {@code and}, {@code or}, {@code not}
+ * and parentheses. Every field is read once per row into a value slot, so the filter can run
+ * on the row text through a {@link FieldProjection} before the row is deserialized.
+ */
+public final class RowFilter {
+
+    private final FilterNode root;
+    private final List<FieldPath> paths;
+    private final FieldProjection projection;
+
+    private RowFilter(FilterNode root, List<FieldPath> paths) {
+        this.root = root;
+        this.paths = Collections.unmodifiableList(paths);
+        this.projection = FieldProjection.of(paths);
+    }
+
+    public static RowFilter parse(String expression) {
+        if (expression == null || expression.isBlank()) {
+            throw new BadRequestException("filter must not be empty");
+        }
+        Parser parser = new Parser(expression);
+        FilterNode root = parser.parseOr();
+        if (parser.peek() != null) {
+            throw parser.error("unexpected '" + parser.peek() + "'");
+        }
+        return new RowFilter(root, parser.paths);
+    }
+
+    public FilterNode root() {
+        return root;
+    }
+
+    /**
+     * The distinct field paths the filter reads, in slot order.
+     */
+    public List<FieldPath> paths() {
+        return paths;
+    }
+
+    public FieldProjection projection() {
+        return projection;
+    }
+
+    /**
+     * Tests a row given the values of {@link #paths()}, as read through {@link #projection()}.
+     */
+    public boolean test(Object[] values) {
+        return root.test(values);
+    }
+
+    public boolean test(Map<String, ?> row) {
+        Object[] values = new Object[paths.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = paths.get(i).resolve(row);
+        }
+        return root.test(values);
+    }
+
+    /**
+     * The comparisons every matching row satisfies: the leaves of the top-level {@code and}
+     * chain. Narrowing a query with any of them never drops a matching row.
+     */
+    public List<FilterNode.Comparison> conjuncts() {
+        List<FilterNode.Comparison> conjuncts = new ArrayList<>();
+        collectConjuncts(root, conjuncts);
+        return conjuncts;
+    }
+
+    private static void collectConjuncts(FilterNode node, List<FilterNode.Comparison> conjuncts) {
+        if (node instanceof FilterNode.And and) {
+            collectConjuncts(and.left(), conjuncts);
+            collectConjuncts(and.right(), conjuncts);
+        } else if (node instanceof FilterNode.Comparison comparison) {
+            conjuncts.add(comparison);
+        }
+    }
+
+    /**
+     * Normalized form of the filter, for use in cache keys.
+     */
+    public String canonical() {
+        StringBuilder out = new StringBuilder();
+        root.render(out);
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return canonical();
+    }
+
+    private static final class Parser {
+        private final String text;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Boolean> quoted = new ArrayList<>();
+        private final List<FieldPath> paths = new ArrayList<>();
+        private int position;
+
+        private Parser(String text) {
+            this.text = text;
+            tokenize();
+        }
+
+        private FilterNode parseOr() {
+            FilterNode node = parseAnd();
+            while (keyword("or")) {
+                node = new FilterNode.Or(node, parseAnd());
+            }
+            return node;
+        }
+
+        private FilterNode parseAnd() {
+            FilterNode node = parseUnary();
+            while (keyword("and")) {
+                node = new FilterNode.And(node, parseUnary());
+            }
+            return node;
+        }
+
+        private FilterNode parseUnary() {
+            if (keyword("not")) {
+                return new FilterNode.Not(parseUnary());
+            }
+            if ("(".equals(peek()) && !quoted.get(position)) {
+                position++;
+                FilterNode node = parseOr();
+                if (!")".equals(next())) throw error("missing ')'");
+                return node;
+            }
+            return parseComparison();
+        }
+
+        private FilterNode parseComparison() {
+            String field = next();
+            if (field == null || isSymbol(field)) throw error("expected a field");
+            FieldPath path = FieldPath.parse(field);
+            FilterNode.Operator operator = operator(next());
+
+            boolean literalQuoted = position < quoted.size() && quoted.get(position);
+            String literalText = next();
+            if (literalText == null || (!literalQuoted && isSymbol(literalText))) {
+                throw error("expected a value after " + field + " " + operator.symbol());
+            }
+            Object literal = literalQuoted ? literalText : literal(literalText);
+            SortKey literalKey = literal == null ? SortKey.NULL_KEY
+                    : literal instanceof String s ? SortKey.ofString(s)
+                    : literal instanceof Boolean b ? SortKey.ofBoolean(b)
+                    : literal instanceof Long l ? SortKey.ofLong(l)
+                    : SortKey.ofDouble((Double) literal);
+            return new FilterNode.Comparison(path, slot(path), operator, literal, literalKey);
+        }
+
+        private int slot(FieldPath path) {
+            for (int i = 0; i < paths.size(); i++) {
+                if (paths.get(i).expression().equals(path.expression())) return i;
+            }
+            paths.add(path);
+            return paths.size() - 1;
+        }
+
+        private FilterNode.Operator operator(String token) {
+            if (token == null) throw error("expected an operator");
+            return switch (token) {
+                case "=", "==" -> FilterNode.Operator.EQ;
+                case "!=", "<>" -> FilterNode.Operator.NE;
+                case "<" -> FilterNode.Operator.LT;
+                case "<=" -> FilterNode.Operator.LE;
+                case ">" -> FilterNode.Operator.GT;
+                case ">=" -> FilterNode.Operator.GE;
+                default -> throw error("unknown operator '" + token + "'");
+            };
+        }
+
+        private static Object literal(String word) {
+            switch (word.toLowerCase()) {
+                case "null":
+                    return null;
+                case "true":
+                    return Boolean.TRUE;
+                case "false":
+                    return Boolean.FALSE;
+                default:
+                    break;
+            }
+            if (word.matches("-?\\d+")) {
+                try {
+                    return Long.parseLong(word);
+                } catch (NumberFormatException e) {
+                    return Double.parseDouble(word);
+                }
+            }
+            if (word.matches("-?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?")) {
+                return Double.parseDouble(word);
+            }
+            return word;
+        }
+
+        private boolean keyword(String keyword) {
+            String token = peek();
+            if (token != null && !quoted.get(position) && token.equalsIgnoreCase(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private String peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        private String next() {
+            return position < tokens.size() ? tokens.get(position++) : null;
+        }
+
+        private boolean isSymbol(String token) {
+            return !token.isEmpty() && "()=!<>".indexOf(token.charAt(0)) >= 0;
+        }
+
+        private BadRequestException error(String problem) {
+            return new BadRequestException("Invalid filter '" + text + "': " + problem);
+        }
+
+        private void tokenize() {
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '(' || c == ')') {
+                    add(String.valueOf(c), false);
+                    i++;
+                } else if ("=!<>".indexOf(c) >= 0) {
+                    int end = i + 1;
+                    if (end < text.length() && (text.charAt(end) == '=' || (c == '<' && text.charAt(end) == '>'))) end++;
+                    add(text.substring(i, end), false);
+                    i = end;
+                } else if (c == '"' || c == '\'') {
+                    StringBuilder value = new StringBuilder();
+                    int j = i + 1;
+                    while (j < text.length() && text.charAt(j) != c) {
+                        if (text.charAt(j) == '\\' && j + 1 < text.length()) j++;
+                        value.append(text.charAt(j++));
+                    }
+                    if (j >= text.length()) throw error("unterminated string");
+                    add(value.toString(), true);
+                    i = j + 1;
+                } else {
+                    int j = i;
+                    while (j < text.length() && !Character.isWhitespace(text.charAt(j))
+                            && "()=!<>\"'".indexOf(text.charAt(j)) < 0) {
+                        j++;
+                    }
+                    add(text.substring(i, j), false);
+                    i = j;
+                }
+            }
+        }
+
+        private void add(String token, boolean isQuoted) {
+            tokens.add(token);
+            quoted.add(isQuoted);
+        }
+    }
+}
@@ -1,87 +1,935 @@
 package com.backend.service.impl;
 
+import com.backend.config.FilterProperties;
+import com.backend.config.IndexProperties;
+import com.backend.config.QueryProperties;
+import com.backend.config.SketchProperties;
+import com.backend.config.StorageProperties;
+import com.backend.exception.BadRequestException;
 import com.backend.exception.DatasetNotFoundException;
+import com.backend.model.Dataset;
 import com.backend.model.DatasetRecord;
-import com.backend.repository.DatasetRecordRepository;
+import com.backend.repository.RecordCondition;
 import com.backend.service.DatasetService;
+import com.backend.service.aggregate.AggregateSpec;
+import com.backend.service.aggregate.GroupAggregator;
+import com.backend.service.cache.QueryResultCache;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.columnar.ColumnarEngine;
+import com.backend.service.filter.FilterPushdown;
+import com.backend.service.filter.RowFilter;
+import com.backend.service.index.FieldIndexService;
+import com.backend.service.metrics.QueryProfile;
+import com.backend.service.ingest.BulkInsertResult;
+import com.backend.service.ingest.BulkRecordWriter;
+import com.backend.service.ingest.PendingRows;
+import com.backend.service.ingest.WriteBehindBuffer;
+import com.backend.service.parallel.ChunkPipeline;
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.plan.QueryPlan;
+import com.backend.service.plan.QueryPlanner;
+import com.backend.service.query.ExternalSorter;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.query.FieldPath;
+import com.backend.service.query.JsonFieldReader;
+import com.backend.service.query.SortCursor;
+import com.backend.service.query.SortKey;
+import com.backend.service.query.SortPage;
+import com.backend.service.query.SortedRows;
+import com.backend.service.query.TopKSelector;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.rows.CompactRow;
+import com.backend.service.rows.ParsedRowCache;
+import com.backend.service.rows.RowSnapshot;
+import com.backend.service.sketch.ApproximateGroups;
+import com.backend.service.sketch.GroupSketch;
+import com.backend.service.store.RecordStore;
+import com.backend.service.view.GroupByView;
+import com.backend.service.view.GroupByViewService;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.function.BinaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class DatasetServiceImpl implements DatasetService {
 
-    private final DatasetRecordRepository datasetRecordRepository;
+    private static final String ROWS_NOT_CACHED = "rows not in the row cache after all";
+    private static final String VIEW_GONE = "view no longer ready";
+
+    private final RecordStore recordStore;
+    private final QueryProperties queryProperties;
+    private final FieldIndexService fieldIndexService;
+    private final IndexProperties indexProperties;
+    private final DatasetRegistry datasetRegistry;
+    private final BulkRecordWriter bulkRecordWriter;
+    private final QueryResultCache resultCache;
+    private final ParsedRowCache rowCache;
+    private final ColumnarEngine columnarEngine;
+    private final ParallelQueryExecutor parallelExecutor;
+    private final FilterProperties filterProperties;
+    private final RowCodec rowCodec;
+    private final GroupByViewService groupByViews;
+    private final QueryPlanner planner;
+    private final WriteBehindBuffer writeBehind;
+    private final SketchProperties sketchProperties;
+    private final PlatformTransactionManager transactionManager;
     private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFieldReader fieldReader = new JsonFieldReader(mapper);
 
     @Override
     public DatasetRecord insertRecord(String datasetName, Map<String, Object> json) throws JsonProcessingException {
-        String rowJson = mapper.writeValueAsString(json);
-        DatasetRecord record = DatasetRecord.builder()
-                .datasetName(datasetName)
-                .jsonData(rowJson)
-                .build();
-        return datasetRecordRepository.save(record);
+        return writeBehind.insert(datasetName, json);
+    }
+
+    @Override
+    public BulkInsertResult insertRecords(String datasetName, InputStream body, boolean ndjson) throws IOException {
+        BulkInsertResult result = bulkRecordWriter.write(datasetName, body, ndjson);
+        log.info("Bulk insert into dataset {}: {} rows stored, {} failed in {} ms",
+                datasetName, result.inserted(), result.failed(), result.elapsedMillis());
+        return result;
+    }
+
+    @Override
+    public Dataset getDataset(String datasetName) {
+        return datasetRegistry.find(datasetName)
+                .orElseThrow(() -> new DatasetNotFoundException("No records found for dataset: " + datasetName));
     }
 
     @Override
+    @Transactional(readOnly = true)
     public Map<String, List<Map<String, Object>>> queryGroupBy(String datasetName, String groupBy) throws JsonProcessingException {
-        List<DatasetRecord> records = datasetRecordRepository.findByDatasetName(datasetName);
-        if (records.isEmpty()) throw new DatasetNotFoundException("No records found for dataset: " + datasetName);
+        return queryGroupBy(datasetName, groupBy, null);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<String, List<Map<String, Object>>> queryGroupBy(String datasetName, String groupBy,
+                                                               RowFilter filter) throws JsonProcessingException {
+        FieldKeys keys = FieldKeys.parseGroup(groupBy);
+        return resultCache.get(datasetName, QueryResultCache.Operator.GROUP_BY, keys.canonical(), null, canonical(filter),
+                groups -> groups.values().stream().mapToInt(List::size).sum(),
+                () -> Collections.unmodifiableMap(computeGroupBy(datasetName, keys, filter)));
+    }
 
-        List<Map<String, Object>> recordList = new ArrayList<>();
+    private Map<String, List<Map<String, Object>>> computeGroupBy(String datasetName, FieldKeys keys,
+                                                                  RowFilter filter) throws JsonProcessingException {
+        String field = keys.topLevelField();
+        if (field != null) fieldIndexService.recordQuery(datasetName, field);
+        recordFilterQuery(datasetName, filter);
+        return computeGroupBy(datasetName, keys, filter, planner.planGroupBy(datasetName, keys, filter));
+    }
 
-        for (DatasetRecord record : records) {
-            Map<String, Object> map = mapper.readValue(record.getJsonData(), new TypeReference<>() {
+    private Map<String, List<Map<String, Object>>> computeGroupBy(String datasetName, FieldKeys keys, RowFilter filter,
+                                                                  QueryPlan plan) throws JsonProcessingException {
+        use(datasetName, plan);
+        if (plan.strategy() == QueryPlan.Strategy.ROW_CACHE || plan.strategy() == QueryPlan.Strategy.COLUMNAR) {
+            RowSnapshot cached = cachedRows(datasetName);
+            if (cached == null) return computeGroupBy(datasetName, keys, filter, plan.fallback(ROWS_NOT_CACHED));
+            return plan.strategy() == QueryPlan.Strategy.COLUMNAR
+                    ? columnarEngine.groupBy(cached, keys, filter)
+                    : groupByCachedRows(datasetName, keys, filter, cached);
+        }
+        if (plan.strategy() == QueryPlan.Strategy.VIEW) {
+            GroupByView view = groupByViews.readyView(datasetName, keys);
+            if (view == null) return computeGroupBy(datasetName, keys, filter, plan.fallback(VIEW_GONE));
+            return groupByView(datasetName, view);
+        }
+        if (plan.strategy() == QueryPlan.Strategy.INDEX) {
+            return groupByIndex(datasetName, keys.topLevelField());
+        }
+
+        Map<Object, List<Map<String, Object>>> groups = new HashMap<>();
+        long scanned = scan(datasetName, filter, plan.isParallel(), chunk -> {
+            Map<Object, List<Map<String, Object>>> partial = new HashMap<>();
+            for (byte[] row : chunk.rows()) {
+                Object key = keys.groupKey(fieldReader.readPaths(row, keys.projection()));
+                if (key == null) continue;
+
+                partial.computeIfAbsent(key, k -> new ArrayList<>()).add(parseRow(row));
+            }
+            return partial;
+        }, (chunk, partial) -> appendGroups(groups, partial));
+
+        requireRecords(datasetName, scanned, filter);
+        log.debug("Grouped {} rows of dataset {} into {} groups", scanned, datasetName, groups.size());
+        return labelGroups(groups);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ApproximateGroups queryGroupByApproximate(String datasetName, String groupBy, int top,
+                                                     RowFilter filter) throws JsonProcessingException {
+        FieldKeys keys = FieldKeys.parseGroup(groupBy);
+        if (top < 1 || top > sketchProperties.getCounters()) {
+            throw new BadRequestException("top must be between 1 and " + sketchProperties.getCounters());
+        }
+        return resultCache.get(datasetName, QueryResultCache.Operator.APPROXIMATE_GROUP_BY, keys.canonical(), "top=" + top,
+                canonical(filter), groups -> groups.topGroups().size(), () -> computeGroupByApproximate(datasetName, keys, top, filter));
+    }
+
+    /**
+     * Counts the groups in sketches instead of collecting their rows, so memory stays fixed
+     * when nearly every row is a group of its own, as when grouping by an email or an id.
+     */
+    private ApproximateGroups computeGroupByApproximate(String datasetName, FieldKeys keys, int top,
+                                                        RowFilter filter) throws JsonProcessingException {
+        GroupSketch sketch = new GroupSketch(sketchProperties.getCounters(), sketchProperties.getCountMinWidth(),
+                sketchProperties.getCountMinDepth());
+        long memory = GroupSketch.bytes(sketchProperties.getCounters(), sketchProperties.getCountMinWidth(),
+                sketchProperties.getCountMinDepth());
+        recordFilterQuery(datasetName, filter);
+        return computeGroupByApproximate(datasetName, keys, top, filter, sketch,
+                planner.planApproximateGroupBy(datasetName, keys, filter, top, memory));
+    }
+
+    private ApproximateGroups computeGroupByApproximate(String datasetName, FieldKeys keys, int top, RowFilter filter,
+                                                        GroupSketch sketch, QueryPlan plan) throws JsonProcessingException {
+        use(datasetName, plan);
+        if (plan.strategy() == QueryPlan.Strategy.ROW_CACHE) {
+            RowSnapshot cached = cachedRows(datasetName);
+            if (cached == null) return computeGroupByApproximate(datasetName, keys, top, filter, sketch, plan.fallback(ROWS_NOT_CACHED));
+            GroupSketch combined = inRanges(cached.size(), (from, to) -> {
+                GroupSketch partial = sketch.partial();
+                for (int i = from; i < to; i++) {
+                    CompactRow row = cached.row(i);
+                    if (filter != null && !filter.test(row)) continue;
+                    Object key = keys.groupKey(row);
+                    if (key != null) partial.add(key);
+                }
+                return partial;
+            }, (left, right) -> {
+                left.merge(right);
+                return left;
             });
-            recordList.add(map);
+            return combined.result(top);
         }
-        return recordList.stream()
-                .filter(r -> r.containsKey(groupBy))
-                .collect(Collectors.groupingBy(r -> String.valueOf(r.get(groupBy))));
+
+        // chunks read and hash their keys on the query pool; one sketch takes them in order
+        long scanned = scan(datasetName, filter, plan.isParallel(), chunk -> {
+            Object[] chunkKeys = new Object[chunk.rows().size()];
+            long[] hashes = new long[chunkKeys.length];
+            int size = 0;
+            for (byte[] row : chunk.rows()) {
+                Object key = keys.groupKey(fieldReader.readPaths(row, keys.projection()));
+                if (key == null) continue;
+                chunkKeys[size] = key;
+                hashes[size++] = GroupSketch.hash(key);
+            }
+            return new HashedKeys(chunkKeys, hashes, size);
+        }, (chunk, hashed) -> {
+            for (int i = 0; i < hashed.size(); i++) {
+                sketch.add(hashed.keys()[i], hashed.hashes()[i]);
+            }
+        });
+
+        requireRecords(datasetName, scanned, filter);
+        log.debug("Sketched the groups of {} rows of dataset {}", scanned, datasetName);
+        return sketch.result(top);
+    }
+
+    private record HashedKeys(Object[] keys, long[] hashes, int size) {
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<String, Map<String, Object>> queryGroupByAggregate(String datasetName, String groupBy,
+                                                                  List<AggregateSpec> aggregates) throws JsonProcessingException {
+        return queryGroupByAggregate(datasetName, groupBy, aggregates, null);
     }
 
     @Override
-    public List<Map<String, Object>> querySortBy(String datasetName,   String sortBy, String order) throws JsonProcessingException {
-        List<DatasetRecord> records = datasetRecordRepository.findByDatasetName(datasetName);
-        List<Map<String, Object>> recordList = new ArrayList<Map<String, Object>>();
+    @Transactional(readOnly = true)
+    public Map<String, Map<String, Object>> queryGroupByAggregate(String datasetName, String groupBy, List<AggregateSpec> aggregates,
+                                                                  RowFilter filter) throws JsonProcessingException {
+        FieldKeys keys = FieldKeys.parseGroup(groupBy);
+        String labels = aggregates.stream().map(AggregateSpec::label).collect(Collectors.joining(","));
+        return resultCache.get(datasetName, QueryResultCache.Operator.GROUP_BY_AGGREGATE, keys.canonical(), labels, canonical(filter),
+                Map::size, () -> Collections.unmodifiableMap(computeGroupByAggregate(datasetName, keys, aggregates, filter)));
+    }
+
+    /**
+     * Folds every row into per-group accumulators instead of collecting the rows, reading the
+     * group field and all aggregated fields in a single pass. When the group field and every
+     * aggregated field are indexed, the aggregation can run in the database instead, and a ready
+     * groupBy view over the same keys answers from its partial aggregates without reading a row;
+     * the {@link QueryPlanner} picks the cheapest.
+     */
+    private Map<String, Map<String, Object>> computeGroupByAggregate(String datasetName, FieldKeys keys, List<AggregateSpec> aggregates,
+                                                                     RowFilter filter) throws JsonProcessingException {
+        GroupAggregator aggregator = new GroupAggregator(keys, aggregates);
+        for (FieldPath path : aggregator.paths()) {
+            if (path.topLevelName() != null) fieldIndexService.recordQuery(datasetName, path.topLevelName());
+        }
+        recordFilterQuery(datasetName, filter);
+        return computeGroupByAggregate(datasetName, keys, aggregator, filter, planner.planAggregate(datasetName, keys, aggregator, filter));
+    }
+
+    private Map<String, Map<String, Object>> computeGroupByAggregate(String datasetName, FieldKeys keys, GroupAggregator aggregator,
+                                                                     RowFilter filter, QueryPlan plan) throws JsonProcessingException {
+        use(datasetName, plan);
+        List<FieldPath> paths = aggregator.paths();
+        if (plan.strategy() == QueryPlan.Strategy.VIEW) {
+            GroupByView view = groupByViews.readyView(datasetName, keys);
+            if (view == null || !view.canAggregate(aggregator)) {
+                return computeGroupByAggregate(datasetName, keys, aggregator, filter, plan.fallback(VIEW_GONE));
+            }
+            view.aggregateInto(aggregator);
+            if (aggregator.isEmpty() && datasetRegistry.getRowCount(datasetName) == 0) {
+                throw new DatasetNotFoundException("No records found for dataset: " + datasetName);
+            }
+            return aggregator.result();
+        }
+
+        if (plan.strategy() == QueryPlan.Strategy.ROW_CACHE) {
+            RowSnapshot cached = cachedRows(datasetName);
+            if (cached == null) {
+                return computeGroupByAggregate(datasetName, keys, aggregator, filter, plan.fallback(ROWS_NOT_CACHED));
+            }
+            GroupAggregator combined = inRanges(cached.size(), (from, to) -> {
+                GroupAggregator partial = aggregator.partial();
+                Object[] values = new Object[paths.size()];
+                for (int i = from; i < to; i++) {
+                    CompactRow row = cached.row(i);
+                    if (filter != null && !filter.test(row)) continue;
+                    for (int f = 0; f < values.length; f++) {
+                        values[f] = paths.get(f).resolve(row);
+                    }
+                    partial.add(values);
+                }
+                return partial;
+            }, (left, right) -> {
+                left.merge(right);
+                return left;
+            });
+            return combined.result();
+        }
 
-        for (DatasetRecord record : records) {
-            Map<String, Object> map = mapper.readValue(record.getJsonData(), new TypeReference<Map<String, Object>>() {});
-            recordList.add(map);
+        if (plan.strategy() == QueryPlan.Strategy.INDEX) {
+            long fetchStarted = System.nanoTime();
+            aggregateFromIndex(datasetName, keys.topLevelField(), aggregator);
+            QueryProfile.current().addPhase(QueryProfile.Phase.FETCH, System.nanoTime() - fetchStarted);
+            if (aggregator.isEmpty() && datasetRegistry.getRowCount(datasetName) == 0) {
+                throw new DatasetNotFoundException("No records found for dataset: " + datasetName);
+            }
+            return aggregator.result();
         }
 
-        Collections.sort(recordList, new Comparator<Map<String, Object>>() {
-            @SuppressWarnings("unchecked")
-            public int compare(Map<String, Object> o1, Map<String, Object> o2) {
-                Object val1 = o1.get(sortBy);
-                Object val2 = o2.get(sortBy);
+        long scanned = scan(datasetName, filter, plan.isParallel(), chunk -> {
+            GroupAggregator partial = aggregator.partial();
+            for (byte[] row : chunk.rows()) {
+                partial.add(fieldReader.readPaths(row, aggregator.projection()));
+            }
+            return partial;
+        }, (chunk, partial) -> aggregator.merge(partial));
+        requireRecords(datasetName, scanned, filter);
+        return aggregator.result();
+    }
 
-                if (val1 == null && val2 == null) return 0;
-                if (val1 == null) return "desc".equalsIgnoreCase(order) ? 1 : -1;
-                if (val2 == null) return "desc".equalsIgnoreCase(order) ? -1 : 1;
+    @Override
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> querySortBy(String datasetName, String sortBy, String order) throws JsonProcessingException {
+        return querySortBy(datasetName, sortBy, order, null);
+    }
 
-                if (val1 instanceof Comparable && val2 instanceof Comparable) {
-                    return ((Comparable) val1).compareTo(val2);
+    @Override
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> querySortBy(String datasetName, String sortBy, String order,
+                                                 RowFilter filter) throws JsonProcessingException {
+        FieldKeys keys = FieldKeys.parseSort(sortBy, order);
+        int maxRows = queryProperties.getSort().getMaxBufferedRows();
+        // without a filter the dataset's size bounds the result, so a sort that cannot fit is not even started
+        if (filter == null && datasetRegistry.getRowCount(datasetName) + writeBehind.pendingRows(datasetName) > maxRows) {
+            throw tooManyRowsToBuffer(datasetName, keys, maxRows);
+        }
+        return resultCache.get(datasetName, QueryResultCache.Operator.SORT_BY, keys.canonical(), null, canonical(filter), List::size, () -> {
+            try (SortedRows sorted = openSortBy(datasetName, keys, filter)) {
+                List<Map<String, Object>> recordList = new ArrayList<>();
+                while (sorted.hasNext()) {
+                    if (recordList.size() == maxRows) throw tooManyRowsToBuffer(datasetName, keys, maxRows);
+                    recordList.add(sorted.next());
                 }
-                return 0;
+                return Collections.unmodifiableList(recordList);
             }
         });
+    }
+
+    private static BadRequestException tooManyRowsToBuffer(String datasetName, FieldKeys keys, int maxRows) {
+        return new BadRequestException("sortBy " + keys.canonical() + " of dataset " + datasetName + " returns more than "
+                + maxRows + " rows; page it with limit or cursor, or stream it with stream=true");
+    }
 
-        if ("desc".equalsIgnoreCase(order)) {
-            Collections.reverse(recordList);
+    @Override
+    @Transactional(readOnly = true)
+    public SortedRows openSortBy(String datasetName, String sortBy, String order) throws JsonProcessingException {
+        return openSortBy(datasetName, sortBy, order, null);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public SortedRows openSortBy(String datasetName, String sortBy, String order, RowFilter filter) throws JsonProcessingException {
+        return openSortBy(datasetName, FieldKeys.parseSort(sortBy, order), filter);
+    }
+
+    private SortedRows openSortBy(String datasetName, FieldKeys keys, RowFilter filter) throws JsonProcessingException {
+        String field = keys.topLevelField();
+        if (field != null) fieldIndexService.recordQuery(datasetName, field);
+        recordFilterQuery(datasetName, filter);
+        return openSortBy(datasetName, keys, filter, planner.planSort(datasetName, keys, filter));
+    }
+
+    private SortedRows openSortBy(String datasetName, FieldKeys keys, RowFilter filter, QueryPlan plan) throws JsonProcessingException {
+        use(datasetName, plan);
+        String field = keys.topLevelField();
+        if (plan.strategy() == QueryPlan.Strategy.ROW_CACHE || plan.strategy() == QueryPlan.Strategy.COLUMNAR) {
+            RowSnapshot cached = cachedRows(datasetName);
+            if (cached == null) return openSortBy(datasetName, keys, filter, plan.fallback(ROWS_NOT_CACHED));
+            return plan.strategy() == QueryPlan.Strategy.COLUMNAR
+                    ? columnarEngine.sortBy(cached, keys, filter)
+                    : sortCachedRows(cached, keys, filter);
+        }
+        if (plan.strategy() == QueryPlan.Strategy.INDEX) {
+            List<Long> ids;
+            long fetchStarted = System.nanoTime();
+            try (Stream<Long> sortedIds = fieldIndexService.streamSortedRecordIds(datasetName, field, keys.direction(0))) {
+                ids = sortedIds.collect(Collectors.toList());
+            }
+            QueryProfile.current().addPhase(QueryProfile.Phase.FETCH, System.nanoTime() - fetchStarted);
+            Iterator<byte[]> rows = StreamSupport.stream(Spliterators.spliteratorUnknownSize(fetchRowsInBatches(datasetName, ids), Spliterator.ORDERED), false)
+                    .filter(Objects::nonNull)
+                    .iterator();
+            return new SortedRows(rows, mapper, 0, () -> { });
         }
 
-        return recordList;
+        QueryProperties.Sort sortProperties = queryProperties.getSort();
+        Path tempDir = sortProperties.getTempDir() == null ? null : Path.of(sortProperties.getTempDir());
+        // closing the sorter deletes the runs it spilled unless finish() handed them over
+        try (ExternalSorter sorter = new ExternalSorter(keys.comparator(), sortProperties.getMemoryBudget().toBytes(), tempDir, mapper)) {
+            scan(datasetName, filter, plan.isParallel(), chunk -> readSortKeys(chunk, keys), (chunk, sortKeys) -> {
+                for (int i = 0; i < sortKeys.length; i++) {
+                    sorter.add(sortKeys[i], chunk.rows().get(i));
+                }
+            });
+            SortedRows sorted = sorter.finish();
+            if (sorted.getSpilledRuns() > 0) {
+                log.info("Sort of dataset {} by {} exceeded the memory budget and spilled {} runs",
+                        datasetName, keys.canonical(), sorted.getSpilledRuns());
+            }
+            return sorted;
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public SortPage querySortByPage(String datasetName, String sortBy, String order,
+                                    int limit, int offset, String cursor) throws JsonProcessingException {
+        return querySortByPage(datasetName, sortBy, order, limit, offset, cursor, null);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public SortPage querySortByPage(String datasetName, String sortBy, String order,
+                                    int limit, int offset, String cursor, RowFilter filter) throws JsonProcessingException {
+        if (limit <= 0 || offset < 0) {
+            throw new BadRequestException("limit must be positive and offset must not be negative");
+        }
+        int maxWindow = queryProperties.getPage().getMaxWindow();
+        if ((long) offset + limit > maxWindow) {
+            throw new BadRequestException("offset + limit must not exceed " + maxWindow + "; use the cursor for deeper pages");
+        }
+        FieldKeys keys = FieldKeys.parseSort(sortBy, order);
+        SortCursor after = cursor == null ? null : SortCursor.decode(cursor, mapper);
+        if (after != null && !keys.accepts(after.key())) {
+            throw new BadRequestException("Cursor does not match sortBy: " + cursor);
+        }
+
+        String field = keys.topLevelField();
+        if (field != null) fieldIndexService.recordQuery(datasetName, field);
+        recordFilterQuery(datasetName, filter);
+        QueryPlan plan = use(datasetName, planner.planSortPage(datasetName, keys, filter, offset, limit, after != null));
+        Comparator<SortKey> comparator = keys.comparator();
+        List<TopKSelector.Entry<Map<String, Object>>> entries;
+        RowSnapshot cached = null;
+        if (plan.strategy() == QueryPlan.Strategy.ROW_CACHE && (cached = cachedRows(datasetName)) == null) {
+            plan = use(datasetName, plan.fallback(ROWS_NOT_CACHED));
+        }
+        if (plan.strategy() == QueryPlan.Strategy.INDEX) {
+            entries = parseEntries(pageFromIndex(datasetName, field, keys.direction(0), offset, limit));
+        } else if (cached != null) {
+            RowSnapshot rows = cached;
+            TopKSelector<Map<String, Object>> selector = inRanges(rows.size(), (from, to) -> {
+                TopKSelector<Map<String, Object>> partial = new TopKSelector<>(comparator, offset + limit, after);
+                for (int i = from; i < to; i++) {
+                    CompactRow row = rows.row(i);
+                    if (filter != null && !filter.test(row)) continue;
+                    partial.offer(keys.sortKey(row, mapper), rows.id(i), row);
+                }
+                return partial;
+            }, (left, right) -> {
+                right.drain().forEach(entry -> left.offer(entry.key(), entry.id(), entry.row()));
+                return left;
+            });
+            List<TopKSelector.Entry<Map<String, Object>>> top = selector.drain();
+            entries = top.subList(Math.min(offset, top.size()), top.size());
+        } else {
+            TopKSelector<byte[]> selector = new TopKSelector<>(comparator, offset + limit, after);
+            scan(datasetName, filter, plan.isParallel(), chunk -> readSortKeys(chunk, keys), (chunk, sortKeys) -> {
+                for (int i = 0; i < sortKeys.length; i++) {
+                    selector.offer(sortKeys[i], chunk.ids().get(i), chunk.rows().get(i));
+                }
+            });
+            List<TopKSelector.Entry<byte[]>> top = selector.drain();
+            entries = parseEntries(top.subList(Math.min(offset, top.size()), top.size()));
+        }
+
+        List<Map<String, Object>> page = new ArrayList<>(entries.size());
+        for (TopKSelector.Entry<Map<String, Object>> entry : entries) {
+            page.add(entry.row());
+        }
+        String nextCursor = null;
+        if (page.size() == limit) {
+            TopKSelector.Entry<Map<String, Object>> last = entries.get(entries.size() - 1);
+            nextCursor = new SortCursor(last.key(), last.id()).encode(mapper);
+        }
+        return new SortPage(page, nextCursor);
+    }
+
+    private void aggregateFromIndex(String datasetName, String groupBy, GroupAggregator aggregator) {
+        int fieldCount = aggregator.aggregatedFields().size();
+        for (Object[] row : fieldIndexService.aggregateByGroup(datasetName, groupBy, aggregator.aggregatedFields())) {
+            long[] nonNull = new long[fieldCount];
+            long[] numeric = new long[fieldCount];
+            double[] sums = new double[fieldCount];
+            long[] integralSums = new long[fieldCount];
+            boolean[] integral = new boolean[fieldCount];
+            double[] mins = new double[fieldCount];
+            double[] maxs = new double[fieldCount];
+            for (int f = 0; f < fieldCount; f++) {
+                int column = 2 + f * 7;
+                nonNull[f] = row[column] == null ? 0 : ((Number) row[column]).longValue();
+                numeric[f] = row[column + 1] == null ? 0 : ((Number) row[column + 1]).longValue();
+                if (numeric[f] > 0) {
+                    sums[f] = ((Number) row[column + 2]).doubleValue();
+                    mins[f] = ((Number) row[column + 3]).doubleValue();
+                    maxs[f] = ((Number) row[column + 4]).doubleValue();
+                    Number integralSum = (Number) row[column + 5];
+                    integral[f] = ((Number) row[column + 6]).longValue() == 0 && GroupAggregator.isIntegral(integralSum);
+                    integralSums[f] = integral[f] ? integralSum.longValue() : 0;
+                }
+            }
+            aggregator.addPartial((String) row[0], ((Number) row[1]).longValue(), nonNull, numeric, sums, integralSums, integral,
+                    mins, maxs);
+        }
+    }
+
+    private Map<String, List<Map<String, Object>>> groupByIndex(String datasetName, String groupBy) throws JsonProcessingException {
+        List<String> keys = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        long fetchStarted = System.nanoTime();
+        try (Stream<Object[]> entries = fieldIndexService.streamGroupKeys(datasetName, groupBy)) {
+            entries.forEach(entry -> {
+                keys.add((String) entry[0]);
+                ids.add((Long) entry[1]);
+            });
+        }
+        QueryProfile.current().addPhase(QueryProfile.Phase.FETCH, System.nanoTime() - fetchStarted);
+        if (ids.isEmpty() && datasetRegistry.getRowCount(datasetName) == 0) {
+            throw new DatasetNotFoundException("No records found for dataset: " + datasetName);
+        }
+
+        Map<String, List<Map<String, Object>>> groups = new HashMap<>();
+        Iterator<byte[]> rows = fetchRowsInBatches(datasetName, ids);
+        for (int i = 0; rows.hasNext(); i++) {
+            byte[] row = rows.next();
+            if (row == null) continue;
+            groups.computeIfAbsent(keys.get(i), k -> new ArrayList<>()).add(parseRow(row));
+        }
+        log.debug("Grouped {} rows of dataset {} into {} groups using the {} index", ids.size(), datasetName, groups.size(), groupBy);
+        return groups;
+    }
+
+    /**
+     * Loads the rows of every group of the view by id; only the rows returned are read.
+     */
+    private Map<String, List<Map<String, Object>>> groupByView(String datasetName, GroupByView view) throws JsonProcessingException {
+        Map<String, long[]> rowIds = view.rowIds();
+        if (rowIds.isEmpty() && datasetRegistry.getRowCount(datasetName) == 0) {
+            throw new DatasetNotFoundException("No records found for dataset: " + datasetName);
+        }
+
+        List<String> labels = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        rowIds.forEach((label, groupIds) -> {
+            for (long id : groupIds) {
+                labels.add(label);
+                ids.add(id);
+            }
+        });
+        Map<String, List<Map<String, Object>>> groups = new HashMap<>();
+        Iterator<byte[]> rows = fetchRowsInBatches(datasetName, ids);
+        for (int i = 0; rows.hasNext(); i++) {
+            byte[] row = rows.next();
+            if (row == null) continue;
+            groups.computeIfAbsent(labels.get(i), k -> new ArrayList<>()).add(parseRow(row));
+        }
+        log.debug("Grouped {} rows of dataset {} into {} groups using the {} view", ids.size(), datasetName, groups.size(),
+                view.keys().canonical());
+        return groups;
+    }
+
+    private Map<String, List<Map<String, Object>>> groupByCachedRows(String datasetName, FieldKeys keys, RowFilter filter,
+                                                                     RowSnapshot rows) throws JsonProcessingException {
+        Map<Object, List<Map<String, Object>>> groups = inRanges(rows.size(), (from, to) -> {
+            Map<Object, List<Map<String, Object>>> partial = new HashMap<>();
+            for (int i = from; i < to; i++) {
+                CompactRow row = rows.row(i);
+                if (filter != null && !filter.test(row)) continue;
+                Object key = keys.groupKey(row);
+                if (key == null) continue;
+                partial.computeIfAbsent(key, k -> new ArrayList<>()).add(row);
+            }
+            return partial;
+        }, (left, right) -> appendGroups(left, right));
+        log.debug("Grouped {} cached rows of dataset {} into {} groups", rows.size(), datasetName, groups.size());
+        return labelGroups(groups);
+    }
+
+    /**
+     * Appends the groups of a later part of the dataset, keeping every group in row order.
+     */
+    private static Map<Object, List<Map<String, Object>>> appendGroups(Map<Object, List<Map<String, Object>>> groups,
+                                                                       Map<Object, List<Map<String, Object>>> later) {
+        later.forEach((key, rows) -> groups.merge(key, rows, (existing, added) -> {
+            existing.addAll(added);
+            return existing;
+        }));
+        return groups;
+    }
+
+    /**
+     * Replaces the group keys by their labels; single-field keys already are their label.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, List<Map<String, Object>>> labelGroups(Map<Object, List<Map<String, Object>>> groups) {
+        if (groups.keySet().stream().allMatch(String.class::isInstance)) {
+            return (Map<String, List<Map<String, Object>>>) (Map<?, ?>) groups;
+        }
+        Map<String, List<Map<String, Object>>> labelled = new HashMap<>(groups.size() * 2);
+        groups.forEach((key, rows) -> labelled.put(FieldKeys.label(key), rows));
+        return labelled;
+    }
+
+    /**
+     * Sorts the positions of the cached rows by key; the sort is stable, so ties keep insertion
+     * order as they do in the scanning path.
+     */
+    private SortedRows sortCachedRows(RowSnapshot rows, FieldKeys keys, RowFilter filter) throws JsonProcessingException {
+        SortKey[] sortKeys = new SortKey[rows.size()];
+        Integer[] all = new Integer[rows.size()];
+        inRanges(rows.size(), (from, to) -> {
+            for (int i = from; i < to; i++) {
+                CompactRow row = rows.row(i);
+                if (filter != null && !filter.test(row)) continue;
+                sortKeys[i] = keys.sortKey(row, mapper);
+                all[i] = i;
+            }
+            return null;
+        }, (left, right) -> null);
+        Integer[] positions = filter == null ? all : Arrays.stream(all).filter(Objects::nonNull).toArray(Integer[]::new);
+        Comparator<SortKey> comparator = keys.comparator();
+        parallelExecutor.sort(positions, (a, b) -> comparator.compare(sortKeys[a], sortKeys[b]));
+        return SortedRows.ofParsed(Arrays.stream(positions).map(rows::row).iterator());
+    }
+
+    private List<TopKSelector.Entry<Map<String, Object>>> parseEntries(List<TopKSelector.Entry<byte[]>> entries) throws JsonProcessingException {
+        List<TopKSelector.Entry<Map<String, Object>>> parsed = new ArrayList<>(entries.size());
+        for (TopKSelector.Entry<byte[]> entry : entries) {
+            parsed.add(new TopKSelector.Entry<>(entry.key(), entry.id(), parseRow(entry.row())));
+        }
+        return parsed;
+    }
+
+    /**
+     * Deserializes a stored row, whatever its format.
+     */
+    private Map<String, Object> parseRow(byte[] row) throws JsonProcessingException {
+        try (JsonParser parser = RowCodec.createParser(mapper, row)) {
+            return mapper.readValue(parser, new TypeReference<>() {
+            });
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<TopKSelector.Entry<byte[]>> pageFromIndex(String datasetName, String sortBy, String order,
+                                                           int offset, int limit) throws JsonProcessingException {
+        long fetchStarted = System.nanoTime();
+        List<Long> window = fieldIndexService.findSortedRecordIds(datasetName, sortBy, order, offset + limit);
+        QueryProfile.current().addPhase(QueryProfile.Phase.FETCH, System.nanoTime() - fetchStarted);
+        List<Long> ids = window.subList(Math.min(offset, window.size()), window.size());
+
+        List<TopKSelector.Entry<byte[]>> entries = new ArrayList<>(ids.size());
+        Iterator<byte[]> rows = fetchRowsInBatches(datasetName, ids);
+        try {
+            for (int i = 0; rows.hasNext(); i++) {
+                byte[] row = rows.next();
+                if (row == null) continue;
+                entries.add(new TopKSelector.Entry<>(fieldReader.readSortKey(row, sortBy), ids.get(i), row));
+            }
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return entries;
+    }
+
+    /**
+     * Loads the stored rows of the given record ids in their order, one batch of
+     * {@code dataset.index.fetch-batch-size} ids per round trip. Ids whose record no longer
+     * exists yield null so callers stay aligned with the id list.
+     * <p>
+     * Each batch is read in a read-only transaction of its own, or in the caller's if there is
+     * one, since a streamed response consumes the rows after the query's transaction is over.
+     */
+    private Iterator<byte[]> fetchRowsInBatches(String datasetName, List<Long> ids) {
+        QueryProfile profile = QueryProfile.current();
+        int batchSize = indexProperties.getFetchBatchSize();
+        TransactionTemplate readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+        return new Iterator<>() {
+            private int position;
+            private Iterator<byte[]> batch = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!batch.hasNext() && position < ids.size()) {
+                    List<Long> batchIds = ids.subList(position, Math.min(position + batchSize, ids.size()));
+                    position += batchIds.size();
+
+                    long started = System.nanoTime();
+                    long bytes = 0;
+                    Map<Long, byte[]> rowById = new HashMap<>();
+                    readTransaction.executeWithoutResult(status -> {
+                        for (DatasetRecord record : recordStore.findAllById(datasetName, batchIds)) {
+                            rowById.put(record.getId(), record.storedRow());
+                        }
+                    });
+                    for (byte[] row : rowById.values()) {
+                        bytes += row.length;
+                    }
+                    batch = batchIds.stream().map(rowById::get).iterator();
+                    profile.addPhase(QueryProfile.Phase.FETCH, System.nanoTime() - started);
+                    profile.addRowsScanned(rowById.size());
+                    profile.addBytesParsed(bytes);
+                }
+                return batch.hasNext();
+            }
+
+            @Override
+            public byte[] next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return batch.next();
+            }
+        };
     }
-}
 
+    /**
+     * Sort keys of the rows of a chunk. A single top-level key is read straight into its
+     * {@link SortKey}; otherwise all key paths are projected in one pass over each row.
+     */
+    private SortKey[] readSortKeys(ChunkPipeline.Chunk chunk, FieldKeys keys) throws IOException {
+        SortKey[] sortKeys = new SortKey[chunk.rows().size()];
+        String field = keys.topLevelField();
+        for (int i = 0; i < sortKeys.length; i++) {
+            byte[] row = chunk.rows().get(i);
+            sortKeys[i] = field != null
+                    ? fieldReader.readSortKey(row, field)
+                    : keys.sortKey(fieldReader.readPaths(row, keys.projection()), mapper);
+        }
+        return sortKeys;
+    }
 
+    /**
+     * Records the plan on the current query, which explain reports and which the plan may
+     * still fall back from.
+     */
+    private QueryPlan use(String datasetName, QueryPlan plan) {
+        QueryProfile.current().setPlan(plan);
+        log.debug("Running {} of dataset {} by {}{}", plan.operator(), datasetName, plan.strategy(),
+                plan.isParallel() ? " in parallel" : "");
+        return plan;
+    }
+
+    /**
+     * The parsed rows of the dataset from the row cache; loading them counts as fetching.
+     */
+    private RowSnapshot cachedRows(String datasetName) {
+        QueryProfile profile = QueryProfile.current();
+        long started = System.nanoTime();
+        RowSnapshot rows = rowCache.rows(datasetName);
+        profile.addPhase(QueryProfile.Phase.FETCH, System.nanoTime() - started);
+        if (rows != null) profile.addRowsScanned(rows.size());
+        return rows;
+    }
+
+    private <R> R inRanges(int size, ParallelQueryExecutor.RangeTask<R> task, BinaryOperator<R> combine) throws JsonProcessingException {
+        QueryProfile profile = QueryProfile.current();
+        ParallelQueryExecutor.RangeTask<R> measured = !profile.isRecording() ? task : (from, to) -> {
+            long allocated = QueryProfile.threadAllocatedBytes();
+            try {
+                return task.apply(from, to);
+            } finally {
+                profile.addAllocated(QueryProfile.threadAllocatedBytes() - allocated);
+            }
+        };
+        try {
+            return parallelExecutor.forRanges(size, measured, combine);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Streams every record of the dataset from the {@link RecordStore} in chunks, followed by
+     * the rows write-behind acknowledged and has not stored yet. Chunks are
+     * processed by {@code task}, in parallel if the plan says so, and their results handed to
+     * {@code consumer} on this thread in scan order.
+     * <p>
+     * With a filter, the comparisons the database can evaluate narrow the records query, and
+     * each chunk is cut down to the rows passing the filter before {@code task} sees it: only
+     * the filter fields are read from the row text, so rejected rows are never deserialized.
+     * Returns the number of records read. Waiting for the records counts as the fetch phase of
+     * the current query and running {@code task} as its parse phase.
+     */
+    private <R> long scan(String datasetName, RowFilter filter, boolean parallel, ChunkPipeline.ChunkTask<R> task,
+                          ChunkPipeline.ChunkConsumer<R> consumer) throws JsonProcessingException {
+        if (filter == null) return scanRecords(datasetName, null, parallel, task, consumer);
+        return scanRecords(datasetName, filter, parallel, chunk -> {
+            ChunkPipeline.Chunk matching = filterChunk(chunk, filter);
+            return new FilteredChunk<>(matching, task.apply(matching));
+        }, (chunk, filtered) -> consumer.accept(filtered.chunk(), filtered.result()));
+    }
+
+    private record FilteredChunk<R>(ChunkPipeline.Chunk chunk, R result) {
+    }
+
+    private <R> long scanRecords(String datasetName, RowFilter filter, boolean parallel, ChunkPipeline.ChunkTask<R> task,
+                                 ChunkPipeline.ChunkConsumer<R> consumer) throws JsonProcessingException {
+        QueryProfile profile = QueryProfile.current();
+        ChunkPipeline.ChunkTask<R> measured = !profile.isRecording() ? task : chunk -> {
+            long started = System.nanoTime();
+            long allocated = QueryProfile.threadAllocatedBytes();
+            try {
+                return task.apply(chunk);
+            } finally {
+                profile.addWork(QueryProfile.Phase.PARSE, System.nanoTime() - started,
+                        QueryProfile.threadAllocatedBytes() - allocated);
+            }
+        };
+        long scanned = 0;
+        long bytes = 0;
+        PendingRows pending = writeBehind.pending(datasetName);
+        long fetchStarted = System.nanoTime();
+        long fetchNanos = 0;
+        try (ChunkPipeline<R> pipeline = parallelExecutor.pipeline(parallel, measured, consumer);
+             Stream<DatasetRecord> records = streamRecords(datasetName, filter)) {
+            Iterator<DatasetRecord> it = Stream.concat(records, Stream.of(pending).flatMap(p -> p.unseen().stream())).iterator();
+            while (it.hasNext()) {
+                DatasetRecord record = it.next();
+                byte[] row = record.storedRow();
+                fetchNanos += System.nanoTime() - fetchStarted;
+                pending.seen(record.getId());
+                pipeline.add(record.getId(), row);
+                scanned++;
+                bytes += row.length;
+                fetchStarted = System.nanoTime();
+            }
+            fetchNanos += System.nanoTime() - fetchStarted;
+            pipeline.finish();
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            profile.addPhase(QueryProfile.Phase.FETCH, fetchNanos);
+            profile.addRowsScanned(scanned);
+            profile.addBytesParsed(bytes);
+        }
+        return scanned;
+    }
+
+    private ChunkPipeline.Chunk filterChunk(ChunkPipeline.Chunk chunk, RowFilter filter) throws IOException {
+        List<Long> ids = new ArrayList<>(chunk.rows().size());
+        List<byte[]> rows = new ArrayList<>(chunk.rows().size());
+        for (int i = 0; i < chunk.rows().size(); i++) {
+            byte[] row = chunk.rows().get(i);
+            if (filter.test(fieldReader.readPaths(row, filter.projection()))) {
+                ids.add(chunk.ids().get(i));
+                rows.add(row);
+            }
+        }
+        return new ChunkPipeline.Chunk(ids, rows);
+    }
+
+    private Stream<DatasetRecord> streamRecords(String datasetName, RowFilter filter) {
+        if (filter != null) {
+            List<RecordCondition> conditions = FilterPushdown.conditions(filter,
+                    field -> fieldIndexService.isUsable(datasetName, field),
+                    filterProperties.isJsonPushdown() && rowCodec.formatFor(datasetName) == StorageProperties.Format.TEXT);
+            if (!conditions.isEmpty()) {
+                log.debug("Pushing {} filter conditions of {} down to the records query of dataset {}",
+                        conditions.size(), filter, datasetName);
+                return recordStore.streamMatching(datasetName, conditions);
+            }
+        }
+        return recordStore.stream(datasetName);
+    }
+
+    /**
+     * A scan that read no records means the dataset does not exist, unless the filter was
+     * pushed down and may have excluded them all.
+     */
+    private void requireRecords(String datasetName, long scanned, RowFilter filter) {
+        if (scanned == 0 && (filter == null || datasetRegistry.getRowCount(datasetName) == 0)) {
+            throw new DatasetNotFoundException("No records found for dataset: " + datasetName);
+        }
+    }
+
+    private void recordFilterQuery(String datasetName, RowFilter filter) {
+        if (filter == null) return;
+        for (FieldPath path : filter.paths()) {
+            if (path.topLevelName() != null) fieldIndexService.recordQuery(datasetName, path.topLevelName());
+        }
+    }
+
+    private static String canonical(RowFilter filter) {
+        return filter == null ? null : filter.canonical();
+    }
+}
@@ -0,0 +1,420 @@
+package com.backend.service.index;
+
+import com.backend.config.IndexProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.model.FieldIndexEntry;
+import com.backend.model.IndexedField;
+import com.backend.repository.FieldIndexEntryRepository;
+import com.backend.repository.IndexedFieldRepository;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.query.JsonFieldReader;
+import com.backend.service.query.SortKey;
+import com.backend.service.store.RecordStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Maintains the per-field side index in {@code record_field_index}. Fields are indexed when
+ * declared under {@code dataset.index.fields} or once they have been queried often enough.
+ * A new index is backfilled in the background and only used by queries once it is READY.
+ * <p>
+ * A field is registered before its backfill starts, so inserts index it from then on. The
+ * backfill first waits for the insert transactions that were already running, which may have
+ * missed the field, and then upserts the entries of every stored record, so entries written by
+ * the insert path are overwritten rather than duplicated or lost.
+ */
+@Service
+@Slf4j
+public class FieldIndexService implements DatasetChangeListener {
+
+    public static final int MAX_VALUE_LENGTH = 256;
+
+    private static final byte NULL_DESC_RANK = 9;
+    private static final int BACKFILL_FLUSH_SIZE = 500;
+
+    private final FieldIndexEntryRepository entryRepository;
+    private final IndexedFieldRepository indexedFieldRepository;
+    private final RecordStore recordStore;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final IndexProperties properties;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JsonFieldReader fieldReader = new JsonFieldReader(mapper);
+
+    private final Map<String, Map<String, FieldState>> fieldsByDataset = new ConcurrentHashMap<>();
+    private final Map<String, Set<CompletableFuture<Void>>> runningInserts = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> queryCounts = new ConcurrentHashMap<>();
+    private final ExecutorService backfillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "field-index-backfill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public FieldIndexService(FieldIndexEntryRepository entryRepository,
+                             IndexedFieldRepository indexedFieldRepository,
+                             RecordStore recordStore,
+                             EntityManager entityManager,
+                             PlatformTransactionManager transactionManager,
+                             IndexProperties properties) {
+        this.entryRepository = entryRepository;
+        this.indexedFieldRepository = indexedFieldRepository;
+        this.recordStore = recordStore;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.properties = properties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        for (IndexedField persisted : indexedFieldRepository.findAll()) {
+            FieldState field = register(persisted);
+            if (field.status == IndexedField.Status.BUILDING) {
+                backfillExecutor.submit(() -> backfill(field));
+            }
+        }
+        properties.getFields().forEach((datasetName, fields) ->
+                fields.forEach(fieldName -> ensureIndex(datasetName, fieldName.trim())));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        backfillExecutor.shutdownNow();
+    }
+
+    public boolean isUsable(String datasetName, String fieldName) {
+        FieldState field = lookup(datasetName, fieldName);
+        return field != null && field.status == IndexedField.Status.READY && !field.truncated;
+    }
+
+    /**
+     * Counts a groupBy/sortBy on the field and starts building an index for it once the
+     * configured threshold is reached.
+     */
+    public void recordQuery(String datasetName, String fieldName) {
+        int threshold = properties.getAutoDetectThreshold();
+        if (threshold <= 0 || lookup(datasetName, fieldName) != null) return;
+
+        LongAdder count = queryCounts.computeIfAbsent(datasetName + '\u0000' + fieldName, k -> new LongAdder());
+        count.increment();
+        if (count.sum() >= threshold) {
+            log.info("Field {} of dataset {} reached {} queries, building an index for it", fieldName, datasetName, threshold);
+            ensureIndex(datasetName, fieldName);
+        }
+    }
+
+    public synchronized void ensureIndex(String datasetName, String fieldName) {
+        if (lookup(datasetName, fieldName) != null) return;
+        if (datasetName.length() > 191 || fieldName.length() > 128) {
+            log.warn("Cannot index field {} of dataset {}: name too long", fieldName, datasetName);
+            return;
+        }
+        IndexedField persisted = transactionTemplate.execute(status ->
+                indexedFieldRepository.findByDatasetNameAndFieldName(datasetName, fieldName)
+                        .orElseGet(() -> indexedFieldRepository.save(IndexedField.builder()
+                                .datasetName(datasetName)
+                                .fieldName(fieldName)
+                                .status(IndexedField.Status.BUILDING)
+                                .build())));
+        FieldState field = register(persisted);
+        if (field.status == IndexedField.Status.BUILDING) {
+            backfillExecutor.submit(() -> backfill(field));
+        }
+    }
+
+    /**
+     * Writes the index entries of freshly inserted records as part of the insert transaction.
+     */
+    @Override
+    public void onRecordsInserted(String datasetName, List<InsertedRecord> records) throws JsonProcessingException {
+        // before the fields are read, so a backfill registering a field after this waits for the transaction
+        trackInsert(datasetName);
+        Map<String, FieldState> fields = fieldsByDataset.get(datasetName);
+        if (fields == null || fields.isEmpty()) return;
+
+        List<FieldIndexEntry> entries = new ArrayList<>(records.size() * fields.size());
+        for (InsertedRecord record : records) {
+            for (FieldState field : fields.values()) {
+                String fieldName = field.fieldName;
+                Object value = record.row().containsKey(fieldName) ? record.row().get(fieldName) : JsonFieldReader.MISSING;
+                entries.add(toEntry(field, record.id(), value));
+            }
+        }
+        entryRepository.saveAll(entries);
+    }
+
+    public List<Long> findSortedRecordIds(String datasetName, String fieldName, String order, int limit) {
+        PageRequest page = PageRequest.of(0, limit);
+        return "desc".equalsIgnoreCase(order)
+                ? entryRepository.findRecordIdsDescending(datasetName, fieldName, page)
+                : entryRepository.findRecordIdsAscending(datasetName, fieldName, page);
+    }
+
+    public Stream<Long> streamSortedRecordIds(String datasetName, String fieldName, String order) {
+        return "desc".equalsIgnoreCase(order)
+                ? entryRepository.streamRecordIdsDescending(datasetName, fieldName)
+                : entryRepository.streamRecordIdsAscending(datasetName, fieldName);
+    }
+
+    /**
+     * Streams (group key, record id) pairs of the records that contain the field, ordered by key.
+     */
+    public Stream<Object[]> streamGroupKeys(String datasetName, String fieldName) {
+        return entryRepository.streamGroupKeys(datasetName, fieldName);
+    }
+
+    /**
+     * Aggregates the indexed fields per group key of {@code groupBy} in the database, joining the
+     * index entries of each field on the record id. Each row holds the group key, the row count
+     * and then, per field: non-null count, numeric count, sum, min and max of the numeric values,
+     * the sum of their whole parts and the count of those that are not whole numbers.
+     */
+    public List<Object[]> aggregateByGroup(String datasetName, String groupBy, List<String> fields) {
+        StringBuilder select = new StringBuilder("select g.groupKey, count(g.recordId)");
+        StringBuilder from = new StringBuilder(" from FieldIndexEntry g");
+        for (int f = 0; f < fields.size(); f++) {
+            String a = "a" + f;
+            String numeric = "case when " + a + ".valueRank = " + SortKey.LONG + " then " + a + ".numberValue end";
+            select.append(", sum(case when ").append(a).append(".valueRank <> ").append(SortKey.NULL).append(" then 1 else 0 end)")
+                    .append(", sum(case when ").append(a).append(".valueRank = ").append(SortKey.LONG).append(" then 1 else 0 end)")
+                    .append(", sum(").append(numeric).append("), min(").append(numeric).append("), max(").append(numeric).append(")")
+                    // a double is stored with its truncation as longValue, equal to numberValue when whole
+                    .append(", sum(case when ").append(a).append(".valueRank = ").append(SortKey.LONG).append(" then ")
+                    .append(a).append(".longValue end)")
+                    .append(", sum(case when ").append(a).append(".valueRank = ").append(SortKey.LONG).append(" and ")
+                    .append(a).append(".numberValue <> ").append(a).append(".longValue then 1 else 0 end)");
+            from.append(" left join FieldIndexEntry ").append(a).append(" on ").append(a).append(".datasetName = g.datasetName and ")
+                    .append(a).append(".fieldName = :field").append(f).append(" and ").append(a).append(".recordId = g.recordId");
+        }
+        String jpql = select.append(from)
+                .append(" where g.datasetName = :datasetName and g.fieldName = :groupBy and g.missing = false group by g.groupKey")
+                .toString();
+
+        TypedQuery<Object[]> query = entityManager.createQuery(jpql, Object[].class)
+                .setParameter("datasetName", datasetName)
+                .setParameter("groupBy", groupBy);
+        for (int f = 0; f < fields.size(); f++) {
+            query.setParameter("field" + f, fields.get(f));
+        }
+        return query.getResultList();
+    }
+
+    private void backfill(FieldState field) {
+        String datasetName = field.datasetName;
+        String fieldName = field.fieldName;
+        try {
+            long started = System.currentTimeMillis();
+            awaitRunningInserts(datasetName);
+            Long indexed = transactionTemplate.execute(status -> {
+                // Records above the watermark are indexed by the insert path since the field was registered
+                Long maxId = recordStore.maxId(datasetName);
+                if (maxId == null) return 0L;
+
+                long count = 0;
+                List<FieldIndexEntry> batch = new ArrayList<>(BACKFILL_FLUSH_SIZE);
+                try (Stream<DatasetRecord> records = recordStore.streamUpTo(datasetName, maxId)) {
+                    Iterator<DatasetRecord> it = records.iterator();
+                    while (it.hasNext()) {
+                        DatasetRecord record = it.next();
+                        batch.add(toEntry(field, record.getId(), fieldReader.readField(record.storedRow(), fieldName)));
+                        if (batch.size() == BACKFILL_FLUSH_SIZE) {
+                            count += upsert(field, batch);
+                            batch.clear();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return count + upsert(field, batch);
+            });
+            field.status = IndexedField.Status.READY;
+            transactionTemplate.executeWithoutResult(status -> save(field));
+            log.info("Index on field {} of dataset {} is ready: {} records in {} ms",
+                    fieldName, datasetName, indexed, System.currentTimeMillis() - started);
+        } catch (RuntimeException e) {
+            log.error("Backfill of index on field {} of dataset {} failed", fieldName, datasetName, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the entries of a batch of records, replacing the entries they already have, such as
+     * from the insert path or an earlier, interrupted backfill.
+     */
+    private long upsert(FieldState field, List<FieldIndexEntry> batch) {
+        if (batch.isEmpty()) return 0;
+        List<Long> recordIds = batch.stream().map(FieldIndexEntry::getRecordId).toList();
+        Map<Long, Long> existing = new HashMap<>();
+        for (FieldIndexEntry entry : entryRepository.findByDatasetNameAndFieldNameAndRecordIdIn(
+                field.datasetName, field.fieldName, recordIds)) {
+            existing.put(entry.getRecordId(), entry.getId());
+        }
+        for (FieldIndexEntry entry : batch) {
+            Long id = existing.get(entry.getRecordId());
+            if (id == null) {
+                entityManager.persist(entry);
+            } else {
+                entry.setId(id);
+                entityManager.merge(entry);
+            }
+        }
+        entityManager.flush();
+        entityManager.clear();
+        return batch.size();
+    }
+
+    /**
+     * Marks the insert transaction as running on the dataset until it completes.
+     */
+    private void trackInsert(String datasetName) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        InsertTransaction transaction = (InsertTransaction) TransactionSynchronizationManager.getResource(this);
+        if (transaction == null) {
+            InsertTransaction bound = new InsertTransaction();
+            TransactionSynchronizationManager.bindResource(this, bound);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(FieldIndexService.this);
+                    bound.datasets.forEach((name, done) -> {
+                        runningInserts.computeIfPresent(name, (k, running) -> {
+                            running.remove(done);
+                            return running.isEmpty() ? null : running;
+                        });
+                        done.complete(null);
+                    });
+                }
+            });
+            transaction = bound;
+        }
+        if (transaction.datasets.containsKey(datasetName)) return;
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        transaction.datasets.put(datasetName, done);
+        runningInserts.compute(datasetName, (k, running) -> {
+            if (running == null) running = ConcurrentHashMap.newKeySet();
+            running.add(done);
+            return running;
+        });
+    }
+
+    private void awaitRunningInserts(String datasetName) throws InterruptedException {
+        Set<CompletableFuture<Void>> running = runningInserts.get(datasetName);
+        if (running == null) return;
+        try {
+            CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0])).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private FieldIndexEntry toEntry(FieldState field, Long recordId, Object value) throws JsonProcessingException {
+        FieldIndexEntry.FieldIndexEntryBuilder entry = FieldIndexEntry.builder()
+                .datasetName(field.datasetName)
+                .fieldName(field.fieldName)
+                .recordId(recordId);
+
+        boolean missing = value == JsonFieldReader.MISSING;
+        SortKey key = SortKey.of(missing ? null : value, mapper);
+        entry.missing(missing)
+                .valueRank((byte) key.rank())
+                .descRank(key.kind() == SortKey.NULL ? NULL_DESC_RANK : (byte) key.rank());
+
+        switch (key.kind()) {
+            case SortKey.BOOLEAN, SortKey.LONG -> entry.numberValue((double) key.longValue()).longValue(key.longValue());
+            case SortKey.DOUBLE -> entry.numberValue(key.doubleValue()).longValue((long) key.doubleValue());
+            case SortKey.STRING, SortKey.STRUCTURED -> entry.stringValue(truncate(field, key.stringValue()));
+            default -> {
+            }
+        }
+        if (!missing) {
+            entry.groupKey(truncate(field, String.valueOf(value)));
+        }
+        return entry.build();
+    }
+
+    private String truncate(FieldState field, String value) {
+        if (value.length() <= MAX_VALUE_LENGTH) return value;
+        if (!field.truncated) {
+            log.warn("Field {} of dataset {} holds values longer than {} characters; its index is no longer used",
+                    field.fieldName, field.datasetName, MAX_VALUE_LENGTH);
+            field.truncated = true;
+            save(field);
+        }
+        return value.substring(0, MAX_VALUE_LENGTH);
+    }
+
+    private void save(FieldState field) {
+        indexedFieldRepository.findById(field.id).ifPresent(persisted -> {
+            persisted.setStatus(field.status);
+            persisted.setTruncated(field.truncated);
+            indexedFieldRepository.save(persisted);
+        });
+    }
+
+    private FieldState register(IndexedField persisted) {
+        FieldState field = new FieldState(persisted);
+        fieldsByDataset.computeIfAbsent(field.datasetName, k -> new ConcurrentHashMap<>()).put(field.fieldName, field);
+        return field;
+    }
+
+    private FieldState lookup(String datasetName, String fieldName) {
+        Map<String, FieldState> fields = fieldsByDataset.get(datasetName);
+        return fields == null ? null : fields.get(fieldName);
+    }
+
+    /**
+     * The state of an indexed field as queries see it, written by the backfill and insert
+     * threads; {@link IndexedField} is only its persisted copy.
+     */
+    private static final class FieldState {
+        private final Long id;
+        private final String datasetName;
+        private final String fieldName;
+        private volatile IndexedField.Status status;
+        private volatile boolean truncated;
+
+        private FieldState(IndexedField persisted) {
+            this.id = persisted.getId();
+            this.datasetName = persisted.getDatasetName();
+            this.fieldName = persisted.getFieldName();
+            this.status = persisted.getStatus();
+            this.truncated = persisted.isTruncated();
+        }
+    }
+
+    /**
+     * The datasets an insert transaction has written to, each with a future completed when the
+     * transaction is over.
+     */
+    private static final class InsertTransaction {
+        private final Map<String, CompletableFuture<Void>> datasets = new HashMap<>();
+    }
+}
@@ -0,0 +1,20 @@
+package com.backend.service.ingest;
+
+import java.util.List;
+
+public record BulkInsertResult(String dataset,
+                               long inserted,
+                               long failed,
+                               long elapsedMillis,
+                               List<ChunkStats> chunks,
+                               List<FailedRow> failedRows) {
+
+    public record ChunkStats(int chunk, int rows, long millis, double rowsPerSecond) {
+    }
+
+    /**
+     * A row that was not stored; {@code row} is its zero-based position in the request body.
+     */
+    public record FailedRow(long row, String error) {
+    }
+}
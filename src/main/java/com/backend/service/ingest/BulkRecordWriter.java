@@ -0,0 +1,185 @@
+package com.backend.service.ingest;
+
+import com.backend.config.IngestProperties;
+import com.backend.exception.BadRequestException;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.store.RecordStore;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams a JSON array or NDJSON body into the {@link RecordStore}. Rows are parsed one at a
+ * time and written in chunks, each chunk as one batch in its own transaction, so a bad row or a
+ * failed chunk never rolls back rows that were already acknowledged.
+ */
+@Component
+@Slf4j
+public class BulkRecordWriter {
+
+    private static final TypeReference<Map<String, Object>> ROW_TYPE = new TypeReference<>() {
+    };
+
+    private final RecordStore recordStore;
+    private final TransactionTemplate transactionTemplate;
+    private final List<DatasetChangeListener> changeListeners;
+    private final IngestProperties properties;
+    private final RowCodec rowCodec;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public BulkRecordWriter(RecordStore recordStore,
+                            PlatformTransactionManager transactionManager,
+                            List<DatasetChangeListener> changeListeners,
+                            IngestProperties properties,
+                            RowCodec rowCodec) {
+        this.recordStore = recordStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.changeListeners = changeListeners;
+        this.properties = properties;
+        this.rowCodec = rowCodec;
+    }
+
+    public BulkInsertResult write(String datasetName, InputStream body, boolean ndjson) throws IOException {
+        Session session = new Session(datasetName);
+        if (ndjson) {
+            readNdjson(body, session);
+        } else {
+            readArray(body, session);
+        }
+        session.flushChunk();
+        return session.result();
+    }
+
+    private void readArray(InputStream body, Session session) throws IOException {
+        try (JsonParser parser = mapper.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new BadRequestException("Bulk body must be a JSON array of objects");
+            }
+            long row = 0;
+            try {
+                JsonToken token;
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token == null) {
+                        session.fail(row, "Unexpected end of input");
+                        break;
+                    }
+                    if (token == JsonToken.START_OBJECT) {
+                        session.add(row, mapper.readValue(parser, ROW_TYPE));
+                    } else {
+                        parser.skipChildren();
+                        session.fail(row, "Expected a JSON object but found " + token);
+                    }
+                    row++;
+                }
+            } catch (JsonProcessingException e) {
+                session.fail(row, "Malformed JSON, rest of the body ignored: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    private void readNdjson(InputStream body, Session session) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        long row = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) continue;
+            try {
+                Map<String, Object> map = mapper.readValue(line, ROW_TYPE);
+                if (map == null) {
+                    session.fail(row, "Expected a JSON object but found null");
+                } else {
+                    session.add(row, map);
+                }
+            } catch (JsonProcessingException e) {
+                session.fail(row, e.getOriginalMessage());
+            }
+            row++;
+        }
+    }
+
+    private record PendingRow(long row, Map<String, Object> values, RowCodec.EncodedRow encoded) {
+    }
+
+    private final class Session {
+        private final String datasetName;
+        private final long started = System.currentTimeMillis();
+        private final List<PendingRow> pending = new ArrayList<>();
+        private final List<BulkInsertResult.ChunkStats> chunks = new ArrayList<>();
+        private final List<BulkInsertResult.FailedRow> failedRows = new ArrayList<>();
+        private long inserted;
+        private long failed;
+
+        private Session(String datasetName) {
+            this.datasetName = datasetName;
+        }
+
+        private void add(long row, Map<String, Object> values) throws JsonProcessingException {
+            pending.add(new PendingRow(row, values, rowCodec.encode(datasetName, values)));
+            if (pending.size() >= properties.getChunkSize()) {
+                flushChunk();
+            }
+        }
+
+        private void fail(long row, String error) {
+            failed++;
+            if (failedRows.size() < properties.getMaxReportedFailures()) {
+                failedRows.add(new BulkInsertResult.FailedRow(row, error));
+            }
+        }
+
+        private void flushChunk() {
+            if (pending.isEmpty()) return;
+            int chunk = chunks.size() + 1;
+            long chunkStarted = System.nanoTime();
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    List<Long> ids = recordStore.saveAll(datasetName, pending.stream().map(PendingRow::encoded).toList());
+                    List<DatasetChangeListener.InsertedRecord> records = new ArrayList<>(ids.size());
+                    for (int i = 0; i < ids.size(); i++) {
+                        records.add(new DatasetChangeListener.InsertedRecord(ids.get(i), pending.get(i).values()));
+                    }
+                    try {
+                        for (DatasetChangeListener listener : changeListeners) {
+                            listener.onRecordsInserted(datasetName, records);
+                        }
+                    } catch (JsonProcessingException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                long millis = (System.nanoTime() - chunkStarted) / 1_000_000;
+                double rowsPerSecond = pending.size() * 1000.0 / Math.max(millis, 1);
+                chunks.add(new BulkInsertResult.ChunkStats(chunk, pending.size(), millis, rowsPerSecond));
+                inserted += pending.size();
+                log.debug("Bulk chunk {} of dataset {}: {} rows in {} ms", chunk, datasetName, pending.size(), millis);
+            } catch (RuntimeException e) {
+                log.warn("Bulk chunk {} of dataset {} failed, {} rows rejected", chunk, datasetName, pending.size(), e);
+                chunks.add(new BulkInsertResult.ChunkStats(chunk, 0, (System.nanoTime() - chunkStarted) / 1_000_000, 0));
+                for (PendingRow row : pending) {
+                    fail(row.row(), "Chunk " + chunk + " failed: " + e.getMessage());
+                }
+            }
+            pending.clear();
+        }
+
+        private BulkInsertResult result() {
+            return new BulkInsertResult(datasetName, inserted, failed, System.currentTimeMillis() - started, chunks, failedRows);
+        }
+    }
+}
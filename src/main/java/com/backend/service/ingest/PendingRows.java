@@ -0,0 +1,63 @@
+package com.backend.service.ingest;
+
+import com.backend.model.DatasetRecord;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * The rows of a dataset acknowledged by {@link WriteBehindBuffer} but not yet stored when a
+ * scan started, for the scan to add to the stored rows. Rows the flusher stores while the scan
+ * runs may reach it from the store as well; the scan reports every stored id it reads through
+ * {@link #seen}, and {@link #unseen} leaves those rows out.
+ */
+public final class PendingRows {
+
+    static final PendingRows NONE = new PendingRows(List.of(), Long.MAX_VALUE, null);
+
+    private final List<WriteBehindBuffer.PendingRow> rows;
+    private final long floor;
+    private final Lock flushLock;
+    private final Set<Long> seen = new HashSet<>();
+
+    /**
+     * {@code floor} is the highest id the flusher had stored for the dataset; the pending rows
+     * can only be stored with higher ids.
+     */
+    PendingRows(List<WriteBehindBuffer.PendingRow> rows, long floor, Lock flushLock) {
+        this.rows = rows;
+        this.floor = floor;
+        this.flushLock = flushLock;
+    }
+
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    public void seen(Long id) {
+        if (id != null && id > floor && id < WriteBehindBuffer.PROVISIONAL_ID_BASE) seen.add(id);
+    }
+
+    /**
+     * The pending rows the scan did not read from the store, with provisional ids above every
+     * stored id, in the order they were acknowledged.
+     */
+    public List<DatasetRecord> unseen() {
+        if (rows.isEmpty()) return List.of();
+        List<DatasetRecord> unseen = new ArrayList<>(rows.size());
+        // a batch being stored may be visible to the scan before its ids are known
+        flushLock.lock();
+        try {
+            for (WriteBehindBuffer.PendingRow row : rows) {
+                Long id = row.storedId();
+                if (id == null || !seen.contains(id)) unseen.add(row.record());
+            }
+        } finally {
+            flushLock.unlock();
+        }
+        return unseen;
+    }
+}
@@ -0,0 +1,294 @@
+package com.backend.service.ingest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of entries in numbered files, each named after the sequence number of its
+ * first entry. An entry is its payload length, the CRC32 of its sequence number and payload,
+ * the sequence number and the payload. Sequence numbers count up from 1 across files.
+ * <p>
+ * Appends are written to the current file without forcing it; {@link #awaitDurable} forces
+ * the file as a group commit: the first caller to find its entry not yet durable forces
+ * everything written so far, and the callers arriving meanwhile wait for it and are usually
+ * covered by the same force. {@link #checkpoint} records the last entry no longer needed and
+ * deletes the files holding only older entries.
+ * <p>
+ * On open the files are read back in order, and the log is cut at the first entry that is
+ * incomplete, fails its checksum or breaks the sequence: a write torn by a crash, never
+ * acknowledged. Appends then go to a new file.
+ */
+@Slf4j
+final class WriteAheadLog implements Closeable {
+
+    private static final String SUFFIX = ".wal";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int ENTRY_HEADER_BYTES = 16;
+
+    record Entry(long sequence, byte[] payload) {
+    }
+
+    private record LogFile(long firstSequence, Path path, FileChannel channel) {
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final List<LogFile> files = new ArrayList<>();
+    private final List<Entry> recovered;
+    private long checkpoint;
+    private long nextSequence;
+    private long currentBytes;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private long durable;
+    private boolean syncing;
+    private long forces;
+
+    private WriteAheadLog(Path directory, long segmentSize, long checkpoint, List<Entry> recovered, long lastSequence) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.checkpoint = checkpoint;
+        this.recovered = recovered;
+        this.nextSequence = lastSequence + 1;
+        this.durable = lastSequence;
+    }
+
+    static WriteAheadLog open(Path directory, long segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        Path checkpointFile = directory.resolve(CHECKPOINT);
+        long checkpoint = Files.exists(checkpointFile) ? ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).getLong() : 0;
+        List<Path> paths;
+        try (Stream<Path> listed = Files.list(directory)) {
+            paths = listed.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+
+        List<Entry> recovered = new ArrayList<>();
+        List<Path> kept = new ArrayList<>();
+        long last = checkpoint;
+        boolean intact = true;
+        for (Path path : paths) {
+            if (!intact) {
+                Files.delete(path);
+                continue;
+            }
+            long first = firstSequence(path);
+            if (!kept.isEmpty() && first != last + 1) {
+                log.warn("Write-ahead log file {} does not continue the log at entry {}; discarding it and the files after it", path, last + 1);
+                intact = false;
+                Files.delete(path);
+                continue;
+            }
+            long[] lastRead = {kept.isEmpty() ? first - 1 : last};
+            intact = read(path, lastRead, checkpoint, recovered);
+            last = Math.max(last, lastRead[0]);
+            if (Files.size(path) == 0) {
+                Files.delete(path);
+            } else {
+                kept.add(path);
+            }
+        }
+
+        WriteAheadLog wal = new WriteAheadLog(directory, segmentSize, checkpoint, recovered, last);
+        for (Path path : kept) {
+            wal.files.add(new LogFile(firstSequence(path), path, FileChannel.open(path, StandardOpenOption.READ)));
+        }
+        wal.roll();
+        wal.deleteObsolete();
+        return wal;
+    }
+
+    /**
+     * Entries found on open that come after the checkpoint.
+     */
+    List<Entry> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Writes the entry and returns its sequence number. It is durable once
+     * {@link #awaitDurable} returns for that number.
+     */
+    synchronized long append(byte[] payload) throws IOException {
+        long sequence = nextSequence;
+        CRC32 crc = new CRC32();
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_BYTES + payload.length);
+        entry.putInt(payload.length).putInt(0).putLong(sequence).put(payload);
+        crc.update(entry.array(), 8, 8 + payload.length);
+        entry.putInt(4, (int) crc.getValue()).flip();
+
+        FileChannel channel = current().channel();
+        long position = channel.position();
+        try {
+            while (entry.hasRemaining()) {
+                channel.write(entry);
+            }
+        } catch (IOException e) {
+            channel.truncate(position);
+            throw e;
+        }
+        nextSequence++;
+        currentBytes += ENTRY_HEADER_BYTES + payload.length;
+        if (currentBytes >= segmentSize) roll();
+        return sequence;
+    }
+
+    /**
+     * Returns once the entry with this sequence number, and all before it, are on disk.
+     */
+    void awaitDurable(long sequence) throws IOException {
+        syncLock.lock();
+        try {
+            while (durable < sequence) {
+                if (syncing) {
+                    synced.awaitUninterruptibly();
+                    continue;
+                }
+                syncing = true;
+                long target;
+                FileChannel channel;
+                synchronized (this) {
+                    target = nextSequence - 1;
+                    channel = current().channel();
+                }
+                syncLock.unlock();
+                try {
+                    // files before the current one were forced when it was started
+                    channel.force(false);
+                } finally {
+                    syncLock.lock();
+                    syncing = false;
+                    synced.signalAll();
+                }
+                durable = Math.max(durable, target);
+                forces++;
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Records that the entries up to this sequence number are no longer needed, and deletes the
+     * files holding only such entries.
+     */
+    synchronized void checkpoint(long sequence) throws IOException {
+        if (sequence <= checkpoint) return;
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, sequence));
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        checkpoint = sequence;
+        deleteObsolete();
+    }
+
+    synchronized int fileCount() {
+        return files.size();
+    }
+
+    long forces() {
+        syncLock.lock();
+        try {
+            return forces;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        current().channel().force(false);
+        for (LogFile file : files) {
+            file.channel().close();
+        }
+    }
+
+    private LogFile current() {
+        return files.get(files.size() - 1);
+    }
+
+    private void roll() throws IOException {
+        if (!files.isEmpty()) current().channel().force(false);
+        Path path = directory.resolve(String.format("%020d%s", nextSequence, SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        files.add(new LogFile(nextSequence, path, channel));
+        currentBytes = 0;
+    }
+
+    private void deleteObsolete() throws IOException {
+        while (files.size() > 1 && files.get(1).firstSequence() <= checkpoint + 1) {
+            LogFile obsolete = files.remove(0);
+            obsolete.channel().close();
+            Files.deleteIfExists(obsolete.path());
+        }
+    }
+
+    private static long firstSequence(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Reads the entries of a file, keeping those after the checkpoint. Returns false after
+     * truncating the file when it ends in a torn write.
+     */
+    private static boolean read(Path path, long[] last, long checkpoint, List<Entry> recovered) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_BYTES);
+            while (position < size) {
+                try {
+                    header.clear();
+                    readFully(channel, header, position);
+                    int length = header.getInt(0);
+                    long sequence = header.getLong(8);
+                    if (length < 0 || position + ENTRY_HEADER_BYTES + length > size || sequence != last[0] + 1) {
+                        throw new EOFException();
+                    }
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    readFully(channel, payload, position + ENTRY_HEADER_BYTES);
+                    CRC32 crc = new CRC32();
+                    crc.update(header.array(), 8, 8);
+                    crc.update(payload.array());
+                    if ((int) crc.getValue() != header.getInt(4)) throw new EOFException();
+
+                    if (sequence > checkpoint) recovered.add(new Entry(sequence, payload.array()));
+                    last[0] = sequence;
+                    position += ENTRY_HEADER_BYTES + length;
+                } catch (EOFException e) {
+                    log.warn("Write-ahead log file {} ends in a torn write at offset {}; discarding the rest of the log", path, position);
+                    channel.truncate(position);
+                    channel.force(true);
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+    }
+}
@@ -0,0 +1,616 @@
+package com.backend.service.ingest;
+
+import com.backend.config.WriteBehindProperties;
+import com.backend.exception.ServiceUnavailableException;
+import com.backend.model.DatasetRecord;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.cache.QueryResultCache;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.store.RecordStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes single-row inserts. With {@code dataset.write-behind.enabled} a row is acknowledged
+ * once it is durable in the local {@link WriteAheadLog}, fsynced together with the rows
+ * appended concurrently, and a background flusher stores the acknowledged rows in batches of
+ * {@code batch-size}, one transaction per batch, notifying the {@link DatasetChangeListener}s
+ * as a bulk insert would. Until then scans read the rows from here through
+ * {@link #pending}. Without write-behind a row is written through in its own transaction.
+ * <p>
+ * After each stored batch the log is checkpointed; on start the rows logged after the
+ * checkpoint are replayed into the buffer. A crash between storing a batch and checkpointing
+ * it stores that batch twice: rows are written at least once.
+ * <p>
+ * A failed batch is stored again one dataset per transaction, so rows that cannot be stored
+ * hold back only their own dataset. Rows that failed {@code max-attempts} times are stored in
+ * halves down to single rows, and a row that still fails on its own is moved to the
+ * dead-letter file next to the log. Failures of the store itself, such as a lost connection
+ * or a full disk, are not held against the rows: those are kept and retried as they are.
+ * <p>
+ * Pending rows carry provisional ids above any stored id, in the order they were
+ * acknowledged, and get their real ids when stored. A sort cursor taken on a pending row can
+ * therefore repeat or skip rows with exactly its sort key once the row is stored.
+ */
+@Component
+@Slf4j
+public class WriteBehindBuffer {
+
+    static final long PROVISIONAL_ID_BASE = 1L << 62;
+
+    private static final String DEAD_LETTER_FILE = "dead-letter.ndjson";
+
+    private static final TypeReference<Map<String, Object>> ROW_TYPE = new TypeReference<>() {
+    };
+
+    /**
+     * An acknowledged row; {@code storedId} is set once the flusher stored it, before the
+     * transaction storing it commits.
+     */
+    static final class PendingRow {
+        private final long sequence;
+        private final String datasetName;
+        private final Map<String, Object> values;
+        private final RowCodec.EncodedRow encoded;
+        private final DatasetRecord record;
+        private volatile Long storedId;
+        // failed attempts at storing the row, only used by the flusher
+        private int attempts;
+
+        private PendingRow(long sequence, String datasetName, Map<String, Object> values, RowCodec.EncodedRow encoded) {
+            this.sequence = sequence;
+            this.datasetName = datasetName;
+            this.values = values;
+            this.encoded = encoded;
+            this.record = DatasetRecord.builder()
+                    .id(PROVISIONAL_ID_BASE + sequence)
+                    .datasetName(datasetName)
+                    .jsonData(encoded.json())
+                    .binaryData(encoded.binary())
+                    .build();
+        }
+
+        DatasetRecord record() {
+            return record;
+        }
+
+        Long storedId() {
+            return storedId;
+        }
+    }
+
+    /**
+     * What became of the rows of one flush.
+     */
+    private static final class FlushResult {
+        private final List<PendingRow> stored = new ArrayList<>();
+        private final List<PendingRow> rejected = new ArrayList<>();
+        private RuntimeException failure;
+        private boolean storeFailed;
+    }
+
+    private static final class DatasetState {
+        // guarded by the state itself
+        private final ArrayDeque<PendingRow> rows = new ArrayDeque<>();
+        private long floor;
+        // held while a batch of the dataset is stored and given its ids
+        private final ReentrantLock storing = new ReentrantLock();
+
+        private DatasetState(long floor) {
+            this.floor = floor;
+        }
+    }
+
+    private final WriteBehindProperties properties;
+    private final RecordStore recordStore;
+    private final TransactionTemplate transactionTemplate;
+    private final List<DatasetChangeListener> changeListeners;
+    private final RowCodec rowCodec;
+    private final QueryResultCache resultCache;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, DatasetState> datasets = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<PendingRow> queue = new LinkedBlockingQueue<>();
+    private final Object appendLock = new Object();
+    private final ReentrantLock roomLock = new ReentrantLock();
+    private final Condition roomFreed = roomLock.newCondition();
+    private long pendingRows;
+    private final Object sleeper = new Object();
+
+    private volatile WriteAheadLog wal;
+    private Thread flusher;
+    private volatile boolean stopping;
+    // rows of earlier flushes that failed, in the order they were acknowledged per dataset
+    private final List<PendingRow> held = new ArrayList<>();
+
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong deadLettered = new AtomicLong();
+    private volatile String lastFlushError;
+
+    public WriteBehindBuffer(WriteBehindProperties properties,
+                             RecordStore recordStore,
+                             PlatformTransactionManager transactionManager,
+                             List<DatasetChangeListener> changeListeners,
+                             RowCodec rowCodec,
+                             QueryResultCache resultCache) {
+        this.properties = properties;
+        this.recordStore = recordStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.changeListeners = changeListeners;
+        this.rowCodec = rowCodec;
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Opens the write-ahead log, replays the rows it holds that were not stored yet and starts
+     * the flusher.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        if (!properties.isEnabled()) return;
+        WriteAheadLog opened = WriteAheadLog.open(properties.getDirectory(), properties.getSegmentSize().toBytes());
+        for (WriteAheadLog.Entry entry : opened.recovered()) {
+            PendingRow row = decode(entry);
+            DatasetState state = state(row.datasetName);
+            synchronized (state) {
+                state.rows.add(row);
+            }
+            queue.add(row);
+        }
+        roomLock.lock();
+        try {
+            pendingRows += opened.recovered().size();
+        } finally {
+            roomLock.unlock();
+        }
+        wal = opened;
+        log.info("Write-behind inserts logged under {}; {} rows replayed from the log",
+                properties.getDirectory().toAbsolutePath(), opened.recovered().size());
+
+        flusher = new Thread(this::runFlusher, "write-behind-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stops the flusher and stores what is still pending; rows that cannot be stored now stay
+     * in the log for the next start.
+     */
+    @PreDestroy
+    public void shutdown() throws IOException, InterruptedException {
+        if (wal == null) return;
+        stopping = true;
+        synchronized (sleeper) {
+            sleeper.notifyAll();
+        }
+        flusher.join();
+        try {
+            while (flush() > 0) {
+                // drain
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not store {} pending rows on shutdown; they are replayed on the next start", pendingRows(), e);
+        }
+        wal.close();
+    }
+
+    public boolean isEnabled() {
+        return wal != null;
+    }
+
+    /**
+     * Inserts the row: acknowledged once logged with write-behind, stored now without it. A row
+     * acknowledged by the log is returned without an id, as it has none yet.
+     */
+    public DatasetRecord insert(String datasetName, Map<String, Object> json) throws JsonProcessingException {
+        RowCodec.EncodedRow encoded = rowCodec.encode(datasetName, json);
+        if (!isEnabled()) return insertNow(datasetName, json, encoded);
+
+        byte[] payload = encode(datasetName, json);
+        DatasetState state = state(datasetName);
+        awaitRoom();
+        PendingRow row;
+        try {
+            synchronized (appendLock) {
+                row = new PendingRow(wal.append(payload), datasetName, json, encoded);
+                synchronized (state) {
+                    state.rows.add(row);
+                }
+                queue.add(row);
+            }
+        } catch (IOException e) {
+            freeRoom(1);
+            throw new UncheckedIOException(e);
+        }
+        try {
+            wal.awaitDurable(row.sequence);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Row logged but not forced to disk; it may still be stored", e);
+        }
+        appended.incrementAndGet();
+        resultCache.invalidate(datasetName);
+        return DatasetRecord.builder()
+                .datasetName(datasetName)
+                .jsonData(encoded.json())
+                .binaryData(encoded.binary())
+                .build();
+    }
+
+    /**
+     * The rows of the dataset acknowledged but not yet stored, for a scan starting now.
+     */
+    public PendingRows pending(String datasetName) {
+        DatasetState state = datasets.get(datasetName);
+        if (state == null) return PendingRows.NONE;
+        synchronized (state) {
+            if (state.rows.isEmpty()) return PendingRows.NONE;
+            return new PendingRows(new ArrayList<>(state.rows), state.floor, state.storing);
+        }
+    }
+
+    public long pendingRows(String datasetName) {
+        DatasetState state = datasets.get(datasetName);
+        if (state == null) return 0;
+        synchronized (state) {
+            return state.rows.size();
+        }
+    }
+
+    /**
+     * Stores the oldest pending rows, up to {@code batch-size}, in one transaction, the rows
+     * held back by failed flushes first. Returns how many rows were stored or dead-lettered;
+     * throws when none were because the store failed.
+     */
+    public synchronized int flush() {
+        if (wal == null) return 0;
+        List<PendingRow> batch = new ArrayList<>(held);
+        queue.drainTo(batch, Math.max(0, properties.getBatchSize() - held.size()));
+        if (batch.isEmpty()) return 0;
+        boolean retrying = !held.isEmpty();
+        held.clear();
+
+        Map<String, List<PendingRow>> byDataset = new LinkedHashMap<>();
+        for (PendingRow row : batch) {
+            byDataset.computeIfAbsent(row.datasetName, k -> new ArrayList<>()).add(row);
+        }
+        long started = System.nanoTime();
+        FlushResult result = new FlushResult();
+        if (!retrying) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> byDataset.forEach(this::store));
+                result.stored.addAll(batch);
+            } catch (RuntimeException e) {
+                byDataset.forEach((datasetName, rows) -> forgetIds(datasets.get(datasetName), rows));
+                result.failure = e;
+                result.storeFailed = isStoreFailure(e);
+                retrying = true;
+            }
+        }
+        if (retrying) {
+            byDataset.forEach((datasetName, rows) -> storeApart(datasetName, rows, result));
+        }
+        if (!result.rejected.isEmpty() && !deadLetter(result.rejected)) {
+            held.addAll(result.rejected);
+            result.rejected.clear();
+        }
+
+        removeDone(result.stored, true);
+        removeDone(result.rejected, false);
+        int done = result.stored.size() + result.rejected.size();
+        freeRoom(done);
+        flushed.addAndGet(result.stored.size());
+        if (!result.stored.isEmpty()) flushes.incrementAndGet();
+        deadLettered.addAndGet(result.rejected.size());
+        lastFlushError = result.failure == null ? null : result.failure.toString();
+        if (done == 0) throw result.failure;
+
+        // rows of the batch past the oldest held row are replayed after a restart until it is stored
+        long through = held.isEmpty()
+                ? batch.stream().mapToLong(row -> row.sequence).max().getAsLong()
+                : held.stream().mapToLong(row -> row.sequence).min().getAsLong() - 1;
+        try {
+            wal.checkpoint(through);
+        } catch (IOException e) {
+            log.warn("Could not checkpoint the write-ahead log; its stored rows are replayed again after a restart", e);
+        }
+        if (!held.isEmpty()) {
+            log.warn("{} write-behind rows could not be stored and are retried", held.size(), result.failure);
+        }
+        log.debug("Stored {} write-behind rows of {} datasets in {} ms", result.stored.size(), byDataset.size(),
+                (System.nanoTime() - started) / 1_000_000);
+        return done;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("pendingRows", pendingRows());
+        stats.put("appendedRows", appended.get());
+        stats.put("storedRows", flushed.get());
+        stats.put("flushes", flushes.get());
+        stats.put("deadLetteredRows", deadLettered.get());
+        if (wal != null) {
+            stats.put("logFiles", wal.fileCount());
+            stats.put("logForces", wal.forces());
+        }
+        stats.put("lastFlushError", lastFlushError);
+        return stats;
+    }
+
+    private DatasetRecord insertNow(String datasetName, Map<String, Object> json, RowCodec.EncodedRow encoded) {
+        return transactionTemplate.execute(status -> {
+            DatasetRecord saved = recordStore.save(DatasetRecord.builder()
+                    .datasetName(datasetName)
+                    .jsonData(encoded.json())
+                    .binaryData(encoded.binary())
+                    .build());
+            notifyListeners(datasetName, List.of(new DatasetChangeListener.InsertedRecord(saved.getId(), json)));
+            return saved;
+        });
+    }
+
+    private void store(String datasetName, List<PendingRow> rows) {
+        DatasetState state = datasets.get(datasetName);
+        List<DatasetChangeListener.InsertedRecord> inserted = new ArrayList<>(rows.size());
+        state.storing.lock();
+        try {
+            List<Long> ids = recordStore.saveAll(datasetName, rows.stream().map(row -> row.encoded).toList());
+            for (int i = 0; i < ids.size(); i++) {
+                rows.get(i).storedId = ids.get(i);
+                inserted.add(new DatasetChangeListener.InsertedRecord(ids.get(i), rows.get(i).values));
+            }
+        } finally {
+            state.storing.unlock();
+        }
+        notifyListeners(datasetName, inserted);
+    }
+
+    private void notifyListeners(String datasetName, List<DatasetChangeListener.InsertedRecord> inserted) {
+        try {
+            for (DatasetChangeListener listener : changeListeners) {
+                listener.onRecordsInserted(datasetName, inserted);
+            }
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stores the rows of one dataset in a transaction of their own. Rows that fail are held
+     * for the next flush, or once they failed {@code max-attempts} times are split in halves
+     * to find the ones that cannot be stored. After a failure of the store itself the rest of
+     * the flush is held without trying.
+     */
+    private void storeApart(String datasetName, List<PendingRow> rows, FlushResult result) {
+        if (result.storeFailed) {
+            held.addAll(rows);
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> store(datasetName, rows));
+            result.stored.addAll(rows);
+            return;
+        } catch (RuntimeException e) {
+            forgetIds(datasets.get(datasetName), rows);
+            result.failure = e;
+            result.storeFailed = isStoreFailure(e);
+        }
+        // held rows come first, so the first row has failed most often
+        if (result.storeFailed || rows.get(0).attempts + 1 < properties.getMaxAttempts()) {
+            for (PendingRow row : rows) {
+                row.attempts++;
+            }
+            held.addAll(rows);
+        } else if (rows.size() == 1) {
+            result.rejected.add(rows.get(0));
+        } else {
+            int half = rows.size() / 2;
+            storeApart(datasetName, rows.subList(0, half), result);
+            storeApart(datasetName, rows.subList(half, rows.size()), result);
+        }
+    }
+
+    /**
+     * Failures of the store rather than of the rows: retrying the same rows later may work.
+     */
+    private static boolean isStoreFailure(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException
+                || e instanceof UncheckedIOException;
+    }
+
+    /**
+     * Appends the rows to the dead-letter file, forced to disk, so they can be looked at and
+     * inserted again by hand. Returns false if they could not be written.
+     */
+    private boolean deadLetter(List<PendingRow> rows) {
+        Path file = properties.getDirectory().resolve(DEAD_LETTER_FILE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            for (PendingRow row : rows) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("dataset", row.datasetName);
+                line.put("sequence", row.sequence);
+                line.put("row", row.values);
+                channel.write(ByteBuffer.wrap((mapper.writeValueAsString(line) + "\n").getBytes(StandardCharsets.UTF_8)));
+                log.error("Write-behind row {} of dataset {} cannot be stored; moved to {}", row.sequence, row.datasetName, file);
+            }
+            channel.force(true);
+            return true;
+        } catch (IOException e) {
+            log.error("Could not write {} rows that cannot be stored to {}; they are retried", rows.size(), file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Drops rows that are done with from the pending rows of their datasets.
+     */
+    private void removeDone(List<PendingRow> rows, boolean stored) {
+        Map<String, Set<PendingRow>> byDataset = new HashMap<>();
+        for (PendingRow row : rows) {
+            byDataset.computeIfAbsent(row.datasetName, k -> new HashSet<>()).add(row);
+        }
+        byDataset.forEach((datasetName, done) -> {
+            DatasetState state = datasets.get(datasetName);
+            synchronized (state) {
+                state.rows.removeAll(done);
+                if (stored) {
+                    for (PendingRow row : done) {
+                        state.floor = Math.max(state.floor, row.storedId);
+                    }
+                }
+            }
+        });
+    }
+
+    private static void forgetIds(DatasetState state, List<PendingRow> rows) {
+        state.storing.lock();
+        try {
+            for (PendingRow row : rows) {
+                row.storedId = null;
+            }
+        } finally {
+            state.storing.unlock();
+        }
+    }
+
+    /**
+     * Flushes every {@code flush-interval}, and right away again while full batches are
+     * waiting.
+     */
+    private void runFlusher() {
+        int stored = 0;
+        while (!stopping) {
+            if (stored < properties.getBatchSize()) {
+                synchronized (sleeper) {
+                    if (stopping) return;
+                    try {
+                        sleeper.wait(Math.max(1, properties.getFlushInterval().toMillis()));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            try {
+                stored = flush();
+            } catch (RuntimeException e) {
+                log.warn("Storing write-behind rows failed; retrying in {}", properties.getFlushInterval(), e);
+                stored = 0;
+            }
+        }
+    }
+
+    /**
+     * The state of the dataset, created on its first row. Pending rows stored later get ids
+     * above the dataset's highest id now, which is looked up outside the map.
+     */
+    private DatasetState state(String datasetName) {
+        DatasetState state = datasets.get(datasetName);
+        if (state != null) return state;
+        Long maxId = recordStore.maxId(datasetName);
+        DatasetState created = new DatasetState(maxId == null ? 0 : maxId);
+        DatasetState raced = datasets.putIfAbsent(datasetName, created);
+        return raced != null ? raced : created;
+    }
+
+    private void awaitRoom() {
+        roomLock.lock();
+        try {
+            long nanos = properties.getAppendTimeout().toNanos();
+            while (pendingRows >= properties.getMaxPendingRows()) {
+                if (nanos <= 0) {
+                    throw new ServiceUnavailableException("Write-behind buffer is full: " + pendingRows
+                            + " rows are waiting to be stored; retry later");
+                }
+                nanos = roomFreed.awaitNanos(nanos);
+            }
+            pendingRows++;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException("Interrupted while waiting for room in the write-behind buffer");
+        } finally {
+            roomLock.unlock();
+        }
+    }
+
+    private void freeRoom(int rows) {
+        roomLock.lock();
+        try {
+            pendingRows -= rows;
+            roomFreed.signalAll();
+        } finally {
+            roomLock.unlock();
+        }
+    }
+
+    private long pendingRows() {
+        roomLock.lock();
+        try {
+            return pendingRows;
+        } finally {
+            roomLock.unlock();
+        }
+    }
+
+    private byte[] encode(String datasetName, Map<String, Object> json) throws JsonProcessingException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(datasetName);
+            out.write(mapper.writeValueAsBytes(json));
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private PendingRow decode(WriteAheadLog.Entry entry) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.payload()));
+        String datasetName = in.readUTF();
+        Map<String, Object> values = mapper.readValue(in.readAllBytes(), ROW_TYPE);
+        return new PendingRow(entry.sequence(), datasetName, values, rowCodec.encode(datasetName, values));
+    }
+}
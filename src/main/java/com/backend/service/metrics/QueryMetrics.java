@@ -0,0 +1,112 @@
+package com.backend.service.metrics;
+
+import com.backend.config.MetricsProperties;
+import com.backend.service.registry.DatasetRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records finished {@link QueryProfile}s as meters tagged by dataset and operator:
+ * <ul>
+ *     <li>{@code dataset.query} and {@code dataset.query.phase}: query and phase latencies</li>
+ *     <li>{@code dataset.query.rows.scanned}, {@code dataset.query.rows.returned} and
+ *     {@code dataset.query.bytes.parsed}</li>
+ *     <li>{@code dataset.query.allocated}: bytes allocated per query</li>
+ *     <li>{@code dataset.query.slow}: queries over {@code dataset.metrics.slow-query-threshold},
+ *     which are also logged with their phase breakdown to the {@code com.backend.slow-query} logger</li>
+ * </ul>
+ * Queries of datasets the {@link DatasetRegistry} does not know are tagged with the dataset
+ * {@code unknown}, so names that only ever appear in URLs add no meters.
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class QueryMetrics {
+
+    /**
+     * Request attribute holding the profile of the query the request runs.
+     */
+    public static final String PROFILE_ATTRIBUTE = QueryMetrics.class.getName() + ".profile";
+
+    static final String UNKNOWN_DATASET = "unknown";
+
+    private static final Logger SLOW_QUERIES = LoggerFactory.getLogger("com.backend.slow-query");
+
+    private final MeterRegistry registry;
+    private final MetricsProperties properties;
+    private final DatasetRegistry datasetRegistry;
+
+    /**
+     * Starts profiling a query and binds the profile to the calling thread until {@link #unbind()}.
+     */
+    public QueryProfile start(String dataset, String operator, String description) {
+        if (!properties.isEnabled()) return QueryProfile.none();
+        QueryProfile profile = new QueryProfile(dataset, operator, description);
+        profile.attach();
+        return profile;
+    }
+
+    public void unbind() {
+        QueryProfile.unbind();
+    }
+
+    /**
+     * Records the profile, once: later calls for the same profile are ignored.
+     */
+    public void finish(QueryProfile profile, boolean failed) {
+        if (!profile.finish()) return;
+        String dataset = datasetRegistry.isKnown(profile.dataset()) ? profile.dataset() : UNKNOWN_DATASET;
+        Tags tags = Tags.of("dataset", dataset, "operator", profile.operator());
+        long totalNanos = profile.totalNanos();
+
+        Timer.builder("dataset.query")
+                .description("Query latency, from the request to the last byte of the response")
+                .tags(tags).tag("outcome", failed ? "error" : "success")
+                .publishPercentileHistogram(properties.isHistograms())
+                .register(registry)
+                .record(totalNanos, TimeUnit.NANOSECONDS);
+        for (QueryProfile.Phase phase : QueryProfile.Phase.values()) {
+            Timer.builder("dataset.query.phase")
+                    .description("Time spent per query phase")
+                    .tags(tags).tag("phase", phase.tag())
+                    .publishPercentileHistogram(properties.isHistograms())
+                    .register(registry)
+                    .record(profile.phaseNanos(phase), TimeUnit.NANOSECONDS);
+        }
+        Counter.builder("dataset.query.rows.scanned").tags(tags).register(registry).increment(profile.rowsScanned());
+        Counter.builder("dataset.query.rows.returned").tags(tags).register(registry).increment(profile.rowsReturned());
+        Counter.builder("dataset.query.bytes.parsed").baseUnit("bytes").tags(tags).register(registry)
+                .increment(profile.bytesParsed());
+        DistributionSummary.builder("dataset.query.allocated")
+                .description("Heap allocated per query")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry)
+                .record(profile.allocatedBytes());
+
+        if (totalNanos >= properties.getSlowQueryThreshold().toNanos()) {
+            Counter.builder("dataset.query.slow").tags(tags).register(registry).increment();
+            SLOW_QUERIES.warn("Slow {} on dataset {} ({}): {} ms total, fetch {} ms, parse {} ms, compute {} ms, "
+                            + "serialize {} ms; {} rows scanned, {} returned, {} bytes parsed, {} bytes allocated{}",
+                    profile.operator(), profile.dataset(), profile.description(), millis(totalNanos),
+                    millis(profile.phaseNanos(QueryProfile.Phase.FETCH)), millis(profile.phaseNanos(QueryProfile.Phase.PARSE)),
+                    millis(profile.phaseNanos(QueryProfile.Phase.COMPUTE)), millis(profile.phaseNanos(QueryProfile.Phase.SERIALIZE)),
+                    profile.rowsScanned(), profile.rowsReturned(), profile.bytesParsed(), profile.allocatedBytes(),
+                    failed ? ", failed" : "");
+        }
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,247 @@
+package com.backend.service.metrics;
+
+import com.backend.service.plan.QueryPlan;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of one query goes. A profile is started by {@link QueryMetrics#start} and bound
+ * to the request thread, where the query service picks it up through {@link #current()}; work
+ * done on the query pool is added from the worker threads. Without a bound profile
+ * {@link #current()} returns one that records nothing.
+ * <p>
+ * Phases:
+ * <ul>
+ *     <li>{@code fetch}: waiting for the database, or loading the parsed-row cache</li>
+ *     <li>{@code parse}: decoding rows and reading their keys, summed over all threads, so it
+ *     can exceed the wall time of a parallel query</li>
+ *     <li>{@code compute}: the rest of the query on the request thread: grouping, sorting,
+ *     aggregating, and waiting for parse tasks</li>
+ *     <li>{@code serialize}: writing the response; for streamed sorts this includes merging the
+ *     sorted runs</li>
+ * </ul>
+ * Allocated bytes are measured per thread: on the request thread, on the thread streaming the
+ * response, and in the pool tasks that parse scanned rows or walk cached ones.
+ */
+public final class QueryProfile {
+
+    public enum Phase {
+        FETCH, PARSE, COMPUTE, SERIALIZE;
+
+        public String tag() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final ThreadLocal<QueryProfile> CURRENT = new ThreadLocal<>();
+    private static final QueryProfile NONE = new QueryProfile(null, null, null);
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private final String dataset;
+    private final String operator;
+    private final String description;
+    private final long startedNanos = System.nanoTime();
+    private final Map<Phase, LongAdder> phaseNanos = new EnumMap<>(Phase.class);
+    private final LongAdder inlineParseNanos = new LongAdder();
+    private final LongAdder rowsScanned = new LongAdder();
+    private final LongAdder bytesParsed = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile long rowsReturned;
+    private volatile QueryPlan plan;
+    private volatile long computedNanos;
+    private volatile Thread thread;
+    private volatile long threadAllocationBaseline;
+
+    QueryProfile(String dataset, String operator, String description) {
+        this.dataset = dataset;
+        this.operator = operator;
+        this.description = description;
+        for (Phase phase : Phase.values()) {
+            phaseNanos.put(phase, new LongAdder());
+        }
+    }
+
+    /**
+     * The profile bound to this thread, or one that records nothing.
+     */
+    public static QueryProfile current() {
+        QueryProfile profile = CURRENT.get();
+        return profile != null ? profile : NONE;
+    }
+
+    /**
+     * Bytes allocated so far by the calling thread, or 0 where the JVM does not track them, as on
+     * virtual threads.
+     */
+    public static long threadAllocatedBytes() {
+        return THREADS != null ? Math.max(THREADS.getCurrentThreadAllocatedBytes(), 0) : 0;
+    }
+
+    public boolean isRecording() {
+        return this != NONE;
+    }
+
+    public void addPhase(Phase phase, long nanos) {
+        if (this == NONE) return;
+        phaseNanos.get(phase).add(nanos);
+    }
+
+    /**
+     * Adds a piece of work that ran on any thread. Allocations on the thread the profile is
+     * measuring are already counted there and are skipped.
+     */
+    public void addWork(Phase phase, long nanos, long allocated) {
+        if (this == NONE) return;
+        phaseNanos.get(phase).add(nanos);
+        if (phase == Phase.PARSE && Thread.currentThread() == thread) inlineParseNanos.add(nanos);
+        addAllocated(allocated);
+    }
+
+    /**
+     * Adds bytes allocated by a task, unless it ran on the thread the profile is measuring.
+     */
+    public void addAllocated(long allocated) {
+        if (this == NONE || Thread.currentThread() == thread) return;
+        allocatedBytes.add(allocated);
+    }
+
+    public void addRowsScanned(long rows) {
+        if (this == NONE) return;
+        rowsScanned.add(rows);
+    }
+
+    public void addBytesParsed(long bytes) {
+        if (this == NONE) return;
+        bytesParsed.add(bytes);
+    }
+
+    public void setRowsReturned(long rows) {
+        this.rowsReturned = rows;
+    }
+
+    /**
+     * Records how the query runs; null when it did not run, because its result was cached.
+     */
+    public void setPlan(QueryPlan plan) {
+        if (this == NONE) return;
+        this.plan = plan;
+    }
+
+    public QueryPlan plan() {
+        return plan;
+    }
+
+    /**
+     * Marks the result as computed: the compute phase is the time since the start not spent
+     * fetching or parsing on this thread, and serialization starts now.
+     */
+    public void computed() {
+        if (this == NONE || computedNanos != 0) return;
+        long now = System.nanoTime();
+        long compute = now - startedNanos - phaseNanos.get(Phase.FETCH).sum() - inlineParseNanos.sum();
+        phaseNanos.get(Phase.COMPUTE).add(Math.max(compute, 0));
+        computedNanos = now;
+    }
+
+    /**
+     * Stops measuring allocations on the calling thread, before the query continues on another
+     * one that calls {@link #resume()}.
+     */
+    public void suspend() {
+        if (this == NONE || thread != Thread.currentThread()) return;
+        allocatedBytes.add(threadAllocatedBytes() - threadAllocationBaseline);
+        thread = null;
+    }
+
+    public void resume() {
+        if (this == NONE) return;
+        threadAllocationBaseline = threadAllocatedBytes();
+        thread = Thread.currentThread();
+    }
+
+    static QueryProfile none() {
+        return NONE;
+    }
+
+    /**
+     * Binds the profile to the calling thread and measures it there, for a query that continues
+     * on another thread than the one that started it; {@link #detach()} undoes it.
+     */
+    public void attach() {
+        if (this == NONE) return;
+        CURRENT.set(this);
+        resume();
+    }
+
+    public void detach() {
+        if (this == NONE) return;
+        suspend();
+        CURRENT.remove();
+    }
+
+    static void unbind() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Ends the profile once; later calls return false.
+     */
+    boolean finish() {
+        if (this == NONE || !finished.compareAndSet(false, true)) return false;
+        if (computedNanos == 0) computed();
+        phaseNanos.get(Phase.SERIALIZE).add(System.nanoTime() - computedNanos);
+        suspend();
+        return true;
+    }
+
+    public String dataset() {
+        return dataset;
+    }
+
+    public String operator() {
+        return operator;
+    }
+
+    public String description() {
+        return description;
+    }
+
+    public long totalNanos() {
+        return (computedNanos == 0 ? System.nanoTime() : computedNanos) - startedNanos
+                + phaseNanos.get(Phase.SERIALIZE).sum();
+    }
+
+    public long phaseNanos(Phase phase) {
+        return phaseNanos.get(phase).sum();
+    }
+
+    public long rowsScanned() {
+        return rowsScanned.sum();
+    }
+
+    public long rowsReturned() {
+        return rowsReturned;
+    }
+
+    public long bytesParsed() {
+        return bytesParsed.sum();
+    }
+
+    public long allocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,100 @@
+package com.backend.service.parallel;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Cuts a sequential stream of (id, stored row) pairs into chunks, processes the chunks on the query
+ * pool and hands the results back to the calling thread in stream order. At most
+ * {@code maxInFlight} chunks are pending at once, so memory stays bounded however fast the
+ * rows arrive. Without a pool every chunk is processed inline.
+ */
+public final class ChunkPipeline<R> implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface ChunkTask<R> {
+        R apply(Chunk chunk) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface ChunkConsumer<R> {
+        void accept(Chunk chunk, R result) throws IOException;
+    }
+
+    public record Chunk(List<Long> ids, List<byte[]> rows) {
+    }
+
+    private record Pending<R>(Chunk chunk, Future<R> result) {
+    }
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+    private final int maxInFlight;
+    private final ChunkTask<R> task;
+    private final ChunkConsumer<R> consumer;
+    private final ArrayDeque<Pending<R>> inFlight = new ArrayDeque<>();
+    private List<Long> ids;
+    private List<byte[]> rows;
+
+    ChunkPipeline(ForkJoinPool pool, int chunkSize, int maxInFlight, ChunkTask<R> task, ChunkConsumer<R> consumer) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        this.maxInFlight = maxInFlight;
+        this.task = task;
+        this.consumer = consumer;
+        this.ids = new ArrayList<>(chunkSize);
+        this.rows = new ArrayList<>(chunkSize);
+    }
+
+    public void add(Long id, byte[] row) throws IOException {
+        ids.add(id);
+        rows.add(row);
+        if (rows.size() >= chunkSize) {
+            submit();
+        }
+    }
+
+    /**
+     * Processes the last partial chunk and waits for every pending one.
+     */
+    public void finish() throws IOException {
+        if (!rows.isEmpty()) {
+            submit();
+        }
+        while (!inFlight.isEmpty()) {
+            consumeOldest();
+        }
+    }
+
+    /**
+     * Cancels chunks that are still pending; their results are dropped.
+     */
+    @Override
+    public void close() {
+        inFlight.forEach(pending -> pending.result().cancel(true));
+        inFlight.clear();
+    }
+
+    private void submit() throws IOException {
+        Chunk chunk = new Chunk(ids, rows);
+        ids = new ArrayList<>(chunkSize);
+        rows = new ArrayList<>(chunkSize);
+        if (pool == null) {
+            consumer.accept(chunk, task.apply(chunk));
+            return;
+        }
+        inFlight.add(new Pending<>(chunk, pool.submit(() -> task.apply(chunk))));
+        while (inFlight.size() > maxInFlight) {
+            consumeOldest();
+        }
+    }
+
+    private void consumeOldest() throws IOException {
+        Pending<R> pending = inFlight.poll();
+        consumer.accept(pending.chunk(), ParallelQueryExecutor.join(pending.result()));
+    }
+}
@@ -0,0 +1,132 @@
+package com.backend.service.parallel;
+
+import com.backend.config.ParallelProperties;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.function.BinaryOperator;
+
+/**
+ * Runs the CPU-bound parts of large queries on a dedicated, bounded ForkJoinPool, so they
+ * neither compete with nor starve the common pool. Each entry point falls back to plain
+ * sequential execution on the calling thread below {@code dataset.parallel.threshold-rows}.
+ */
+@Component
+public class ParallelQueryExecutor {
+
+    private static final int MIN_RANGE_SIZE = 1024;
+
+    private final ParallelProperties properties;
+    private final ForkJoinPool pool;
+
+    public ParallelQueryExecutor(ParallelProperties properties) {
+        this.properties = properties;
+        this.pool = new ForkJoinPool(Math.max(1, properties.getParallelism()), forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("query-worker-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    public int parallelism() {
+        return pool.getParallelism();
+    }
+
+    public boolean isParallel(long rows) {
+        return properties.isEnabled() && pool.getParallelism() > 1 && rows > 0 && rows >= properties.getThresholdRows();
+    }
+
+    @FunctionalInterface
+    public interface RangeTask<R> {
+        R apply(int from, int to) throws IOException;
+    }
+
+    /**
+     * Applies the task to consecutive ranges of {@code [0, size)} and folds the results in
+     * range order, so the combined result matches a single sequential pass.
+     */
+    public <R> R forRanges(int size, RangeTask<R> task, BinaryOperator<R> combine) throws IOException {
+        if (!isParallel(size)) return task.apply(0, size);
+
+        int ranges = Math.max(1, Math.min(pool.getParallelism() * 4, size / MIN_RANGE_SIZE));
+        int step = (size + ranges - 1) / ranges;
+        List<Future<R>> results = new ArrayList<>(ranges);
+        for (int from = 0; from < size; from += step) {
+            int start = from;
+            int end = Math.min(size, from + step);
+            results.add(pool.submit(() -> task.apply(start, end)));
+        }
+        R combined = join(results.get(0));
+        for (int i = 1; i < results.size(); i++) {
+            combined = combine.apply(combined, join(results.get(i)));
+        }
+        return combined;
+    }
+
+    /**
+     * Returns a pipeline that parses the rows of a scan in parallel chunks when the dataset is
+     * expected to hold at least the threshold of rows.
+     */
+    public <R> ChunkPipeline<R> pipeline(long expectedRows, ChunkPipeline.ChunkTask<R> task, ChunkPipeline.ChunkConsumer<R> consumer) {
+        return pipeline(isParallel(expectedRows), task, consumer);
+    }
+
+    /**
+     * Returns a pipeline that parses in parallel chunks if {@code parallel} is set, as decided
+     * by the query planner, and parallel execution is enabled at all.
+     */
+    public <R> ChunkPipeline<R> pipeline(boolean parallel, ChunkPipeline.ChunkTask<R> task, ChunkPipeline.ChunkConsumer<R> consumer) {
+        ForkJoinPool chunkPool = parallel && properties.isEnabled() && pool.getParallelism() > 1 ? pool : null;
+        return new ChunkPipeline<>(chunkPool, properties.getChunkSize(), pool.getParallelism() * 2, task, consumer);
+    }
+
+    public void sort(long[] values) {
+        if (isParallel(values.length)) {
+            // parallelSort forks its subtasks into the pool of the calling worker thread, so
+            // submitting it keeps the sort inside the query pool instead of the common pool
+            pool.submit(() -> Arrays.parallelSort(values)).join();
+        } else {
+            Arrays.sort(values);
+        }
+    }
+
+    /**
+     * Stable sort, in parallel for large arrays.
+     */
+    public <T> void sort(T[] values, Comparator<? super T> comparator) {
+        if (isParallel(values.length)) {
+            pool.submit(() -> Arrays.parallelSort(values, comparator)).join();
+        } else {
+            Arrays.sort(values, comparator);
+        }
+    }
+
+    static <R> R join(Future<R> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a query worker", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException runtime) throw runtime;
+            if (cause instanceof Error error) throw error;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.backend.service.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The strategies {@link QueryPlanner} considered for one query, with their estimates, and the
+ * one it chose. Strategies that cannot run the query are kept with the reason, for explain.
+ */
+public final class QueryPlan {
+
+    public enum Strategy {
+        /** Rows from the parsed-row cache, walked in memory. */
+        ROW_CACHE,
+        /** The parsed-row cache, through the columnar engine. */
+        COLUMNAR,
+        /** A materialized groupBy view. */
+        VIEW,
+        /** The field index, with rows fetched by id where the query returns them. */
+        INDEX,
+        /** A scan of every stored row; sorts spill to disk past the memory budget. */
+        SCAN
+    }
+
+    /**
+     * What running a strategy is expected to take. Costs are relative, roughly nanoseconds;
+     * {@code groups} is -1 for sorts.
+     */
+    public record Estimate(long rowsRead, long bytesRead, long rowsReturned, long groups,
+                           long memoryBytes, boolean spill, double cost) {
+    }
+
+    /**
+     * A strategy considered for the query; {@code rejected} says why it cannot run it, and is
+     * null for those that can.
+     */
+    public record Candidate(Strategy strategy, boolean parallel, Estimate estimate, String rejected) {
+
+        public boolean isFeasible() {
+            return rejected == null;
+        }
+
+        Candidate reject(String reason) {
+            return new Candidate(strategy, parallel, estimate, reason);
+        }
+    }
+
+    /**
+     * The figures the estimates start from, and where they came from.
+     */
+    public record Basis(long rows, long averageRowBytes, double selectivity, String statistics) {
+    }
+
+    private final String operator;
+    private final Basis basis;
+    private final List<Candidate> candidates;
+    private final boolean costBased;
+    private final Candidate chosen;
+
+    QueryPlan(String operator, Basis basis, List<Candidate> candidates, boolean costBased) {
+        this.operator = operator;
+        this.basis = basis;
+        this.candidates = Collections.unmodifiableList(candidates);
+        this.costBased = costBased;
+        this.chosen = choose();
+    }
+
+    public String operator() {
+        return operator;
+    }
+
+    public Strategy strategy() {
+        return chosen.strategy();
+    }
+
+    public boolean isParallel() {
+        return chosen.parallel();
+    }
+
+    public Candidate chosen() {
+        return chosen;
+    }
+
+    public List<Candidate> candidates() {
+        return candidates;
+    }
+
+    /**
+     * The plan with the chosen strategy rejected, for when it turned out unable to run the
+     * query after all, such as rows that did not fit the row cache once loaded.
+     */
+    public QueryPlan fallback(String reason) {
+        List<Candidate> remaining = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            remaining.add(candidate == chosen ? candidate.reject(reason) : candidate);
+        }
+        return new QueryPlan(operator, basis, remaining, costBased);
+    }
+
+    public Map<String, Object> describe() {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("operator", operator);
+        description.put("strategy", chosen.strategy());
+        description.put("parallel", chosen.parallel());
+        description.put("chosenBy", costBased ? "cost" : "rule");
+        description.put("estimated", describe(chosen.estimate()));
+
+        Map<String, Object> basisDescription = new LinkedHashMap<>();
+        basisDescription.put("rows", basis.rows());
+        basisDescription.put("averageRowBytes", basis.averageRowBytes());
+        basisDescription.put("selectivity", basis.selectivity());
+        basisDescription.put("statistics", basis.statistics());
+        description.put("basis", basisDescription);
+
+        List<Map<String, Object>> considered = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            if (candidate == chosen) continue;
+            Map<String, Object> alternative = new LinkedHashMap<>();
+            alternative.put("strategy", candidate.strategy());
+            alternative.put("parallel", candidate.parallel());
+            if (candidate.isFeasible()) {
+                alternative.put("cost", Math.round(candidate.estimate().cost()));
+            } else {
+                alternative.put("rejected", candidate.rejected());
+            }
+            considered.add(alternative);
+        }
+        description.put("alternatives", considered);
+        return description;
+    }
+
+    private static Map<String, Object> describe(Estimate estimate) {
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("rowsRead", estimate.rowsRead());
+        description.put("bytesRead", estimate.bytesRead());
+        description.put("rowsReturned", estimate.rowsReturned());
+        if (estimate.groups() >= 0) description.put("groups", estimate.groups());
+        description.put("memoryBytes", estimate.memoryBytes());
+        description.put("spill", estimate.spill());
+        description.put("cost", Math.round(estimate.cost()));
+        return description;
+    }
+
+    /**
+     * The cheapest feasible candidate, the earliest on a tie; by rule, the first feasible one.
+     */
+    private Candidate choose() {
+        Candidate best = null;
+        for (Candidate candidate : candidates) {
+            if (!candidate.isFeasible()) continue;
+            if (best == null) {
+                best = candidate;
+                if (!costBased) break;
+            } else if (candidate.estimate().cost() < best.estimate().cost()) {
+                best = candidate;
+            }
+        }
+        if (best == null) throw new IllegalStateException("No strategy can run the " + operator + " query");
+        return best;
+    }
+}
@@ -0,0 +1,359 @@
+package com.backend.service.plan;
+
+import com.backend.config.PlannerProperties;
+import com.backend.config.QueryProperties;
+import com.backend.config.RowCacheProperties;
+import com.backend.service.aggregate.GroupAggregator;
+import com.backend.service.columnar.ColumnarEngine;
+import com.backend.service.filter.FilterNode;
+import com.backend.service.filter.RowFilter;
+import com.backend.service.index.FieldIndexService;
+import com.backend.service.ingest.WriteBehindBuffer;
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.plan.QueryPlan.Candidate;
+import com.backend.service.plan.QueryPlan.Estimate;
+import com.backend.service.plan.QueryPlan.Strategy;
+import com.backend.service.query.ExternalSorter;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.query.FieldPath;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.rows.ParsedRowCache;
+import com.backend.service.stats.DatasetStatistics;
+import com.backend.service.stats.DatasetStatisticsService;
+import com.backend.service.view.GroupByView;
+import com.backend.service.view.GroupByViewService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses how a query runs: from the parsed-row cache, a groupBy view, the field index, or a
+ * scan of the stored rows, sequential or on the query pool, with sorts spilling to disk past
+ * their memory budget. Every strategy able to run the query is costed from the row count of
+ * the dataset and its {@link DatasetStatistics}: average row size, null fractions and distinct
+ * counts, which give the selectivity of filters and the number of groups. The cheapest wins.
+ * <p>
+ * Costs are relative, in roughly nanoseconds per unit of work. Work every strategy shares, such
+ * as writing the response, is left out.
+ */
+@Component
+@RequiredArgsConstructor
+public class QueryPlanner {
+
+    private static final double READ_PER_BYTE = 1;
+    private static final double KEY_READ_PER_BYTE = 1;
+    private static final double PARSE_PER_BYTE = 4;
+    private static final double FETCH_BY_ID = 2_000;
+    private static final double INDEX_ENTRY_READ = 300;
+    private static final double INDEX_ENTRY_AGGREGATE = 100;
+    private static final double CACHED_ROW_VISIT = 50;
+    private static final double VIEW_GROUP = 200;
+    private static final double COMPARISON = 40;
+    private static final double SKETCH_UPDATE = 60;
+    private static final double SPILL_PER_BYTE = 6;
+    private static final double PARALLEL_STARTUP = 500_000;
+
+    private static final long DEFAULT_ROW_BYTES = 256;
+    private static final double DEFAULT_EQUALITY_SELECTIVITY = 0.1;
+    // heap of a parsed row, relative to its JSON text
+    private static final double PARSED_BYTES_PER_JSON_BYTE = 2;
+    private static final long AGGREGATE_BYTES_PER_FIELD = 64;
+
+    private final PlannerProperties properties;
+    private final DatasetStatisticsService statisticsService;
+    private final DatasetRegistry datasetRegistry;
+    private final FieldIndexService fieldIndexService;
+    private final ParsedRowCache rowCache;
+    private final RowCacheProperties rowCacheProperties;
+    private final ColumnarEngine columnarEngine;
+    private final GroupByViewService groupByViews;
+    private final ParallelQueryExecutor parallelExecutor;
+    private final QueryProperties queryProperties;
+    private final WriteBehindBuffer writeBehind;
+
+    public QueryPlan planGroupBy(String datasetName, FieldKeys keys, RowFilter filter) {
+        Inputs in = inputs(datasetName, filter);
+        double rowsOut = in.matching() * presentFraction(in.statistics(), keys);
+        long groups = groups(in, keys, rowsOut);
+        long resultBytes = (long) (rowsOut * in.rowBytes() * PARSED_BYTES_PER_JSON_BYTE);
+        String field = keys.topLevelField();
+        List<Candidate> candidates = new ArrayList<>();
+
+        Strategy cached = columnarEngine.isEnabledFor(datasetName) ? Strategy.COLUMNAR : Strategy.ROW_CACHE;
+        candidates.add(rowCache(in, cached, in.rows() * CACHED_ROW_VISIT * filterFactor(filter) + rowsOut * CACHED_ROW_VISIT,
+                (long) rowsOut, groups, resultBytes));
+
+        String viewRejected = filter != null ? "filtered queries do not use views"
+                : groupByViews.readyView(datasetName, keys) == null ? "no ready view over these keys" : null;
+        double fetched = rowsOut * (FETCH_BY_ID + in.rowBytes() * (READ_PER_BYTE + PARSE_PER_BYTE));
+        candidates.add(new Candidate(Strategy.VIEW, false, new Estimate((long) rowsOut, (long) (rowsOut * in.rowBytes()),
+                (long) rowsOut, groups, resultBytes, false, groups * VIEW_GROUP + fetched), viewRejected));
+
+        candidates.add(new Candidate(Strategy.INDEX, false, new Estimate((long) rowsOut, (long) (rowsOut * in.rowBytes()),
+                (long) rowsOut, groups, resultBytes, false, in.rows() * INDEX_ENTRY_READ + fetched),
+                indexRejected(datasetName, field, filter, false)));
+
+        double cpu = in.rows() * in.rowBytes() * KEY_READ_PER_BYTE * filterFactor(filter) + rowsOut * in.rowBytes() * PARSE_PER_BYTE;
+        addScans(candidates, in, cpu, 0, (long) rowsOut, groups, resultBytes, false);
+        return plan("groupBy", in, candidates);
+    }
+
+    /**
+     * An approximate groupBy reads only the group keys and feeds them to sketches of a fixed
+     * {@code memory}, from the row cache or a scan; views and the index hold every row id of
+     * every group, which is what the approximation avoids.
+     */
+    public QueryPlan planApproximateGroupBy(String datasetName, FieldKeys keys, RowFilter filter, int top, long memory) {
+        Inputs in = inputs(datasetName, filter);
+        double rowsOut = in.matching() * presentFraction(in.statistics(), keys);
+        long groups = groups(in, keys, rowsOut);
+        long returned = Math.min(top, groups);
+        List<Candidate> candidates = new ArrayList<>();
+        candidates.add(rowCache(in, Strategy.ROW_CACHE, in.rows() * CACHED_ROW_VISIT * filterFactor(filter) + rowsOut * SKETCH_UPDATE,
+                returned, groups, memory));
+        addScans(candidates, in, in.rows() * in.rowBytes() * KEY_READ_PER_BYTE * filterFactor(filter), rowsOut * SKETCH_UPDATE,
+                returned, groups, memory, false);
+        return plan("groupByApproximate", in, candidates);
+    }
+
+    public QueryPlan planAggregate(String datasetName, FieldKeys keys, GroupAggregator aggregator, RowFilter filter) {
+        Inputs in = inputs(datasetName, filter);
+        double rowsOut = in.matching() * presentFraction(in.statistics(), keys);
+        long groups = groups(in, keys, rowsOut);
+        List<FieldPath> paths = aggregator.paths();
+        long memory = groups * paths.size() * AGGREGATE_BYTES_PER_FIELD;
+        List<Candidate> candidates = new ArrayList<>();
+
+        GroupByView view = filter == null ? groupByViews.readyView(datasetName, keys) : null;
+        String viewRejected = filter != null ? "filtered queries do not use views"
+                : view == null ? "no ready view over these keys"
+                : !view.canAggregate(aggregator) ? "the view has no partial aggregates of nested fields" : null;
+        candidates.add(new Candidate(Strategy.VIEW, false, new Estimate(0, 0, groups, groups, memory, false,
+                groups * paths.size() * VIEW_GROUP), viewRejected));
+
+        candidates.add(rowCache(in, Strategy.ROW_CACHE, in.rows() * CACHED_ROW_VISIT * (filterFactor(filter) + paths.size() * 0.5),
+                groups, groups, memory));
+
+        String indexRejected = filter != null ? "filtered queries do not use the index"
+                : keys.topLevelField() == null ? "composite or nested keys are not indexed" : null;
+        for (FieldPath path : paths) {
+            if (indexRejected != null) break;
+            String field = path.topLevelName();
+            if (field == null) {
+                indexRejected = "nested fields are not indexed";
+            } else if (!fieldIndexService.isUsable(datasetName, field)) {
+                indexRejected = "field " + field + " is not indexed";
+            }
+        }
+        candidates.add(new Candidate(Strategy.INDEX, false, new Estimate(in.rows() * paths.size(), 0, groups, groups, memory, false,
+                in.rows() * paths.size() * INDEX_ENTRY_AGGREGATE), indexRejected));
+
+        double cpu = in.rows() * in.rowBytes() * KEY_READ_PER_BYTE * filterFactor(filter) + rowsOut * paths.size() * CACHED_ROW_VISIT;
+        addScans(candidates, in, cpu, 0, groups, groups, memory, false);
+        return plan("groupByAggregate", in, candidates);
+    }
+
+    public QueryPlan planSort(String datasetName, FieldKeys keys, RowFilter filter) {
+        Inputs in = inputs(datasetName, filter);
+        double rowsOut = in.matching();
+        double comparisons = rowsOut * log2(rowsOut) * COMPARISON;
+        List<Candidate> candidates = new ArrayList<>();
+
+        Strategy cached = columnarEngine.isEnabledFor(datasetName) ? Strategy.COLUMNAR : Strategy.ROW_CACHE;
+        double sortCpu = parallelExecutor.isParallel((long) rowsOut) ? comparisons / parallelExecutor.parallelism() : comparisons;
+        candidates.add(rowCache(in, cached, in.rows() * CACHED_ROW_VISIT * filterFactor(filter) + sortCpu,
+                (long) rowsOut, -1, (long) rowsOut * 16));
+
+        candidates.add(new Candidate(Strategy.INDEX, false, new Estimate(in.rows(), in.rows() * in.rowBytes(), in.rows(), -1,
+                in.rows() * 8, false, in.rows() * (INDEX_ENTRY_READ + FETCH_BY_ID + in.rowBytes() * READ_PER_BYTE)),
+                indexRejected(datasetName, keys.topLevelField(), filter, false)));
+
+        long sortBytes = (long) (rowsOut * (in.rowBytes() + ExternalSorter.ENTRY_OVERHEAD_BYTES));
+        long budget = queryProperties.getSort().getMemoryBudget().toBytes();
+        boolean spill = sortBytes > budget;
+        double cpu = in.rows() * in.rowBytes() * KEY_READ_PER_BYTE * filterFactor(filter);
+        // the sorter sorts its buffer on the request thread, whether the scan is parallel or not
+        double serial = comparisons + (spill ? sortBytes * SPILL_PER_BYTE : 0);
+        addScans(candidates, in, cpu, serial, (long) rowsOut, -1, Math.min(sortBytes, budget), spill);
+        return plan("sortBy", in, candidates);
+    }
+
+    public QueryPlan planSortPage(String datasetName, FieldKeys keys, RowFilter filter, int offset, int limit, boolean cursor) {
+        Inputs in = inputs(datasetName, filter);
+        long window = (long) offset + limit;
+        long rowsOut = (long) Math.max(0, Math.min(limit, in.matching() - offset));
+        double selection = in.matching() * log2(window) * COMPARISON;
+        long memory = window * (in.rowBytes() + ExternalSorter.ENTRY_OVERHEAD_BYTES);
+        List<Candidate> candidates = new ArrayList<>();
+
+        long fetched = Math.min(window, in.rows());
+        candidates.add(new Candidate(Strategy.INDEX, false, new Estimate(fetched, fetched * in.rowBytes(), rowsOut, -1, memory, false,
+                fetched * (INDEX_ENTRY_READ + FETCH_BY_ID + in.rowBytes() * (READ_PER_BYTE + PARSE_PER_BYTE))),
+                indexRejected(datasetName, keys.topLevelField(), filter, cursor)));
+
+        double cachedCpu = in.rows() * CACHED_ROW_VISIT * filterFactor(filter) + selection;
+        candidates.add(rowCache(in, Strategy.ROW_CACHE, cachedCpu, rowsOut, -1, memory));
+
+        double cpu = in.rows() * in.rowBytes() * KEY_READ_PER_BYTE * filterFactor(filter) + selection;
+        addScans(candidates, in, cpu, window * in.rowBytes() * PARSE_PER_BYTE, rowsOut, -1, memory, false);
+        return plan("sortByPage", in, candidates);
+    }
+
+    /**
+     * What the estimates of a query start from. {@code matching} is the estimated number of
+     * rows passing the filter.
+     */
+    private record Inputs(String datasetName, long rows, long rowBytes, double selectivity, double matching,
+                          DatasetStatistics statistics, String statisticsStatus) {
+    }
+
+    private Inputs inputs(String datasetName, RowFilter filter) {
+        long rows = datasetRegistry.getRowCount(datasetName);
+        DatasetStatistics statistics = rows > 0 ? statisticsService.statistics(datasetName) : null;
+        String status = statistics == null ? (properties.isStatistics() ? "none" : "disabled") : statistics.status().name();
+        if (statistics != null && statistics.status() != DatasetStatistics.Status.READY) statistics = null;
+
+        long rowBytes = statistics != null && statistics.averageRowBytes() > 0 ? statistics.averageRowBytes() : DEFAULT_ROW_BYTES;
+        double selectivity = filter == null ? 1 : clamp(selectivity(filter.root(), statistics));
+        return new Inputs(datasetName, rows, rowBytes, selectivity, rows * selectivity, statistics, status);
+    }
+
+    private QueryPlan plan(String operator, Inputs in, List<Candidate> candidates) {
+        long pending = writeBehind.pendingRows(in.datasetName());
+        if (pending > 0) {
+            // only scans merge the rows acknowledged by write-behind but not stored yet
+            candidates.replaceAll(candidate -> candidate.isFeasible() && candidate.strategy() != Strategy.SCAN
+                    ? candidate.reject(pending + " acknowledged rows not stored yet") : candidate);
+        }
+        return new QueryPlan(operator, new QueryPlan.Basis(in.rows(), in.rowBytes(), in.selectivity(), in.statisticsStatus()),
+                candidates, properties.isEnabled());
+    }
+
+    /**
+     * The row cache walking every row, on the query pool for large datasets. Loading the rows
+     * is a scan of its own, spread over the queries that follow it.
+     */
+    private Candidate rowCache(Inputs in, Strategy strategy, double cpu, long rowsOut, long groups, long memory) {
+        ParsedRowCache.Residency residency = rowCache.residency(in.datasetName());
+        long residentBytes = (long) (in.rows() * in.rowBytes() * PARSED_BYTES_PER_JSON_BYTE);
+        String rejected = switch (residency) {
+            case DISABLED -> "row cache disabled";
+            case TOO_LARGE -> "dataset exceeds the row cache budget";
+            case LOADED -> null;
+            case NOT_LOADED -> residentBytes > rowCacheProperties.getMaxMemory().toBytes()
+                    ? "estimated " + residentBytes + " bytes exceed the row cache budget" : null;
+        };
+        boolean parallel = parallelExecutor.isParallel(in.rows());
+        double cost = (parallel ? cpu / parallelExecutor.parallelism() + PARALLEL_STARTUP : cpu);
+        long bytesRead = 0;
+        if (residency != ParsedRowCache.Residency.LOADED) {
+            bytesRead = in.rows() * in.rowBytes();
+            cost += in.rows() * in.rowBytes() * (READ_PER_BYTE + PARSE_PER_BYTE) / Math.max(1, properties.getRowCacheLoadAmortization());
+        }
+        return new Candidate(strategy, parallel, new Estimate(in.rows(), bytesRead, rowsOut, groups,
+                memory + (residency == ParsedRowCache.Residency.LOADED ? 0 : residentBytes), false, cost), rejected);
+    }
+
+    /**
+     * A scan on the query pool and a sequential one. {@code cpu} is the work split over the
+     * pool, {@code serial} what stays on the request thread either way.
+     */
+    private void addScans(List<Candidate> candidates, Inputs in, double cpu, double serial,
+                          long rowsOut, long groups, long memory, boolean spill) {
+        long bytes = in.rows() * in.rowBytes();
+        double read = bytes * READ_PER_BYTE;
+        boolean parallel = parallelExecutor.isParallel(in.rows());
+        candidates.add(new Candidate(Strategy.SCAN, true, new Estimate(in.rows(), bytes, rowsOut, groups, memory, spill,
+                read + serial + cpu / parallelExecutor.parallelism() + PARALLEL_STARTUP),
+                parallel ? null : "parallel execution disabled or dataset below dataset.parallel.threshold-rows"));
+        candidates.add(new Candidate(Strategy.SCAN, false, new Estimate(in.rows(), bytes, rowsOut, groups, memory, spill,
+                read + serial + cpu), null));
+    }
+
+    private String indexRejected(String datasetName, String field, RowFilter filter, boolean cursor) {
+        if (filter != null) return "filtered queries do not use the index";
+        if (cursor) return "cursor pages do not use the index";
+        if (field == null) return "composite or nested keys are not indexed";
+        if (!fieldIndexService.isUsable(datasetName, field)) return "field " + field + " is not indexed";
+        return null;
+    }
+
+    /**
+     * Distinct values of the keys among the matching rows: the product of the distinct counts
+     * of the fields, at most one group per row; one group per row when a count is unknown.
+     */
+    private static long groups(Inputs in, FieldKeys keys, double rowsOut) {
+        if (in.statistics() == null) return (long) rowsOut;
+        double groups = 1;
+        for (FieldPath path : keys.paths()) {
+            long distinct = path.topLevelName() == null || path.depth() > 1 ? -1 : in.statistics().distinct(path.topLevelName());
+            if (distinct < 0) return (long) rowsOut;
+            groups *= Math.max(1, distinct);
+        }
+        return (long) Math.min(groups, Math.max(rowsOut, 1));
+    }
+
+    /**
+     * Share of the rows that have every key, and so a group.
+     */
+    private static double presentFraction(DatasetStatistics statistics, FieldKeys keys) {
+        if (statistics == null) return 1;
+        double present = 1;
+        for (FieldPath path : keys.paths()) {
+            if (path.depth() > 1 || path.topLevelName() == null) continue;
+            double nullFraction = statistics.nullFraction(path.topLevelName());
+            if (nullFraction >= 0) present *= 1 - nullFraction;
+        }
+        return present;
+    }
+
+    /**
+     * Estimated share of the rows matching the filter, taking the comparisons as independent.
+     */
+    private double selectivity(FilterNode node, DatasetStatistics statistics) {
+        return switch (node) {
+            case FilterNode.And and -> selectivity(and.left(), statistics) * selectivity(and.right(), statistics);
+            case FilterNode.Or or -> {
+                double left = selectivity(or.left(), statistics);
+                double right = selectivity(or.right(), statistics);
+                yield left + right - left * right;
+            }
+            case FilterNode.Not not -> 1 - selectivity(not.node(), statistics);
+            case FilterNode.Comparison comparison -> selectivity(comparison, statistics);
+        };
+    }
+
+    private double selectivity(FilterNode.Comparison comparison, DatasetStatistics statistics) {
+        String field = comparison.path().depth() == 1 ? comparison.path().topLevelName() : null;
+        double nullFraction = statistics == null || field == null ? -1 : statistics.nullFraction(field);
+        long distinct = statistics == null || field == null ? -1 : statistics.distinct(field);
+        double nonNull = nullFraction < 0 ? 1 : 1 - nullFraction;
+
+        double equal;
+        if (comparison.literal() == null) {
+            equal = nullFraction >= 0 ? nullFraction : DEFAULT_EQUALITY_SELECTIVITY;
+        } else {
+            equal = distinct > 0 ? nonNull / distinct : DEFAULT_EQUALITY_SELECTIVITY;
+        }
+        return switch (comparison.operator()) {
+            case EQ -> equal;
+            case NE -> 1 - equal;
+            default -> comparison.literal() == null ? 0 : nonNull * properties.getRangeSelectivity();
+        };
+    }
+
+    private static double filterFactor(RowFilter filter) {
+        // a filtered scan reads the filter fields of every row, besides the fields of the query
+        return filter == null ? 1 : 2;
+    }
+
+    private static double log2(double value) {
+        return value <= 2 ? 1 : Math.log(value) / Math.log(2);
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
@@ -0,0 +1,60 @@
+package com.backend.service.query;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import java.util.Arrays;
+
+/**
+ * Group key of a groupBy on several fields: one part per field, each the same string a single
+ * field group is keyed by. The hash is computed once, and the parts are only joined into a
+ * label when the result is rendered.
+ */
+public final class CompositeKey {
+
+    private final String[] parts;
+    private final int hash;
+
+    public CompositeKey(String[] parts) {
+        this.parts = parts;
+        this.hash = Arrays.hashCode(parts);
+    }
+
+    public int size() {
+        return parts.length;
+    }
+
+    public String part(int index) {
+        return parts[index];
+    }
+
+    /**
+     * The key of the group in a response, as a JSON array of its parts, e.g. {@code ["HR","3"]}.
+     */
+    public String label() {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        StringBuilder label = new StringBuilder("[");
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) label.append(',');
+            label.append('"');
+            encoder.quoteAsString(parts[i], label);
+            label.append('"');
+        }
+        return label.append(']').toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        return o instanceof CompositeKey other && hash == other.hash && Arrays.equals(parts, other.parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return label();
+    }
+}
@@ -0,0 +1,190 @@
+package com.backend.service.query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Sorts rows by a pre-extracted key within a fixed memory budget. Rows are buffered until the
+ * budget is reached, at which point the buffer is sorted and written to a temp file as a run.
+ * If nothing was spilled the buffer is sorted in memory, otherwise the runs are k-way merged.
+ * <p>
+ * Run files hold one entry per row: the encoded {@link SortKey} followed by the length-prefixed
+ * stored row, so merging never re-extracts keys.
+ * <p>
+ * The runs belong to the {@link SortedRows} that {@link #finish} returns, which deletes them
+ * once closed; until then {@link #close} deletes them, so a sort that fails part way leaves
+ * nothing in the temp dir.
+ */
+public class ExternalSorter implements Closeable {
+
+    /**
+     * Heap an entry takes in the buffer besides the row bytes, counted against the budget.
+     */
+    public static final long ENTRY_OVERHEAD_BYTES = 64;
+
+    private final Comparator<SortKey> keyComparator;
+    private final Comparator<Entry> entryOrder;
+    private final long memoryBudgetBytes;
+    private final Path tempDir;
+    private final ObjectMapper mapper;
+
+    private final List<Entry> buffer = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final List<Integer> runSizes = new ArrayList<>();
+    private long bufferedBytes;
+    private boolean finished;
+
+    public ExternalSorter(Comparator<SortKey> keyComparator, long memoryBudgetBytes, Path tempDir, ObjectMapper mapper) {
+        this.keyComparator = keyComparator;
+        this.entryOrder = Comparator.comparing(Entry::key, keyComparator);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.tempDir = tempDir;
+        this.mapper = mapper;
+    }
+
+    public void add(SortKey key, byte[] row) throws IOException {
+        buffer.add(new Entry(key, row));
+        bufferedBytes += ENTRY_OVERHEAD_BYTES + row.length;
+        if (bufferedBytes >= memoryBudgetBytes) {
+            spill();
+        }
+    }
+
+    public SortedRows finish() throws IOException {
+        if (runs.isEmpty()) {
+            buffer.sort(entryOrder);
+            Iterator<byte[]> rows = buffer.stream().map(Entry::row).iterator();
+            finished = true;
+            return new SortedRows(rows, mapper, 0, () -> buffer.clear());
+        }
+        if (!buffer.isEmpty()) {
+            spill();
+        }
+        SortedRows sorted = merge();
+        finished = true;
+        return sorted;
+    }
+
+    /**
+     * Deletes the runs written so far, unless {@link #finish} handed them over.
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) return;
+        finished = true;
+        buffer.clear();
+        IOException failure = null;
+        for (Path run : runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void spill() throws IOException {
+        buffer.sort(entryOrder);
+        Path run = tempDir == null
+                ? Files.createTempFile("sort-run-", ".bin")
+                : Files.createTempFile(tempDir, "sort-run-", ".bin");
+        runs.add(run);
+        runSizes.add(buffer.size());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+            for (Entry entry : buffer) {
+                entry.key.writeTo(out);
+                writeBytes(out, entry.row);
+            }
+        }
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    private SortedRows merge() throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        Closeable cleanup = () -> {
+            for (RunReader reader : readers) reader.in.close();
+            for (Path run : runs) Files.deleteIfExists(run);
+        };
+
+        PriorityQueue<RunReader> heap = new PriorityQueue<>((a, b) -> {
+            int cmp = keyComparator.compare(a.key, b.key);
+            return cmp != 0 ? cmp : Integer.compare(a.index, b.index);
+        });
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(i, new DataInputStream(new BufferedInputStream(Files.newInputStream(runs.get(i)))), runSizes.get(i));
+                readers.add(reader);
+                if (reader.advance()) heap.add(reader);
+            }
+        } catch (IOException e) {
+            cleanup.close();
+            throw e;
+        }
+
+        Iterator<byte[]> rows = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heap.isEmpty();
+            }
+
+            @Override
+            public byte[] next() {
+                RunReader reader = heap.poll();
+                if (reader == null) throw new NoSuchElementException();
+                byte[] row = reader.row;
+                try {
+                    if (reader.advance()) heap.add(reader);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return row;
+            }
+        };
+        return new SortedRows(rows, mapper, runs.size(), cleanup);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private record Entry(SortKey key, byte[] row) {
+    }
+
+    private final class RunReader {
+        private final int index;
+        private final DataInputStream in;
+        private long remaining;
+        private SortKey key;
+        private byte[] row;
+
+        private RunReader(int index, DataInputStream in, long remaining) {
+            this.index = index;
+            this.in = in;
+            this.remaining = remaining;
+        }
+
+        private boolean advance() throws IOException {
+            if (remaining == 0) {
+                in.close();
+                return false;
+            }
+            remaining--;
+            key = SortKey.readFrom(in);
+            row = readBytes(in);
+            return true;
+        }
+    }
+}
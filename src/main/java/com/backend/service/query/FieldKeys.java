@@ -0,0 +1,174 @@
+package com.backend.service.query;
+
+import com.backend.exception.BadRequestException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The keys of a groupBy or sortBy: a comma separated list of field paths, compiled once per
+ * query. Sort keys may carry their own direction, as in {@code department,salary:desc}; keys
+ * without one use the {@code order} of the request.
+ */
+public final class FieldKeys {
+
+    private final List<FieldPath> paths;
+    private final boolean[] descending;
+    private final FieldProjection projection;
+
+    private FieldKeys(List<FieldPath> paths, boolean[] descending) {
+        this.paths = Collections.unmodifiableList(paths);
+        this.descending = descending;
+        this.projection = FieldProjection.of(paths);
+    }
+
+    public static FieldKeys parseGroup(String expression) {
+        return parse(expression, "asc", false);
+    }
+
+    public static FieldKeys parseSort(String expression, String defaultOrder) {
+        return parse(expression, defaultOrder, true);
+    }
+
+    private static FieldKeys parse(String expression, String defaultOrder, boolean directions) {
+        if (expression == null || expression.isBlank()) {
+            throw new BadRequestException("Field list must not be empty");
+        }
+        boolean defaultDescending = "desc".equalsIgnoreCase(defaultOrder);
+        String[] tokens = expression.split(",", -1);
+        List<FieldPath> paths = new ArrayList<>(tokens.length);
+        boolean[] descending = new boolean[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i].trim();
+            descending[i] = defaultDescending;
+            int colon = token.lastIndexOf(':');
+            if (directions && colon > 0) {
+                String direction = token.substring(colon + 1).trim();
+                if (direction.equalsIgnoreCase("asc") || direction.equalsIgnoreCase("desc")) {
+                    descending[i] = direction.equalsIgnoreCase("desc");
+                    token = token.substring(0, colon).trim();
+                }
+            }
+            paths.add(FieldPath.parse(token));
+        }
+        return new FieldKeys(paths, descending);
+    }
+
+    public int size() {
+        return paths.size();
+    }
+
+    public List<FieldPath> paths() {
+        return paths;
+    }
+
+    public FieldPath path(int index) {
+        return paths.get(index);
+    }
+
+    public boolean isDescending(int index) {
+        return descending[index];
+    }
+
+    public String direction(int index) {
+        return descending[index] ? "desc" : "asc";
+    }
+
+    /**
+     * The field name when this is a single top-level key, the shape the field index, the
+     * cursor-less index window and the database-side aggregation support; null otherwise.
+     */
+    public String topLevelField() {
+        return paths.size() == 1 ? paths.get(0).topLevelName() : null;
+    }
+
+    public FieldProjection projection() {
+        return projection;
+    }
+
+    /**
+     * Normalized form of the keys, with every direction spelled out, for use in cache keys.
+     */
+    public String canonical() {
+        StringBuilder canonical = new StringBuilder();
+        for (int i = 0; i < paths.size(); i++) {
+            if (i > 0) canonical.append(',');
+            canonical.append(paths.get(i).expression()).append(':').append(direction(i));
+        }
+        return canonical.toString();
+    }
+
+    public Comparator<SortKey> comparator() {
+        return paths.size() == 1 ? SortKey.comparator(direction(0)) : SortKey.comparator(descending);
+    }
+
+    /**
+     * Whether a key, such as one decoded from a cursor, has the shape of this query's keys.
+     */
+    public boolean accepts(SortKey key) {
+        return paths.size() == 1 ? key.kind() != SortKey.COMPOSITE : key.size() == paths.size();
+    }
+
+    /**
+     * Group key from the values of {@link #paths()}, which take the first {@code size()}
+     * slots of {@code values}: the value as a string for one key, a {@link CompositeKey} for
+     * several. Null when a key is missing, as such rows belong to no group.
+     */
+    public Object groupKey(Object[] values) {
+        if (paths.size() == 1) {
+            return values[0] == JsonFieldReader.MISSING ? null : String.valueOf(values[0]);
+        }
+        String[] parts = new String[paths.size()];
+        for (int i = 0; i < parts.length; i++) {
+            if (values[i] == JsonFieldReader.MISSING) return null;
+            parts[i] = String.valueOf(values[i]);
+        }
+        return new CompositeKey(parts);
+    }
+
+    public Object groupKey(Map<String, ?> row) {
+        if (paths.size() == 1) {
+            Object value = paths.get(0).resolve(row);
+            return value == JsonFieldReader.MISSING ? null : String.valueOf(value);
+        }
+        return groupKey(resolve(row));
+    }
+
+    /**
+     * The key a group is reported under.
+     */
+    public static String label(Object groupKey) {
+        return groupKey instanceof CompositeKey composite ? composite.label() : (String) groupKey;
+    }
+
+    public SortKey sortKey(Object[] values, ObjectMapper mapper) throws JsonProcessingException {
+        if (paths.size() == 1) return partKey(values[0], mapper);
+        SortKey[] parts = new SortKey[paths.size()];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = partKey(values[i], mapper);
+        }
+        return SortKey.ofComposite(parts);
+    }
+
+    public SortKey sortKey(Map<String, ?> row, ObjectMapper mapper) throws JsonProcessingException {
+        if (paths.size() == 1) return partKey(paths.get(0).resolve(row), mapper);
+        return sortKey(resolve(row), mapper);
+    }
+
+    public Object[] resolve(Map<String, ?> row) {
+        Object[] values = new Object[paths.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = paths.get(i).resolve(row);
+        }
+        return values;
+    }
+
+    private static SortKey partKey(Object value, ObjectMapper mapper) throws JsonProcessingException {
+        return value == JsonFieldReader.MISSING ? SortKey.NULL_KEY : SortKey.of(value, mapper);
+    }
+}
@@ -0,0 +1,102 @@
+package com.backend.service.query;
+
+import com.backend.exception.BadRequestException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A field reference compiled once per query: either a dotted path ({@code address.city}) or a
+ * JSON pointer ({@code /address/city}, with {@code ~1} for '/' and {@code ~0} for '~'). Numeric
+ * segments also index into arrays.
+ */
+public final class FieldPath {
+
+    private final String expression;
+    private final String[] segments;
+    private final int[] indexes;
+
+    private FieldPath(String expression, String[] segments) {
+        this.expression = expression;
+        this.segments = segments;
+        this.indexes = new int[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            indexes[i] = arrayIndex(segments[i]);
+        }
+    }
+
+    public static FieldPath parse(String expression) {
+        if (expression == null || expression.isBlank()) {
+            throw new BadRequestException("Field path must not be empty");
+        }
+        List<String> segments = new ArrayList<>();
+        if (expression.startsWith("/")) {
+            for (String token : expression.substring(1).split("/", -1)) {
+                segments.add(token.replace("~1", "/").replace("~0", "~"));
+            }
+        } else {
+            for (String token : expression.split("\\.", -1)) {
+                if (token.isEmpty()) {
+                    throw new BadRequestException("Invalid field path: " + expression);
+                }
+                segments.add(token);
+            }
+        }
+        return new FieldPath(expression, segments.toArray(new String[0]));
+    }
+
+    public String expression() {
+        return expression;
+    }
+
+    public int depth() {
+        return segments.length;
+    }
+
+    public String segment(int depth) {
+        return segments[depth];
+    }
+
+    /**
+     * The field name when the path is a plain top-level field, which is what the field index
+     * and the database-side aggregation understand; null for nested paths.
+     */
+    public String topLevelName() {
+        return segments.length == 1 ? segments[0] : null;
+    }
+
+    /**
+     * Walks the path through nested maps and lists, returning {@link JsonFieldReader#MISSING}
+     * when any step is absent.
+     */
+    public Object resolve(Map<String, ?> row) {
+        Object current = row;
+        for (int i = 0; i < segments.length; i++) {
+            if (current instanceof Map<?, ?> map) {
+                Object next = map.get(segments[i]);
+                if (next == null && !map.containsKey(segments[i])) return JsonFieldReader.MISSING;
+                current = next;
+            } else if (current instanceof List<?> list && indexes[i] >= 0 && indexes[i] < list.size()) {
+                current = list.get(indexes[i]);
+            } else {
+                return JsonFieldReader.MISSING;
+            }
+        }
+        return current;
+    }
+
+    public static int arrayIndex(String segment) {
+        if (segment.isEmpty() || segment.length() > 9) return -1;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') return -1;
+        }
+        return segment.length() > 1 && segment.charAt(0) == '0' ? -1 : Integer.parseInt(segment);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,91 @@
+package com.backend.service.query;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * A set of field paths merged into a tree of their segments, so {@link JsonFieldReader} can
+ * extract all of them in one pass over the row text: subtrees no path leads into are skipped
+ * without being parsed. Value {@code i} of a read belongs to path {@code i}.
+ */
+public final class FieldProjection {
+
+    private final Node root = new Node();
+    private final int size;
+
+    private FieldProjection(List<FieldPath> paths) {
+        this.size = paths.size();
+        for (int i = 0; i < paths.size(); i++) {
+            FieldPath path = paths.get(i);
+            Node node = root;
+            for (int depth = 0; depth < path.depth(); depth++) {
+                node = node.child(path.segment(depth));
+            }
+            node.slots = Arrays.copyOf(node.slots, node.slots.length + 1);
+            node.slots[node.slots.length - 1] = i;
+        }
+    }
+
+    public static FieldProjection of(List<FieldPath> paths) {
+        return new FieldProjection(paths);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    Node root() {
+        return root;
+    }
+
+    static final class Node {
+        private static final int[] NO_SLOTS = new int[0];
+
+        private Map<String, Node> children;
+        private int[] slots = NO_SLOTS;
+        private boolean indexed;
+        private int pending;
+
+        private Node child(String segment) {
+            if (children == null) children = new HashMap<>();
+            if (FieldPath.arrayIndex(segment) >= 0) indexed = true;
+            Node child = children.computeIfAbsent(segment, s -> new Node());
+            pending++;
+            return child;
+        }
+
+        Node get(String segment) {
+            return children == null ? null : children.get(segment);
+        }
+
+        boolean hasChildren() {
+            return children != null;
+        }
+
+        void forEachChild(BiConsumer<String, Node> action) {
+            if (children != null) children.forEach(action);
+        }
+
+        /**
+         * Whether some child segment is an array index, so array elements are worth visiting.
+         */
+        boolean isIndexed() {
+            return indexed;
+        }
+
+        int[] slots() {
+            return slots;
+        }
+
+        /**
+         * Number of paths that pass through this node's children, to stop reading an object
+         * once all of them were found.
+         */
+        int pending() {
+            return pending;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.backend.service.query;
+
+import com.backend.service.codec.RowCodec;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads fields out of a stored row at token level, skipping every other field without
+ * materializing it. Rows may be in any format {@link RowCodec} reads.
+ */
+public class JsonFieldReader {
+
+    public static final Object MISSING = new Object();
+
+    private final ObjectMapper mapper;
+
+    public JsonFieldReader(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    public Object readField(byte[] row, String field) throws IOException {
+        try (JsonParser parser = RowCodec.createParser(mapper, row)) {
+            JsonToken token = seekField(parser, field);
+            return token == null ? MISSING : readValue(parser, token);
+        }
+    }
+
+    /**
+     * Reads every path of the projection in one pass over the row; absent paths are
+     * {@link #MISSING}. Only the subtrees the paths lead into are descended into, and reading
+     * stops as soon as the last top-level field a path needs has been seen.
+     */
+    public Object[] readPaths(byte[] row, FieldProjection projection) throws IOException {
+        Object[] values = new Object[projection.size()];
+        Arrays.fill(values, MISSING);
+        try (JsonParser parser = RowCodec.createParser(mapper, row)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return values;
+            }
+            FieldProjection.Node root = projection.root();
+            int remaining = root.pending();
+            while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+                FieldProjection.Node child = root.get(parser.currentName());
+                JsonToken token = parser.nextToken();
+                if (child == null) {
+                    parser.skipChildren();
+                } else {
+                    readNode(parser, token, child, values);
+                    remaining -= child.slots().length + child.pending();
+                }
+            }
+        }
+        return values;
+    }
+
+    private void readNode(JsonParser parser, JsonToken token, FieldProjection.Node node, Object[] values) throws IOException {
+        if (!node.hasChildren()) {
+            Object value = readValue(parser, token);
+            for (int slot : node.slots()) {
+                if (values[slot] == MISSING) values[slot] = value;
+            }
+            return;
+        }
+        if (node.slots().length > 0) {
+            // The node is both a requested value and the parent of others: materialize it once
+            // and resolve the deeper paths from the value
+            Object value = readValue(parser, token);
+            for (int slot : node.slots()) {
+                if (values[slot] == MISSING) values[slot] = value;
+            }
+            resolveChildren(value, node, values);
+            return;
+        }
+        if (token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                FieldProjection.Node child = node.get(parser.currentName());
+                JsonToken next = parser.nextToken();
+                if (child == null) {
+                    parser.skipChildren();
+                } else {
+                    readNode(parser, next, child, values);
+                }
+            }
+        } else if (token == JsonToken.START_ARRAY && node.isIndexed()) {
+            int index = 0;
+            JsonToken next;
+            while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                FieldProjection.Node child = node.get(Integer.toString(index++));
+                if (child == null) {
+                    parser.skipChildren();
+                } else {
+                    readNode(parser, next, child, values);
+                }
+            }
+        } else {
+            parser.skipChildren();
+        }
+    }
+
+    private static void resolveChildren(Object value, FieldProjection.Node node, Object[] values) {
+        if (!node.hasChildren()) return;
+        node.forEachChild((segment, child) -> {
+            Object next = MISSING;
+            if (value instanceof Map<?, ?> map && (map.containsKey(segment))) {
+                next = map.get(segment);
+            } else if (value instanceof List<?> list) {
+                int index = FieldPath.arrayIndex(segment);
+                if (index >= 0 && index < list.size()) next = list.get(index);
+            }
+            if (next == MISSING) return;
+            for (int slot : child.slots()) {
+                if (values[slot] == MISSING) values[slot] = next;
+            }
+            resolveChildren(next, child, values);
+        });
+    }
+
+    /**
+     * Reads the field straight into a {@link SortKey}; a missing field yields the null key.
+     */
+    public SortKey readSortKey(byte[] row, String field) throws IOException {
+        try (JsonParser parser = RowCodec.createParser(mapper, row)) {
+            JsonToken token = seekField(parser, field);
+            if (token == null) {
+                return SortKey.NULL_KEY;
+            }
+            switch (token) {
+                case VALUE_NULL:
+                    return SortKey.NULL_KEY;
+                case VALUE_TRUE:
+                    return SortKey.ofBoolean(true);
+                case VALUE_FALSE:
+                    return SortKey.ofBoolean(false);
+                case VALUE_STRING:
+                    return SortKey.ofString(parser.getText());
+                case VALUE_NUMBER_INT:
+                    return parser.getNumberType() == JsonParser.NumberType.BIG_INTEGER
+                            ? SortKey.ofDouble(parser.getDoubleValue())
+                            : SortKey.ofLong(parser.getLongValue());
+                case VALUE_NUMBER_FLOAT:
+                    return SortKey.ofDouble(parser.getDoubleValue());
+                default:
+                    StringWriter text = new StringWriter();
+                    try (JsonGenerator generator = mapper.createGenerator(text)) {
+                        generator.copyCurrentStructure(parser);
+                    }
+                    return SortKey.ofStructured(text.toString());
+            }
+        }
+    }
+
+    private JsonToken seekField(JsonParser parser, String field) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return null;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals(name)) {
+                return token;
+            }
+            parser.skipChildren();
+        }
+        return null;
+    }
+
+    private Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            default:
+                return mapper.readValue(parser, Object.class);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.backend.service.query;
+
+import com.backend.exception.BadRequestException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keyset position of the last row of a page: its sort key and record id, encoded as an opaque
+ * url-safe token.
+ */
+public record SortCursor(SortKey key, long id) {
+
+    public String encode(ObjectMapper mapper) {
+        Map<String, Object> token = encodeKey(key);
+        token.put("id", id);
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(token));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode cursor", e);
+        }
+    }
+
+    public static SortCursor decode(String cursor, ObjectMapper mapper) {
+        try {
+            Map<?, ?> token = mapper.readValue(Base64.getUrlDecoder().decode(cursor), Map.class);
+            if (!(token.get("id") instanceof Number id)) {
+                throw new BadRequestException("Invalid cursor: " + cursor);
+            }
+            SortKey key = decodeKey(token);
+            if (key == null) throw new BadRequestException("Invalid cursor: " + cursor);
+            return new SortCursor(key, id.longValue());
+        } catch (IOException | IllegalArgumentException | ClassCastException | NullPointerException e) {
+            throw new BadRequestException("Invalid cursor: " + cursor);
+        }
+    }
+
+    private static Map<String, Object> encodeKey(SortKey key) {
+        Map<String, Object> token = new LinkedHashMap<>();
+        token.put("t", key.kind());
+        switch (key.kind()) {
+            case SortKey.BOOLEAN, SortKey.LONG -> token.put("v", key.longValue());
+            case SortKey.DOUBLE -> token.put("v", key.doubleValue());
+            case SortKey.STRING, SortKey.STRUCTURED -> token.put("v", key.stringValue());
+            case SortKey.COMPOSITE -> {
+                List<Map<String, Object>> parts = new ArrayList<>(key.size());
+                for (int i = 0; i < key.size(); i++) {
+                    parts.add(encodeKey(key.part(i)));
+                }
+                token.put("v", parts);
+            }
+            default -> {
+            }
+        }
+        return token;
+    }
+
+    private static SortKey decodeKey(Map<?, ?> token) {
+        if (!(token.get("t") instanceof Number kind)) return null;
+        Object value = token.get("v");
+        return switch (kind.byteValue()) {
+            case SortKey.NULL -> SortKey.NULL_KEY;
+            case SortKey.BOOLEAN -> SortKey.ofBoolean(((Number) value).longValue() != 0);
+            case SortKey.LONG -> SortKey.ofLong(((Number) value).longValue());
+            case SortKey.DOUBLE -> SortKey.ofDouble(((Number) value).doubleValue());
+            case SortKey.STRING -> SortKey.ofString((String) value);
+            case SortKey.STRUCTURED -> SortKey.ofStructured((String) value);
+            case SortKey.COMPOSITE -> {
+                List<?> encoded = (List<?>) value;
+                SortKey[] parts = new SortKey[encoded.size()];
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = decodeKey((Map<?, ?>) encoded.get(i));
+                    if (parts[i] == null || parts[i].kind() == SortKey.COMPOSITE) yield null;
+                }
+                yield SortKey.ofComposite(parts);
+            }
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,274 @@
+package com.backend.service.query;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Sort key of a single row, extracted once per row into a primitive-specialized form so that
+ * comparisons never touch the row map or box values.
+ * <p>
+ * Values of different JSON types are ordered null &lt; boolean &lt; number &lt; string &lt;
+ * object/array. Integers and floating point numbers compare by numeric value, objects and
+ * arrays by their JSON text. Nulls (and missing fields) sort first in both directions.
+ * <p>
+ * A sort on several fields uses a composite key holding one part per field, compared part by
+ * part with {@link #comparator(boolean[])}.
+ */
+public final class SortKey {
+
+    public static final byte NULL = 0;
+    public static final byte BOOLEAN = 1;
+    public static final byte LONG = 2;
+    public static final byte DOUBLE = 3;
+    public static final byte STRING = 4;
+    public static final byte STRUCTURED = 5;
+    public static final byte COMPOSITE = 6;
+
+    public static final SortKey NULL_KEY = new SortKey(NULL, 0, 0, null, null);
+
+    private static final Comparator<SortKey> ASCENDING = (a, b) -> {
+        if (a.kind == NULL || b.kind == NULL) return Integer.compare(b.kind == NULL ? 1 : 0, a.kind == NULL ? 1 : 0);
+        return compareValues(a, b);
+    };
+
+    private static final Comparator<SortKey> DESCENDING = (a, b) -> {
+        if (a.kind == NULL || b.kind == NULL) return Integer.compare(b.kind == NULL ? 1 : 0, a.kind == NULL ? 1 : 0);
+        return compareValues(b, a);
+    };
+
+    private final byte kind;
+    private final long longValue;
+    private final double doubleValue;
+    private final String stringValue;
+    private final SortKey[] parts;
+
+    private SortKey(byte kind, long longValue, double doubleValue, String stringValue, SortKey[] parts) {
+        this.kind = kind;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+        this.stringValue = stringValue;
+        this.parts = parts;
+    }
+
+    public static SortKey ofBoolean(boolean value) {
+        return new SortKey(BOOLEAN, value ? 1 : 0, 0, null, null);
+    }
+
+    public static SortKey ofLong(long value) {
+        return new SortKey(LONG, value, 0, null, null);
+    }
+
+    public static SortKey ofDouble(double value) {
+        return new SortKey(DOUBLE, 0, value, null, null);
+    }
+
+    public static SortKey ofString(String value) {
+        return new SortKey(STRING, 0, 0, value, null);
+    }
+
+    public static SortKey ofStructured(String json) {
+        return new SortKey(STRUCTURED, 0, 0, json, null);
+    }
+
+    public static SortKey ofComposite(SortKey[] parts) {
+        return new SortKey(COMPOSITE, 0, 0, null, parts);
+    }
+
+    /**
+     * Builds the key of an already deserialized value; matches what
+     * {@link JsonFieldReader#readSortKey} extracts from the row text.
+     */
+    public static SortKey of(Object value, ObjectMapper mapper) throws JsonProcessingException {
+        if (value == null) return NULL_KEY;
+        if (value instanceof Boolean b) return ofBoolean(b);
+        if (value instanceof String s) return ofString(s);
+        if (value instanceof Double || value instanceof Float || value instanceof BigDecimal || value instanceof BigInteger) {
+            return ofDouble(((Number) value).doubleValue());
+        }
+        if (value instanceof Number n) return ofLong(n.longValue());
+        return ofStructured(mapper.writeValueAsString(value));
+    }
+
+    /**
+     * Returns the comparator for the requested direction, resolved once per query.
+     */
+    public static Comparator<SortKey> comparator(String order) {
+        return "desc".equalsIgnoreCase(order) ? DESCENDING : ASCENDING;
+    }
+
+    /**
+     * Comparator of composite keys: parts are compared in order, each in its own direction.
+     */
+    public static Comparator<SortKey> comparator(boolean[] descending) {
+        List<Comparator<SortKey>> partComparators = new ArrayList<>(descending.length);
+        for (boolean partDescending : descending) {
+            partComparators.add(partDescending ? DESCENDING : ASCENDING);
+        }
+        return (a, b) -> {
+            for (int i = 0; i < partComparators.size(); i++) {
+                int result = partComparators.get(i).compare(a.parts[i], b.parts[i]);
+                if (result != 0) return result;
+            }
+            return 0;
+        };
+    }
+
+    public byte kind() {
+        return kind;
+    }
+
+    /**
+     * Position of the key's type in the cross-type order; integers and doubles share a rank.
+     */
+    public int rank() {
+        return rank(kind);
+    }
+
+    public long longValue() {
+        return longValue;
+    }
+
+    public double doubleValue() {
+        return doubleValue;
+    }
+
+    public String stringValue() {
+        return stringValue;
+    }
+
+    /**
+     * Number of parts of a composite key, 0 for any other kind.
+     */
+    public int size() {
+        return parts == null ? 0 : parts.length;
+    }
+
+    public SortKey part(int index) {
+        return parts[index];
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(kind);
+        switch (kind) {
+            case BOOLEAN, LONG -> out.writeLong(longValue);
+            case DOUBLE -> out.writeDouble(doubleValue);
+            case STRING, STRUCTURED -> {
+                byte[] bytes = stringValue.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            case COMPOSITE -> {
+                out.writeInt(parts.length);
+                for (SortKey part : parts) {
+                    part.writeTo(out);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    public static SortKey readFrom(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        return switch (kind) {
+            case NULL -> NULL_KEY;
+            case BOOLEAN -> ofBoolean(in.readLong() != 0);
+            case LONG -> ofLong(in.readLong());
+            case DOUBLE -> ofDouble(in.readDouble());
+            case STRING -> ofString(readString(in));
+            case STRUCTURED -> ofStructured(readString(in));
+            case COMPOSITE -> {
+                SortKey[] parts = new SortKey[in.readInt()];
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = readFrom(in);
+                }
+                yield ofComposite(parts);
+            }
+            default -> throw new IOException("Corrupt sort key: unknown kind " + kind);
+        };
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int rank(byte kind) {
+        return kind == DOUBLE ? LONG : kind;
+    }
+
+    private static int compareValues(SortKey a, SortKey b) {
+        if (a.kind == b.kind) {
+            switch (a.kind) {
+                case BOOLEAN:
+                case LONG:
+                    return Long.compare(a.longValue, b.longValue);
+                case DOUBLE:
+                    return Double.compare(a.doubleValue, b.doubleValue);
+                case COMPOSITE:
+                    return Arrays.compare(a.parts, b.parts, ASCENDING);
+                default:
+                    return a.stringValue.compareTo(b.stringValue);
+            }
+        }
+        int rankA = rank(a.kind);
+        int rankB = rank(b.kind);
+        if (rankA != rankB) return Integer.compare(rankA, rankB);
+        return a.kind == LONG
+                ? compareLongToDouble(a.longValue, b.doubleValue)
+                : -compareLongToDouble(b.longValue, a.doubleValue);
+    }
+
+    /**
+     * Exact comparison of a long with a double; casting either side would lose precision
+     * beyond 2^53.
+     */
+    static int compareLongToDouble(long l, double d) {
+        if (Double.isNaN(d) || d >= 0x1p63) return -1;
+        if (d < -0x1p63) return 1;
+        long truncated = (long) d;
+        if (l != truncated) return Long.compare(l, truncated);
+        double fraction = d - truncated;
+        return fraction > 0 ? -1 : fraction < 0 ? 1 : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SortKey other)) return false;
+        return kind == other.kind && longValue == other.longValue
+                && Double.compare(doubleValue, other.doubleValue) == 0
+                && Objects.equals(stringValue, other.stringValue)
+                && Arrays.equals(parts, other.parts);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, longValue, doubleValue, stringValue) * 31 + Arrays.hashCode(parts);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case NULL -> "null";
+            case BOOLEAN -> String.valueOf(longValue != 0);
+            case LONG -> String.valueOf(longValue);
+            case DOUBLE -> String.valueOf(doubleValue);
+            case COMPOSITE -> Arrays.toString(parts);
+            default -> stringValue;
+        };
+    }
+}
@@ -0,0 +1,7 @@
+package com.backend.service.query;
+
+import java.util.List;
+import java.util.Map;
+
+public record SortPage(List<Map<String, Object>> records, String nextCursor) {
+}
@@ -0,0 +1,106 @@
+package com.backend.service.query;
+
+import com.backend.service.codec.RowCodec;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Sorted output of a sortBy query. Rows are deserialized one at a time as they are consumed,
+ * and closing the iterator releases any spilled run files. Rows that are already parsed, such
+ * as those of the parsed-row cache, are handed out as they are.
+ */
+public class SortedRows implements Iterator<Map<String, Object>>, AutoCloseable {
+
+    private final Iterator<byte[]> storedRows;
+    private final Iterator<? extends Map<String, Object>> parsedRows;
+    private final ObjectMapper mapper;
+    private final int spilledRuns;
+    private Closeable resources;
+
+    public SortedRows(Iterator<byte[]> storedRows, ObjectMapper mapper, int spilledRuns, Closeable resources) {
+        this.storedRows = storedRows;
+        this.parsedRows = null;
+        this.mapper = mapper;
+        this.spilledRuns = spilledRuns;
+        this.resources = resources;
+    }
+
+    private SortedRows(Iterator<? extends Map<String, Object>> parsedRows) {
+        this.storedRows = null;
+        this.parsedRows = parsedRows;
+        this.mapper = null;
+        this.spilledRuns = 0;
+        this.resources = () -> { };
+    }
+
+    public static SortedRows ofParsed(Iterator<? extends Map<String, Object>> rows) {
+        return new SortedRows(rows);
+    }
+
+    /**
+     * Adds an action to run when the rows are closed, after the resources already held.
+     */
+    public SortedRows onClose(Runnable action) {
+        Closeable previous = resources;
+        resources = () -> {
+            try {
+                previous.close();
+            } finally {
+                action.run();
+            }
+        };
+        return this;
+    }
+
+    public int getSpilledRuns() {
+        return spilledRuns;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return parsedRows != null ? parsedRows.hasNext() : storedRows.hasNext();
+    }
+
+    @Override
+    public Map<String, Object> next() {
+        if (parsedRows != null) {
+            return parsedRows.next();
+        }
+        try (JsonParser parser = RowCodec.createParser(mapper, storedRows.next())) {
+            return mapper.readValue(parser, new TypeReference<>() {
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the next row to {@code generator}. Rows still in their stored form are copied as
+     * raw JSON, or transcoded token by token, rather than parsed into maps and serialized again;
+     * parsed rows need a generator with a codec.
+     */
+    public void writeNext(JsonGenerator generator) throws IOException {
+        if (parsedRows != null) {
+            generator.writeObject(parsedRows.next());
+        } else {
+            RowCodec.writeTo(generator, mapper, storedRows.next());
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            resources.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
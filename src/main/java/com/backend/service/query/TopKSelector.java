@@ -0,0 +1,49 @@
+package com.backend.service.query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the first {@code k} rows of a sort order in a bounded max-heap, so selecting a page
+ * costs O(n log k) instead of sorting the whole dataset. Ties on the key are broken by record
+ * id, which makes the order total and keyset cursors stable.
+ */
+public class TopKSelector<T> {
+
+    private final Comparator<Entry<T>> order;
+    private final int k;
+    private final Entry<T> after;
+    private final PriorityQueue<Entry<T>> heap;
+
+    public TopKSelector(Comparator<SortKey> keyComparator, int k, SortCursor after) {
+        this.order = Comparator.<Entry<T>, SortKey>comparing(Entry::key, keyComparator).thenComparingLong(Entry::id);
+        this.k = k;
+        this.after = after == null ? null : new Entry<>(after.key(), after.id(), null);
+        this.heap = new PriorityQueue<>(Math.min(k, 1024) + 1, order.reversed());
+    }
+
+    public void offer(SortKey key, long id, T row) {
+        Entry<T> entry = new Entry<>(key, id, row);
+        if (after != null && order.compare(entry, after) <= 0) {
+            return;
+        }
+        if (heap.size() < k) {
+            heap.add(entry);
+        } else if (order.compare(entry, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    public List<Entry<T>> drain() {
+        List<Entry<T>> sorted = new ArrayList<>(heap);
+        heap.clear();
+        sorted.sort(order);
+        return sorted;
+    }
+
+    public record Entry<T>(SortKey key, long id, T row) {
+    }
+}
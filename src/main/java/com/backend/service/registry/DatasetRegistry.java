@@ -0,0 +1,159 @@
+package com.backend.service.registry;
+
+import com.backend.model.Dataset;
+import com.backend.repository.DatasetRepository;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.store.RecordStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of known datasets with cached row counts. Counts are seeded from an indexed
+ * {@code COUNT(*)} the first time a dataset is touched, kept current in memory as inserts
+ * commit, and written back to the {@code datasets} table periodically so inserts never contend
+ * on a shared counter row. Only datasets that exist are kept: a name without rows or a
+ * {@code datasets} row is looked up again each time, until its first insert.
+ */
+@Service
+@Slf4j
+public class DatasetRegistry implements DatasetChangeListener {
+
+    private final DatasetRepository datasetRepository;
+    private final RecordStore recordStore;
+    private final TransactionTemplate transactionTemplate;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public DatasetRegistry(DatasetRepository datasetRepository,
+                           RecordStore recordStore,
+                           PlatformTransactionManager transactionManager) {
+        this.datasetRepository = datasetRepository;
+        this.recordStore = recordStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    public long getRowCount(String datasetName) {
+        return entry(datasetName, false).rowCount.get();
+    }
+
+    public Optional<Dataset> find(String datasetName) {
+        Entry entry = entry(datasetName, false);
+        long rowCount = entry.rowCount.get();
+        if (rowCount == 0) return Optional.empty();
+        return Optional.of(Dataset.builder()
+                .id(entry.id)
+                .name(datasetName)
+                .rowCount(rowCount)
+                .createdAt(entry.createdAt)
+                .updatedAt(entry.updatedAt)
+                .build());
+    }
+
+    @Override
+    public void onRecordsInserted(String datasetName, List<InsertedRecord> records) {
+        Entry entry = entry(datasetName, true);
+        Runnable apply = () -> {
+            entry.rowCount.addAndGet(records.size());
+            entry.updatedAt = Instant.now();
+            entry.dirty = true;
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${dataset.registry.flush-interval:PT10S}")
+    public void flush() {
+        entries.forEach((datasetName, entry) -> {
+            if (!entry.dirty) return;
+            entry.dirty = false;
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    Dataset dataset = datasetRepository.findByName(datasetName)
+                            .orElseGet(() -> Dataset.builder().name(datasetName).createdAt(entry.createdAt).build());
+                    dataset.setRowCount(entry.rowCount.get());
+                    dataset.setUpdatedAt(entry.updatedAt);
+                    entry.id = datasetRepository.save(dataset).getId();
+                });
+            } catch (DataIntegrityViolationException e) {
+                entry.dirty = true;
+                log.debug("Dataset {} was registered concurrently, retrying on next flush", datasetName);
+            }
+        });
+    }
+
+    /**
+     * Whether the dataset is held here, as it is once it was found to exist or inserted into.
+     * Never looks the name up.
+     */
+    public boolean isKnown(String datasetName) {
+        return entries.containsKey(datasetName);
+    }
+
+    @Override
+    public void onDatasetDeleted(String datasetName) {
+        entries.remove(datasetName);
+    }
+
+    /**
+     * The entry of the dataset, loaded outside the map so the database round trip holds no lock.
+     * An entry of a dataset that does not exist is only kept when {@code create} is set.
+     */
+    private Entry entry(String datasetName, boolean create) {
+        Entry entry = entries.get(datasetName);
+        if (entry != null) return entry;
+        Entry loaded = load(datasetName);
+        if (!create && loaded.id == null && loaded.rowCount.get() == 0) return loaded;
+        Entry raced = entries.putIfAbsent(datasetName, loaded);
+        return raced != null ? raced : loaded;
+    }
+
+    /**
+     * Runs in its own transaction so the count never includes rows of the caller's uncommitted insert.
+     */
+    private Entry load(String datasetName) {
+        return transactionTemplate.execute(status -> {
+            Optional<Dataset> persisted = datasetRepository.findByName(datasetName);
+            long rowCount = recordStore.count(datasetName);
+            Entry entry = new Entry(rowCount, persisted.map(Dataset::getCreatedAt).orElseGet(Instant::now));
+            entry.id = persisted.map(Dataset::getId).orElse(null);
+            entry.updatedAt = persisted.map(Dataset::getUpdatedAt).orElse(entry.createdAt);
+            entry.dirty = persisted.map(d -> d.getRowCount() != rowCount).orElse(rowCount > 0);
+            return entry;
+        });
+    }
+
+    private static final class Entry {
+        private final AtomicLong rowCount;
+        private final Instant createdAt;
+        private volatile Long id;
+        private volatile Instant updatedAt;
+        private volatile boolean dirty;
+
+        private Entry(long rowCount, Instant createdAt) {
+            this.rowCount = new AtomicLong(rowCount);
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.backend.service.rows;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable parsed JSON object: an interned {@link RowShape} plus one value slot per field.
+ * Values are the same types Jackson produces for a {@code Map<String, Object>} (String,
+ * Integer/Long/BigInteger, Double, Boolean, null), with nested objects as CompactRows and
+ * arrays as unmodifiable lists, so rows serialize and print exactly like the maps they replace.
+ */
+public final class CompactRow extends AbstractMap<String, Object> {
+
+    private static final int OBJECT_HEADER_BYTES = 16;
+
+    private final RowShape shape;
+    private final Object[] values;
+
+    CompactRow(RowShape shape, Object[] values) {
+        this.shape = shape;
+        this.values = values;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int position = shape.indexOf(key);
+        return position < 0 ? null : values[position];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return shape.indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<>() {
+                    private int position;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        int current = position++;
+                        return new SimpleImmutableEntry<>(shape.name(current), values[current]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    /**
+     * Rough retained size of the row, used to keep the parsed-row cache within its budget.
+     * Shapes are shared and not counted; strings are counted even when deduplicated.
+     */
+    public long estimatedBytes() {
+        long bytes = 2L * OBJECT_HEADER_BYTES + 8L * values.length;
+        for (Object value : values) {
+            bytes += estimatedBytes(value);
+        }
+        return bytes;
+    }
+
+    private static long estimatedBytes(Object value) {
+        if (value == null || value instanceof Boolean) return 0;
+        if (value instanceof String s) return 40 + s.length();
+        if (value instanceof CompactRow row) return row.estimatedBytes();
+        if (value instanceof List<?> list) {
+            long bytes = 2L * OBJECT_HEADER_BYTES + 8L * list.size();
+            for (Object element : list) {
+                bytes += estimatedBytes(element);
+            }
+            return bytes;
+        }
+        return OBJECT_HEADER_BYTES + 8;
+    }
+}
@@ -0,0 +1,137 @@
+package com.backend.service.rows;
+
+import com.backend.service.codec.RowCodec;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds {@link CompactRow}s straight from the parser's token stream, without an intermediate
+ * LinkedHashMap. Short string values are deduplicated across the rows one reader produces,
+ * which collapses the repeated categories typical of groupBy fields. Not thread-safe.
+ */
+public class CompactRowReader {
+
+    private static final int MAX_DEDUP_LENGTH = 32;
+    private static final int MAX_DEDUP_ENTRIES = 65_536;
+
+    private final ObjectMapper mapper;
+    private final Map<String, String> strings = new HashMap<>();
+
+    public CompactRowReader(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    public CompactRow read(byte[] row) throws IOException {
+        try (JsonParser parser = RowCodec.createParser(mapper, row)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a JSON object");
+            }
+            return readObject(parser);
+        }
+    }
+
+    /**
+     * Converts a row that has already been deserialized, as handed to the insert listeners.
+     */
+    public CompactRow copyOf(Map<String, ?> row) {
+        String[] names = new String[row.size()];
+        Object[] values = new Object[row.size()];
+        int i = 0;
+        for (Map.Entry<String, ?> entry : row.entrySet()) {
+            names[i] = entry.getKey();
+            values[i] = copyValue(entry.getValue());
+            i++;
+        }
+        return new CompactRow(RowShape.of(names), values);
+    }
+
+    private Object copyValue(Object value) {
+        if (value instanceof CompactRow) return value;
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            map.forEach((k, v) -> fields.put(String.valueOf(k), v));
+            return copyOf(fields);
+        }
+        if (value instanceof List<?> list) {
+            List<Object> elements = new ArrayList<>(list.size());
+            for (Object element : list) {
+                elements.add(copyValue(element));
+            }
+            return Collections.unmodifiableList(elements);
+        }
+        if (value instanceof String s) return dedup(s);
+        return value;
+    }
+
+    private CompactRow readObject(JsonParser parser) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            names.add(parser.currentName());
+            values.add(readValue(parser, parser.nextToken()));
+        }
+        String[] nameArray = names.toArray(new String[0]);
+        RowShape shape = RowShape.of(nameArray);
+        if (shape.size() > 1 && hasDuplicates(shape, nameArray)) {
+            // Jackson keeps the last value of a repeated key; fall back to a map to do the same
+            Map<String, Object> deduplicated = new LinkedHashMap<>();
+            for (int i = 0; i < nameArray.length; i++) {
+                deduplicated.put(nameArray[i], values.get(i));
+            }
+            return copyOf(deduplicated);
+        }
+        return new CompactRow(shape, values.toArray());
+    }
+
+    private Object readValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_STRING:
+                return dedup(parser.getText());
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case START_OBJECT:
+                return readObject(parser);
+            case START_ARRAY:
+                List<Object> elements = new ArrayList<>();
+                JsonToken next;
+                while ((next = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    elements.add(readValue(parser, next));
+                }
+                return Collections.unmodifiableList(elements);
+            default:
+                throw new JsonParseException(parser, "Unexpected token " + token);
+        }
+    }
+
+    private String dedup(String value) {
+        if (value.length() > MAX_DEDUP_LENGTH) return value;
+        String existing = strings.get(value);
+        if (existing != null) return existing;
+        if (strings.size() < MAX_DEDUP_ENTRIES) strings.put(value, value);
+        return value;
+    }
+
+    private static boolean hasDuplicates(RowShape shape, String[] names) {
+        for (int i = 0; i < names.length; i++) {
+            if (shape.indexOf(names[i]) != i) return true;
+        }
+        return false;
+    }
+}
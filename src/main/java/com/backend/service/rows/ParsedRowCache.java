@@ -0,0 +1,386 @@
+package com.backend.service.rows;
+
+import com.backend.config.RowCacheProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.parallel.ChunkPipeline;
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.store.RecordStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the rows of recently used datasets parsed in memory as {@link CompactRow}s. A dataset
+ * is loaded on its first query and then kept current by appending committed inserts. The total
+ * estimated size is bounded; the least recently used datasets are dropped first.
+ */
+@Service
+@Slf4j
+public class ParsedRowCache implements DatasetChangeListener {
+
+    public enum Residency {
+        DISABLED, NOT_LOADED, LOADED, TOO_LARGE
+    }
+
+    private final RecordStore recordStore;
+    private final TransactionTemplate transactionTemplate;
+    private final RowCacheProperties properties;
+    private final DatasetRegistry datasetRegistry;
+    private final ParallelQueryExecutor parallelExecutor;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // Access-ordered, so iteration starts at the least recently used dataset; guarded by this
+    private final LinkedHashMap<String, DatasetRows> datasets = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    public ParsedRowCache(RecordStore recordStore,
+                          PlatformTransactionManager transactionManager,
+                          RowCacheProperties properties,
+                          DatasetRegistry datasetRegistry,
+                          ParallelQueryExecutor parallelExecutor) {
+        this.recordStore = recordStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.transactionTemplate.setReadOnly(true);
+        this.properties = properties;
+        this.datasetRegistry = datasetRegistry;
+        this.parallelExecutor = parallelExecutor;
+    }
+
+    /**
+     * Returns the parsed rows of the dataset, loading them on first use, or null when the
+     * cache is disabled, the dataset is empty or it does not fit in the memory budget.
+     */
+    public RowSnapshot rows(String datasetName) {
+        if (!properties.isEnabled()) return null;
+        DatasetRows rows;
+        synchronized (this) {
+            rows = datasets.computeIfAbsent(datasetName, DatasetRows::new);
+        }
+        return rows.load();
+    }
+
+    /**
+     * Whether the rows of the dataset are in the cache, without loading them.
+     */
+    public Residency residency(String datasetName) {
+        if (!properties.isEnabled()) return Residency.DISABLED;
+        DatasetRows rows;
+        synchronized (this) {
+            rows = datasets.get(datasetName);
+        }
+        if (rows == null) return Residency.NOT_LOADED;
+        if (rows.isTooLarge()) return Residency.TOO_LARGE;
+        return rows.snapshot != null ? Residency.LOADED : Residency.NOT_LOADED;
+    }
+
+    /**
+     * Appends the rows once the insert commits. The dataset is looked up only then, so an insert
+     * that commits while the dataset is being loaded is still picked up.
+     */
+    @Override
+    public void onRecordsInserted(String datasetName, List<InsertedRecord> records) {
+        if (!properties.isEnabled()) return;
+        Runnable apply = () -> {
+            DatasetRows rows;
+            synchronized (this) {
+                rows = datasets.get(datasetName);
+            }
+            if (rows != null) rows.append(records);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    /**
+     * Drops the rows of the dataset, and the verdict that it is too large to cache.
+     */
+    @Override
+    public void onDatasetDeleted(String datasetName) {
+        DatasetRows rows;
+        synchronized (this) {
+            rows = datasets.remove(datasetName);
+            if (rows == null) return;
+            totalBytes -= rows.bytes;
+            rows.bytes = 0;
+        }
+        rows.drop();
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> datasetStats = new LinkedHashMap<>();
+        datasets.forEach((name, rows) -> {
+            RowSnapshot snapshot = rows.snapshot;
+            if (snapshot != null) {
+                datasetStats.put(name, Map.of("rows", snapshot.size(), "estimatedBytes", rows.bytes));
+            }
+        });
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", properties.isEnabled());
+        result.put("estimatedBytes", totalBytes);
+        result.put("maxBytes", properties.getMaxMemory().toBytes());
+        result.put("datasets", datasetStats);
+        return result;
+    }
+
+    /**
+     * Adds the size change of a dataset to the total and drops least recently used datasets
+     * until the total fits again. Ignored for datasets that were evicted in the meantime.
+     */
+    private synchronized void account(DatasetRows rows, long delta) {
+        if (datasets.get(rows.name) != rows) return;
+        rows.bytes += delta;
+        totalBytes += delta;
+
+        long maxBytes = properties.getMaxMemory().toBytes();
+        Iterator<DatasetRows> eldest = datasets.values().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            DatasetRows evicted = eldest.next();
+            if (evicted.bytes == 0) continue;
+            eldest.remove();
+            totalBytes -= evicted.bytes;
+            evicted.bytes = 0;
+            evicted.drop();
+            log.info("Dropped parsed rows of dataset {} from the row cache", evicted.name);
+        }
+    }
+
+    private synchronized void forget(DatasetRows rows) {
+        if (datasets.get(rows.name) == rows) {
+            datasets.remove(rows.name);
+            totalBytes -= rows.bytes;
+        }
+    }
+
+    private final class DatasetRows {
+        private final String name;
+        private final Object lock = new Object();
+
+        // guarded by lock
+        private long[] ids = new long[0];
+        private CompactRow[] rows = new CompactRow[0];
+        private int size;
+        private List<Pending> pending;
+        private boolean dropped;
+
+        // guarded by ParsedRowCache.this
+        private long bytes;
+
+        private volatile RowSnapshot snapshot;
+        // rows of the dataset when it was found not to fit the budget, 0 if it was not
+        private volatile long tooLargeAt;
+
+        private DatasetRows(String name) {
+            this.name = name;
+        }
+
+        private RowSnapshot load() {
+            RowSnapshot loaded = snapshot;
+            if (loaded != null || isTooLarge()) return loaded;
+            synchronized (this) {
+                if (snapshot != null || isTooLarge()) return snapshot;
+                synchronized (lock) {
+                    if (dropped) return null;
+                    // Inserts committing while the rows are read are buffered and merged afterwards
+                    pending = new ArrayList<>();
+                }
+                long started = System.currentTimeMillis();
+                Loaded result;
+                try {
+                    result = readAll();
+                } catch (RuntimeException e) {
+                    synchronized (lock) {
+                        pending = null;
+                    }
+                    forget(this);
+                    throw e;
+                }
+
+                RowSnapshot published = null;
+                synchronized (lock) {
+                    List<Pending> buffered = pending;
+                    pending = null;
+                    if (!dropped && !result.tooLarge) {
+                        ids = result.ids;
+                        rows = result.rows;
+                        size = result.size;
+                        for (Pending insert : buffered) {
+                            result.bytes += appendLocked(insert.ids(), insert.rows(), result.size);
+                        }
+                        if (size > 0) {
+                            published = new RowSnapshot(ids, rows, size);
+                            snapshot = published;
+                        }
+                    }
+                }
+                if (result.tooLarge) {
+                    tooLargeAt = Math.max(1, datasetRegistry.getRowCount(name));
+                    return null;
+                }
+                if (published == null) {
+                    forget(this);
+                    return null;
+                }
+                log.info("Loaded {} parsed rows of dataset {} into the row cache in {} ms",
+                        published.size(), name, System.currentTimeMillis() - started);
+                account(this, result.bytes);
+                return published;
+            }
+        }
+
+        /**
+         * Whether the dataset was found not to fit the budget and has not shrunk since; once it
+         * has, the next query tries loading it again.
+         */
+        private boolean isTooLarge() {
+            long rowsThen = tooLargeAt;
+            if (rowsThen == 0) return false;
+            if (datasetRegistry.getRowCount(name) >= rowsThen) return true;
+            tooLargeAt = 0;
+            return false;
+        }
+
+        /**
+         * Reads the dataset in id order. Rows are parsed in chunks, on the query workers for large
+         * datasets, and appended in the order they were read.
+         */
+        private Loaded readAll() {
+            long maxBytes = properties.getMaxMemory().toBytes();
+            return transactionTemplate.execute(status -> {
+                Loaded loaded = new Loaded();
+                ChunkPipeline.ChunkTask<CompactRow[]> parse = chunk -> {
+                    CompactRowReader reader = new CompactRowReader(mapper);
+                    CompactRow[] parsed = new CompactRow[chunk.rows().size()];
+                    for (int i = 0; i < parsed.length; i++) {
+                        parsed[i] = reader.read(chunk.rows().get(i));
+                    }
+                    return parsed;
+                };
+                ChunkPipeline.ChunkConsumer<CompactRow[]> collect = (chunk, parsed) -> {
+                    if (loaded.tooLarge) return;
+                    for (int i = 0; i < parsed.length; i++) {
+                        loaded.add(chunk.ids().get(i), parsed[i]);
+                    }
+                    if (loaded.bytes > maxBytes) {
+                        log.info("Dataset {} exceeds the row cache budget of {} bytes and is not cached", name, maxBytes);
+                        loaded.tooLarge = true;
+                    }
+                };
+                try (ChunkPipeline<CompactRow[]> pipeline = parallelExecutor.pipeline(datasetRegistry.getRowCount(name), parse, collect);
+                     Stream<DatasetRecord> records = recordStore.streamInIdOrder(name)) {
+                    Iterator<DatasetRecord> it = records.iterator();
+                    while (it.hasNext() && !loaded.tooLarge) {
+                        DatasetRecord record = it.next();
+                        pipeline.add(record.getId(), record.storedRow());
+                    }
+                    if (!loaded.tooLarge) pipeline.finish();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return loaded;
+            });
+        }
+
+        private void append(List<InsertedRecord> records) {
+            synchronized (lock) {
+                if (dropped || (snapshot == null && pending == null)) return;
+            }
+            CompactRowReader reader = new CompactRowReader(mapper);
+            long[] newIds = new long[records.size()];
+            CompactRow[] newRows = new CompactRow[records.size()];
+            for (int i = 0; i < records.size(); i++) {
+                newIds[i] = records.get(i).id();
+                newRows[i] = reader.copyOf(records.get(i).row());
+            }
+
+            long added;
+            synchronized (lock) {
+                if (dropped) return;
+                if (pending != null) {
+                    pending.add(new Pending(newIds, newRows));
+                    return;
+                }
+                if (snapshot == null) return;
+                added = appendLocked(newIds, newRows, 0);
+                snapshot = new RowSnapshot(ids, rows, size);
+            }
+            account(this, added);
+        }
+
+        /**
+         * Appends past the published size, growing the arrays by copy, so existing snapshots
+         * never observe a change. Ids among the first {@code loadedSize} rows, which were read
+         * sorted from the database, are skipped as already present.
+         */
+        private long appendLocked(long[] newIds, CompactRow[] newRows, int loadedSize) {
+            long added = 0;
+            for (int i = 0; i < newIds.length; i++) {
+                if (loadedSize > 0 && Arrays.binarySearch(ids, 0, loadedSize, newIds[i]) >= 0) continue;
+                if (size == ids.length) {
+                    int capacity = Math.max(16, size + (size >> 1));
+                    ids = Arrays.copyOf(ids, capacity);
+                    rows = Arrays.copyOf(rows, capacity);
+                }
+                ids[size] = newIds[i];
+                rows[size] = newRows[i];
+                size++;
+                added += newRows[i].estimatedBytes() + 8;
+            }
+            return added;
+        }
+
+        private void drop() {
+            synchronized (lock) {
+                dropped = true;
+                snapshot = null;
+            }
+        }
+    }
+
+    private record Pending(long[] ids, CompactRow[] rows) {
+    }
+
+    private static final class Loaded {
+        private long[] ids = new long[1024];
+        private CompactRow[] rows = new CompactRow[1024];
+        private int size;
+        private long bytes;
+        private boolean tooLarge;
+
+        private void add(long id, CompactRow row) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1));
+                rows = Arrays.copyOf(rows, ids.length);
+            }
+            ids[size] = id;
+            rows[size] = row;
+            size++;
+            bytes += row.estimatedBytes() + 8;
+        }
+    }
+}
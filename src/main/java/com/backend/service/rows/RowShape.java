@@ -0,0 +1,71 @@
+package com.backend.service.rows;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ordered field names of a {@link CompactRow}. Shapes are interned, so every row of a
+ * dataset with a regular schema shares one instance instead of carrying its own keys.
+ */
+public final class RowShape {
+
+    private static final int MAX_INTERNED_SHAPES = 10_000;
+    private static final int LINEAR_LOOKUP_LIMIT = 8;
+    private static final Map<List<String>, RowShape> INTERNED = new ConcurrentHashMap<>();
+
+    private final String[] names;
+    private final Map<String, Integer> positions;
+
+    private RowShape(String[] names) {
+        this.names = names;
+        if (names.length > LINEAR_LOOKUP_LIMIT) {
+            positions = new HashMap<>(names.length * 2);
+            for (int i = 0; i < names.length; i++) {
+                positions.put(names[i], i);
+            }
+        } else {
+            positions = null;
+        }
+    }
+
+    /**
+     * Returns the shared shape for the names, which must be distinct and are kept by the shape.
+     * Past {@value #MAX_INTERNED_SHAPES} shapes new ones are no longer interned, nor are their
+     * names, so datasets with free-form keys grow neither the table nor the string pool.
+     */
+    public static RowShape of(String[] names) {
+        RowShape shape = INTERNED.get(Arrays.asList(names));
+        if (shape != null) return shape;
+        if (INTERNED.size() >= MAX_INTERNED_SHAPES) return new RowShape(names);
+
+        String[] interned = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            interned[i] = names[i].intern();
+        }
+        shape = new RowShape(interned);
+        RowShape existing = INTERNED.putIfAbsent(Arrays.asList(interned), shape);
+        return existing != null ? existing : shape;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int position) {
+        return names[position];
+    }
+
+    public int indexOf(Object name) {
+        if (positions != null) {
+            Integer position = positions.get(name);
+            return position == null ? -1 : position;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
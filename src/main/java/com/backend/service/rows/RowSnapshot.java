@@ -0,0 +1,16 @@
+package com.backend.service.rows;
+
+/**
+ * Point-in-time view of a cached dataset: the first {@code size} ids and rows of arrays that
+ * are only ever appended to, so a snapshot stays valid while later inserts are added.
+ */
+public record RowSnapshot(long[] ids, CompactRow[] rows, int size) {
+
+    public long id(int position) {
+        return ids[position];
+    }
+
+    public CompactRow row(int position) {
+        return rows[position];
+    }
+}
@@ -0,0 +1,28 @@
+package com.backend.service.sketch;
+
+import java.util.List;
+
+/**
+ * Result of an approximate groupBy: the groups with the most rows and an estimate of how many
+ * groups there are, with the bounds of both.
+ *
+ * @param rows                rows that belong to a group
+ * @param distinctGroups      estimated number of groups
+ * @param distinctGroupsError relative standard error of {@code distinctGroups}
+ * @param topGroups           the largest groups, largest first
+ * @param otherGroupsMaxCount the most rows any group missing from {@code topGroups} can have
+ * @param countErrorBound     how far the Count-Min estimate of a count may exceed the true
+ *                            count, with probability {@code countConfidence}
+ * @param countConfidence     probability that every count is within {@code countErrorBound}
+ */
+public record ApproximateGroups(long rows, long distinctGroups, double distinctGroupsError, List<TopGroup> topGroups,
+                                long otherGroupsMaxCount, long countErrorBound, double countConfidence) {
+
+    /**
+     * A group whose true row count lies between {@code lowerBound} and {@code count}.
+     * {@code guaranteed} when its lower bound reaches {@code otherGroupsMaxCount}, so no other
+     * group can be larger.
+     */
+    public record TopGroup(String group, long count, long lowerBound, boolean guaranteed) {
+    }
+}
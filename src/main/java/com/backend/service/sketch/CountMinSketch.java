@@ -0,0 +1,71 @@
+package com.backend.service.sketch;
+
+/**
+ * Frequencies of 64-bit hashes in {@code depth} rows of {@code width} counters (Cormode and
+ * Muthukrishnan, Count-Min). Each row counts a hash in one of its counters, and the estimate is
+ * the smallest of them: never below the true count, and above it by at most
+ * {@link #errorBound()} with probability {@link #confidence()}. The row positions are derived
+ * from the two halves of the hash (Kirsch and Mitzenmacher). Not thread-safe.
+ */
+public final class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long total;
+
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1) throw new IllegalArgumentException("width and depth must be positive");
+        this.width = width;
+        this.depth = depth;
+        this.counters = new long[width * depth];
+    }
+
+    public void add(long hash) {
+        for (int row = 0; row < depth; row++) {
+            counters[index(row, hash)]++;
+        }
+        total++;
+    }
+
+    public long estimate(long hash) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[index(row, hash)]);
+        }
+        return estimate;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Count-Min sketches of different sizes cannot be merged");
+        }
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        total += other.total;
+    }
+
+    /**
+     * How far an estimate may exceed the true count: e / width of everything counted.
+     */
+    public long errorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    /**
+     * The probability that an estimate is within {@link #errorBound()}: 1 - e^-depth.
+     */
+    public double confidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+    public long bytes() {
+        return counters.length * (long) Long.BYTES;
+    }
+
+    private int index(int row, long hash) {
+        int combined = (int) hash + row * (int) (hash >>> 32);
+        return row * width + Math.floorMod(combined, width);
+    }
+}
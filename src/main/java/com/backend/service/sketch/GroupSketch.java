@@ -0,0 +1,109 @@
+package com.backend.service.sketch;
+
+import com.backend.service.query.CompositeKey;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.stats.HyperLogLog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sketches of the group keys of a groupBy: {@link SpaceSaving} counters for the largest groups,
+ * a {@link CountMinSketch} that tightens their counts, and a {@link HyperLogLog} of the distinct
+ * keys. Memory is fixed by the sketch sizes, however many rows or groups are added. Not
+ * thread-safe; parts of the rows are sketched apart and {@link #merge merged}.
+ */
+public final class GroupSketch {
+
+    private final int counters;
+    private final int width;
+    private final int depth;
+    private final SpaceSaving heavyHitters;
+    private final CountMinSketch frequencies;
+    private final HyperLogLog distinct = new HyperLogLog();
+
+    public GroupSketch(int counters, int width, int depth) {
+        this.counters = counters;
+        this.width = width;
+        this.depth = depth;
+        this.heavyHitters = new SpaceSaving(counters);
+        this.frequencies = new CountMinSketch(width, depth);
+    }
+
+    /**
+     * An empty sketch of the same size, for sketching part of the rows.
+     */
+    public GroupSketch partial() {
+        return new GroupSketch(counters, width, depth);
+    }
+
+    /**
+     * Adds a group key as built by {@link FieldKeys#groupKey}.
+     */
+    public void add(Object key) {
+        add(key, hash(key));
+    }
+
+    public void add(Object key, long hash) {
+        heavyHitters.add(key);
+        frequencies.add(hash);
+        distinct.add(hash);
+    }
+
+    public void merge(GroupSketch other) {
+        heavyHitters.merge(other.heavyHitters);
+        frequencies.merge(other.frequencies);
+        distinct.merge(other.distinct);
+    }
+
+    public long rows() {
+        return heavyHitters.total();
+    }
+
+    /**
+     * Approximate size in bytes of the sketches, whatever was added.
+     */
+    public static long bytes(int counters, int width, int depth) {
+        // a counter is a map entry, its slot and its key
+        return counters * 128L + (long) width * depth * Long.BYTES + HyperLogLog.BYTES;
+    }
+
+    /**
+     * The {@code top} largest groups. A count is the smaller of the Space-Saving counter and the
+     * Count-Min estimate, both upper bounds; the counter less its error is the lower bound.
+     */
+    public ApproximateGroups result(int top) {
+        List<SpaceSaving.Counter> largest = heavyHitters.top(top + 1);
+        List<SpaceSaving.Counter> listed = largest.subList(0, Math.min(top, largest.size()));
+        long otherMax = heavyHitters.floor();
+        // counters past the first left out count no more than it does
+        if (largest.size() > top) otherMax = Math.max(otherMax, largest.get(top).count());
+
+        List<ApproximateGroups.TopGroup> groups = new ArrayList<>(listed.size());
+        for (SpaceSaving.Counter counter : listed) {
+            long lowerBound = counter.count() - counter.error();
+            groups.add(new ApproximateGroups.TopGroup(FieldKeys.label(counter.key()), upperBound(counter), lowerBound,
+                    lowerBound >= otherMax));
+        }
+        groups.sort((a, b) -> Long.compare(b.count(), a.count()));
+        long rows = rows();
+        long distinctGroups = rows == 0 ? 0 : Math.min(Math.max(distinct.estimate(), groups.size()), rows);
+        return new ApproximateGroups(rows, distinctGroups, HyperLogLog.STANDARD_ERROR, List.copyOf(groups), otherMax,
+                frequencies.errorBound(), frequencies.confidence());
+    }
+
+    private long upperBound(SpaceSaving.Counter counter) {
+        return Math.min(counter.count(), frequencies.estimate(hash(counter.key())));
+    }
+
+    public static long hash(Object key) {
+        if (key instanceof CompositeKey composite) {
+            long hash = composite.size();
+            for (int i = 0; i < composite.size(); i++) {
+                hash = HyperLogLog.hash(hash ^ HyperLogLog.hash(composite.part(i)));
+            }
+            return hash;
+        }
+        return HyperLogLog.hash((String) key);
+    }
+}
@@ -0,0 +1,175 @@
+package com.backend.service.sketch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The most frequent keys of a stream in at most {@code capacity} counters (Metwally et al.,
+ * Space-Saving). A key that is not monitored takes over the counter with the smallest count,
+ * keeping that count as its error: a counter never undercounts its key, and overcounts it by
+ * at most its error. Any key seen more than {@code total / capacity} times is monitored.
+ * <p>
+ * The counters sit in a binary min-heap on their count, so an update costs O(log capacity)
+ * at worst and usually nothing beyond the lookup. Not thread-safe.
+ */
+public final class SpaceSaving {
+
+    public record Counter(Object key, long count, long error) {
+    }
+
+    private static final class Slot {
+        Object key;
+        long count;
+        long error;
+        int position;
+    }
+
+    private static final Comparator<Slot> BY_COUNT_DESCENDING = Comparator.comparingLong((Slot slot) -> slot.count).reversed();
+
+    private final int capacity;
+    private final Map<Object, Slot> slots;
+    private final Slot[] heap;
+    private int size;
+    // no key without a counter has been seen more often than this
+    private long floor;
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.slots = new HashMap<>(capacity * 2);
+        this.heap = new Slot[capacity];
+    }
+
+    public void add(Object key) {
+        total++;
+        Slot slot = slots.get(key);
+        if (slot != null) {
+            slot.count++;
+            siftDown(slot.position);
+            return;
+        }
+        if (size < capacity) {
+            slot = new Slot();
+            slot.key = key;
+            slot.count = floor + 1;
+            slot.error = floor;
+            slot.position = size;
+            heap[size++] = slot;
+            slots.put(key, slot);
+            siftUp(slot.position);
+            return;
+        }
+        slot = heap[0];
+        slots.remove(slot.key);
+        floor = Math.max(floor, slot.count);
+        slot.key = key;
+        slot.error = slot.count;
+        slot.count++;
+        slots.put(key, slot);
+        siftDown(0);
+    }
+
+    /**
+     * Adds the counters of a summary of other rows. A key missing from one summary may have
+     * been seen there as often as its floor, which the merged counter adds to both its count
+     * and its error; the {@code capacity} largest counters are kept.
+     */
+    public void merge(SpaceSaving other) {
+        List<Slot> merged = new ArrayList<>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            Slot slot = heap[i];
+            Slot match = other.slots.get(slot.key);
+            slot.count += match != null ? match.count : other.floor;
+            slot.error += match != null ? match.error : other.floor;
+            merged.add(slot);
+        }
+        for (int i = 0; i < other.size; i++) {
+            Slot slot = other.heap[i];
+            if (slots.containsKey(slot.key)) continue;
+            Slot copy = new Slot();
+            copy.key = slot.key;
+            copy.count = slot.count + floor;
+            copy.error = slot.error + floor;
+            merged.add(copy);
+        }
+        merged.sort(BY_COUNT_DESCENDING);
+
+        long mergedFloor = floor + other.floor;
+        if (merged.size() > capacity) mergedFloor = Math.max(mergedFloor, merged.get(capacity).count);
+        slots.clear();
+        Arrays.fill(heap, null);
+        size = 0;
+        int kept = Math.min(capacity, merged.size());
+        // counts in ascending order make a valid min-heap
+        for (int i = kept - 1; i >= 0; i--) {
+            Slot slot = merged.get(i);
+            slots.put(slot.key, slot);
+            slot.position = size;
+            heap[size++] = slot;
+        }
+        floor = mergedFloor;
+        total += other.total;
+    }
+
+    /**
+     * The counters with the highest counts, highest first.
+     */
+    public List<Counter> top(int n) {
+        Slot[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted, BY_COUNT_DESCENDING);
+        List<Counter> top = new ArrayList<>(Math.min(n, size));
+        for (int i = 0; i < Math.min(n, size); i++) {
+            top.add(new Counter(sorted[i].key, sorted[i].count, sorted[i].error));
+        }
+        return top;
+    }
+
+    /**
+     * The most any key without a counter can have been seen.
+     */
+    public long floor() {
+        return floor;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private void siftUp(int position) {
+        Slot slot = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (heap[parent].count <= slot.count) break;
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(slot, position);
+    }
+
+    private void siftDown(int position) {
+        Slot slot = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) child++;
+            if (heap[child].count >= slot.count) break;
+            place(heap[child], position);
+            position = child;
+        }
+        place(slot, position);
+    }
+
+    private void place(Slot slot, int position) {
+        heap[position] = slot;
+        slot.position = position;
+    }
+}
@@ -0,0 +1,161 @@
+package com.backend.service.stats;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Running statistics of one dataset: its rows, their average size as JSON text, and
+ * {@link FieldStatistics} per top-level field. Rows are added by the backfill of existing rows
+ * and by committed inserts; which of the two adds a row is decided by the id watermark the
+ * backfill reads up to, so each row is counted once. Rows of an insert still running when the
+ * watermark is taken can be missed: the figures are estimates.
+ */
+public final class DatasetStatistics {
+
+    public enum Status {
+        BUILDING, READY, FAILED
+    }
+
+    private final String datasetName;
+    private final int maxFields;
+    private final Map<String, FieldStatistics> fields = new LinkedHashMap<>();
+    private long rows;
+    private long jsonBytes;
+    private long watermark = -1;
+    private volatile Status status = Status.BUILDING;
+
+    DatasetStatistics(String datasetName, int maxFields) {
+        this.datasetName = datasetName;
+        this.maxFields = maxFields;
+    }
+
+    public String datasetName() {
+        return datasetName;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    void ready() {
+        status = Status.READY;
+    }
+
+    void failed() {
+        status = Status.FAILED;
+    }
+
+    synchronized void startBackfill(long maxId) {
+        watermark = maxId;
+    }
+
+    /**
+     * Adds a row of the backfill, which reads every row up to the watermark.
+     */
+    synchronized void addExisting(Map<String, ?> row) {
+        add(row);
+    }
+
+    /**
+     * Adds a committed insert, unless the backfill reads it: before the watermark is taken, the
+     * backfill reads everything committed so far.
+     */
+    synchronized void addInserted(Long id, Map<String, ?> row) {
+        if (watermark < 0 || (id != null && id <= watermark)) return;
+        add(row);
+    }
+
+    public synchronized long rowCount() {
+        return rows;
+    }
+
+    /**
+     * Average size of a row as JSON text, or 0 before any row was seen.
+     */
+    public synchronized long averageRowBytes() {
+        return rows == 0 ? 0 : jsonBytes / rows;
+    }
+
+    /**
+     * Estimated distinct values of the field, or -1 when it has no statistics.
+     */
+    public synchronized long distinct(String field) {
+        FieldStatistics statistics = fields.get(field);
+        return statistics == null ? -1 : statistics.distinct();
+    }
+
+    /**
+     * Share of the rows where the field is null or missing, or -1 when that is unknown. A field
+     * not seen in any row is missing from all of them, unless fields past the cap were skipped.
+     */
+    public synchronized double nullFraction(String field) {
+        FieldStatistics statistics = fields.get(field);
+        if (statistics != null) return statistics.nullFraction(rows);
+        return rows > 0 && fields.size() < maxFields ? 1 : -1;
+    }
+
+    public synchronized Map<String, Object> describe() {
+        Map<String, Object> fieldStats = new LinkedHashMap<>();
+        fields.forEach((name, statistics) -> {
+            Map<String, Object> field = new LinkedHashMap<>();
+            field.put("types", statistics.typeHistogram());
+            field.put("nullFraction", statistics.nullFraction(rows));
+            field.put("distinct", statistics.distinct());
+            fieldStats.put(name, field);
+        });
+        Map<String, Object> description = new LinkedHashMap<>();
+        description.put("dataset", datasetName);
+        description.put("status", status);
+        description.put("rows", rows);
+        description.put("averageRowBytes", rows == 0 ? 0 : jsonBytes / rows);
+        description.put("fields", fieldStats);
+        return description;
+    }
+
+    private void add(Map<String, ?> row) {
+        rows++;
+        jsonBytes += jsonBytes(row);
+        for (Map.Entry<String, ?> entry : row.entrySet()) {
+            FieldStatistics statistics = fields.get(entry.getKey());
+            if (statistics == null) {
+                if (fields.size() >= maxFields) continue;
+                statistics = new FieldStatistics();
+                fields.put(entry.getKey(), statistics);
+            }
+            statistics.add(entry.getValue());
+        }
+    }
+
+    /**
+     * Length of the value written as compact JSON, ignoring escapes and taking 8 characters for
+     * any fractional number.
+     */
+    static long jsonBytes(Object value) {
+        if (value == null) return 4;
+        if (value instanceof CharSequence text) return text.length() + 2;
+        if (value instanceof Boolean b) return b ? 4 : 5;
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            long number = ((Number) value).longValue();
+            return number == 0 ? 1 : (number < 0 ? 1 : 0) + (long) Math.log10(Math.abs((double) number)) + 1;
+        }
+        if (value instanceof Number) return 8;
+        if (value instanceof Map<?, ?> map) {
+            long bytes = 2 + Math.max(0, map.size() - 1);
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                bytes += String.valueOf(entry.getKey()).length() + 3 + jsonBytes(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value instanceof Collection<?> list) {
+            long bytes = 2 + Math.max(0, list.size() - 1);
+            for (Object element : list) {
+                bytes += jsonBytes(element);
+            }
+            return bytes;
+        }
+        if (value instanceof Object[] array) return jsonBytes(Arrays.asList(array));
+        return String.valueOf(value).length();
+    }
+}
@@ -0,0 +1,133 @@
+package com.backend.service.stats;
+
+import com.backend.config.PlannerProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.rows.CompactRowReader;
+import com.backend.service.store.RecordStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps {@link DatasetStatistics} for the query planner. The statistics of a dataset are
+ * created on its first insert or query, backfilled from its existing rows in the background,
+ * and then updated by every committed insert. They live in memory only and are rebuilt after a
+ * restart; statistics whose backfill failed stay FAILED and are not used.
+ */
+@Service
+@Slf4j
+public class DatasetStatisticsService implements DatasetChangeListener {
+
+    private final RecordStore recordStore;
+    private final TransactionTemplate transactionTemplate;
+    private final PlannerProperties properties;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final Map<String, DatasetStatistics> datasets = new ConcurrentHashMap<>();
+    private final ExecutorService backfillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dataset-statistics-backfill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public DatasetStatisticsService(RecordStore recordStore,
+                                    PlatformTransactionManager transactionManager,
+                                    PlannerProperties properties) {
+        this.recordStore = recordStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.properties = properties;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        backfillExecutor.shutdownNow();
+    }
+
+    /**
+     * The statistics of the dataset, started now when it has none yet; null when statistics
+     * are disabled. Until they are READY they cover part of the rows only.
+     */
+    public DatasetStatistics statistics(String datasetName) {
+        if (!properties.isStatistics()) return null;
+        DatasetStatistics statistics = datasets.get(datasetName);
+        if (statistics != null) return statistics;
+
+        DatasetStatistics created = new DatasetStatistics(datasetName, properties.getMaxFieldsPerDataset());
+        statistics = datasets.putIfAbsent(datasetName, created);
+        if (statistics != null) return statistics;
+        backfillExecutor.submit(() -> backfill(created));
+        return created;
+    }
+
+    @Override
+    public void onRecordsInserted(String datasetName, List<InsertedRecord> records) {
+        if (!properties.isStatistics()) return;
+        Runnable apply = () -> {
+            DatasetStatistics statistics = statistics(datasetName);
+            for (InsertedRecord record : records) {
+                statistics.addInserted(record.id(), record.row());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    private void backfill(DatasetStatistics statistics) {
+        String datasetName = statistics.datasetName();
+        long started = System.currentTimeMillis();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                long watermark;
+                // inserts committing until the watermark is set are left to the backfill, which
+                // reads up to an id taken after them
+                synchronized (statistics) {
+                    Long maxId = recordStore.maxId(datasetName);
+                    watermark = maxId == null ? 0 : maxId;
+                    statistics.startBackfill(watermark);
+                }
+                if (watermark == 0) return;
+                CompactRowReader reader = new CompactRowReader(mapper);
+                try (Stream<DatasetRecord> records = recordStore.streamUpTo(datasetName, watermark)) {
+                    Iterator<DatasetRecord> it = records.iterator();
+                    while (it.hasNext()) {
+                        statistics.addExisting(reader.read(it.next().storedRow()));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Collecting statistics of dataset {} failed", datasetName, e);
+            statistics.failed();
+            return;
+        }
+        statistics.ready();
+        log.info("Statistics of dataset {} ready: {} rows in {} ms", datasetName, statistics.rowCount(),
+                System.currentTimeMillis() - started);
+    }
+}
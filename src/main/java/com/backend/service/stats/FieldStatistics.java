@@ -0,0 +1,99 @@
+package com.backend.service.stats;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the rows of a dataset hold in one top-level field: how many rows have it, by JSON type
+ * of the value, and roughly how many distinct scalar values it takes. Numbers count as equal
+ * by value, so {@code 1} and {@code 1.0} are one value. Guarded by the owning
+ * {@link DatasetStatistics}.
+ */
+public final class FieldStatistics {
+
+    public enum ValueType {
+        STRING, NUMBER, BOOLEAN, OBJECT, ARRAY, NULL
+    }
+
+    private static final long TRUE_HASH = HyperLogLog.hash(0x7472756500000001L);
+    private static final long FALSE_HASH = HyperLogLog.hash(0x66616c7365000002L);
+
+    private final long[] typeCounts = new long[ValueType.values().length];
+    private final HyperLogLog distinct = new HyperLogLog();
+
+    void add(Object value) {
+        ValueType type = typeOf(value);
+        typeCounts[type.ordinal()]++;
+        switch (type) {
+            case STRING -> distinct.add(HyperLogLog.hash(value.toString()));
+            case NUMBER -> distinct.add(hashNumber((Number) value));
+            case BOOLEAN -> distinct.add((Boolean) value ? TRUE_HASH : FALSE_HASH);
+            default -> { }
+        }
+    }
+
+    /**
+     * Rows holding the field, including those where it is null.
+     */
+    public long present() {
+        long present = 0;
+        for (long count : typeCounts) {
+            present += count;
+        }
+        return present;
+    }
+
+    public long count(ValueType type) {
+        return typeCounts[type.ordinal()];
+    }
+
+    /**
+     * Estimated number of distinct strings, numbers and booleans in the field.
+     */
+    public long distinct() {
+        return distinct.estimate();
+    }
+
+    /**
+     * Share of the rows where the field is null or missing.
+     */
+    public double nullFraction(long rows) {
+        if (rows <= 0) return 0;
+        long nonNull = present() - count(ValueType.NULL);
+        return Math.max(0, Math.min(1, 1 - (double) nonNull / rows));
+    }
+
+    public Map<ValueType, Long> typeHistogram() {
+        Map<ValueType, Long> histogram = new EnumMap<>(ValueType.class);
+        for (ValueType type : ValueType.values()) {
+            if (typeCounts[type.ordinal()] > 0) histogram.put(type, typeCounts[type.ordinal()]);
+        }
+        return histogram;
+    }
+
+    static ValueType typeOf(Object value) {
+        if (value == null) return ValueType.NULL;
+        if (value instanceof CharSequence) return ValueType.STRING;
+        if (value instanceof Number) return ValueType.NUMBER;
+        if (value instanceof Boolean) return ValueType.BOOLEAN;
+        if (value instanceof List<?> || value instanceof Object[]) return ValueType.ARRAY;
+        return ValueType.OBJECT;
+    }
+
+    private static long hashNumber(Number number) {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+            return HyperLogLog.hash(number.longValue());
+        }
+        if (number instanceof BigInteger big && big.bitLength() < 64) {
+            return HyperLogLog.hash(big.longValue());
+        }
+        double value = number instanceof BigDecimal decimal ? decimal.doubleValue() : number.doubleValue();
+        if (value == Math.rint(value) && Math.abs(value) < 0x1p63) {
+            return HyperLogLog.hash((long) value);
+        }
+        return HyperLogLog.hash(Double.doubleToLongBits(value) ^ 0x5bd1e9955bd1e995L);
+    }
+}
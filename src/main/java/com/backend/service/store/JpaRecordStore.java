@@ -0,0 +1,118 @@
+package com.backend.service.store;
+
+import com.backend.model.DatasetRecord;
+import com.backend.repository.DatasetRecordRepository;
+import com.backend.repository.RecordCondition;
+import com.backend.service.codec.RowCodec;
+import jakarta.persistence.EntityManager;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Rows in the {@code records} table. Single records are saved through JPA, batches as one JDBC
+ * batch insert, and streamed records are detached as they are read so the persistence context
+ * does not grow with a scan. Streams must be consumed inside a transaction.
+ */
+@Component
+@ConditionalOnProperty(prefix = "dataset.store", name = "engine", havingValue = "jpa", matchIfMissing = true)
+public class JpaRecordStore implements RecordStore {
+
+    private static final String INSERT_SQL = "insert into records (dataset_name, json_data, binary_data) values (?, ?, ?)";
+
+    private final DatasetRecordRepository recordRepository;
+    private final EntityManager entityManager;
+    private final JdbcTemplate jdbcTemplate;
+
+    public JpaRecordStore(DatasetRecordRepository recordRepository, EntityManager entityManager, JdbcTemplate jdbcTemplate) {
+        this.recordRepository = recordRepository;
+        this.entityManager = entityManager;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public DatasetRecord save(DatasetRecord record) {
+        return recordRepository.save(record);
+    }
+
+    @Override
+    public List<Long> saveAll(String datasetName, List<RowCodec.EncodedRow> rows) {
+        List<Long> ids = jdbcTemplate.execute((ConnectionCallback<List<Long>>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                for (RowCodec.EncodedRow row : rows) {
+                    statement.setString(1, datasetName);
+                    statement.setString(2, row.json());
+                    if (row.binary() == null) {
+                        statement.setNull(3, Types.LONGVARBINARY);
+                    } else {
+                        statement.setBytes(3, row.binary());
+                    }
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+
+                List<Long> generated = new ArrayList<>(rows.size());
+                try (ResultSet keys = statement.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        generated.add(keys.getLong(1));
+                    }
+                }
+                return generated;
+            }
+        });
+        if (ids == null || ids.size() != rows.size()) {
+            throw new IllegalStateException("Expected " + rows.size() + " generated ids but got " + (ids == null ? 0 : ids.size()));
+        }
+        return ids;
+    }
+
+    @Override
+    public Stream<DatasetRecord> stream(String datasetName) {
+        return detached(recordRepository.streamByDatasetName(datasetName));
+    }
+
+    @Override
+    public Stream<DatasetRecord> streamInIdOrder(String datasetName) {
+        return detached(recordRepository.streamByDatasetNameOrderByIdAsc(datasetName));
+    }
+
+    @Override
+    public Stream<DatasetRecord> streamUpTo(String datasetName, long maxId) {
+        return detached(recordRepository.streamByDatasetNameAndIdLessThanEqual(datasetName, maxId));
+    }
+
+    @Override
+    public Stream<DatasetRecord> streamMatching(String datasetName, List<RecordCondition> conditions) {
+        return detached(recordRepository.streamByDatasetNameMatching(datasetName, conditions));
+    }
+
+    @Override
+    public List<DatasetRecord> findAllById(String datasetName, List<Long> ids) {
+        List<DatasetRecord> records = recordRepository.findAllById(ids);
+        records.forEach(entityManager::detach);
+        return records;
+    }
+
+    @Override
+    public long count(String datasetName) {
+        return recordRepository.countByDatasetName(datasetName);
+    }
+
+    @Override
+    public Long maxId(String datasetName) {
+        return recordRepository.findMaxIdByDatasetName(datasetName);
+    }
+
+    private Stream<DatasetRecord> detached(Stream<DatasetRecord> records) {
+        return records.peek(entityManager::detach);
+    }
+}
@@ -0,0 +1,55 @@
+package com.backend.service.store;
+
+import com.backend.model.DatasetRecord;
+import com.backend.repository.RecordCondition;
+import com.backend.service.codec.RowCodec;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Where the rows of the datasets are kept, selected by {@code dataset.store.engine}. Records
+ * handed out are detached: holding on to them or dropping them costs the store nothing.
+ */
+public interface RecordStore {
+
+    /**
+     * Stores a single record and returns it with its id assigned.
+     */
+    DatasetRecord save(DatasetRecord record);
+
+    /**
+     * Stores encoded rows of one dataset in one batch and returns their ids, in row order.
+     */
+    List<Long> saveAll(String datasetName, List<RowCodec.EncodedRow> rows);
+
+    /**
+     * Every record of the dataset, in the order the store reads them fastest.
+     */
+    Stream<DatasetRecord> stream(String datasetName);
+
+    Stream<DatasetRecord> streamInIdOrder(String datasetName);
+
+    /**
+     * The records of the dataset with an id up to {@code maxId}, in id order.
+     */
+    Stream<DatasetRecord> streamUpTo(String datasetName, long maxId);
+
+    /**
+     * The records of the dataset satisfying the conditions, in id order. A store that cannot
+     * evaluate them returns every record; callers recheck their filter on what comes back.
+     */
+    Stream<DatasetRecord> streamMatching(String datasetName, List<RecordCondition> conditions);
+
+    /**
+     * The records of the dataset with these ids that exist, in no particular order.
+     */
+    List<DatasetRecord> findAllById(String datasetName, List<Long> ids);
+
+    long count(String datasetName);
+
+    /**
+     * The highest id in the dataset, or null when it has no records.
+     */
+    Long maxId(String datasetName);
+}
@@ -0,0 +1,437 @@
+package com.backend.service.store;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * The rows of one dataset as a sequence of segment files, each created at its full size and
+ * mapped read-write. A segment starts with the id of its first row, followed by one entry per
+ * row: its length, the CRC32 of its bytes and the bytes. An entry with the length
+ * {@code COMMIT} instead marks the rows before it as committed and holds their number. A zero
+ * length marks the end of the written part of a segment. The id of a row is its position in
+ * the log, starting at 1, and an in-memory offset index maps it to its segment and offset.
+ * <p>
+ * Appends are serialized by a writer lock, which a transaction takes with {@link #begin} and
+ * keeps until it {@link #commit commits} or {@link #rollback rolls back}: its rows are written,
+ * followed by a commit entry on {@link #prepare}, but only become visible to readers, through
+ * the volatile row count, on commit, and a rollback zeroes everything it wrote. Reads go
+ * through absolute gets on the shared mappings and need no lock, and neither does forcing the
+ * committed part of the log to disk.
+ * <p>
+ * On open the entries are walked to rebuild the index, and the log is cut at the first entry
+ * that is incomplete or fails its checksum, or at a segment that does not start where the
+ * previous one ended: both are writes lost or torn by a crash. It is then cut back to its last
+ * commit entry, dropping the rows of a transaction that was still open. Everything after the
+ * cut is wiped.
+ */
+@Slf4j
+final class SegmentLog implements Closeable {
+
+    private static final int SEGMENT_HEADER_BYTES = 8;
+    private static final int ENTRY_HEADER_BYTES = 8;
+    private static final int WIPE_CHUNK = 64 * 1024;
+    private static final int COMMIT = -1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    // segment number << 32 | offset, by id - 1
+    private volatile long[] locations = new long[1024];
+    private volatile int count;
+    private final AtomicLong completed = new AtomicLong();
+
+    private final ReentrantLock writer = new ReentrantLock();
+    // what the writer wrote, published to readers on commit
+    private long[] staged = locations;
+    private int stagedCount;
+    private int writeOffset;
+    private boolean prepared;
+
+    // segment number << 32 | offset past the last commit entry
+    private volatile long committed;
+    private final Object forcing = new Object();
+    // everything before it is on disk, guarded by forcing
+    private long forced;
+
+    /**
+     * The end of the log when a transaction began, to roll it back to.
+     */
+    record Mark(int segments, int offset, int count) {
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        // past the last byte written, including entries being written
+        private int end;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer, int end) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.end = end;
+        }
+
+        Path path() {
+            return path;
+        }
+
+        FileChannel channel() {
+            return channel;
+        }
+
+        MappedByteBuffer buffer() {
+            return buffer;
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+    }
+
+    private SegmentLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    static SegmentLog open(Path directory, int segmentSize) throws IOException {
+        SegmentLog segmentLog = new SegmentLog(directory, segmentSize);
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listed = Files.list(directory)) {
+            files = listed.filter(path -> path.getFileName().toString().endsWith(".seg")).sorted().toList();
+        }
+        Mark lastCommit = new Mark(0, 0, 0);
+        for (int i = 0; i < files.size(); i++) {
+            boolean intact = segmentLog.recover(files.get(i));
+            if (segmentLog.recoveredCommit != null) lastCommit = segmentLog.recoveredCommit;
+            if (!intact) {
+                for (Path discarded : files.subList(segmentLog.segments.size(), files.size())) {
+                    Files.delete(discarded);
+                }
+                break;
+            }
+        }
+        segmentLog.staged = segmentLog.locations;
+        segmentLog.stagedCount = segmentLog.count;
+        if (segmentLog.count > lastCommit.count() || segmentLog.writeOffset != lastCommit.offset()
+                || segmentLog.segments.size() != lastCommit.segments()) {
+            log.warn("Discarding {} rows of a transaction that had not committed, from {}",
+                    segmentLog.count - lastCommit.count(), directory);
+            segmentLog.truncate(lastCommit);
+            segmentLog.count = segmentLog.stagedCount;
+        }
+        segmentLog.committed = segmentLog.position();
+        segmentLog.forced = segmentLog.committed;
+        segmentLog.completed.set(segmentLog.count);
+        return segmentLog;
+    }
+
+    // the last commit entry of the segment being recovered
+    private Mark recoveredCommit;
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Rows whose append was reported {@link #complete}, plus those found on open.
+     */
+    long completed() {
+        return completed.get();
+    }
+
+    void complete(int rows) {
+        completed.addAndGet(rows);
+    }
+
+    /**
+     * Appends the rows and makes them visible at once, returning the id of the first; the
+     * others follow it. When the batch fails part way, none of it is kept.
+     */
+    long append(List<byte[]> rows) throws IOException {
+        Mark mark = begin();
+        long first;
+        try {
+            first = write(rows);
+            commit();
+        } catch (IOException | RuntimeException e) {
+            rollback(mark);
+            throw e;
+        }
+        return first;
+    }
+
+    /**
+     * Takes the writer lock, waiting for the transaction holding it, and returns the end of
+     * the log. The calling thread holds the lock until {@link #commit} or {@link #rollback}.
+     */
+    Mark begin() {
+        writer.lock();
+        return new Mark(segments.size(), writeOffset, stagedCount);
+    }
+
+    /**
+     * Writes the rows without making them visible and returns the id of the first. When the
+     * batch fails part way, none of it is kept; earlier writes of the transaction are.
+     */
+    long write(List<byte[]> rows) throws IOException {
+        if (!writer.isHeldByCurrentThread()) throw new IllegalStateException("Segment writes must follow begin()");
+        Mark start = new Mark(segments.size(), writeOffset, stagedCount);
+        long[] index = staged;
+        int written = stagedCount;
+        try {
+            for (byte[] row : rows) {
+                int needed = ENTRY_HEADER_BYTES + row.length;
+                if (segments.isEmpty() || writeOffset + needed > current().capacity()) {
+                    roll(needed, written + 1L);
+                }
+                Segment segment = current();
+                segment.end = Math.max(segment.end, writeOffset + needed);
+                CRC32 crc = new CRC32();
+                crc.update(row);
+                segment.buffer().put(writeOffset + ENTRY_HEADER_BYTES, row);
+                segment.buffer().putInt(writeOffset + 4, (int) crc.getValue());
+                segment.buffer().putInt(writeOffset, row.length);
+
+                if (written == index.length) index = Arrays.copyOf(index, index.length * 2);
+                index[written++] = (long) (segments.size() - 1) << 32 | writeOffset;
+                writeOffset += needed;
+            }
+        } catch (IOException | RuntimeException e) {
+            truncate(start);
+            throw e;
+        }
+        long first = stagedCount + 1L;
+        staged = index;
+        stagedCount = written;
+        return first;
+    }
+
+    /**
+     * Writes the commit entry of the rows written since {@link #begin}, after which they are
+     * found again on open. Nothing is written when there are none.
+     */
+    void prepare() throws IOException {
+        if (!writer.isHeldByCurrentThread()) throw new IllegalStateException("Segment writes must follow begin()");
+        if (prepared || stagedCount == count) return;
+        if (segments.isEmpty() || writeOffset + ENTRY_HEADER_BYTES > current().capacity()) {
+            roll(ENTRY_HEADER_BYTES, stagedCount + 1L);
+        }
+        Segment segment = current();
+        segment.end = Math.max(segment.end, writeOffset + ENTRY_HEADER_BYTES);
+        segment.buffer().putInt(writeOffset + 4, stagedCount);
+        segment.buffer().putInt(writeOffset, COMMIT);
+        writeOffset += ENTRY_HEADER_BYTES;
+        prepared = true;
+    }
+
+    /**
+     * Makes the rows written since {@link #begin} visible and releases the writer lock,
+     * {@link #prepare preparing} them first if that was not done. When that fails the lock is
+     * kept, for the caller to {@link #rollback}.
+     */
+    void commit() throws IOException {
+        prepare();
+        if (stagedCount != count) {
+            locations = staged;
+            count = stagedCount;
+            committed = position();
+        }
+        prepared = false;
+        writer.unlock();
+    }
+
+    /**
+     * Drops the rows written since {@link #begin}, zeroing their entries so that no later
+     * append can leave one of them where recovery would find it, and releases the writer lock.
+     */
+    void rollback(Mark mark) throws IOException {
+        try {
+            truncate(mark);
+        } finally {
+            prepared = false;
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Forces the committed part of the log to disk, without waiting for the transaction that
+     * holds the writer lock.
+     */
+    void force() {
+        forceTo(committed);
+    }
+
+    /**
+     * Forces everything written to disk, including the rows and commit entry of the calling
+     * transaction, which holds the writer lock.
+     */
+    void forcePrepared() {
+        if (!writer.isHeldByCurrentThread()) throw new IllegalStateException("Segment writes must follow begin()");
+        forceTo(position());
+    }
+
+    private void forceTo(long position) {
+        synchronized (forcing) {
+            if (position <= forced) return;
+            int last = (int) (position >>> 32);
+            for (int s = (int) (forced >>> 32); s <= last; s++) {
+                Segment segment = segments.get(s);
+                int from = s == (int) (forced >>> 32) ? (int) forced : 0;
+                int to = s == last ? (int) position : segment.capacity();
+                if (to > from) segment.buffer().force(from, to - from);
+            }
+            forced = position;
+        }
+    }
+
+    /**
+     * The row with this id, or null when there is none.
+     */
+    byte[] read(long id) {
+        if (id < 1 || id > count) return null;
+        long location = locations[(int) (id - 1)];
+        MappedByteBuffer buffer = segments.get((int) (location >>> 32)).buffer();
+        int offset = (int) location;
+        byte[] row = new byte[buffer.getInt(offset)];
+        buffer.get(offset + ENTRY_HEADER_BYTES, row);
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.lock();
+        try {
+            force();
+            for (Segment segment : segments) {
+                segment.channel().close();
+            }
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    private Segment current() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void roll(int needed, long firstId) throws IOException {
+        int capacity = Math.max(segmentSize, SEGMENT_HEADER_BYTES + needed);
+        Path path = directory.resolve(String.format("%08d.seg", segments.size()));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.putLong(0, firstId);
+        segments.add(new Segment(path, channel, buffer, SEGMENT_HEADER_BYTES));
+        writeOffset = SEGMENT_HEADER_BYTES;
+    }
+
+    /**
+     * The end of the written part of the log, as segment number << 32 | offset.
+     */
+    private long position() {
+        return segments.isEmpty() ? 0 : (long) (segments.size() - 1) << 32 | writeOffset;
+    }
+
+    private void truncate(Mark mark) throws IOException {
+        while (segments.size() > mark.segments()) {
+            Segment segment = segments.remove(segments.size() - 1);
+            segment.channel().close();
+            Files.deleteIfExists(segment.path());
+        }
+        writeOffset = mark.offset();
+        stagedCount = mark.count();
+        if (!segments.isEmpty()) {
+            Segment segment = current();
+            if (segment.end > writeOffset) {
+                zero(segment.buffer(), writeOffset, segment.end);
+                segment.buffer().force(writeOffset, segment.end - writeOffset);
+                segment.end = writeOffset;
+            }
+        }
+        synchronized (forcing) {
+            forced = Math.min(forced, position());
+        }
+    }
+
+    /**
+     * Indexes the entries of a segment file. Returns false, without keeping the segment, when it
+     * does not continue the log, and false after wiping its tail when it ends in a torn write.
+     */
+    private boolean recover(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (buffer.capacity() < SEGMENT_HEADER_BYTES || buffer.getLong(0) != count + 1L) {
+            log.warn("Segment {} does not continue the log at row {}; discarding it and the segments after it", path, count + 1L);
+            channel.close();
+            return false;
+        }
+        Segment segment = new Segment(path, channel, buffer, SEGMENT_HEADER_BYTES);
+        segments.add(segment);
+        int number = segments.size() - 1;
+        int offset = SEGMENT_HEADER_BYTES;
+        long[] index = locations;
+        int indexed = count;
+        boolean intact = true;
+        recoveredCommit = null;
+        while (offset + ENTRY_HEADER_BYTES <= segment.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length == 0) break;
+            if (length == COMMIT && buffer.getInt(offset + 4) == indexed) {
+                offset += ENTRY_HEADER_BYTES;
+                recoveredCommit = new Mark(segments.size(), offset, indexed);
+                continue;
+            }
+            if (length < 0 || offset + ENTRY_HEADER_BYTES + length > segment.capacity() || !checksumMatches(buffer, offset, length)) {
+                intact = false;
+                break;
+            }
+            if (indexed == index.length) index = Arrays.copyOf(index, index.length * 2);
+            index[indexed++] = (long) number << 32 | offset;
+            offset += ENTRY_HEADER_BYTES + length;
+        }
+        locations = index;
+        count = indexed;
+        writeOffset = offset;
+        segment.end = offset;
+        if (!intact) {
+            log.warn("Segment {} ends in a torn write at offset {}; discarding the rest of the log", path, offset);
+            wipe(buffer, offset);
+        }
+        return intact;
+    }
+
+    private static boolean checksumMatches(MappedByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + ENTRY_HEADER_BYTES, length));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    private static void wipe(MappedByteBuffer buffer, int from) {
+        zero(buffer, from, buffer.capacity());
+        buffer.force();
+    }
+
+    private static void zero(MappedByteBuffer buffer, int from, int to) {
+        byte[] zeros = new byte[Math.min(WIPE_CHUNK, to - from)];
+        for (int offset = from; offset < to; offset += zeros.length) {
+            buffer.put(offset, zeros, 0, Math.min(zeros.length, to - offset));
+        }
+    }
+}
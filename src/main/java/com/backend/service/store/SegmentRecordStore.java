@@ -0,0 +1,242 @@
+package com.backend.service.store;
+
+import com.backend.config.RecordStoreProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.repository.RecordCondition;
+import com.backend.service.codec.RowCodec;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Rows in append-only, memory-mapped segment files, one {@link SegmentLog} per dataset under
+ * {@code dataset.store.directory}. Scans and fetches by id read straight from the mappings,
+ * without JDBC or entity hydration; each row is copied once into the byte array the readers
+ * parse. Rows are kept in the encoded form {@link RowCodec} produced, whatever its format, in
+ * {@link DatasetRecord#getBinaryData()}.
+ * <p>
+ * Ids are positions within the dataset, so they are unique per dataset only. Appends take part
+ * in the surrounding transaction: the first one takes the dataset's writer lock until the
+ * transaction completes, so appends to a dataset are serialized by transaction as inserts into
+ * a locked table would be. Their commit entry is written before the transaction commits; the
+ * rows are seen by scans and {@link #count}ed once it has, and zeroed from the segments when it
+ * rolls back. Rows without a commit entry are dropped on open. Without a transaction a row is
+ * visible once its append returns. Rows are durable according to {@code dataset.store.fsync};
+ * with {@code always} they are forced before the transaction commits.
+ */
+@Component
+@ConditionalOnProperty(prefix = "dataset.store", name = "engine", havingValue = "segment")
+@Slf4j
+public class SegmentRecordStore implements RecordStore {
+
+    private final RecordStoreProperties properties;
+    private final int segmentSize;
+    private final Map<String, SegmentLog> logs = new ConcurrentHashMap<>();
+
+    public SegmentRecordStore(RecordStoreProperties properties) {
+        this.properties = properties;
+        this.segmentSize = (int) Math.min(properties.getSegmentSize().toBytes(), Integer.MAX_VALUE - 8);
+        log.info("Storing rows in segment files under {} with fsync {}", properties.getDirectory().toAbsolutePath(), properties.getFsync());
+    }
+
+    @Override
+    public DatasetRecord save(DatasetRecord record) {
+        long id = append(record.getDatasetName(), List.of(record.storedRow()));
+        record.setId(id);
+        return record;
+    }
+
+    @Override
+    public List<Long> saveAll(String datasetName, List<RowCodec.EncodedRow> rows) {
+        List<byte[]> stored = new ArrayList<>(rows.size());
+        for (RowCodec.EncodedRow row : rows) {
+            stored.add(row.binary() != null ? row.binary() : row.json().getBytes(StandardCharsets.UTF_8));
+        }
+        long first = append(datasetName, stored);
+        return LongStream.range(first, first + rows.size()).boxed().toList();
+    }
+
+    @Override
+    public Stream<DatasetRecord> stream(String datasetName) {
+        return streamUpTo(datasetName, Long.MAX_VALUE);
+    }
+
+    @Override
+    public Stream<DatasetRecord> streamInIdOrder(String datasetName) {
+        return stream(datasetName);
+    }
+
+    @Override
+    public Stream<DatasetRecord> streamUpTo(String datasetName, long maxId) {
+        SegmentLog segmentLog = find(datasetName);
+        if (segmentLog == null) return Stream.empty();
+        long last = Math.min(maxId, segmentLog.count());
+        return LongStream.rangeClosed(1, last).mapToObj(id -> record(datasetName, id, segmentLog.read(id)));
+    }
+
+    /**
+     * Returns every record: the segments have nothing to evaluate conditions with.
+     */
+    @Override
+    public Stream<DatasetRecord> streamMatching(String datasetName, List<RecordCondition> conditions) {
+        return stream(datasetName);
+    }
+
+    @Override
+    public List<DatasetRecord> findAllById(String datasetName, List<Long> ids) {
+        SegmentLog segmentLog = find(datasetName);
+        if (segmentLog == null) return List.of();
+        List<DatasetRecord> records = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            byte[] row = segmentLog.read(id);
+            if (row != null) records.add(record(datasetName, id, row));
+        }
+        return records;
+    }
+
+    @Override
+    public long count(String datasetName) {
+        SegmentLog segmentLog = find(datasetName);
+        return segmentLog == null ? 0 : segmentLog.completed();
+    }
+
+    @Override
+    public Long maxId(String datasetName) {
+        SegmentLog segmentLog = find(datasetName);
+        return segmentLog == null || segmentLog.count() == 0 ? null : (long) segmentLog.count();
+    }
+
+    @Scheduled(fixedDelayString = "${dataset.store.fsync-interval:PT1S}")
+    public void forceAll() {
+        if (properties.getFsync() != RecordStoreProperties.Fsync.INTERVAL) return;
+        logs.values().forEach(SegmentLog::force);
+    }
+
+    @PreDestroy
+    public void close() {
+        logs.forEach((datasetName, segmentLog) -> {
+            try {
+                segmentLog.close();
+            } catch (IOException e) {
+                log.warn("Could not close the segments of dataset {}", datasetName, e);
+            }
+        });
+        logs.clear();
+    }
+
+    private long append(String datasetName, List<byte[]> rows) {
+        SegmentLog segmentLog = logs.computeIfAbsent(datasetName, this::open);
+        try {
+            if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+                long first = segmentLog.append(rows);
+                if (properties.getFsync() == RecordStoreProperties.Fsync.ALWAYS) segmentLog.force();
+                segmentLog.complete(rows.size());
+                return first;
+            }
+            Appended appended = (Appended) TransactionSynchronizationManager.getResource(segmentLog);
+            if (appended == null) appended = begin(datasetName, segmentLog);
+            long first = segmentLog.write(rows);
+            appended.rows += rows.size();
+            return first;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not append to the segments of dataset " + datasetName, e);
+        }
+    }
+
+    /**
+     * What a transaction appended to one dataset, bound to the transaction under its log.
+     */
+    private static final class Appended {
+        private final SegmentLog.Mark mark;
+        private int rows;
+
+        private Appended(SegmentLog.Mark mark) {
+            this.mark = mark;
+        }
+    }
+
+    private Appended begin(String datasetName, SegmentLog segmentLog) {
+        Appended appended = new Appended(segmentLog.begin());
+        TransactionSynchronizationManager.bindResource(segmentLog, appended);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                try {
+                    segmentLog.prepare();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not commit the rows appended to dataset " + datasetName, e);
+                }
+                if (properties.getFsync() == RecordStoreProperties.Fsync.ALWAYS) segmentLog.forcePrepared();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(segmentLog);
+                if (status == STATUS_COMMITTED) {
+                    try {
+                        segmentLog.commit();
+                        segmentLog.complete(appended.rows);
+                        return;
+                    } catch (IOException e) {
+                        log.error("Could not commit {} rows appended to dataset {}", appended.rows, datasetName, e);
+                    }
+                }
+                try {
+                    segmentLog.rollback(appended.mark);
+                    log.debug("Rolled back {} rows appended to dataset {}", appended.rows, datasetName);
+                } catch (IOException e) {
+                    log.error("Could not roll back {} rows appended to dataset {}", appended.rows, datasetName, e);
+                }
+            }
+        });
+        return appended;
+    }
+
+    /**
+     * The log of the dataset, or null when nothing was ever stored in it.
+     */
+    private SegmentLog find(String datasetName) {
+        SegmentLog segmentLog = logs.get(datasetName);
+        if (segmentLog != null || !Files.isDirectory(directoryOf(datasetName))) return segmentLog;
+        return logs.computeIfAbsent(datasetName, this::open);
+    }
+
+    private SegmentLog open(String datasetName) {
+        Path directory = directoryOf(datasetName);
+        try {
+            SegmentLog segmentLog = SegmentLog.open(directory, segmentSize);
+            log.debug("Opened {} rows of dataset {} from {}", segmentLog.count(), datasetName, directory);
+            return segmentLog;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the segments of dataset " + datasetName, e);
+        }
+    }
+
+    private Path directoryOf(String datasetName) {
+        // encoded so that no dataset name can reach outside the directory
+        String encoded = URLEncoder.encode(Objects.requireNonNull(datasetName), StandardCharsets.UTF_8).replace(".", "%2E");
+        return properties.getDirectory().resolve(encoded);
+    }
+
+    private static DatasetRecord record(String datasetName, long id, byte[] row) {
+        return DatasetRecord.builder().id(id).datasetName(datasetName).binaryData(row).build();
+    }
+}
@@ -0,0 +1,214 @@
+package com.backend.service.view;
+
+import com.backend.service.aggregate.GroupAggregator;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.query.FieldPath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A groupBy of one dataset kept up to date as rows are added: per group the ids of its rows, in
+ * id order, and partial aggregates of every top-level field. Groups live in a concurrent map
+ * and each is locked on its own, so inserts into different groups do not wait for each other.
+ * <p>
+ * Adding a row is idempotent per id: a group keeps its ids sorted and ignores one it already
+ * holds. The backfill of existing rows and the inserts committed meanwhile can therefore add
+ * the same row in either order.
+ */
+public final class GroupByView {
+
+    public enum Status {
+        BUILDING, READY, DROPPED
+    }
+
+    private final String datasetName;
+    private final FieldKeys keys;
+    private final int maxGroups;
+    private final Map<Object, Group> groups = new ConcurrentHashMap<>();
+    private final LongAdder rows = new LongAdder();
+    private volatile Status status = Status.BUILDING;
+
+    GroupByView(String datasetName, FieldKeys keys, int maxGroups) {
+        this.datasetName = datasetName;
+        this.keys = keys;
+        this.maxGroups = maxGroups;
+    }
+
+    public String datasetName() {
+        return datasetName;
+    }
+
+    public FieldKeys keys() {
+        return keys;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    public boolean isReady() {
+        return status == Status.READY;
+    }
+
+    void ready() {
+        if (status == Status.BUILDING) status = Status.READY;
+    }
+
+    void drop() {
+        status = Status.DROPPED;
+        groups.clear();
+    }
+
+    /**
+     * Adds a row unless it has no group key, or is already in its group. Returns false once the
+     * view is dropped, including when this row would take it past the group limit.
+     */
+    boolean add(long id, Map<String, ?> row) {
+        if (status == Status.DROPPED) return false;
+        Object key = keys.groupKey(row);
+        if (key == null) return true;
+
+        Group group = groups.get(key);
+        if (group == null) {
+            if (groups.size() >= maxGroups) {
+                drop();
+                return false;
+            }
+            group = groups.computeIfAbsent(key, k -> new Group());
+        }
+        if (group.add(id, row)) rows.increment();
+        return true;
+    }
+
+    public int groupCount() {
+        return groups.size();
+    }
+
+    public long rowCount() {
+        return rows.sum();
+    }
+
+    /**
+     * Whether {@link #aggregateInto} can answer for these fields: the view keeps aggregates of
+     * top-level fields only.
+     */
+    public boolean canAggregate(GroupAggregator aggregator) {
+        return aggregator.paths().subList(keys.size(), aggregator.paths().size()).stream()
+                .allMatch(path -> path.topLevelName() != null);
+    }
+
+    /**
+     * Adds the partial aggregates of every group to an aggregator over the same keys.
+     */
+    public void aggregateInto(GroupAggregator aggregator) {
+        List<FieldPath> paths = aggregator.paths();
+        List<String> fields = new ArrayList<>();
+        for (FieldPath path : paths.subList(keys.size(), paths.size())) {
+            fields.add(path.topLevelName());
+        }
+        groups.forEach((key, group) -> group.aggregateInto(FieldKeys.label(key), fields, aggregator));
+    }
+
+    /**
+     * The row ids of every group, by group label, each in id order.
+     */
+    public Map<String, long[]> rowIds() {
+        Map<String, long[]> ids = new HashMap<>(groups.size() * 2);
+        groups.forEach((key, group) -> ids.put(FieldKeys.label(key), group.ids()));
+        return ids;
+    }
+
+    private static final class Group {
+        private long[] ids = new long[4];
+        private int size;
+        private final Map<String, FieldStats> fields = new HashMap<>();
+
+        private synchronized boolean add(long id, Map<String, ?> row) {
+            if (size > 0 && id <= ids[size - 1]) {
+                int position = Arrays.binarySearch(ids, 0, size, id);
+                if (position >= 0) return false;
+                insertAt(-position - 1, id);
+            } else {
+                insertAt(size, id);
+            }
+            row.forEach((field, value) -> {
+                if (value != null) fields.computeIfAbsent(field, f -> new FieldStats()).add(value);
+            });
+            return true;
+        }
+
+        private void insertAt(int position, long id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size + (size >> 1));
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        private synchronized long[] ids() {
+            return Arrays.copyOf(ids, size);
+        }
+
+        private synchronized void aggregateInto(String label, List<String> fieldNames, GroupAggregator aggregator) {
+            int count = fieldNames.size();
+            long[] nonNull = new long[count];
+            long[] numeric = new long[count];
+            double[] sums = new double[count];
+            long[] integralSums = new long[count];
+            boolean[] integral = new boolean[count];
+            double[] mins = new double[count];
+            double[] maxs = new double[count];
+            for (int f = 0; f < count; f++) {
+                FieldStats stats = fields.get(fieldNames.get(f));
+                if (stats == null) continue;
+                nonNull[f] = stats.nonNull;
+                numeric[f] = stats.numeric;
+                sums[f] = stats.sum;
+                integralSums[f] = stats.integralSum;
+                integral[f] = stats.integral;
+                mins[f] = stats.min;
+                maxs[f] = stats.max;
+            }
+            aggregator.addPartial(label, size, nonNull, numeric, sums, integralSums, integral, mins, maxs);
+        }
+    }
+
+    /**
+     * Non-null count of a field in one group, and count, sum, min and max of its numeric values.
+     * The sum is also kept exactly while the values are {@link GroupAggregator#isIntegral integral}.
+     */
+    private static final class FieldStats {
+        private long nonNull;
+        private long numeric;
+        private double sum;
+        private long integralSum;
+        private boolean integral = true;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        private void add(Object value) {
+            nonNull++;
+            if (value instanceof Number number) {
+                double v = number.doubleValue();
+                numeric++;
+                sum += v;
+                if (integral && GroupAggregator.isIntegral(number)) {
+                    try {
+                        integralSum = Math.addExact(integralSum, number.longValue());
+                    } catch (ArithmeticException e) {
+                        integral = false;
+                    }
+                } else {
+                    integral = false;
+                }
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.backend.service.view;
+
+import com.backend.config.ViewProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.rows.CompactRowReader;
+import com.backend.service.store.RecordStore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Maintains the registered {@link GroupByView}s. A view is registered from
+ * {@code dataset.views.group-by} at startup or through the admin API, backfilled from the
+ * existing rows in the background and used by queries once READY. Committed inserts are added
+ * to every view of their dataset, whether it is still building or not. Views live in memory
+ * only and are rebuilt after a restart.
+ */
+@Service
+@Slf4j
+public class GroupByViewService implements DatasetChangeListener {
+
+    private final RecordStore recordStore;
+    private final TransactionTemplate transactionTemplate;
+    private final ViewProperties properties;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // dataset name -> canonical group keys -> view
+    private final Map<String, Map<String, GroupByView>> views = new ConcurrentHashMap<>();
+    private final ExecutorService backfillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "group-view-backfill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public GroupByViewService(RecordStore recordStore,
+                              PlatformTransactionManager transactionManager,
+                              ViewProperties properties) {
+        this.recordStore = recordStore;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.properties = properties;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        properties.getGroupBy().forEach((datasetName, fields) ->
+                fields.forEach(field -> register(datasetName, field.trim())));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        backfillExecutor.shutdownNow();
+    }
+
+    /**
+     * Registers a view of the dataset grouped by {@code groupBy}, or returns the one already
+     * registered for the same keys.
+     */
+    public GroupByView register(String datasetName, String groupBy) {
+        FieldKeys keys = FieldKeys.parseGroup(groupBy);
+        Map<String, GroupByView> datasetViews = views.computeIfAbsent(datasetName, k -> new ConcurrentHashMap<>());
+        GroupByView created = new GroupByView(datasetName, keys, properties.getMaxGroups());
+        GroupByView view = datasetViews.compute(keys.canonical(), (k, existing) ->
+                existing != null && existing.status() != GroupByView.Status.DROPPED ? existing : created);
+        if (view != created) return view;
+
+        log.info("Building groupBy view of dataset {} by {}", datasetName, groupBy);
+        backfillExecutor.submit(() -> backfill(created));
+        return created;
+    }
+
+    public boolean unregister(String datasetName, String groupBy) {
+        Map<String, GroupByView> datasetViews = views.get(datasetName);
+        GroupByView removed = datasetViews == null ? null : datasetViews.remove(FieldKeys.parseGroup(groupBy).canonical());
+        if (removed == null) return false;
+        removed.drop();
+        return true;
+    }
+
+    /**
+     * The view answering a groupBy of the dataset by these keys, or null when there is none
+     * that is READY.
+     */
+    public GroupByView readyView(String datasetName, FieldKeys keys) {
+        if (!properties.isEnabled()) return null;
+        Map<String, GroupByView> datasetViews = views.get(datasetName);
+        GroupByView view = datasetViews == null ? null : datasetViews.get(keys.canonical());
+        return view != null && view.isReady() ? view : null;
+    }
+
+    /**
+     * Adds the rows to the views of the dataset once the insert commits.
+     */
+    @Override
+    public void onRecordsInserted(String datasetName, List<InsertedRecord> records) {
+        if (views.isEmpty()) return;
+        // the views are looked up at commit, so a view registered meanwhile gets the rows too
+        Runnable apply = () -> {
+            Map<String, GroupByView> datasetViews = views.get(datasetName);
+            if (datasetViews == null) return;
+            for (GroupByView view : datasetViews.values()) {
+                for (InsertedRecord record : records) {
+                    if (!add(view, record.id(), record.row())) break;
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        views.forEach((datasetName, datasetViews) -> datasetViews.values().forEach(view -> stats.add(stats(view))));
+        return stats;
+    }
+
+    public static Map<String, Object> stats(GroupByView view) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dataset", view.datasetName());
+        stats.put("groupBy", view.keys().canonical());
+        stats.put("status", view.status());
+        stats.put("groups", view.groupCount());
+        stats.put("rows", view.rowCount());
+        return stats;
+    }
+
+    private boolean add(GroupByView view, long id, Map<String, ?> row) {
+        boolean dropped = view.status() == GroupByView.Status.DROPPED;
+        if (view.add(id, row)) return true;
+        if (!dropped) {
+            log.warn("Dropped groupBy view of dataset {} by {}: more than {} groups",
+                    view.datasetName(), view.keys().canonical(), properties.getMaxGroups());
+        }
+        return false;
+    }
+
+    private void backfill(GroupByView view) {
+        long started = System.currentTimeMillis();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                CompactRowReader reader = new CompactRowReader(mapper);
+                try (Stream<DatasetRecord> records = recordStore.streamInIdOrder(view.datasetName())) {
+                    Iterator<DatasetRecord> it = records.iterator();
+                    while (it.hasNext() && view.status() == GroupByView.Status.BUILDING) {
+                        DatasetRecord record = it.next();
+                        if (!add(view, record.getId(), reader.read(record.storedRow()))) return;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Backfill of groupBy view of dataset {} by {} failed", view.datasetName(), view.keys().canonical(), e);
+            view.drop();
+            return;
+        }
+        view.ready();
+        if (view.isReady()) {
+            log.info("GroupBy view of dataset {} by {} ready: {} rows in {} groups after {} ms", view.datasetName(),
+                    view.keys().canonical(), view.rowCount(), view.groupCount(), System.currentTimeMillis() - started);
+        }
+    }
+}
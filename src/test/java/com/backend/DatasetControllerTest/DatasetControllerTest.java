@@ -1,37 +1,83 @@
 package com.backend.DatasetControllerTest;
 
+import com.backend.config.AdmissionProperties;
+import com.backend.config.CacheProperties;
+import com.backend.config.MetricsProperties;
 import com.backend.controller.DatasetController;
+import com.backend.model.Dataset;
 import com.backend.model.DatasetRecord;
+import com.backend.exception.DatasetNotFoundException;
+import com.backend.service.admission.QueryAdmission;
+import com.backend.service.admission.QueryCoalescer;
+import com.backend.service.cache.QueryResultCache;
+import com.backend.service.filter.RowFilter;
 import com.backend.service.impl.DatasetServiceImpl;
+import com.backend.service.ingest.BulkInsertResult;
+import com.backend.service.metrics.QueryMetrics;
+import com.backend.service.query.SortPage;
+import com.backend.service.query.SortedRows;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.sketch.ApproximateGroups;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
 import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-@WebMvcTest(DatasetController.class)
+@WebMvcTest(controllers = DatasetController.class, properties = {
+        "dataset.admission.max-concurrent-per-dataset=1",
+        "dataset.admission.queue-timeout=200ms"})
+@Import({QueryMetrics.class, MetricsProperties.class, QueryAdmission.class, AdmissionProperties.class,
+        QueryCoalescer.class, QueryResultCache.class, CacheProperties.class, DatasetControllerTest.Metrics.class})
 public class DatasetControllerTest {
 
+    @TestConfiguration
+    static class Metrics {
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+
     @Autowired
     private MockMvc mockMvc;
 
     @MockBean
     private DatasetServiceImpl datasetService;
 
+    @MockBean
+    private DatasetRegistry datasetRegistry;
+
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @Test
     void testInsertRecord() throws Exception {
         String datasetName = "employees";
@@ -56,6 +102,19 @@ public class DatasetControllerTest {
                 .andExpect(MockMvcResultMatchers.jsonPath("$.recordId").value(1));
     }
 
+    @Test
+    void testInsertRecordAcceptedByWriteBehind() throws Exception {
+        when(datasetService.insertRecord(eq("events"), anyMap()))
+                .thenReturn(DatasetRecord.builder().datasetName("events").jsonData("{\"type\":\"click\"}").build());
+
+        mockMvc.perform(post("/api/dataset/{datasetName}/record", "events")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"type\":\"click\"}"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Record accepted"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.recordId").doesNotExist());
+    }
+
     @Test
     void testQueryGroupBy() throws Exception {
         String datasetName = "employees";
@@ -66,7 +125,7 @@ public class DatasetControllerTest {
                 "IT", List.of(Map.of("name", "Bob", "department", "IT"))
         );
 
-        when(datasetService.queryGroupBy(eq(datasetName), eq(groupBy))).thenReturn(mockedGroupedData);
+        when(datasetService.queryGroupBy(eq(datasetName), eq(groupBy), isNull())).thenReturn(mockedGroupedData);
 
         mockMvc.perform(get("/api/dataset/{datasetName}/query", datasetName)
                         .param("groupBy", groupBy))
@@ -86,7 +145,7 @@ public class DatasetControllerTest {
                 Map.of("item", "Notebook", "price", 10)
         );
 
-        when(datasetService.querySortBy(eq(datasetName), eq(sortBy), eq(order))).thenReturn(mockedSortedData);
+        when(datasetService.querySortBy(eq(datasetName), eq(sortBy), eq(order), isNull())).thenReturn(mockedSortedData);
 
         mockMvc.perform(get("/api/dataset/{datasetName}/query", datasetName)
                         .param("sortBy", sortBy)
@@ -96,6 +155,208 @@ public class DatasetControllerTest {
                 .andExpect(MockMvcResultMatchers.jsonPath("$.sortedRecords[1].item").value("Notebook"));
     }
 
+    @Test
+    void testQuerySortByPage() throws Exception {
+        String datasetName = "products";
+
+        SortPage mockedPage = new SortPage(List.of(Map.of("item", "Pen", "price", 5)), "next-token");
+
+        when(datasetService.querySortByPage(eq(datasetName), eq("price"), eq("asc"), eq(1), eq(0), isNull(), isNull()))
+                .thenReturn(mockedPage);
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", datasetName)
+                        .param("sortBy", "price")
+                        .param("limit", "1"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.sortedRecords[0].item").value("Pen"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.nextCursor").value("next-token"));
+    }
+
+    @Test
+    void testQuerySortByOffsetWithoutLimitIsPaged() throws Exception {
+        SortPage mockedPage = new SortPage(List.of(Map.of("item", "Pen", "price", 5)), null);
+
+        when(datasetService.querySortByPage(eq("products"), eq("price"), eq("asc"), eq(100), eq(50), isNull(), isNull()))
+                .thenReturn(mockedPage);
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "products")
+                        .param("sortBy", "price")
+                        .param("offset", "50"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.sortedRecords[0].item").value("Pen"));
+        Mockito.verify(datasetService, Mockito.never()).querySortBy(any(), any(), any(), any());
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "products")
+                        .param("sortBy", "price")
+                        .param("offset", "50")
+                        .param("stream", "true"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void testInsertRecordsNdjson() throws Exception {
+        BulkInsertResult result = new BulkInsertResult("employees", 2, 1, 5,
+                List.of(new BulkInsertResult.ChunkStats(1, 2, 5, 400.0)),
+                List.of(new BulkInsertResult.FailedRow(1, "Unexpected character")));
+
+        when(datasetService.insertRecords(eq("employees"), any(), eq(true))).thenReturn(result);
+
+        mockMvc.perform(post("/api/dataset/{datasetName}/records", "employees")
+                        .contentType(MediaType.APPLICATION_NDJSON)
+                        .content("{\"id\": 1}\n{oops\n{\"id\": 3}\n"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.inserted").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.failedRows[0].row").value(1));
+    }
+
+    @Test
+    void testGetDataset() throws Exception {
+        Dataset dataset = Dataset.builder().id(3L).name("employees").rowCount(42).build();
+
+        when(datasetService.getDataset("employees")).thenReturn(dataset);
+
+        mockMvc.perform(get("/api/dataset/{datasetName}", "employees"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.name").value("employees"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.rowCount").value(42));
+    }
+
+    @Test
+    void testQueryGroupByAggregate() throws Exception {
+        Map<String, Map<String, Object>> aggregates = Map.of("HR", Map.of("count", 2L, "avg:salary", 75.0));
+
+        when(datasetService.queryGroupByAggregate(eq("employees"), eq("department"), anyList(), isNull())).thenReturn(aggregates);
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "employees")
+                        .param("groupBy", "department")
+                        .param("agg", "count,avg:salary"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.aggregates.HR.count").value(2))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.aggregates.HR['avg:salary']").value(75.0));
+    }
+
+    @Test
+    void testQueryAggregateWithoutGroupBy() throws Exception {
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "employees")
+                        .param("agg", "count"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("agg requires groupBy"));
+    }
+
+    @Test
+    void testQueryWithFilter() throws Exception {
+        List<Map<String, Object>> sorted = List.of(Map.of("name", "Alice", "salary", 90000));
+
+        when(datasetService.querySortBy(eq("employees"), eq("salary"), eq("desc"),
+                argThat((RowFilter filter) -> filter != null && filter.canonical().equals("(department = \"HR\" and salary >= 50000)"))))
+                .thenReturn(sorted);
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "employees")
+                        .param("sortBy", "salary")
+                        .param("order", "desc")
+                        .param("filter", "department = 'HR' AND salary >= 50000"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.sortedRecords[0].name").value("Alice"));
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "employees")
+                        .param("sortBy", "salary")
+                        .param("filter", "salary >"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    @Test
+    void testQueryStreamsSortedRows() throws Exception {
+        when(datasetService.openSortBy(eq("employees"), eq("salary"), eq("asc"), isNull()))
+                .thenAnswer(invocation -> SortedRows.ofParsed(List.<Map<String, Object>>of(Map.of("name", "Bob"), Map.of("name", "Alice")).iterator()));
+
+        MvcResult json = mockMvc.perform(get("/api/dataset/{datasetName}/query", "employees")
+                        .param("sortBy", "salary")
+                        .param("stream", "true"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(json))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(MockMvcResultMatchers.content().string("{\"sortedRecords\":[{\"name\":\"Bob\"},{\"name\":\"Alice\"}]}"));
+
+        MvcResult ndjson = mockMvc.perform(get("/api/dataset/{datasetName}/query", "employees")
+                        .param("sortBy", "salary")
+                        .param("stream", "true")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(ndjson))
+                .andExpect(MockMvcResultMatchers.content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(MockMvcResultMatchers.content().string("{\"name\":\"Bob\"}\n{\"name\":\"Alice\"}\n"));
+    }
+
+    @Test
+    void testStreamedSortHoldsItsSlotUntilWritten() throws Exception {
+        CountDownLatch written = new CountDownLatch(1);
+        Iterator<Map<String, Object>> blocking = new Iterator<>() {
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    written.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return !done;
+            }
+
+            @Override
+            public Map<String, Object> next() {
+                done = true;
+                return Map.of("name", "Bob");
+            }
+        };
+        when(datasetService.openSortBy(eq("payroll"), eq("salary"), eq("asc"), isNull()))
+                .thenReturn(SortedRows.ofParsed(blocking))
+                .thenAnswer(invocation -> SortedRows.ofParsed(List.<Map<String, Object>>of(Map.of("name", "Alice")).iterator()));
+
+        MvcResult first = mockMvc.perform(get("/api/dataset/{datasetName}/query", "payroll")
+                        .param("sortBy", "salary")
+                        .param("stream", "true"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        // the first response is still writing its rows, so its slot is taken
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "payroll")
+                        .param("sortBy", "salary")
+                        .param("stream", "true"))
+                .andExpect(MockMvcResultMatchers.status().isServiceUnavailable());
+
+        written.countDown();
+        mockMvc.perform(asyncDispatch(first))
+                .andExpect(MockMvcResultMatchers.content().string("{\"sortedRecords\":[{\"name\":\"Bob\"}]}"));
+        MvcResult second = mockMvc.perform(get("/api/dataset/{datasetName}/query", "payroll")
+                        .param("sortBy", "salary")
+                        .param("stream", "true"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(second))
+                .andExpect(MockMvcResultMatchers.content().string("{\"sortedRecords\":[{\"name\":\"Alice\"}]}"));
+    }
+
+    @Test
+    void testQueryStreamsGroupsAsNdjson() throws Exception {
+        Map<String, List<Map<String, Object>>> groups = new LinkedHashMap<>();
+        groups.put("HR", List.of(Map.of("name", "Alice")));
+        groups.put("IT", List.of(Map.of("name", "Bob")));
+        when(datasetService.queryGroupBy(eq("employees"), eq("department"), isNull())).thenReturn(groups);
+
+        MvcResult result = mockMvc.perform(get("/api/dataset/{datasetName}/query", "employees")
+                        .param("groupBy", "department")
+                        .param("stream", "true")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(MockMvcResultMatchers.content().string(
+                        "{\"group\":\"HR\",\"records\":[{\"name\":\"Alice\"}]}\n{\"group\":\"IT\",\"records\":[{\"name\":\"Bob\"}]}\n"));
+    }
+
     @Test
     void testQueryBadRequest() throws Exception {
         String datasetName = "employees";
@@ -104,4 +365,167 @@ public class DatasetControllerTest {
                 .andExpect(MockMvcResultMatchers.status().isBadRequest())
                 .andExpect(MockMvcResultMatchers.jsonPath("$.message").value("Provide either groupBy or sortBy"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testQueryRecordsMetrics() throws Exception {
+        Map<String, List<Map<String, Object>>> groups = Map.of(
+                "HR", List.of(Map.of("name", "Alice"), Map.of("name", "Carol")),
+                "IT", List.of(Map.of("name", "Bob")));
+        when(datasetService.queryGroupBy(eq("metrics"), eq("department"), isNull())).thenReturn(groups);
+        when(datasetRegistry.isKnown("metrics")).thenReturn(true);
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "metrics")
+                        .param("groupBy", "department"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+        MvcResult streamed = mockMvc.perform(get("/api/dataset/{datasetName}/query", "metrics")
+                        .param("groupBy", "department")
+                        .param("stream", "true"))
+                .andExpect(MockMvcResultMatchers.request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(streamed)).andExpect(MockMvcResultMatchers.status().isOk());
+        when(datasetService.queryGroupBy(eq("metrics"), eq("team"), isNull())).thenThrow(new IllegalStateException("boom"));
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "metrics")
+                        .param("groupBy", "team"))
+                .andExpect(MockMvcResultMatchers.status().is5xxServerError());
+
+        assertEquals(2, meterRegistry.get("dataset.query").tags("dataset", "metrics", "operator", "groupBy", "outcome", "success")
+                .timer().count());
+        assertEquals(1, meterRegistry.get("dataset.query").tags("dataset", "metrics", "outcome", "error").timer().count());
+        assertEquals(6.0, meterRegistry.get("dataset.query.rows.returned").tags("dataset", "metrics").counter().count());
+        assertEquals(3, meterRegistry.get("dataset.query.phase").tags("dataset", "metrics", "phase", "serialize")
+                .timer().count());
+
+        // a name the registry does not know gets no meters of its own
+        when(datasetService.queryGroupBy(eq("metrics-typo"), eq("department"), isNull()))
+                .thenThrow(new DatasetNotFoundException("No records found for dataset: metrics-typo"));
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "metrics-typo")
+                        .param("groupBy", "department"))
+                .andExpect(MockMvcResultMatchers.status().isNotFound());
+        assertNull(meterRegistry.find("dataset.query").tag("dataset", "metrics-typo").timer());
+        assertEquals(1, meterRegistry.get("dataset.query").tags("dataset", "unknown", "operator", "groupBy", "outcome", "error")
+                .timer().count());
+    }
+
+    @Test
+    void testQueryShedWhenDatasetIsBusy() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(datasetService.querySortBy(eq("busy"), eq("salary"), eq("asc"), isNull())).thenAnswer(invocation -> {
+            running.countDown();
+            release.await();
+            return List.of(Map.of("name", "Alice"));
+        });
+
+        CompletableFuture<MvcResult> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return mockMvc.perform(get("/api/dataset/{datasetName}/query", "busy").param("sortBy", "salary")).andReturn();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        double shed = shed();
+
+        // a different query, as an identical one would join the running query instead
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "busy").param("sortBy", "salary").param("order", "desc"))
+                .andExpect(MockMvcResultMatchers.status().isServiceUnavailable())
+                .andExpect(MockMvcResultMatchers.header().string("Retry-After", "1"));
+        assertEquals(shed + 1, shed());
+        assertNull(meterRegistry.find("dataset.query.shed").tag("dataset", "busy").counter());
+        // another dataset is not held back by the busy one
+        when(datasetService.querySortBy(eq("idle"), eq("salary"), eq("asc"), isNull())).thenReturn(List.of());
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "idle").param("sortBy", "salary"))
+                .andExpect(MockMvcResultMatchers.status().isOk());
+
+        release.countDown();
+        assertEquals(200, first.get(5, TimeUnit.SECONDS).getResponse().getStatus());
+    }
+
+    @Test
+    void testIdenticalConcurrentQueriesShareOneComputation() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(datasetService.queryGroupBy(eq("dashboard"), eq("department"), isNull())).thenAnswer(invocation -> {
+            release.await();
+            return Map.of("HR", List.of(Map.of("name", "Alice")));
+        });
+
+        double coalesced = coalesced();
+        List<CompletableFuture<MvcResult>> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            requests.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return mockMvc.perform(get("/api/dataset/{datasetName}/query", "dashboard").param("groupBy", "department"))
+                            .andReturn();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, Executors.newVirtualThreadPerTaskExecutor()));
+        }
+        for (int i = 0; i < 100 && coalesced() < coalesced + 4; i++) Thread.sleep(20);
+        assertEquals(coalesced + 4, coalesced());
+        assertNull(meterRegistry.find("dataset.query.coalesced").tag("dataset", "dashboard").counter());
+
+        release.countDown();
+        for (CompletableFuture<MvcResult> request : requests) {
+            MvcResult result = request.get(5, TimeUnit.SECONDS);
+            assertEquals(200, result.getResponse().getStatus());
+            assertTrue(result.getResponse().getContentAsString().contains("Alice"));
+        }
+        Mockito.verify(datasetService, Mockito.times(1)).queryGroupBy(eq("dashboard"), eq("department"), isNull());
+    }
+
+    @Test
+    void testExplainAddsPlanAndActuals() throws Exception {
+        when(datasetService.queryGroupBy(eq("explained"), eq("department"), isNull()))
+                .thenReturn(Map.of("HR", List.of(Map.of("name", "Alice"))));
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "explained")
+                        .param("groupBy", "department")
+                        .param("explain", "true"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.groupedRecords.HR[0].name").value("Alice"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.plan.operator").value("groupBy"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.plan.strategy").value("RESULT_CACHE"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.plan.actual.rowsReturned").value(1));
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "explained")
+                        .param("groupBy", "department"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.plan").doesNotExist());
+    }
+
+    @Test
+    void testApproximateGroupByReturnsTopGroupsWithBounds() throws Exception {
+        ApproximateGroups result = new ApproximateGroups(1000, 950, 0.016,
+                List.of(new ApproximateGroups.TopGroup("bot@example.com", 40, 38, true)), 3, 2, 0.99);
+        when(datasetService.queryGroupByApproximate(eq("signups"), eq("email"), eq(1), isNull())).thenReturn(result);
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "signups")
+                        .param("groupBy", "email")
+                        .param("approximate", "true")
+                        .param("top", "1"))
+                .andExpect(MockMvcResultMatchers.status().isOk())
+                .andExpect(MockMvcResultMatchers.jsonPath("$.approximateGroups.distinctGroups").value(950))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.approximateGroups.topGroups[0].group").value("bot@example.com"))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.approximateGroups.topGroups[0].lowerBound").value(38))
+                .andExpect(MockMvcResultMatchers.jsonPath("$.approximateGroups.otherGroupsMaxCount").value(3));
+
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "signups")
+                        .param("groupBy", "email")
+                        .param("agg", "count")
+                        .param("approximate", "true"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+        mockMvc.perform(get("/api/dataset/{datasetName}/query", "signups")
+                        .param("groupBy", "email")
+                        .param("top", "5"))
+                .andExpect(MockMvcResultMatchers.status().isBadRequest());
+    }
+
+    private double coalesced() {
+        var counter = meterRegistry.find("dataset.query.coalesced").tag("operator", "groupBy").counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private double shed() {
+        var counter = meterRegistry.find("dataset.query.shed").tag("reason", "dataset").counter();
+        return counter == null ? 0 : counter.count();
+    }
+}
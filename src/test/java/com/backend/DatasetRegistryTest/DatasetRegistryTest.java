@@ -0,0 +1,90 @@
+package com.backend.DatasetRegistryTest;
+
+import com.backend.model.Dataset;
+import com.backend.repository.DatasetRepository;
+import com.backend.service.DatasetChangeListener.InsertedRecord;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.store.RecordStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class DatasetRegistryTest {
+
+    @Mock
+    private DatasetRepository datasetRepository;
+
+    @Mock
+    private RecordStore recordStore;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private DatasetRegistry registry;
+
+    private AutoCloseable mocks;
+
+    @BeforeEach
+    void setUp() {
+        mocks = MockitoAnnotations.openMocks(this);
+        registry = new DatasetRegistry(datasetRepository, recordStore, transactionManager);
+        when(datasetRepository.findByName(any())).thenReturn(Optional.empty());
+        when(datasetRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mocks.close();
+    }
+
+    @Test
+    void testUnknownDatasetsAreNotKept() {
+        assertTrue(registry.find("Unknown").isEmpty());
+        assertEquals(0L, registry.getRowCount("Unknown"));
+        verify(recordStore, times(2)).count("Unknown");
+        assertFalse(registry.isKnown("Unknown"));
+
+        // nothing to write back for a name that was only looked up
+        registry.flush();
+        verify(datasetRepository, never()).save(any());
+    }
+
+    @Test
+    void testCountsAreKeptFromTheFirstInsert() {
+        registry.onRecordsInserted("Employees", List.of(new InsertedRecord(1L, Map.of("name", "Ada")),
+                new InsertedRecord(2L, Map.of("name", "Alan"))));
+        assertEquals(2L, registry.getRowCount("Employees"));
+        assertEquals(2L, registry.find("Employees").map(Dataset::getRowCount).orElseThrow());
+        verify(recordStore, times(1)).count("Employees");
+        assertTrue(registry.isKnown("Employees"));
+
+        registry.flush();
+        verify(datasetRepository).save(argThat(dataset -> dataset.getName().equals("Employees") && dataset.getRowCount() == 2));
+    }
+
+    @Test
+    void testDeletedDatasetsAreLoadedAgain() {
+        when(recordStore.count("Employees")).thenReturn(5L);
+        assertEquals(5L, registry.getRowCount("Employees"));
+        assertEquals(5L, registry.getRowCount("Employees"));
+        verify(recordStore, times(1)).count("Employees");
+
+        when(recordStore.count("Employees")).thenReturn(0L);
+        registry.onDatasetDeleted("Employees");
+        assertTrue(registry.find("Employees").isEmpty());
+        verify(recordStore, times(2)).count("Employees");
+    }
+}
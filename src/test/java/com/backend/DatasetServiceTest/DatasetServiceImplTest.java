@@ -1,15 +1,80 @@
 package com.backend.DatasetServiceTest;
 
+import com.backend.config.CacheProperties;
+import com.backend.config.EngineProperties;
+import com.backend.config.FilterProperties;
+import com.backend.config.IndexProperties;
+import com.backend.config.IngestProperties;
+import com.backend.config.ParallelProperties;
+import com.backend.config.PlannerProperties;
+import com.backend.config.QueryProperties;
+import com.backend.config.RecordStoreProperties;
+import com.backend.config.RowCacheProperties;
+import com.backend.config.SketchProperties;
+import com.backend.config.StorageProperties;
+import com.backend.config.ViewProperties;
+import com.backend.config.WriteBehindProperties;
+import com.backend.exception.BadRequestException;
 import com.backend.exception.DatasetNotFoundException;
 import com.backend.model.DatasetRecord;
 import com.backend.repository.DatasetRecordRepository;
+import com.backend.repository.RecordCondition;
+import com.backend.service.DatasetChangeListener;
+import com.backend.service.aggregate.AggregateSpec;
+import com.backend.service.filter.RowFilter;
 import com.backend.service.impl.DatasetServiceImpl;
+import com.backend.service.cache.QueryResultCache;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.columnar.ColumnarEngine;
+import com.backend.service.index.FieldIndexService;
+import com.backend.service.ingest.BulkInsertResult;
+import com.backend.service.ingest.BulkRecordWriter;
+import com.backend.service.ingest.PendingRows;
+import com.backend.service.ingest.WriteBehindBuffer;
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.plan.QueryPlan;
+import com.backend.service.plan.QueryPlanner;
+import com.backend.service.query.FieldKeys;
+import com.backend.service.query.SortPage;
+import com.backend.service.query.SortedRows;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.rows.ParsedRowCache;
+import com.backend.service.sketch.ApproximateGroups;
+import com.backend.service.stats.DatasetStatistics;
+import com.backend.service.stats.DatasetStatisticsService;
+import com.backend.service.store.JpaRecordStore;
+import com.backend.service.store.RecordStore;
+import com.backend.service.store.SegmentRecordStore;
+import com.backend.service.view.GroupByView;
+import com.backend.service.view.GroupByViewService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.*;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -19,15 +84,93 @@ class DatasetServiceImplTest {
     @Mock
     private DatasetRecordRepository datasetRecordRepository;
 
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private FieldIndexService fieldIndexService;
+
+    @Mock
+    private DatasetRegistry datasetRegistry;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Captor
+    private ArgumentCaptor<List<DatasetChangeListener.InsertedRecord>> insertedRecords;
+
     @InjectMocks
     private DatasetServiceImpl datasetService;
 
+    private QueryProperties queryProperties = new QueryProperties();
+
+    private CacheProperties cacheProperties = new CacheProperties();
+
+    private IngestProperties ingestProperties = new IngestProperties();
+
+    private FilterProperties filterProperties = new FilterProperties();
+
+    private StorageProperties storageProperties = new StorageProperties();
+
+    private QueryResultCache resultCache;
+
+    private GroupByViewService groupByViews;
+
+    private PlannerProperties plannerProperties = new PlannerProperties();
+
+    private DatasetStatisticsService statisticsService;
+
+    private QueryPlanner planner;
+
+    private WriteBehindProperties writeBehindProperties = new WriteBehindProperties();
+
+    private WriteBehindBuffer writeBehind;
+
+    private SketchProperties sketchProperties = new SketchProperties();
+
     private ObjectMapper objectMapper = new ObjectMapper();
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        datasetService = new DatasetServiceImpl(datasetRecordRepository);
+        RowCacheProperties rowCacheProperties = new RowCacheProperties();
+        rowCacheProperties.setEnabled(false);
+        datasetService = createService(rowCacheProperties, new EngineProperties());
+    }
+
+    private DatasetServiceImpl createService(RowCacheProperties rowCacheProperties, EngineProperties engineProperties) {
+        return createService(rowCacheProperties, engineProperties, new ParallelProperties());
+    }
+
+    private DatasetServiceImpl createService(RowCacheProperties rowCacheProperties, EngineProperties engineProperties,
+                                             ParallelProperties parallelProperties) {
+        return createService(rowCacheProperties, engineProperties, parallelProperties,
+                new JpaRecordStore(datasetRecordRepository, entityManager, jdbcTemplate));
+    }
+
+    private DatasetServiceImpl createService(RowCacheProperties rowCacheProperties, EngineProperties engineProperties,
+                                             ParallelProperties parallelProperties, RecordStore recordStore) {
+        ParallelQueryExecutor parallelExecutor = new ParallelQueryExecutor(parallelProperties);
+        resultCache = new QueryResultCache(cacheProperties);
+        ParsedRowCache rowCache = new ParsedRowCache(recordStore, transactionManager, rowCacheProperties,
+                datasetRegistry, parallelExecutor);
+        groupByViews = new GroupByViewService(recordStore, transactionManager, new ViewProperties());
+        statisticsService = new DatasetStatisticsService(recordStore, transactionManager, plannerProperties);
+        ColumnarEngine columnarEngine = new ColumnarEngine(engineProperties, parallelExecutor);
+        List<DatasetChangeListener> listeners = List.of(fieldIndexService, datasetRegistry, resultCache, rowCache, groupByViews,
+                statisticsService);
+        RowCodec rowCodec = new RowCodec(storageProperties);
+        writeBehind = new WriteBehindBuffer(writeBehindProperties, recordStore, transactionManager, listeners, rowCodec, resultCache);
+        planner = new QueryPlanner(plannerProperties, statisticsService, datasetRegistry, fieldIndexService,
+                rowCache, rowCacheProperties, columnarEngine, groupByViews, parallelExecutor, queryProperties, writeBehind);
+        BulkRecordWriter bulkRecordWriter = new BulkRecordWriter(recordStore, transactionManager, listeners, ingestProperties, rowCodec);
+        return new DatasetServiceImpl(recordStore, queryProperties,
+                fieldIndexService, new IndexProperties(), datasetRegistry, bulkRecordWriter, resultCache, rowCache,
+                columnarEngine, parallelExecutor, filterProperties, rowCodec, groupByViews, planner, writeBehind, sketchProperties,
+                transactionManager);
     }
 
     @Test
@@ -49,6 +192,9 @@ class DatasetServiceImplTest {
         assertEquals(datasetName, result.getDatasetName());
         assertEquals(expectedJson, result.getJsonData());
         verify(datasetRecordRepository, times(1)).save(any(DatasetRecord.class));
+        List<DatasetChangeListener.InsertedRecord> inserted = List.of(new DatasetChangeListener.InsertedRecord(null, json));
+        verify(fieldIndexService, times(1)).onRecordsInserted(datasetName, inserted);
+        verify(datasetRegistry, times(1)).onRecordsInserted(datasetName, inserted);
     }
 
     @Test
@@ -65,26 +211,77 @@ class DatasetServiceImplTest {
                         .jsonData("{\"name\": \"Charlie\", \"city\": \"NY\"}").build()
         );
 
-        when(datasetRecordRepository.findByDatasetName(datasetName)).thenReturn(mockRecords);
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(mockRecords.stream());
 
         Map<String, List<Map<String, Object>>> result = datasetService.queryGroupBy(datasetName, groupBy);
 
         assertEquals(2, result.size());
         assertEquals(2, result.get("NY").size());
         assertEquals(1, result.get("LA").size());
-        verify(datasetRecordRepository, times(1)).findByDatasetName(datasetName);
+        verify(datasetRecordRepository, times(1)).streamByDatasetName(datasetName);
+    }
+
+    @Test
+    void testQueryGroupByUsesFieldIndex() throws JsonProcessingException {
+        String datasetName = "Users";
+        String groupBy = "city";
+
+        when(fieldIndexService.isUsable(datasetName, groupBy)).thenReturn(true);
+        when(fieldIndexService.streamGroupKeys(datasetName, groupBy)).thenReturn(Stream.of(
+                new Object[]{"LA", 2L}, new Object[]{"NY", 1L}, new Object[]{"NY", 3L}));
+        when(datasetRecordRepository.findAllById(List.of(2L, 1L, 3L))).thenReturn(List.of(
+                DatasetRecord.builder().id(1L).jsonData("{\"name\": \"Alice\", \"city\": \"NY\"}").build(),
+                DatasetRecord.builder().id(2L).jsonData("{\"name\": \"Bob\", \"city\": \"LA\"}").build(),
+                DatasetRecord.builder().id(3L).jsonData("{\"name\": \"Charlie\", \"city\": \"NY\"}").build()));
+
+        Map<String, List<Map<String, Object>>> result = datasetService.queryGroupBy(datasetName, groupBy);
+
+        assertEquals(List.of("Alice", "Charlie"), result.get("NY").stream().map(r -> r.get("name")).toList());
+        assertEquals(List.of("Bob"), result.get("LA").stream().map(r -> r.get("name")).toList());
+        verify(datasetRecordRepository, never()).streamByDatasetName(datasetName);
+    }
+
+    @Test
+    void testGetDatasetNotRegistered() {
+        when(datasetRegistry.find("Unknown")).thenReturn(Optional.empty());
+
+        assertThrows(DatasetNotFoundException.class, () -> datasetService.getDataset("Unknown"));
     }
 
     @Test
     void testQueryGroupByNoRecords() {
         String datasetName = "NonExisting";
-        when(datasetRecordRepository.findByDatasetName(datasetName)).thenReturn(Collections.emptyList());
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(Stream.empty());
 
         assertThrows(DatasetNotFoundException.class, () -> {
             datasetService.queryGroupBy(datasetName, "anyField");
         });
 
-        verify(datasetRecordRepository, times(1)).findByDatasetName(datasetName);
+        verify(datasetRecordRepository, times(1)).streamByDatasetName(datasetName);
+    }
+
+    @Test
+    void testQueryGroupBySkipsRowsWithoutField() throws JsonProcessingException {
+        String datasetName = "Users";
+        String groupBy = "city";
+
+        List<DatasetRecord> mockRecords = List.of(
+                DatasetRecord.builder().datasetName(datasetName)
+                        .jsonData("{\"name\": \"Alice\", \"address\": {\"city\": \"LA\"}, \"city\": \"NY\"}").build(),
+                DatasetRecord.builder().datasetName(datasetName)
+                        .jsonData("{\"name\": \"Bob\", \"address\": {\"city\": \"LA\"}}").build(),
+                DatasetRecord.builder().datasetName(datasetName)
+                        .jsonData("{\"name\": \"Charlie\", \"city\": null}").build()
+        );
+
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(mockRecords.stream());
+
+        Map<String, List<Map<String, Object>>> result = datasetService.queryGroupBy(datasetName, groupBy);
+
+        assertEquals(2, result.size());
+        assertEquals("Alice", result.get("NY").get(0).get("name"));
+        assertEquals("Charlie", result.get("null").get(0).get("name"));
+        verify(entityManager, times(3)).detach(any(DatasetRecord.class));
     }
 
     @Test
@@ -100,13 +297,13 @@ class DatasetServiceImplTest {
                         .jsonData("{\"item\": \"B\", \"price\": 10}").build()
         );
 
-        when(datasetRecordRepository.findByDatasetName(datasetName)).thenReturn(mockRecords);
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(mockRecords.stream());
 
         List<Map<String, Object>> sorted = datasetService.querySortBy(datasetName, sortBy, order);
 
         assertEquals(10, sorted.get(0).get("price"));
         assertEquals(20, sorted.get(1).get("price"));
-        verify(datasetRecordRepository, times(1)).findByDatasetName(datasetName);
+        verify(datasetRecordRepository, times(1)).streamByDatasetName(datasetName);
     }
 
     @Test
@@ -122,7 +319,7 @@ class DatasetServiceImplTest {
                         .jsonData("{\"item\": \"B\", \"price\": 25}").build()
         );
 
-        when(datasetRecordRepository.findByDatasetName(datasetName)).thenReturn(mockRecords);
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(mockRecords.stream());
 
         List<Map<String, Object>> sorted = datasetService.querySortBy(datasetName, sortBy, order);
 
@@ -130,6 +327,40 @@ class DatasetServiceImplTest {
         assertEquals(15, sorted.get(1).get("price"));
     }
 
+    @Test
+    void testQuerySortByRejectsResultsTooLargeToBuffer() throws JsonProcessingException {
+        String datasetName = "Products";
+        queryProperties.getSort().setMaxBufferedRows(2);
+        cacheProperties.setMaxResultRows(1);
+        List<DatasetRecord> mockRecords = List.of(
+                DatasetRecord.builder().datasetName(datasetName).jsonData("{\"item\": \"A\", \"price\": 20}").build(),
+                DatasetRecord.builder().datasetName(datasetName).jsonData("{\"item\": \"B\", \"price\": 10}").build(),
+                DatasetRecord.builder().datasetName(datasetName).jsonData("{\"item\": \"C\", \"price\": 30}").build());
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+
+        // the dataset's size alone rules it out
+        when(datasetRegistry.getRowCount(datasetName)).thenReturn(3L);
+        assertThrows(BadRequestException.class, () -> datasetService.querySortBy(datasetName, "price", "asc"));
+        verify(datasetRecordRepository, never()).streamByDatasetName(datasetName);
+
+        // a filter may keep few enough rows; if not, buffering stops at the limit (!= is not pushed down)
+        RowFilter matchingAll = RowFilter.parse("price != 0");
+        assertThrows(BadRequestException.class, () -> datasetService.querySortBy(datasetName, "price", "asc", matchingAll));
+        RowFilter matchingTwo = RowFilter.parse("price != 10");
+        assertEquals(List.of(20, 30), datasetService.querySortBy(datasetName, "price", "asc", matchingTwo).stream()
+                .map(row -> row.get("price")).toList());
+        // two rows are more than the cache keeps
+        datasetService.querySortBy(datasetName, "price", "asc", matchingTwo);
+        verify(datasetRecordRepository, times(3)).streamByDatasetName(datasetName);
+
+        // streaming is not bounded
+        try (SortedRows rows = datasetService.openSortBy(datasetName, "price", "asc")) {
+            List<Object> prices = new ArrayList<>();
+            rows.forEachRemaining(row -> prices.add(row.get("price")));
+            assertEquals(List.of(10, 20, 30), prices);
+        }
+    }
+
     @Test
     void testQuerySortByHandlesNullValues() throws JsonProcessingException {
         String datasetName = "Items";
@@ -141,7 +372,7 @@ class DatasetServiceImplTest {
                 DatasetRecord.builder().datasetName(datasetName).jsonData("{\"item\": \"Notebook\", \"size\": 100}").build()
         );
 
-        when(datasetRecordRepository.findByDatasetName(datasetName)).thenReturn(mockRecords);
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(mockRecords.stream());
 
         List<Map<String, Object>> result = datasetService.querySortBy(datasetName, sortBy, order);
 
@@ -149,4 +380,781 @@ class DatasetServiceImplTest {
         assertNull(result.get(0).get("size"));
         assertEquals(100, result.get(1).get("size"));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testQuerySortByMixedTypes() throws JsonProcessingException {
+        String datasetName = "Items";
+
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        for (String size : new String[]{"\"large\"", "2.5", "true", "3", "null", "9007199254740993", "9007199254740992.0", "2"}) {
+            mockRecords.add(DatasetRecord.builder().datasetName(datasetName)
+                    .jsonData("{\"size\": " + size + "}").build());
+        }
+
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(mockRecords.stream());
+
+        List<Map<String, Object>> result = datasetService.querySortBy(datasetName, "size", "asc");
+
+        List<Object> sizes = result.stream().map(r -> r.get("size")).toList();
+        assertEquals(Arrays.asList(null, true, 2, 2.5, 3, 9007199254740992.0, 9007199254740993L, "large"), sizes);
+    }
+
+    @Test
+    void testQuerySortBySpillsRunsWhenOverMemoryBudget() throws JsonProcessingException {
+        String datasetName = "Products";
+        queryProperties.getSort().setMemoryBudget(DataSize.ofBytes(200));
+
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        for (int price : new int[]{40, 10, 30, 50, 20, 10}) {
+            mockRecords.add(DatasetRecord.builder().datasetName(datasetName)
+                    .jsonData("{\"item\": \"I" + price + "\", \"price\": " + price + "}").build());
+        }
+
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(mockRecords.stream());
+
+        try (SortedRows sorted = datasetService.openSortBy(datasetName, "price", "desc")) {
+            assertTrue(sorted.getSpilledRuns() > 1);
+
+            List<Object> prices = new ArrayList<>();
+            sorted.forEachRemaining(row -> prices.add(row.get("price")));
+            assertEquals(List.of(50, 40, 30, 20, 10, 10), prices);
+        }
+    }
+
+    @Test
+    void testQuerySortByDeletesSpilledRunsWhenScanFails(@TempDir Path tempDir) throws Exception {
+        String datasetName = "Products";
+        queryProperties.getSort().setMemoryBudget(DataSize.ofKilobytes(32));
+        queryProperties.getSort().setTempDir(tempDir.toString());
+
+        // more rows than a chunk, so that some are sorted and spilled before the scan fails
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            mockRecords.add(DatasetRecord.builder().datasetName(datasetName)
+                    .jsonData("{\"item\": \"I" + i + "\", \"price\": " + (i * 7 % 100) + "}").build());
+        }
+        Stream<DatasetRecord> failing = Stream.of(1).map(i -> {
+            throw new IllegalStateException("connection lost");
+        });
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenReturn(Stream.concat(mockRecords.stream(), failing));
+
+        assertThrows(IllegalStateException.class, () -> datasetService.querySortBy(datasetName, "price", "desc"));
+        try (Stream<Path> left = Files.list(tempDir)) {
+            assertEquals(List.of(), left.toList());
+        }
+    }
+
+    @Test
+    void testQuerySortByPageWithCursor() throws JsonProcessingException {
+        String datasetName = "Products";
+
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        long id = 1;
+        for (int price : new int[]{30, 10, 20, 10, 40}) {
+            mockRecords.add(DatasetRecord.builder().id(id).datasetName(datasetName)
+                    .jsonData("{\"item\": \"I" + id + "\", \"price\": " + price + "}").build());
+            id++;
+        }
+
+        when(datasetRecordRepository.streamByDatasetName(datasetName))
+                .thenAnswer(invocation -> mockRecords.stream());
+
+        SortPage first = datasetService.querySortByPage(datasetName, "price", "asc", 2, 0, null);
+        assertEquals(List.of("I2", "I4"), first.records().stream().map(r -> r.get("item")).toList());
+        assertNotNull(first.nextCursor());
+
+        SortPage second = datasetService.querySortByPage(datasetName, "price", "asc", 2, 0, first.nextCursor());
+        assertEquals(List.of("I3", "I1"), second.records().stream().map(r -> r.get("item")).toList());
+
+        SortPage byOffset = datasetService.querySortByPage(datasetName, "price", "asc", 2, 2, null);
+        assertEquals(second.records(), byOffset.records());
+
+        SortPage last = datasetService.querySortByPage(datasetName, "price", "asc", 2, 0, second.nextCursor());
+        assertEquals(1, last.records().size());
+        assertNull(last.nextCursor());
+    }
+
+    @Test
+    void testQuerySortByPageRejectsInvalidCursor() {
+        assertThrows(BadRequestException.class, () ->
+                datasetService.querySortByPage("Products", "price", "asc", 2, 0, "not-a-cursor"));
+    }
+
+    @Test
+    void testInsertRecordsNdjsonSkipsMalformedLinesAndChunks() throws Exception {
+        ingestProperties.setChunkSize(2);
+        AtomicInteger nextId = new AtomicInteger(100);
+        List<Integer> batchSizes = new ArrayList<>();
+        when(jdbcTemplate.execute(ArgumentMatchers.<ConnectionCallback<Object>>any())).thenAnswer(invocation -> {
+            ConnectionCallback<?> callback = invocation.getArgument(0);
+            Connection connection = mock(Connection.class);
+            PreparedStatement statement = mock(PreparedStatement.class);
+            ResultSet keys = mock(ResultSet.class);
+            AtomicInteger batched = new AtomicInteger();
+            AtomicInteger read = new AtomicInteger();
+            when(connection.prepareStatement(anyString(), anyInt())).thenReturn(statement);
+            doAnswer(a -> batched.incrementAndGet()).when(statement).addBatch();
+            when(statement.getGeneratedKeys()).thenReturn(keys);
+            when(keys.next()).thenAnswer(a -> read.incrementAndGet() <= batched.get());
+            when(keys.getLong(1)).thenAnswer(a -> (long) nextId.getAndIncrement());
+            Object ids = callback.doInConnection(connection);
+            batchSizes.add(batched.get());
+            return ids;
+        });
+
+        String body = "{\"name\": \"A\"}\n{broken\n\n{\"name\": \"B\"}\n[1, 2]\n{\"name\": \"C\"}\n";
+        BulkInsertResult result = datasetService.insertRecords("Employees",
+                new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), true);
+
+        assertEquals(3, result.inserted());
+        assertEquals(2, result.failed());
+        assertEquals(List.of(1L, 3L), result.failedRows().stream().map(BulkInsertResult.FailedRow::row).toList());
+        assertEquals(List.of(2, 1), batchSizes);
+        assertEquals(2, result.chunks().size());
+
+        verify(datasetRegistry, times(2)).onRecordsInserted(eq("Employees"), insertedRecords.capture());
+        assertEquals(List.of(100L, 101L), insertedRecords.getAllValues().get(0).stream().map(DatasetChangeListener.InsertedRecord::id).toList());
+        assertEquals("C", insertedRecords.getAllValues().get(1).get(0).row().get("name"));
+    }
+
+    @Test
+    void testInsertRecordsRejectsNonArrayBody() {
+        assertThrows(BadRequestException.class, () -> datasetService.insertRecords("Employees",
+                new ByteArrayInputStream("{\"name\": \"A\"}".getBytes(StandardCharsets.UTF_8)), false));
+    }
+
+    @Test
+    void testQueryGroupByIsCachedUntilDatasetChanges() throws JsonProcessingException {
+        String datasetName = "Employees";
+        List<DatasetRecord> mockRecords = new ArrayList<>(List.of(
+                DatasetRecord.builder().id(1L).datasetName(datasetName).jsonData("{\"name\": \"A\", \"department\": \"HR\"}").build()));
+
+        when(datasetRecordRepository.streamByDatasetName(datasetName))
+                .thenAnswer(invocation -> new ArrayList<>(mockRecords).stream());
+        when(datasetRecordRepository.save(any(DatasetRecord.class)))
+                .thenAnswer(invocation -> {
+                    DatasetRecord record = invocation.getArgument(0);
+                    record.setId(2L);
+                    mockRecords.add(record);
+                    return record;
+                });
+
+        assertEquals(1, datasetService.queryGroupBy(datasetName, "department").get("HR").size());
+        assertEquals(1, datasetService.queryGroupBy(datasetName, "department").get("HR").size());
+        verify(datasetRecordRepository, times(1)).streamByDatasetName(datasetName);
+
+        datasetService.insertRecord(datasetName, Map.of("name", "B", "department", "HR"));
+
+        assertEquals(2, datasetService.queryGroupBy(datasetName, "department").get("HR").size());
+        verify(datasetRecordRepository, times(2)).streamByDatasetName(datasetName);
+        assertEquals(1L, resultCache.stats().get("hitCount"));
+        assertEquals(2L, resultCache.stats().get("missCount"));
+    }
+
+    @Test
+    void testGroupByViewServesQueriesWithoutScanning() throws Exception {
+        String datasetName = "Employees";
+        List<DatasetRecord> mockRecords = new ArrayList<>(List.of(
+                DatasetRecord.builder().id(1L).datasetName(datasetName).jsonData("{\"department\": \"HR\", \"salary\": 100}").build(),
+                DatasetRecord.builder().id(2L).datasetName(datasetName).jsonData("{\"department\": \"IT\", \"salary\": 80}").build(),
+                DatasetRecord.builder().id(3L).datasetName(datasetName).jsonData("{\"department\": \"HR\", \"salary\": 50.5}").build()));
+
+        when(datasetRecordRepository.streamByDatasetNameOrderByIdAsc(datasetName))
+                .thenAnswer(invocation -> new ArrayList<>(mockRecords).stream());
+        when(datasetRecordRepository.findAllById(anyList())).thenAnswer(invocation -> {
+            List<Long> ids = invocation.getArgument(0);
+            return mockRecords.stream().filter(record -> ids.contains(record.getId())).toList();
+        });
+        when(datasetRecordRepository.save(any(DatasetRecord.class)))
+                .thenAnswer(invocation -> {
+                    DatasetRecord record = invocation.getArgument(0);
+                    record.setId(4L);
+                    mockRecords.add(record);
+                    return record;
+                });
+
+        GroupByView view = groupByViews.register(datasetName, "department");
+        for (int i = 0; i < 500 && !view.isReady(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(view.isReady());
+        datasetService.insertRecord(datasetName, Map.of("department", "IT", "salary", 20));
+
+        Map<String, Map<String, Object>> totals = datasetService.queryGroupByAggregate(datasetName, "department",
+                AggregateSpec.parseList("count,sum:salary,max:salary"));
+        assertEquals(2L, totals.get("HR").get("count"));
+        assertEquals(150.5, totals.get("HR").get("sum:salary"));
+        assertEquals(100.0, totals.get("HR").get("max:salary"));
+        assertEquals(2L, totals.get("IT").get("count"));
+        assertEquals(100L, totals.get("IT").get("sum:salary"));
+
+        Map<String, List<Map<String, Object>>> groups = datasetService.queryGroupBy(datasetName, "department");
+        assertEquals(List.of(100, 50.5), groups.get("HR").stream().map(row -> row.get("salary")).toList());
+        assertEquals(List.of(80, 20), groups.get("IT").stream().map(row -> row.get("salary")).toList());
+        verify(datasetRecordRepository, never()).streamByDatasetName(datasetName);
+        assertEquals(4L, view.rowCount());
+    }
+
+    @Test
+    void testQueriesServedFromParsedRowCache() throws JsonProcessingException {
+        datasetService = createService(new RowCacheProperties(), new EngineProperties());
+        String datasetName = "Employees";
+        List<DatasetRecord> mockRecords = List.of(
+                DatasetRecord.builder().id(1L).datasetName(datasetName).jsonData("{\"name\": \"A\", \"department\": \"HR\", \"salary\": 300}").build(),
+                DatasetRecord.builder().id(2L).datasetName(datasetName).jsonData("{\"name\": \"B\", \"department\": \"IT\", \"salary\": 100.5}").build(),
+                DatasetRecord.builder().id(3L).datasetName(datasetName).jsonData("{\"name\": \"C\", \"salary\": 200}").build());
+
+        when(datasetRecordRepository.streamByDatasetNameOrderByIdAsc(datasetName))
+                .thenAnswer(invocation -> mockRecords.stream());
+        when(datasetRecordRepository.save(any(DatasetRecord.class)))
+                .thenAnswer(invocation -> {
+                    DatasetRecord record = invocation.getArgument(0);
+                    record.setId(4L);
+                    return record;
+                });
+
+        Map<String, List<Map<String, Object>>> groups = datasetService.queryGroupBy(datasetName, "department");
+        assertEquals(Set.of("HR", "IT"), groups.keySet());
+        assertEquals(Map.of("name", "A", "department", "HR", "salary", 300), groups.get("HR").get(0));
+
+        datasetService.insertRecord(datasetName, Map.of("name", "D", "department", "HR", "salary", 50));
+
+        List<Map<String, Object>> sorted = datasetService.querySortBy(datasetName, "salary", "desc");
+        assertEquals(List.of("A", "C", "B", "D"), sorted.stream().map(r -> r.get("name")).toList());
+
+        SortPage page = datasetService.querySortByPage(datasetName, "salary", "asc", 2, 1, null);
+        assertEquals(List.of("B", "C"), page.records().stream().map(r -> r.get("name")).toList());
+
+        verify(datasetRecordRepository, times(1)).streamByDatasetNameOrderByIdAsc(datasetName);
+        verify(datasetRecordRepository, never()).streamByDatasetName(datasetName);
+    }
+
+    @Test
+    void testColumnarEngineMatchesRowEngine() throws JsonProcessingException {
+        String datasetName = "Mixed";
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        String[] values = {"3", "\"b\"", "null", "1.5", "true", "\"a\"", "3", "{\"x\": 1}", "2", "\"b\""};
+        for (int i = 0; i < values.length; i++) {
+            mockRecords.add(DatasetRecord.builder().id((long) i + 1).datasetName(datasetName)
+                    .jsonData("{\"n\": " + (i + 1) + ", \"v\": " + values[i] + "}").build());
+        }
+        mockRecords.add(DatasetRecord.builder().id(11L).datasetName(datasetName).jsonData("{\"n\": 11}").build());
+        when(datasetRecordRepository.streamByDatasetNameOrderByIdAsc(datasetName))
+                .thenAnswer(invocation -> mockRecords.stream());
+
+        EngineProperties columnar = new EngineProperties();
+        columnar.getDatasets().put(datasetName, EngineProperties.Engine.COLUMNAR);
+        DatasetServiceImpl columnarService = createService(new RowCacheProperties(), columnar);
+        DatasetServiceImpl rowService = createService(new RowCacheProperties(), new EngineProperties());
+
+        for (String order : List.of("asc", "desc")) {
+            assertEquals(rowService.querySortBy(datasetName, "v", order), columnarService.querySortBy(datasetName, "v", order));
+        }
+        assertEquals(rowService.queryGroupBy(datasetName, "v"), columnarService.queryGroupBy(datasetName, "v"));
+        assertEquals(List.of(3, 11, 8, 2, 10, 6, 1, 7, 9, 4, 5),
+                columnarService.querySortBy(datasetName, "v", "desc").stream().map(r -> r.get("n")).toList());
+    }
+
+    @Test
+    void testQueryGroupByAggregateComputesPerGroupTotals() throws JsonProcessingException {
+        String datasetName = "Employees";
+        List<DatasetRecord> mockRecords = List.of(
+                DatasetRecord.builder().id(1L).datasetName(datasetName).jsonData("{\"department\": \"HR\", \"salary\": 100, \"age\": 30}").build(),
+                DatasetRecord.builder().id(2L).datasetName(datasetName).jsonData("{\"department\": \"HR\", \"salary\": 50.5}").build(),
+                DatasetRecord.builder().id(3L).datasetName(datasetName).jsonData("{\"department\": \"IT\", \"salary\": \"n/a\", \"age\": 41}").build(),
+                DatasetRecord.builder().id(4L).datasetName(datasetName).jsonData("{\"salary\": 70}").build(),
+                DatasetRecord.builder().id(5L).datasetName(datasetName).jsonData("{\"department\": \"Ops\", \"salary\": 9223372036854775807, \"age\": 52}").build(),
+                DatasetRecord.builder().id(6L).datasetName(datasetName).jsonData("{\"department\": \"Ops\", \"salary\": 1, \"age\": 48}").build());
+
+        when(datasetRecordRepository.streamByDatasetName(datasetName))
+                .thenAnswer(invocation -> mockRecords.stream());
+
+        Map<String, Map<String, Object>> result = datasetService.queryGroupByAggregate(datasetName, "department",
+                AggregateSpec.parseList("count,sum:salary,avg:salary,max:age,count:age,sum:age"));
+
+        assertEquals(Set.of("HR", "IT", "Ops"), result.keySet());
+        assertEquals(List.of("count", "sum:salary", "avg:salary", "max:age", "count:age", "sum:age"),
+                new ArrayList<>(result.get("HR").keySet()));
+        assertEquals(2L, result.get("HR").get("count"));
+        assertEquals(150.5, result.get("HR").get("sum:salary"));
+        assertEquals(75.25, result.get("HR").get("avg:salary"));
+        assertEquals(30.0, result.get("HR").get("max:age"));
+        assertEquals(1L, result.get("HR").get("count:age"));
+        assertNull(result.get("IT").get("sum:salary"));
+        assertEquals(41.0, result.get("IT").get("max:age"));
+        // sums of whole numbers stay exact, and fall back to doubles when they overflow
+        assertEquals(30L, result.get("HR").get("sum:age"));
+        assertEquals(100L, result.get("Ops").get("sum:age"));
+        assertEquals(0x1p63, result.get("Ops").get("sum:salary"));
+    }
+
+    @Test
+    void testParallelQueriesMatchSequential() throws JsonProcessingException {
+        String datasetName = "Large";
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        for (int i = 1; i <= 3000; i++) {
+            String value = i % 7 == 0 ? "null" : i % 5 == 0 ? "\"s" + (i % 11) + "\"" : String.valueOf(i % 13);
+            mockRecords.add(DatasetRecord.builder().id((long) i).datasetName(datasetName)
+                    .jsonData("{\"n\": " + i + ", \"v\": " + value + ", \"w\": " + (i % 3 == 0 ? "1.5" : "2") + "}").build());
+        }
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+        when(datasetRecordRepository.streamByDatasetNameOrderByIdAsc(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+        when(datasetRegistry.getRowCount(datasetName)).thenReturn((long) mockRecords.size());
+
+        ParallelProperties parallel = new ParallelProperties();
+        parallel.setParallelism(4);
+        parallel.setThresholdRows(1);
+        parallel.setChunkSize(64);
+        List<AggregateSpec> aggregates = AggregateSpec.parseList("count,sum:w,min:v,max:n");
+        EngineProperties columnar = new EngineProperties();
+        columnar.getDatasets().put(datasetName, EngineProperties.Engine.COLUMNAR);
+
+        DatasetServiceImpl sequential = datasetService;
+        RowCacheProperties noRowCache = new RowCacheProperties();
+        noRowCache.setEnabled(false);
+        for (DatasetServiceImpl service : List.of(
+                createService(noRowCache, new EngineProperties(), parallel),
+                createService(new RowCacheProperties(), new EngineProperties(), parallel),
+                createService(new RowCacheProperties(), columnar, parallel))) {
+            assertEquals(sequential.queryGroupBy(datasetName, "v"), service.queryGroupBy(datasetName, "v"));
+            assertEquals(sequential.querySortBy(datasetName, "v", "desc"), service.querySortBy(datasetName, "v", "desc"));
+            assertEquals(sequential.queryGroupByAggregate(datasetName, "v", aggregates),
+                    service.queryGroupByAggregate(datasetName, "v", aggregates));
+            assertEquals(sequential.querySortByPage(datasetName, "v", "asc", 25, 100, null).records(),
+                    service.querySortByPage(datasetName, "v", "asc", 25, 100, null).records());
+        }
+    }
+
+    @Test
+    void testQueriesByNestedPathsAndMultipleKeys() throws JsonProcessingException {
+        String datasetName = "Nested";
+        String[] rows = {
+                "{\"name\": \"A\", \"department\": \"HR\", \"level\": 1, \"address\": {\"city\": \"Oslo\"}, \"pay\": {\"base\": 100}}",
+                "{\"name\": \"B\", \"department\": \"IT\", \"level\": 2, \"address\": {\"city\": \"Bergen\"}, \"pay\": {\"base\": 300}}",
+                "{\"name\": \"C\", \"department\": \"HR\", \"level\": 1, \"address\": {\"city\": \"Bergen\"}, \"pay\": {\"base\": 200}}",
+                "{\"name\": \"D\", \"department\": \"HR\", \"level\": 2, \"address\": {\"zip\": \"0150\"}, \"pay\": {\"base\": 150}}",
+                "{\"name\": \"E\", \"department\": \"IT\", \"address\": {\"city\": \"Oslo\"}, \"pay\": {\"base\": 250}}"};
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        for (int i = 0; i < rows.length; i++) {
+            mockRecords.add(DatasetRecord.builder().id((long) i + 1).datasetName(datasetName).jsonData(rows[i]).build());
+        }
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+        when(datasetRecordRepository.streamByDatasetNameOrderByIdAsc(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+
+        Map<String, List<Map<String, Object>>> byCity = datasetService.queryGroupBy(datasetName, "address.city");
+        assertEquals(Set.of("Oslo", "Bergen"), byCity.keySet());
+        assertEquals(List.of("B", "C"), byCity.get("Bergen").stream().map(r -> r.get("name")).toList());
+        assertEquals(byCity, datasetService.queryGroupBy(datasetName, "/address/city"));
+
+        Map<String, List<Map<String, Object>>> byDepartmentAndLevel = datasetService.queryGroupBy(datasetName, "department,level");
+        assertEquals(Set.of("[\"HR\",\"1\"]", "[\"HR\",\"2\"]", "[\"IT\",\"2\"]"), byDepartmentAndLevel.keySet());
+        assertEquals(List.of("A", "C"), byDepartmentAndLevel.get("[\"HR\",\"1\"]").stream().map(r -> r.get("name")).toList());
+
+        List<Map<String, Object>> sorted = datasetService.querySortBy(datasetName, "department,pay.base:desc", "asc");
+        assertEquals(List.of("C", "D", "A", "B", "E"), sorted.stream().map(r -> r.get("name")).toList());
+
+        SortPage first = datasetService.querySortByPage(datasetName, "department:desc,address.city", "asc", 2, 0, null);
+        assertEquals(List.of("B", "E"), first.records().stream().map(r -> r.get("name")).toList());
+        SortPage second = datasetService.querySortByPage(datasetName, "department:desc,address.city", "asc", 2, 0, first.nextCursor());
+        assertEquals(List.of("D", "C"), second.records().stream().map(r -> r.get("name")).toList());
+        assertThrows(BadRequestException.class,
+                () -> datasetService.querySortByPage(datasetName, "department", "asc", 2, 0, first.nextCursor()));
+
+        Map<String, Map<String, Object>> aggregates = datasetService.queryGroupByAggregate(datasetName, "department,address.city",
+                AggregateSpec.parseList("count,sum:pay.base"));
+        assertEquals(200L, aggregates.get("[\"HR\",\"Bergen\"]").get("sum:pay.base"));
+        assertEquals(1L, aggregates.get("[\"IT\",\"Oslo\"]").get("count"));
+        assertEquals(250L, aggregates.get("[\"IT\",\"Oslo\"]").get("sum:pay.base"));
+        assertFalse(aggregates.keySet().stream().anyMatch(key -> key.contains("0150")));
+
+        EngineProperties columnar = new EngineProperties();
+        columnar.getDatasets().put(datasetName, EngineProperties.Engine.COLUMNAR);
+        for (DatasetServiceImpl cachedService : List.of(
+                createService(new RowCacheProperties(), new EngineProperties()),
+                createService(new RowCacheProperties(), columnar))) {
+            assertEquals(byDepartmentAndLevel, cachedService.queryGroupBy(datasetName, "department,level"));
+            assertEquals(byCity, cachedService.queryGroupBy(datasetName, "address.city"));
+            assertEquals(sorted, cachedService.querySortBy(datasetName, "department,pay.base:desc", "asc"));
+            assertEquals(aggregates, cachedService.queryGroupByAggregate(datasetName, "department,address.city",
+                    AggregateSpec.parseList("count,sum:pay.base")));
+        }
+    }
+
+    @Test
+    void testFilteredQueriesArePushedDownAndRechecked() throws JsonProcessingException {
+        String datasetName = "Filtered";
+        String[] rows = {
+                "{\"name\": \"A\", \"department\": \"HR\", \"level\": 1, \"address\": {\"city\": \"Oslo\"}, \"pay\": {\"base\": 100}}",
+                "{\"name\": \"B\", \"department\": \"IT\", \"level\": 2, \"address\": {\"city\": \"Bergen\"}, \"pay\": {\"base\": 300}}",
+                "{\"name\": \"C\", \"department\": \"HR\", \"level\": 1, \"address\": {\"city\": \"Bergen\"}, \"pay\": {\"base\": 200}}",
+                "{\"name\": \"D\", \"department\": \"HR\", \"level\": 2, \"address\": {\"zip\": \"0150\"}, \"pay\": {\"base\": 150}}",
+                "{\"name\": \"E\", \"department\": \"IT\", \"address\": {\"city\": \"Oslo\"}, \"pay\": {\"base\": 250}}"};
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        for (int i = 0; i < rows.length; i++) {
+            mockRecords.add(DatasetRecord.builder().id((long) i + 1).datasetName(datasetName).jsonData(rows[i]).build());
+        }
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+        when(datasetRecordRepository.streamByDatasetNameOrderByIdAsc(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+        // The pushed down conditions only narrow the scan; return every row to check they are re-tested
+        when(datasetRecordRepository.streamByDatasetNameMatching(eq(datasetName), anyList())).thenAnswer(invocation -> mockRecords.stream());
+        when(datasetRegistry.getRowCount(datasetName)).thenReturn((long) rows.length);
+        when(fieldIndexService.isUsable(datasetName, "department")).thenReturn(true);
+
+        RowFilter hrAbove100 = RowFilter.parse("department = HR and pay.base > 100");
+        Map<String, List<Map<String, Object>>> byLevel = datasetService.queryGroupBy(datasetName, "level", hrAbove100);
+        assertEquals(List.of("C"), byLevel.get("1").stream().map(r -> r.get("name")).toList());
+        assertEquals(List.of("D"), byLevel.get("2").stream().map(r -> r.get("name")).toList());
+        verify(datasetRecordRepository).streamByDatasetNameMatching(datasetName, List.of(
+                RecordCondition.onIndex("department", 4, RecordCondition.Bound.EQ, "HR"),
+                RecordCondition.onJson("$.\"pay\".\"base\"", RecordCondition.Bound.GE, 100L)));
+        verify(fieldIndexService, never()).streamGroupKeys(any(), any());
+
+        List<Map<String, Object>> sorted = datasetService.querySortBy(datasetName, "pay.base", "desc", hrAbove100);
+        assertEquals(List.of("C", "D"), sorted.stream().map(r -> r.get("name")).toList());
+        SortPage first = datasetService.querySortByPage(datasetName, "pay.base", "desc", 1, 0, null, hrAbove100);
+        assertEquals(List.of("C"), first.records().stream().map(r -> r.get("name")).toList());
+        SortPage second = datasetService.querySortByPage(datasetName, "pay.base", "desc", 1, 0, first.nextCursor(), hrAbove100);
+        assertEquals(List.of("D"), second.records().stream().map(r -> r.get("name")).toList());
+        Map<String, Map<String, Object>> aggregates = datasetService.queryGroupByAggregate(datasetName, "department",
+                AggregateSpec.parseList("count,sum:pay.base"), hrAbove100);
+        assertEquals(Set.of("HR"), aggregates.keySet());
+        assertEquals(350L, aggregates.get("HR").get("sum:pay.base"));
+
+        // != and null also match rows without the field; neither is pushed down
+        RowFilter notOslo = RowFilter.parse("not (address.city == 'Oslo') or level = null");
+        List<Map<String, Object>> notOsloRows = datasetService.querySortBy(datasetName, "name", "asc", notOslo);
+        assertEquals(List.of("B", "C", "D", "E"), notOsloRows.stream().map(r -> r.get("name")).toList());
+
+        when(datasetRecordRepository.streamByDatasetNameMatching(eq(datasetName), anyList())).thenAnswer(invocation -> Stream.empty());
+        assertTrue(datasetService.queryGroupBy(datasetName, "level", RowFilter.parse("department = Sales")).isEmpty());
+
+        EngineProperties columnar = new EngineProperties();
+        columnar.getDatasets().put(datasetName, EngineProperties.Engine.COLUMNAR);
+        for (DatasetServiceImpl cachedService : List.of(
+                createService(new RowCacheProperties(), new EngineProperties()),
+                createService(new RowCacheProperties(), columnar))) {
+            assertEquals(byLevel, cachedService.queryGroupBy(datasetName, "level", hrAbove100));
+            assertEquals(sorted, cachedService.querySortBy(datasetName, "pay.base", "desc", hrAbove100));
+            assertEquals(notOsloRows, cachedService.querySortBy(datasetName, "name", "asc", notOslo));
+            assertEquals(aggregates, cachedService.queryGroupByAggregate(datasetName, "department",
+                    AggregateSpec.parseList("count,sum:pay.base"), hrAbove100));
+        }
+
+        assertThrows(BadRequestException.class, () -> RowFilter.parse("salary >"));
+        assertThrows(BadRequestException.class, () -> RowFilter.parse("(salary > 1"));
+        assertThrows(BadRequestException.class, () -> RowFilter.parse("name = 'open"));
+    }
+
+    @Test
+    void testBinaryStoredRowsQueryLikeTextRows() throws Exception {
+        String textDataset = "Text";
+        String mixedDataset = "Mixed";
+        storageProperties.getDatasets().put(mixedDataset, StorageProperties.Format.SMILE_LZ4);
+        RowCodec codec = new RowCodec(storageProperties);
+        StorageProperties.Format[] formats = StorageProperties.Format.values();
+        List<DatasetRecord> textRecords = new ArrayList<>();
+        List<DatasetRecord> mixedRecords = new ArrayList<>();
+        for (int i = 1; i <= 600; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("n", i);
+            row.put("name", "employee-" + (i % 37));
+            row.put("v", i % 7 == 0 ? null : i % 5 == 0 ? "s" + (i % 11) : i % 13);
+            row.put("pay", Map.of("base", i % 3 == 0 ? 1.5 * i : i, "tags", List.of("a", i % 2 == 0)));
+            RowCodec.EncodedRow encoded = codec.encode(row, formats[i % formats.length]);
+            textRecords.add(DatasetRecord.builder().id((long) i).datasetName(textDataset)
+                    .jsonData(objectMapper.writeValueAsString(row)).build());
+            mixedRecords.add(DatasetRecord.builder().id((long) i).datasetName(mixedDataset)
+                    .jsonData(encoded.json()).binaryData(encoded.binary()).build());
+        }
+        for (String dataset : List.of(textDataset, mixedDataset)) {
+            List<DatasetRecord> records = dataset.equals(textDataset) ? textRecords : mixedRecords;
+            when(datasetRecordRepository.streamByDatasetName(dataset)).thenAnswer(invocation -> records.stream());
+            when(datasetRecordRepository.streamByDatasetNameOrderByIdAsc(dataset)).thenAnswer(invocation -> records.stream());
+            when(datasetRecordRepository.streamByDatasetNameMatching(eq(dataset), anyList())).thenAnswer(invocation -> records.stream());
+            when(datasetRegistry.getRowCount(dataset)).thenReturn((long) records.size());
+        }
+        queryProperties.getSort().setMemoryBudget(DataSize.ofKilobytes(8));
+        List<AggregateSpec> aggregates = AggregateSpec.parseList("count,sum:pay.base,max:n");
+        RowFilter filter = RowFilter.parse("pay.base > 100 and name != 'employee-3'");
+
+        for (DatasetServiceImpl service : List.of(datasetService, createService(new RowCacheProperties(), new EngineProperties()))) {
+            assertEquals(service.queryGroupBy(textDataset, "v"), service.queryGroupBy(mixedDataset, "v"));
+            assertEquals(service.querySortBy(textDataset, "pay.base", "desc"), service.querySortBy(mixedDataset, "pay.base", "desc"));
+            assertEquals(service.querySortBy(textDataset, "v", "asc", filter), service.querySortBy(mixedDataset, "v", "asc", filter));
+            assertEquals(service.queryGroupByAggregate(textDataset, "name", aggregates),
+                    service.queryGroupByAggregate(mixedDataset, "name", aggregates));
+            assertEquals(service.querySortByPage(textDataset, "n", "desc", 20, 40, null).records(),
+                    service.querySortByPage(mixedDataset, "n", "desc", 20, 40, null).records());
+        }
+
+        // Binary datasets only push filters down to the field index, never to json_data
+        datasetService.queryGroupBy(mixedDataset, "v", filter);
+        verify(datasetRecordRepository, never()).streamByDatasetNameMatching(eq(mixedDataset), anyList());
+
+        DatasetRecord saved = DatasetRecord.builder().id(1L).datasetName(mixedDataset).build();
+        when(datasetRecordRepository.save(any(DatasetRecord.class))).thenReturn(saved);
+        datasetService.insertRecord(mixedDataset, Map.of("name", "Raj"));
+        ArgumentCaptor<DatasetRecord> inserted = ArgumentCaptor.forClass(DatasetRecord.class);
+        verify(datasetRecordRepository).save(inserted.capture());
+        assertNull(inserted.getValue().getJsonData());
+        assertEquals(StorageProperties.Format.SMILE_LZ4, RowCodec.formatOf(inserted.getValue().getBinaryData()));
+
+        byte[] text = textRecords.get(4).storedRow();
+        for (StorageProperties.Format format : formats) {
+            RowCodec.EncodedRow converted = codec.convert(text, format);
+            byte[] stored = format == StorageProperties.Format.TEXT ? text : converted.binary();
+            assertEquals(format, RowCodec.formatOf(stored));
+            assertNull(codec.convert(stored, format));
+            String json = format == StorageProperties.Format.TEXT
+                    ? new String(text, StandardCharsets.UTF_8) : codec.convert(stored, StorageProperties.Format.TEXT).json();
+            assertEquals(objectMapper.readTree(text), objectMapper.readTree(json));
+        }
+    }
+
+    @Test
+    void testSegmentStoreServesQueriesAndCutsTornWrite(@TempDir Path directory) throws Exception {
+        String datasetName = "Employees";
+        RecordStoreProperties properties = new RecordStoreProperties();
+        properties.setDirectory(directory);
+        properties.setSegmentSize(DataSize.ofKilobytes(4));
+        RowCacheProperties noRowCache = new RowCacheProperties();
+        noRowCache.setEnabled(false);
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        datasetService = createService(noRowCache, new EngineProperties(), new ParallelProperties(), store);
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            body.append("{\"department\": \"D").append(i % 4).append("\", \"salary\": ").append(i).append("}\n");
+        }
+        datasetService.insertRecords(datasetName, new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)), true);
+        assertEquals(201L, datasetService.insertRecord(datasetName, Map.of("department", "Last", "salary", 1000)).getId());
+
+        List<AggregateSpec> aggregates = AggregateSpec.parseList("count,sum:salary");
+        Map<String, Map<String, Object>> totals = datasetService.queryGroupByAggregate(datasetName, "department", aggregates);
+        assertEquals(50L, totals.get("D1").get("count"));
+        assertEquals(4950L, totals.get("D1").get("sum:salary"));
+        assertEquals(1L, totals.get("Last").get("count"));
+        assertEquals(List.of(199), datasetService.querySortBy(datasetName, "salary", "desc").stream()
+                .skip(1).limit(1).map(row -> row.get("salary")).toList());
+        verify(datasetRecordRepository, never()).streamByDatasetName(anyString());
+        store.close();
+
+        // Corrupt the last row as a crash in the middle of writing it would
+        byte[] last = "\"Last\"".getBytes(StandardCharsets.UTF_8);
+        try (Stream<Path> segments = Files.walk(directory)) {
+            for (Path segment : segments.filter(Files::isRegularFile).toList()) {
+                byte[] content = Files.readAllBytes(segment);
+                for (int i = 0; i + last.length <= content.length; i++) {
+                    if (Arrays.equals(content, i, i + last.length, last, 0, last.length)) {
+                        content[i + 1] = 'l';
+                        Files.write(segment, content);
+                    }
+                }
+            }
+        }
+
+        SegmentRecordStore reopened = new SegmentRecordStore(properties);
+        assertEquals(200L, reopened.count(datasetName));
+        datasetService = createService(noRowCache, new EngineProperties(), new ParallelProperties(), reopened);
+        assertNull(datasetService.queryGroupByAggregate(datasetName, "department", aggregates).get("Last"));
+        assertEquals(201L, datasetService.insertRecord(datasetName, Map.of("department", "Again", "salary", 1)).getId());
+        reopened.close();
+        assertEquals(201L, new SegmentRecordStore(properties).count(datasetName));
+    }
+
+    @Test
+    void testSegmentAppendsRollBackWithTheirTransaction(@TempDir Path directory) throws Exception {
+        String datasetName = "Employees";
+        RecordStoreProperties properties = new RecordStoreProperties();
+        properties.setDirectory(directory);
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        TransactionTemplate transactions = new TransactionTemplate(new AbstractPlatformTransactionManager() {
+            @Override
+            protected Object doGetTransaction() {
+                return new Object();
+            }
+
+            @Override
+            protected void doBegin(Object transaction, TransactionDefinition definition) {
+            }
+
+            @Override
+            protected void doCommit(DefaultTransactionStatus status) {
+            }
+
+            @Override
+            protected void doRollback(DefaultTransactionStatus status) {
+            }
+        });
+        Function<String, RowCodec.EncodedRow> row = name -> new RowCodec.EncodedRow("{\"name\": \"" + name + "\"}", null);
+
+        transactions.executeWithoutResult(status -> store.saveAll(datasetName, List.of(row.apply("A"), row.apply("B"))));
+        assertThrows(IllegalStateException.class, () -> transactions.executeWithoutResult(status -> {
+            assertEquals(List.of(3L, 4L, 5L), store.saveAll(datasetName, List.of(row.apply("X"), row.apply("Y"), row.apply("Z"))));
+            assertEquals(2L, store.count(datasetName));
+            throw new IllegalStateException("listener failed");
+        }));
+        assertEquals(2L, store.count(datasetName));
+        assertEquals(2L, store.stream(datasetName).count());
+
+        // ends exactly where the rolled back Y started; recovery must not find Y or Z after it
+        assertEquals(List.of(3L), transactions.execute(status -> store.saveAll(datasetName, List.of(row.apply("C")))));
+        store.close();
+        SegmentRecordStore reopened = new SegmentRecordStore(properties);
+        assertEquals(3L, reopened.count(datasetName));
+        assertEquals(List.of("{\"name\": \"A\"}", "{\"name\": \"B\"}", "{\"name\": \"C\"}"),
+                reopened.stream(datasetName).map(record -> new String(record.getBinaryData(), StandardCharsets.UTF_8)).toList());
+        reopened.close();
+    }
+
+    @Test
+    void testStatisticsDrivePlannerChoices(@TempDir Path directory) throws Exception {
+        String datasetName = "Employees";
+        RecordStoreProperties properties = new RecordStoreProperties();
+        properties.setDirectory(directory);
+        RowCacheProperties noRowCache = new RowCacheProperties();
+        noRowCache.setEnabled(false);
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        datasetService = createService(noRowCache, new EngineProperties(), new ParallelProperties(), store);
+
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            body.append("{\"department\": \"D").append(i % 10).append("\", \"salary\": ").append(i)
+                    .append(i % 4 == 0 ? ", \"bonus\": null" : "").append("}\n");
+        }
+        datasetService.insertRecords(datasetName, new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)), true);
+        when(datasetRegistry.getRowCount(datasetName)).thenReturn(2000L);
+        when(fieldIndexService.isUsable(datasetName, "salary")).thenReturn(true);
+
+        DatasetStatistics statistics = statisticsService.statistics(datasetName);
+        for (int i = 0; i < 500 && statistics.status() == DatasetStatistics.Status.BUILDING; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(DatasetStatistics.Status.READY, statistics.status());
+        assertEquals(2000L, statistics.rowCount());
+        assertEquals(10L, statistics.distinct("department"));
+        assertEquals(2000.0, statistics.distinct("salary"), 2000 * 0.05);
+        assertEquals(1.0, statistics.nullFraction("bonus"));
+
+        // a page of ten rows is cheaper through the index; sorting all of them, by a scan
+        QueryPlan page = planner.planSortPage(datasetName, FieldKeys.parseSort("salary", "asc"), null, 0, 10, false);
+        assertEquals(QueryPlan.Strategy.INDEX, page.strategy());
+        QueryPlan sort = planner.planSort(datasetName, FieldKeys.parseSort("salary", "asc"), null);
+        assertEquals(QueryPlan.Strategy.SCAN, sort.strategy());
+        assertEquals("field department is not indexed", planner.planSort(datasetName, FieldKeys.parseSort("department", "asc"), null)
+                .candidates().stream().filter(c -> c.strategy() == QueryPlan.Strategy.INDEX).findFirst().orElseThrow().rejected());
+
+        QueryPlan filtered = planner.planGroupBy(datasetName, FieldKeys.parseGroup("salary"), RowFilter.parse("department = D1"));
+        assertEquals(0.1, (Double) ((Map<?, ?>) filtered.describe().get("basis")).get("selectivity"), 0.01);
+        assertEquals(200L, filtered.chosen().estimate().rowsReturned(), 20);
+
+        when(fieldIndexService.findSortedRecordIds(datasetName, "salary", "asc", 3)).thenReturn(List.of(1L, 2L, 3L));
+        assertEquals(List.of(0, 1, 2), datasetService.querySortByPage(datasetName, "salary", "asc", 3, 0, null).records().stream()
+                .map(row -> row.get("salary")).toList());
+        verify(fieldIndexService).findSortedRecordIds(datasetName, "salary", "asc", 3);
+        store.close();
+    }
+
+    @Test
+    void testWriteBehindRowsAreQueryableBeforeStoredAndReplayedAfterCrash(@TempDir Path directory) throws Exception {
+        String datasetName = "Employees";
+        RecordStoreProperties storeProperties = new RecordStoreProperties();
+        storeProperties.setDirectory(directory.resolve("segments"));
+        RowCacheProperties noRowCache = new RowCacheProperties();
+        noRowCache.setEnabled(false);
+        writeBehindProperties.setEnabled(true);
+        writeBehindProperties.setDirectory(directory.resolve("wal"));
+        writeBehindProperties.setFlushInterval(Duration.ofHours(1));
+        SegmentRecordStore store = new SegmentRecordStore(storeProperties);
+        datasetService = createService(noRowCache, new EngineProperties(), new ParallelProperties(), store);
+        writeBehind.start();
+
+        for (int i = 0; i < 6; i++) {
+            assertNull(datasetService.insertRecord(datasetName, Map.of("department", "D" + i % 2, "salary", i)).getId());
+        }
+        assertEquals(0L, store.count(datasetName));
+        List<AggregateSpec> aggregates = AggregateSpec.parseList("count,sum:salary");
+        assertEquals(3L, datasetService.queryGroupByAggregate(datasetName, "department", aggregates).get("D1").get("count"));
+        assertEquals(List.of(5, 4), datasetService.querySortBy(datasetName, "salary", "desc").stream()
+                .limit(2).map(row -> row.get("salary")).toList());
+
+        // a scan that reads the rows from the store after they were flushed does not count them twice
+        PendingRows pending = writeBehind.pending(datasetName);
+        assertEquals(6, writeBehind.flush());
+        try (Stream<DatasetRecord> stored = store.stream(datasetName)) {
+            stored.forEach(record -> pending.seen(record.getId()));
+        }
+        assertTrue(pending.unseen().isEmpty());
+        assertEquals(6L, store.count(datasetName));
+        assertEquals(9L, datasetService.queryGroupByAggregate(datasetName, "department", aggregates).get("D1").get("sum:salary"));
+
+        datasetService.insertRecord(datasetName, Map.of("department", "D9", "salary", 100));
+        datasetService.insertRecord(datasetName, Map.of("department", "D9", "salary", 200));
+
+        // the process dies before storing the last two rows: a new buffer replays only those
+        WriteBehindBuffer restarted = new WriteBehindBuffer(writeBehindProperties, store, transactionManager, List.of(),
+                new RowCodec(storageProperties), resultCache);
+        restarted.start();
+        assertEquals(2L, restarted.pendingRows(datasetName));
+        assertEquals(2, restarted.flush());
+        restarted.shutdown();
+        assertEquals(8L, store.count(datasetName));
+        datasetService = createService(noRowCache, new EngineProperties(), new ParallelProperties(), store);
+        assertEquals(List.of(100, 200), datasetService.querySortBy(datasetName, "salary", "asc").stream()
+                .skip(6).map(row -> row.get("salary")).toList());
+        store.close();
+    }
+
+    @Test
+    void testApproximateGroupByFindsHeavyHittersWithinBounds() throws JsonProcessingException {
+        String datasetName = "Signups";
+        Map<String, Integer> heavy = Map.of("bot@example.com", 3000, "spam@example.com", 1500, "test@example.com", 800);
+        List<DatasetRecord> mockRecords = new ArrayList<>();
+        heavy.forEach((email, count) -> {
+            for (int i = 0; i < count; i++) {
+                mockRecords.add(DatasetRecord.builder().datasetName(datasetName).jsonData("{\"email\": \"" + email + "\"}").build());
+            }
+        });
+        for (int i = 0; i < 14_700; i++) {
+            mockRecords.add(DatasetRecord.builder().datasetName(datasetName).jsonData("{\"email\": \"user" + i + "@example.com\"}").build());
+        }
+        Collections.shuffle(mockRecords, new Random(7));
+        for (int i = 0; i < mockRecords.size(); i++) {
+            mockRecords.get(i).setId(i + 1L);
+        }
+        when(datasetRecordRepository.streamByDatasetName(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+        when(datasetRecordRepository.streamByDatasetNameOrderByIdAsc(datasetName)).thenAnswer(invocation -> mockRecords.stream());
+        when(datasetRegistry.getRowCount(datasetName)).thenReturn((long) mockRecords.size());
+
+        sketchProperties.setCounters(100);
+        ParallelProperties parallel = new ParallelProperties();
+        parallel.setParallelism(4);
+        parallel.setThresholdRows(1);
+        RowCacheProperties noRowCache = new RowCacheProperties();
+        noRowCache.setEnabled(false);
+        for (DatasetServiceImpl service : List.of(datasetService,
+                createService(noRowCache, new EngineProperties(), parallel),
+                createService(new RowCacheProperties(), new EngineProperties(), parallel))) {
+            ApproximateGroups result = service.queryGroupByApproximate(datasetName, "email", 3, null);
+
+            assertEquals(20_000, result.rows());
+            assertEquals(List.of("bot@example.com", "spam@example.com", "test@example.com"),
+                    result.topGroups().stream().map(ApproximateGroups.TopGroup::group).toList());
+            for (ApproximateGroups.TopGroup group : result.topGroups()) {
+                int actual = heavy.get(group.group());
+                assertTrue(group.lowerBound() <= actual && actual <= group.count(), group.toString());
+                assertTrue(group.guaranteed(), group.toString());
+            }
+            assertTrue(result.otherGroupsMaxCount() < 800);
+            // three standard errors of the distinct count
+            assertEquals(14_703, result.distinctGroups(), 14_703 * 3 * result.distinctGroupsError());
+        }
+        assertThrows(BadRequestException.class, () -> datasetService.queryGroupByApproximate(datasetName, "email", 101, null));
+    }
+
+    @Test
+    void testAggregateSpecRejectsUnknownFunction() {
+        assertThrows(BadRequestException.class, () -> AggregateSpec.parseList("count,median:salary"));
+        assertThrows(BadRequestException.class, () -> AggregateSpec.parseList("sum"));
+    }
+}
@@ -0,0 +1,134 @@
+package com.backend.FieldIndexServiceTest;
+
+import com.backend.config.IndexProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.model.FieldIndexEntry;
+import com.backend.model.IndexedField;
+import com.backend.repository.FieldIndexEntryRepository;
+import com.backend.repository.IndexedFieldRepository;
+import com.backend.service.DatasetChangeListener.InsertedRecord;
+import com.backend.service.index.FieldIndexService;
+import com.backend.service.store.RecordStore;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class FieldIndexServiceTest {
+
+    private static final String DATASET = "employees";
+
+    @Mock
+    private FieldIndexEntryRepository entryRepository;
+
+    @Mock
+    private IndexedFieldRepository indexedFieldRepository;
+
+    @Mock
+    private RecordStore recordStore;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Captor
+    private ArgumentCaptor<List<FieldIndexEntry>> savedEntries;
+
+    private FieldIndexService fieldIndexService;
+
+    private AutoCloseable mocks;
+
+    @BeforeEach
+    void setUp() {
+        mocks = MockitoAnnotations.openMocks(this);
+        fieldIndexService = new FieldIndexService(entryRepository, indexedFieldRepository, recordStore, entityManager,
+                transactionManager, new IndexProperties());
+        IndexedField persisted = IndexedField.builder().id(1L).datasetName(DATASET).fieldName("salary")
+                .status(IndexedField.Status.BUILDING).build();
+        when(indexedFieldRepository.findByDatasetNameAndFieldName(DATASET, "salary")).thenReturn(Optional.empty());
+        when(indexedFieldRepository.save(any())).thenReturn(persisted);
+        when(indexedFieldRepository.findById(1L)).thenReturn(Optional.of(persisted));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        fieldIndexService.shutdown();
+        mocks.close();
+    }
+
+    @Test
+    void testBackfillWaitsForRunningInsertsAndUpsertsEntries() throws Exception {
+        // an insert transaction that wrote its rows before the field was registered
+        TransactionSynchronizationManager.initSynchronization();
+        fieldIndexService.onRecordsInserted(DATASET, List.of(new InsertedRecord(2L, Map.of("salary", 200))));
+        verify(entryRepository, never()).saveAll(any());
+
+        CompletableFuture.runAsync(() -> fieldIndexService.ensureIndex(DATASET, "salary")).get();
+        verify(recordStore, after(200).never()).maxId(anyString());
+        assertFalse(fieldIndexService.isUsable(DATASET, "salary"));
+
+        when(recordStore.maxId(DATASET)).thenReturn(2L);
+        when(recordStore.streamUpTo(DATASET, 2L)).thenAnswer(invocation -> Stream.of(
+                DatasetRecord.builder().id(1L).datasetName(DATASET).jsonData("{\"salary\": 100}").build(),
+                DatasetRecord.builder().id(2L).datasetName(DATASET).jsonData("{\"salary\": 200}").build()));
+        // record 1 was indexed by an earlier, interrupted backfill
+        when(entryRepository.findByDatasetNameAndFieldNameAndRecordIdIn(eq(DATASET), eq("salary"), any()))
+                .thenReturn(List.of(FieldIndexEntry.builder().id(7L).recordId(1L).build()));
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        TransactionSynchronizationUtils.invokeAfterCompletion(synchronizations, TransactionSynchronization.STATUS_COMMITTED);
+
+        for (int i = 0; i < 200 && !fieldIndexService.isUsable(DATASET, "salary"); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(fieldIndexService.isUsable(DATASET, "salary"));
+
+        ArgumentCaptor<FieldIndexEntry> merged = ArgumentCaptor.forClass(FieldIndexEntry.class);
+        verify(entityManager).merge(merged.capture());
+        assertEquals(7L, merged.getValue().getId());
+        assertEquals(1L, merged.getValue().getRecordId());
+        ArgumentCaptor<FieldIndexEntry> persisted = ArgumentCaptor.forClass(FieldIndexEntry.class);
+        verify(entityManager).persist(persisted.capture());
+        assertEquals(2L, persisted.getValue().getRecordId());
+        assertEquals(200L, persisted.getValue().getLongValue());
+    }
+
+    @Test
+    void testInsertsAfterRegistrationWriteEntries() throws Exception {
+        when(recordStore.maxId(DATASET)).thenReturn(null);
+        fieldIndexService.ensureIndex(DATASET, "salary");
+        fieldIndexService.onRecordsInserted(DATASET, List.of(new InsertedRecord(3L, Map.of("name", "Ada"))));
+
+        verify(entryRepository).saveAll(savedEntries.capture());
+        assertEquals(1, savedEntries.getValue().size());
+        assertTrue(savedEntries.getValue().get(0).isMissing());
+    }
+}
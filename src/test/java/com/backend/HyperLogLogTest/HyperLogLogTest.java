@@ -0,0 +1,54 @@
+package com.backend.HyperLogLogTest;
+
+import com.backend.service.stats.HyperLogLog;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest {
+
+    @Test
+    void testSmallCountsAreExactEnoughAndIgnoreRepeats() {
+        HyperLogLog sketch = new HyperLogLog();
+        assertEquals(0L, sketch.estimate());
+
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (long value = 0; value < 100; value++) {
+                sketch.add(HyperLogLog.hash(value));
+            }
+        }
+        assertWithin(100, sketch.estimate(), 0.02);
+    }
+
+    @Test
+    void testLargeCountsStayWithinTheStandardError() {
+        HyperLogLog sketch = new HyperLogLog();
+        for (long value = 0; value < 1_000_000; value++) {
+            sketch.add(HyperLogLog.hash("user-" + value + "@example.com"));
+        }
+        assertWithin(1_000_000, sketch.estimate(), 3 * HyperLogLog.STANDARD_ERROR);
+    }
+
+    @Test
+    void testMergeCountsTheUnion() {
+        HyperLogLog left = new HyperLogLog();
+        HyperLogLog right = new HyperLogLog();
+        HyperLogLog whole = new HyperLogLog();
+        for (long value = 0; value < 60_000; value++) {
+            long hash = HyperLogLog.hash(value);
+            // the halves overlap on 20 000 values
+            if (value < 40_000) left.add(hash);
+            if (value >= 20_000) right.add(hash);
+            whole.add(hash);
+        }
+        left.merge(right);
+        assertEquals(whole.estimate(), left.estimate());
+        assertWithin(60_000, left.estimate(), 3 * HyperLogLog.STANDARD_ERROR);
+    }
+
+    private static void assertWithin(long expected, long actual, double relativeError) {
+        assertTrue(Math.abs(actual - expected) <= expected * relativeError,
+                "estimate " + actual + " is not within " + relativeError + " of " + expected);
+    }
+}
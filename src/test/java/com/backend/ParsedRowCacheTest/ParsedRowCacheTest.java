@@ -0,0 +1,94 @@
+package com.backend.ParsedRowCacheTest;
+
+import com.backend.config.ParallelProperties;
+import com.backend.config.RowCacheProperties;
+import com.backend.model.DatasetRecord;
+import com.backend.service.parallel.ParallelQueryExecutor;
+import com.backend.service.registry.DatasetRegistry;
+import com.backend.service.rows.ParsedRowCache;
+import com.backend.service.store.RecordStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.*;
+
+class ParsedRowCacheTest {
+
+    private static final String DATASET = "Employees";
+
+    @Mock
+    private RecordStore recordStore;
+
+    @Mock
+    private DatasetRegistry datasetRegistry;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final List<DatasetRecord> records = new ArrayList<>();
+
+    private RowCacheProperties properties;
+
+    private ParsedRowCache rowCache;
+
+    private AutoCloseable mocks;
+
+    @BeforeEach
+    void setUp() {
+        mocks = MockitoAnnotations.openMocks(this);
+        properties = new RowCacheProperties();
+        rowCache = new ParsedRowCache(recordStore, transactionManager, properties, datasetRegistry,
+                new ParallelQueryExecutor(new ParallelProperties()));
+        when(recordStore.streamInIdOrder(DATASET)).thenAnswer(invocation -> new ArrayList<>(records).stream());
+        when(datasetRegistry.getRowCount(DATASET)).thenAnswer(invocation -> (long) records.size());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mocks.close();
+    }
+
+    @Test
+    void testDatasetTooLargeIsTriedAgainOnceItShrinks() {
+        properties.setMaxMemory(DataSize.ofBytes(400));
+        for (long id = 1; id <= 20; id++) {
+            addRecord(id);
+        }
+        assertNull(rowCache.rows(DATASET));
+        assertEquals(ParsedRowCache.Residency.TOO_LARGE, rowCache.residency(DATASET));
+        assertNull(rowCache.rows(DATASET));
+        verify(recordStore, times(1)).streamInIdOrder(DATASET);
+
+        records.subList(1, records.size()).clear();
+        assertEquals(ParsedRowCache.Residency.NOT_LOADED, rowCache.residency(DATASET));
+        assertEquals(1, rowCache.rows(DATASET).size());
+        assertEquals(ParsedRowCache.Residency.LOADED, rowCache.residency(DATASET));
+    }
+
+    @Test
+    void testDeletedDatasetIsDropped() {
+        addRecord(1);
+        assertNotNull(rowCache.rows(DATASET));
+        assertEquals(ParsedRowCache.Residency.LOADED, rowCache.residency(DATASET));
+
+        rowCache.onDatasetDeleted(DATASET);
+        assertEquals(ParsedRowCache.Residency.NOT_LOADED, rowCache.residency(DATASET));
+        assertEquals(0L, rowCache.stats().get("estimatedBytes"));
+    }
+
+    private void addRecord(long id) {
+        records.add(DatasetRecord.builder().id(id).datasetName(DATASET)
+                .jsonData("{\"name\": \"Employee " + id + "\", \"department\": \"Engineering\"}").build());
+    }
+}
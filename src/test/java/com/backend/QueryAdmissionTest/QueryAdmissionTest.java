@@ -0,0 +1,150 @@
+package com.backend.QueryAdmissionTest;
+
+import com.backend.config.AdmissionProperties;
+import com.backend.exception.ServiceUnavailableException;
+import com.backend.service.admission.QueryAdmission;
+import com.backend.service.query.SortedRows;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryAdmissionTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private AdmissionProperties properties;
+
+    private QueryAdmission admission;
+
+    private final CountDownLatch running = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        properties = new AdmissionProperties();
+        properties.setMaxConcurrentPerDataset(1);
+        properties.setQueueTimeout(Duration.ofMillis(100));
+        admission = new QueryAdmission(properties, registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        admission.shutdown();
+    }
+
+    @Test
+    void testBusyDatasetShedsWithoutHoldingBackOthers() throws Exception {
+        Future<String> blocked = CompletableFuture.supplyAsync(() -> {
+            try {
+                return admission.run("orders", this::block);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        running.await(5, TimeUnit.SECONDS);
+
+        assertThrows(ServiceUnavailableException.class, () -> admission.run("orders", () -> "second"));
+        assertEquals(1.0, registry.get("dataset.query.shed").tag("reason", "dataset").counter().count());
+        assertEquals("other", admission.run("clicks", () -> "other"));
+
+        release.countDown();
+        assertEquals("first", blocked.get(5, TimeUnit.SECONDS));
+        assertEquals("again", admission.run("orders", () -> "again"));
+    }
+
+    @Test
+    void testFailedQueryGivesItsSlotBack() throws Exception {
+        IllegalStateException failure = new IllegalStateException("boom");
+        assertSame(failure, assertThrows(IllegalStateException.class, () -> admission.run("orders", () -> {
+            throw failure;
+        })));
+        assertEquals("next", admission.run("orders", () -> "next"));
+
+        assertThrows(IllegalStateException.class, () -> admission.open("orders", () -> {
+            throw failure;
+        }));
+        assertEquals("next", admission.run("orders", () -> "next"));
+    }
+
+    @Test
+    void testOpenedRowsHoldTheirSlotUntilClosed() throws Exception {
+        SortedRows rows = admission.open("orders", () -> SortedRows.ofParsed(Collections.emptyIterator()));
+        assertThrows(ServiceUnavailableException.class, () -> admission.run("orders", () -> "second"));
+
+        rows.close();
+        assertEquals("second", admission.run("orders", () -> "second"));
+        // closing again releases nothing more
+        rows.close();
+        SortedRows held = admission.open("orders", () -> SortedRows.ofParsed(Collections.emptyIterator()));
+        assertThrows(ServiceUnavailableException.class, () -> admission.run("orders", () -> "third"));
+        held.close();
+    }
+
+    @Test
+    void testSaturatedExecutorSheds() throws Exception {
+        properties.setMaxConcurrentQueries(1);
+        properties.setMaxQueuedQueries(1);
+        properties.setMaxConcurrentPerDataset(10);
+        admission.shutdown();
+        // a registry of its own, whose gauges watch this executor
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        admission = new QueryAdmission(properties, registry);
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return admission.run("orders", this::block);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        running.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return admission.run("orders", () -> "queued");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        awaitQueued(registry);
+
+        assertThrows(ServiceUnavailableException.class, () -> admission.run("orders", () -> "third"));
+        assertEquals(1.0, registry.get("dataset.query.shed").tag("reason", "executor").counter().count());
+        release.countDown();
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testDisabledAdmissionRunsOnTheCallingThread() throws Exception {
+        properties.setEnabled(false);
+        Thread caller = Thread.currentThread();
+        assertSame(caller, admission.run("orders", Thread::currentThread));
+    }
+
+    private String block() throws InterruptedException {
+        running.countDown();
+        release.await(5, TimeUnit.SECONDS);
+        return "first";
+    }
+
+    private static void awaitQueued(SimpleMeterRegistry registry) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.get("dataset.query.executor.queued").gauge().value() < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
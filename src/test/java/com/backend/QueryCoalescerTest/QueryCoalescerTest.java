@@ -0,0 +1,145 @@
+package com.backend.QueryCoalescerTest;
+
+import com.backend.config.AdmissionProperties;
+import com.backend.config.CacheProperties;
+import com.backend.service.admission.QueryCoalescer;
+import com.backend.service.cache.QueryResultCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryCoalescerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final QueryResultCache resultCache = new QueryResultCache(new CacheProperties());
+
+    private final AdmissionProperties properties = new AdmissionProperties();
+
+    private final QueryCoalescer coalescer = new QueryCoalescer(properties, resultCache, registry);
+
+    private final AtomicInteger computations = new AtomicInteger();
+
+    private final CountDownLatch running = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private ExecutorService requests;
+
+    @BeforeEach
+    void setUp() {
+        requests = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        requests.shutdownNow();
+    }
+
+    @Test
+    void testIdenticalQueriesShareOneComputation() throws Exception {
+        List<String> result = List.of("Ada", "Alan");
+        Future<List<String>> first = requests.submit(() -> coalescer.run("employees", "sortBy", "name asc", blocking(result)));
+        running.await(5, TimeUnit.SECONDS);
+        Future<List<String>> joined = requests.submit(() -> coalescer.run("employees", "sortBy", "name asc", counting(List.of())));
+        awaitCoalesced(1);
+
+        release.countDown();
+        assertSame(result, first.get(5, TimeUnit.SECONDS));
+        assertSame(result, joined.get(5, TimeUnit.SECONDS));
+        assertEquals(1, computations.get());
+        assertEquals(1.0, registry.get("dataset.query.coalesced").tag("operator", "sortBy").counter().count());
+
+        // the flight is over, so the next request computes again
+        coalescer.run("employees", "sortBy", "name asc", counting(List.of()));
+        assertEquals(2, computations.get());
+    }
+
+    @Test
+    void testFailureIsSharedWithTheJoinedRequests() throws Exception {
+        IllegalStateException failure = new IllegalStateException("boom");
+        Future<Object> first = requests.submit(() -> coalescer.run("employees", "groupBy", "department", () -> {
+            running.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw failure;
+        }));
+        running.await(5, TimeUnit.SECONDS);
+        Future<Object> joined = requests.submit(() -> coalescer.run("employees", "groupBy", "department", counting(List.of())));
+        awaitCoalesced(1);
+
+        release.countDown();
+        assertSame(failure, assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(failure, assertThrows(ExecutionException.class, () -> joined.get(5, TimeUnit.SECONDS)).getCause());
+        assertEquals(0, computations.get());
+    }
+
+    @Test
+    void testOtherQueriesAndLaterVersionsStartTheirOwnFlight() throws Exception {
+        Future<List<String>> first = requests.submit(() -> coalescer.run("employees", "sortBy", "name asc", blocking(List.of())));
+        running.await(5, TimeUnit.SECONDS);
+
+        coalescer.run("employees", "sortBy", "name desc", counting(List.of()));
+        coalescer.run("payroll", "sortBy", "name asc", counting(List.of()));
+        // an insert committed after the flight started, which it may not see
+        resultCache.invalidate("employees");
+        coalescer.run("employees", "sortBy", "name asc", counting(List.of()));
+        assertEquals(4, computations.get());
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals(0, registry.find("dataset.query.coalesced").counters().size());
+    }
+
+    @Test
+    void testDisabledCoalescingComputesEveryRequest() throws Exception {
+        properties.setCoalesce(false);
+        Future<List<String>> first = requests.submit(() -> coalescer.run("employees", "sortBy", "name asc", blocking(List.of())));
+        running.await(5, TimeUnit.SECONDS);
+
+        coalescer.run("employees", "sortBy", "name asc", counting(List.of()));
+        assertEquals(2, computations.get());
+        release.countDown();
+        assertInstanceOf(List.class, first.get(5, TimeUnit.SECONDS));
+    }
+
+    private <T> Callable<T> counting(T result) {
+        return () -> {
+            computations.incrementAndGet();
+            return result;
+        };
+    }
+
+    private <T> Callable<T> blocking(T result) {
+        return () -> {
+            computations.incrementAndGet();
+            running.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return result;
+        };
+    }
+
+    private void awaitCoalesced(int joined) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.find("dataset.query.coalesced").counters().stream().mapToDouble(counter -> counter.count()).sum() < joined
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
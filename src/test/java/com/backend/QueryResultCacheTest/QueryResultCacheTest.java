@@ -0,0 +1,49 @@
+package com.backend.QueryResultCacheTest;
+
+import com.backend.config.CacheProperties;
+import com.backend.service.cache.QueryResultCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QueryResultCacheTest {
+
+    private final QueryResultCache cache = new QueryResultCache(new CacheProperties());
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void testResultsAreServedUntilTheDatasetChanges() throws Exception {
+        assertEquals(0L, cache.version("Employees"));
+        assertEquals(List.of("A"), sortBy("Employees", "A"));
+        assertEquals(List.of("A"), sortBy("Employees", "B"));
+        assertEquals(1, loads.get());
+
+        cache.invalidate("Employees");
+        assertEquals(1L, cache.version("Employees"));
+        assertEquals(List.of("B"), sortBy("Employees", "B"));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void testDeletedDatasetStartsOverWithoutItsResults() throws Exception {
+        assertEquals(List.of("A"), sortBy("Employees", "A"));
+        cache.invalidate("Employees");
+        cache.onDatasetDeleted("Employees");
+        assertEquals(0L, cache.version("Employees"));
+
+        // the result cached at version 0 before the delete is not served for the new dataset
+        assertEquals(List.of("C"), sortBy("Employees", "C"));
+        assertEquals(2, loads.get());
+    }
+
+    private List<String> sortBy(String datasetName, String row) throws Exception {
+        return cache.get(datasetName, QueryResultCache.Operator.SORT_BY, "name", null, null, List::size, () -> {
+            loads.incrementAndGet();
+            return List.of(row);
+        });
+    }
+}
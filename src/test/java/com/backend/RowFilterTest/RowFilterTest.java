@@ -0,0 +1,85 @@
+package com.backend.RowFilterTest;
+
+import com.backend.exception.BadRequestException;
+import com.backend.service.filter.FilterNode;
+import com.backend.service.filter.RowFilter;
+import com.backend.service.query.FieldPath;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RowFilterTest {
+
+    @Test
+    void testAndBindsTighterThanOrAndNotTighterThanBoth() {
+        assertEquals("(a = 1 or (b = 2 and c = 3))", RowFilter.parse("a = 1 or b = 2 and c = 3").canonical());
+        assertEquals("((a = 1 or b = 2) and c = 3)", RowFilter.parse("(a = 1 OR b = 2) AND c = 3").canonical());
+        assertEquals("(not a = 1 and b = 2)", RowFilter.parse("not a = 1 and b = 2").canonical());
+        assertEquals("not (a = 1 and b = 2)", RowFilter.parse("NOT (a = 1 and b = 2)").canonical());
+    }
+
+    @Test
+    void testLiteralsAreTypedUnlessQuoted() {
+        assertEquals(List.of(42L, 1.5, 1e3, true, "active", "42", "and"), literals(
+                "n = 42 and d = 1.5 and e = 1e3 and b = TRUE and s = active and q = '42' and k = \"and\""));
+        assertEquals("(x = null and y = 1.0E20)",
+                RowFilter.parse("x = null and y = 99999999999999999999").canonical());
+        assertEquals("s = \"say \\\"hi\\\"\"", RowFilter.parse("s = 'say \"hi\"'").canonical());
+        assertEquals("s = \"it's\"", RowFilter.parse("s = \"it\\'s\"").canonical());
+    }
+
+    @Test
+    void testOperatorsNeedNoSpacesAndHaveAliases() {
+        assertEquals("((((a = 1 and b != 2) and c != 3) and d <= 4) and e > \"x\")",
+                RowFilter.parse("a==1 and b<>2 and c!=3 and d<=4 and e>x").canonical());
+    }
+
+    @Test
+    void testEachFieldIsReadIntoOneSlot() {
+        RowFilter filter = RowFilter.parse("salary > 10 and (salary < 20 or address.city = Pune)");
+        assertEquals(List.of("salary", "address.city"), filter.paths().stream().map(FieldPath::expression).toList());
+        // only the top-level and chain narrows every match
+        assertEquals(List.of("salary"), filter.conjuncts().stream().map(comparison -> comparison.path().expression()).toList());
+    }
+
+    @Test
+    void testComparisonsFollowSortKeySemantics() {
+        Map<String, Object> row = new HashMap<>();
+        row.put("salary", 60000);
+        row.put("rating", 4.5);
+        row.put("name", "Ada");
+        row.put("manager", null);
+        row.put("address", Map.of("city", "Pune"));
+
+        assertTrue(RowFilter.parse("salary >= 60000.0 and rating > 4").test(row));
+        assertTrue(RowFilter.parse("address.city = Pune and /address/city != Mumbai").test(row));
+        // values of another type are neither equal nor ordered
+        assertFalse(RowFilter.parse("name > 5").test(row));
+        assertTrue(RowFilter.parse("name != 5").test(row));
+        // a missing field is null, as is an explicit null
+        assertTrue(RowFilter.parse("missing = null and manager = null").test(row));
+        assertFalse(RowFilter.parse("missing < 1 or missing >= 1").test(row));
+        assertFalse(RowFilter.parse("address = Pune").test(row));
+    }
+
+    @Test
+    void testMalformedFiltersAreRejected() {
+        for (String expression : List.of("", "  ", "salary >", "salary 5", "salary ~ 5", "(a = 1", "a = 1)",
+                "a = 1 and", "a = 'open", "= 1", "a = (", "a = 1 b = 2")) {
+            assertThrows(BadRequestException.class, () -> RowFilter.parse(expression), expression);
+        }
+        BadRequestException error = assertThrows(BadRequestException.class, () -> RowFilter.parse("a = 1 xor b = 2"));
+        assertEquals("Invalid filter 'a = 1 xor b = 2': unexpected 'xor'", error.getMessage());
+    }
+
+    private static List<Object> literals(String expression) {
+        return RowFilter.parse(expression).conjuncts().stream().map(FilterNode.Comparison::literal).toList();
+    }
+}
@@ -0,0 +1,193 @@
+package com.backend.SegmentRecordStoreTest;
+
+import com.backend.config.RecordStoreProperties;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.store.SegmentRecordStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentRecordStoreTest {
+
+    private static final String DATASET = "Employees";
+
+    @TempDir
+    private Path directory;
+
+    private RecordStoreProperties properties;
+
+    private final TransactionTemplate transactions = new TransactionTemplate(new AbstractPlatformTransactionManager() {
+        @Override
+        protected Object doGetTransaction() {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+    });
+
+    @BeforeEach
+    void setUp() {
+        properties = new RecordStoreProperties();
+        properties.setDirectory(directory.resolve("live"));
+    }
+
+    @Test
+    void testRowsOfATransactionOpenAtACrashAreDroppedOnOpen() throws Exception {
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        transactions.executeWithoutResult(status -> store.saveAll(DATASET, rows("A", "B")));
+
+        Path crashed = directory.resolve("crashed");
+        transactions.executeWithoutResult(status -> {
+            store.saveAll(DATASET, rows("X", "Y"));
+            // what a crash at this point leaves on disk
+            copy(properties.getDirectory(), crashed);
+        });
+        store.close();
+
+        RecordStoreProperties recovered = new RecordStoreProperties();
+        recovered.setDirectory(crashed);
+        SegmentRecordStore reopened = new SegmentRecordStore(recovered);
+        assertEquals(2L, reopened.count(DATASET));
+        assertEquals(List.of("A", "B"), names(reopened));
+        assertEquals(List.of(3L), transactions.execute(status -> reopened.saveAll(DATASET, rows("C"))));
+        reopened.close();
+        assertEquals(List.of("A", "B", "C"), names(new SegmentRecordStore(recovered)));
+    }
+
+    @Test
+    void testIntervalForceDoesNotWaitForAnOpenTransaction() throws Exception {
+        properties.setFsync(RecordStoreProperties.Fsync.INTERVAL);
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        transactions.executeWithoutResult(status -> store.saveAll(DATASET, rows("A")));
+
+        transactions.executeWithoutResult(status -> {
+            store.saveAll(DATASET, rows("B"));
+            assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> CompletableFuture.runAsync(store::forceAll).get(5, TimeUnit.SECONDS));
+        });
+        assertEquals(2L, store.count(DATASET));
+        store.close();
+    }
+
+    @Test
+    void testTornWriteIsCutBackToTheLastCommit() throws Exception {
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        transactions.executeWithoutResult(status -> store.saveAll(DATASET, rows("A", "B")));
+        transactions.executeWithoutResult(status -> store.saveAll(DATASET, rows("C", "D")));
+        store.close();
+
+        // a crash part way through the bytes of D leaves them failing their checksum
+        Path segment = segment(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        int d = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("\"D\"");
+        bytes[d + 1] = 'X';
+        Files.write(segment, bytes);
+
+        SegmentRecordStore reopened = new SegmentRecordStore(properties);
+        // C was written in the same transaction as D, which never committed
+        assertEquals(List.of("A", "B"), names(reopened));
+        assertEquals(List.of(3L), transactions.execute(status -> reopened.saveAll(DATASET, rows("E"))));
+        reopened.close();
+        assertEquals(List.of("A", "B", "E"), names(new SegmentRecordStore(properties)));
+    }
+
+    @Test
+    void testSegmentThatDoesNotContinueTheLogIsDiscardedWithTheRest() throws Exception {
+        // room for one row and its commit entry per segment
+        properties.setSegmentSize(DataSize.ofBytes(48));
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        for (String name : List.of("A", "B", "C")) {
+            transactions.executeWithoutResult(status -> store.saveAll(DATASET, rows(name)));
+        }
+        store.close();
+        assertTrue(Files.exists(segment(2)));
+
+        // the second segment claims to start at a row the log has not reached
+        try (FileChannel channel = FileChannel.open(segment(1), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, 7L), 0);
+        }
+
+        SegmentRecordStore reopened = new SegmentRecordStore(properties);
+        assertEquals(List.of("A"), names(reopened));
+        assertFalse(Files.exists(segment(1)));
+        assertFalse(Files.exists(segment(2)));
+        assertEquals(List.of(2L), transactions.execute(status -> reopened.saveAll(DATASET, rows("D"))));
+        reopened.close();
+        assertEquals(List.of("A", "D"), names(new SegmentRecordStore(properties)));
+    }
+
+    @Test
+    void testRolledBackRowsAreNotFoundAgain() throws Exception {
+        SegmentRecordStore store = new SegmentRecordStore(properties);
+        transactions.executeWithoutResult(status -> store.saveAll(DATASET, rows("A")));
+        transactions.executeWithoutResult(status -> {
+            store.saveAll(DATASET, rows("X"));
+            status.setRollbackOnly();
+        });
+        assertEquals(1L, store.count(DATASET));
+        store.close();
+
+        SegmentRecordStore reopened = new SegmentRecordStore(properties);
+        assertEquals(List.of("A"), names(reopened));
+        assertEquals(List.of(2L), transactions.execute(status -> reopened.saveAll(DATASET, rows("B"))));
+        reopened.close();
+    }
+
+    private Path segment(int number) {
+        return properties.getDirectory().resolve(DATASET).resolve(String.format("%08d.seg", number));
+    }
+
+    private static List<RowCodec.EncodedRow> rows(String... names) {
+        return Stream.of(names).map(name -> new RowCodec.EncodedRow("{\"name\": \"" + name + "\"}", null)).toList();
+    }
+
+    private static List<String> names(SegmentRecordStore store) {
+        return store.stream(DATASET)
+                .map(record -> new String(record.getBinaryData(), StandardCharsets.UTF_8).replaceAll(".*\": \"|\"}", ""))
+                .toList();
+    }
+
+    private static void copy(Path from, Path to) {
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path file : files.toList()) {
+                Files.copy(file, to.resolve(from.relativize(file).toString()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
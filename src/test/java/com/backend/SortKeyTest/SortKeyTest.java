@@ -0,0 +1,80 @@
+package com.backend.SortKeyTest;
+
+import com.backend.service.query.SortKey;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SortKeyTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void testTypesAreOrderedAndNullsComeFirstInBothDirections() throws Exception {
+        List<SortKey> keys = new ArrayList<>(List.of(
+                SortKey.of(Map.of("a", 1), mapper), SortKey.of("abc", mapper), SortKey.of(2.5, mapper),
+                SortKey.of(null, mapper), SortKey.of(true, mapper), SortKey.of(2L, mapper), SortKey.of(false, mapper)));
+
+        keys.sort(SortKey.comparator("asc"));
+        assertEquals("[null, false, true, 2, 2.5, abc, {\"a\":1}]", keys.toString());
+
+        keys.sort(SortKey.comparator("DESC"));
+        assertEquals("[null, {\"a\":1}, abc, 2.5, 2, true, false]", keys.toString());
+    }
+
+    @Test
+    void testIntegersAndDoublesCompareByExactValue() throws Exception {
+        Comparator<SortKey> ascending = SortKey.comparator("asc");
+        long large = (1L << 53) + 1;
+        // the double nearest to 2^53 + 1 is 2^53, which a cast to double would make equal
+        assertTrue(ascending.compare(SortKey.ofLong(large), SortKey.ofDouble((double) large)) > 0);
+        assertTrue(ascending.compare(SortKey.ofDouble(2.5), SortKey.ofLong(3)) < 0);
+        assertEquals(0, ascending.compare(SortKey.ofLong(3), SortKey.ofDouble(3.0)));
+        assertTrue(ascending.compare(SortKey.ofLong(Long.MAX_VALUE), SortKey.ofDouble(Double.POSITIVE_INFINITY)) < 0);
+        assertTrue(ascending.compare(SortKey.ofLong(Long.MIN_VALUE), SortKey.ofDouble(-1e300)) > 0);
+        assertEquals(SortKey.DOUBLE, SortKey.of(new BigDecimal("1.5"), mapper).kind());
+    }
+
+    @Test
+    void testCompositeKeysCompareEachPartInItsOwnDirection() {
+        Comparator<SortKey> comparator = SortKey.comparator(new boolean[]{false, true});
+        List<SortKey> keys = new ArrayList<>(List.of(
+                composite("IT", 70), composite("HR", 50), composite(null, 90), composite("HR", 80)));
+
+        keys.sort(comparator);
+        assertEquals("[[null, 90], [HR, 80], [HR, 50], [IT, 70]]", keys.toString());
+    }
+
+    @Test
+    void testKeysSurviveBeingWrittenAndReadBack() throws IOException {
+        SortKey key = SortKey.ofComposite(new SortKey[]{SortKey.ofString("Zoë"), SortKey.ofLong(-4), SortKey.ofDouble(0.1),
+                SortKey.NULL_KEY, SortKey.ofBoolean(true), SortKey.ofStructured("[1,2]")});
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        key.writeTo(new DataOutputStream(bytes));
+
+        SortKey read = SortKey.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(key, read);
+        assertEquals(6, read.size());
+
+        assertThrows(IOException.class, () -> SortKey.readFrom(new DataInputStream(new ByteArrayInputStream(new byte[]{42}))));
+    }
+
+    private static SortKey composite(String department, long salary) {
+        return SortKey.ofComposite(new SortKey[]{department == null ? SortKey.NULL_KEY : SortKey.ofString(department),
+                SortKey.ofLong(salary)});
+    }
+}
@@ -0,0 +1,88 @@
+package com.backend.SpaceSavingTest;
+
+import com.backend.service.sketch.SpaceSaving;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpaceSavingTest {
+
+    @Test
+    void testKeysFittingTheCountersAreCountedExactly() {
+        SpaceSaving summary = new SpaceSaving(4);
+        for (String key : List.of("a", "b", "a", "c", "a", "b")) {
+            summary.add(key);
+        }
+        assertEquals(List.of(new SpaceSaving.Counter("a", 3, 0), new SpaceSaving.Counter("b", 2, 0),
+                new SpaceSaving.Counter("c", 1, 0)), summary.top(10));
+        assertEquals(0L, summary.floor());
+        assertEquals(6L, summary.total());
+        assertThrows(IllegalArgumentException.class, () -> new SpaceSaving(0));
+    }
+
+    @Test
+    void testFrequentKeysAreKeptWithinTheirError() {
+        SpaceSaving summary = new SpaceSaving(20);
+        Map<Object, Long> counts = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            // five keys seen more than total / capacity times each, the rest spread over a thousand
+            Object key = i % 3 == 0 ? "hot-" + (i % 5) : "cold-" + random.nextInt(1000);
+            summary.add(key);
+            counts.merge(key, 1L, Long::sum);
+        }
+        assertBounds(summary, counts);
+        List<Object> top = summary.top(5).stream().map(SpaceSaving.Counter::key).toList();
+        for (int hot = 0; hot < 5; hot++) {
+            assertTrue(top.contains("hot-" + hot), top.toString());
+        }
+    }
+
+    @Test
+    void testMergeKeepsTheBoundsOfBothSides() {
+        SpaceSaving left = new SpaceSaving(8);
+        SpaceSaving right = new SpaceSaving(8);
+        Map<Object, Long> counts = new HashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 10_000; i++) {
+            // "left" and "right" are frequent on one side only, "both" on both
+            boolean toLeft = i % 2 == 0;
+            Object key = i % 4 == 0 ? "both" : i % 4 == 1 ? "right" : i % 4 == 2 ? "left" : "cold-" + random.nextInt(500);
+            (toLeft ? left : right).add(key);
+            counts.merge(key, 1L, Long::sum);
+        }
+        long floors = left.floor() + right.floor();
+        left.merge(right);
+
+        assertEquals(10_000L, left.total());
+        assertTrue(left.floor() >= floors);
+        assertBounds(left, counts);
+        assertEquals("both", left.top(1).get(0).key());
+        List<Object> top = left.top(3).stream().map(SpaceSaving.Counter::key).toList();
+        assertTrue(top.containsAll(List.of("both", "left", "right")), top.toString());
+    }
+
+    /**
+     * Every counter covers its key's true count within its error, and no key left out was seen
+     * more often than the floor.
+     */
+    private static void assertBounds(SpaceSaving summary, Map<Object, Long> counts) {
+        List<SpaceSaving.Counter> counters = summary.top(summary.capacity());
+        for (SpaceSaving.Counter counter : counters) {
+            long actual = counts.get(counter.key());
+            assertTrue(counter.count() >= actual, counter + " undercounts " + actual);
+            assertTrue(counter.count() - counter.error() <= actual, counter + " overcounts " + actual + " beyond its error");
+        }
+        List<Object> monitored = counters.stream().map(SpaceSaving.Counter::key).toList();
+        counts.forEach((key, count) -> {
+            if (!monitored.contains(key)) assertTrue(count <= summary.floor(), key + " seen " + count + " times is missing");
+        });
+    }
+}
@@ -0,0 +1,214 @@
+package com.backend.WriteBehindBufferTest;
+
+import com.backend.config.CacheProperties;
+import com.backend.config.StorageProperties;
+import com.backend.config.WriteBehindProperties;
+import com.backend.service.cache.QueryResultCache;
+import com.backend.service.codec.RowCodec;
+import com.backend.service.ingest.WriteBehindBuffer;
+import com.backend.service.store.RecordStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+class WriteBehindBufferTest {
+
+    @TempDir
+    private Path directory;
+
+    @Mock
+    private RecordStore recordStore;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private WriteBehindProperties properties;
+
+    private WriteBehindBuffer buffer;
+
+    private AutoCloseable mocks;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mocks = MockitoAnnotations.openMocks(this);
+        properties = new WriteBehindProperties();
+        properties.setEnabled(true);
+        properties.setFlushInterval(Duration.ofHours(1));
+        properties.setMaxAttempts(2);
+        buffer = start(directory);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        buffer.shutdown();
+        mocks.close();
+    }
+
+    @Test
+    void testRowThatCannotBeStoredIsDeadLetteredWithoutHoldingBackOthers() throws Exception {
+        when(recordStore.saveAll(anyString(), any())).thenAnswer(invocation -> {
+            List<RowCodec.EncodedRow> rows = invocation.getArgument(1);
+            if (rows.stream().anyMatch(row -> row.json().contains("poison"))) {
+                throw new DataIntegrityViolationException("row too large");
+            }
+            return LongStream.range(0, rows.size()).mapToObj(i -> ids.incrementAndGet()).toList();
+        });
+        buffer.insert("orders", Map.of("item", "a"));
+        buffer.insert("orders", Map.of("item", "poison"));
+        buffer.insert("orders", Map.of("item", "b"));
+        buffer.insert("clicks", Map.of("page", "home"));
+
+        // the other dataset is stored, the failing one held for another attempt
+        assertEquals(1, buffer.flush());
+        assertEquals(0L, buffer.pendingRows("clicks"));
+        assertEquals(3L, buffer.pendingRows("orders"));
+
+        // new rows of the held dataset queue behind it, those of others keep going
+        buffer.insert("clicks", Map.of("page", "cart"));
+        assertEquals(4, buffer.flush());
+        assertEquals(0L, buffer.pendingRows("orders"));
+        assertEquals(0L, buffer.pendingRows("clicks"));
+        assertEquals(1L, buffer.stats().get("deadLetteredRows"));
+        List<String> deadLetters = Files.readAllLines(directory.resolve("dead-letter.ndjson"));
+        assertEquals(1, deadLetters.size());
+        assertTrue(deadLetters.get(0).contains("\"dataset\":\"orders\""));
+        assertTrue(deadLetters.get(0).contains("poison"));
+    }
+
+    @Test
+    void testTornLogEntryIsDroppedOnReplay() throws Exception {
+        buffer.insert("orders", Map.of("item", "a"));
+        buffer.insert("orders", Map.of("item", "b"));
+        buffer.insert("orders", Map.of("item", "c"));
+
+        // what a crash part way through writing the last entry leaves on disk
+        Path crashed = crashImage();
+        Path log = logFiles(crashed).get(0);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(log) - 1);
+        }
+
+        List<String> stored = storeItems();
+        WriteBehindBuffer replayed = start(crashed);
+        assertEquals(2L, replayed.pendingRows("orders"));
+        assertEquals(2, replayed.flush());
+        assertEquals(List.of("a", "b"), stored);
+
+        // the log goes on after the cut, without a gap in its sequence numbers
+        replayed.insert("orders", Map.of("item", "d"));
+        replayed.shutdown();
+        assertEquals(List.of("a", "b", "d"), stored);
+        WriteBehindBuffer restarted = start(crashed);
+        assertEquals(0L, restarted.pendingRows("orders"));
+        restarted.shutdown();
+    }
+
+    @Test
+    void testLogFileThatDoesNotContinueTheLogIsDiscardedWithTheRest() throws Exception {
+        buffer.shutdown();
+        // one entry per log file
+        properties.setSegmentSize(DataSize.ofBytes(1));
+        buffer = start(directory);
+        for (String item : List.of("a", "b", "c")) {
+            buffer.insert("orders", Map.of("item", item));
+        }
+
+        Path crashed = crashImage();
+        List<Path> logs = logFiles(crashed);
+        assertEquals(4, logs.size());
+        Files.delete(logs.get(1));
+
+        List<String> stored = storeItems();
+        WriteBehindBuffer replayed = start(crashed);
+        assertEquals(1L, replayed.pendingRows("orders"));
+        assertFalse(Files.exists(logs.get(2)));
+        assertEquals(1, replayed.flush());
+        assertEquals(List.of("a"), stored);
+        replayed.shutdown();
+    }
+
+    @Test
+    void testRowsAreKeptWhileTheStoreIsDown() throws Exception {
+        when(recordStore.saveAll(anyString(), any())).thenThrow(new DataAccessResourceFailureException("connection refused"));
+        buffer.insert("orders", Map.of("item", "a"));
+        buffer.insert("clicks", Map.of("page", "home"));
+
+        for (int i = 0; i < 5; i++) {
+            assertThrows(DataAccessResourceFailureException.class, buffer::flush);
+        }
+        assertEquals(1L, buffer.pendingRows("orders"));
+        assertEquals(1L, buffer.pendingRows("clicks"));
+        assertEquals(0L, buffer.stats().get("deadLetteredRows"));
+        assertFalse(Files.exists(directory.resolve("dead-letter.ndjson")));
+
+        doAnswer(invocation -> List.of(ids.incrementAndGet())).when(recordStore).saveAll(anyString(), any());
+        assertEquals(2, buffer.flush());
+        assertEquals(0L, buffer.pendingRows("orders"));
+    }
+
+    private WriteBehindBuffer start(Path logDirectory) throws Exception {
+        properties.setDirectory(logDirectory);
+        WriteBehindBuffer started = new WriteBehindBuffer(properties, recordStore, transactionManager, List.of(),
+                new RowCodec(new StorageProperties()), new QueryResultCache(new CacheProperties()));
+        started.start();
+        return started;
+    }
+
+    /**
+     * Has the store keep what it is given, and returns the items of the rows stored.
+     */
+    private List<String> storeItems() {
+        List<String> items = new ArrayList<>();
+        when(recordStore.saveAll(anyString(), any())).thenAnswer(invocation -> {
+            List<RowCodec.EncodedRow> rows = invocation.getArgument(1);
+            rows.forEach(row -> items.add(row.json().replaceAll(".*\"item\": ?\"|\".*", "")));
+            return LongStream.range(0, rows.size()).mapToObj(i -> ids.incrementAndGet()).toList();
+        });
+        return items;
+    }
+
+    private Path crashImage() throws IOException {
+        Path crashed = Files.createDirectory(directory.resolve("crashed"));
+        for (Path log : logFiles(directory)) {
+            Files.copy(log, crashed.resolve(log.getFileName()));
+        }
+        return crashed;
+    }
+
+    private static List<Path> logFiles(Path logDirectory) throws IOException {
+        try (Stream<Path> files = Files.list(logDirectory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".wal")).sorted().toList();
+        }
+    }
+}